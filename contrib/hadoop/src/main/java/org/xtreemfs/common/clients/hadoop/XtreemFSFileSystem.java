@@ -291,6 +291,17 @@ public class XtreemFSFileSystem extends FileSystem {
             }
         } else {
             clientType = ClientFactory.ClientType.JAVA;
+
+            // Cache read objects and prefetch sequentially read files if requested.
+            long objectCacheSize = conf.getLong("xtreemfs.objectCache.size", 0);
+            if (objectCacheSize > 0) {
+                xtreemfsOptions.setObjectCacheSize(objectCacheSize);
+            }
+
+            int readAheadObjects = conf.getInt("xtreemfs.readAhead.objects", -1);
+            if (readAheadObjects > -1) {
+                xtreemfsOptions.setReadAheadObjects(readAheadObjects);
+            }
         }
         
         // Initialize XtreemFS Client
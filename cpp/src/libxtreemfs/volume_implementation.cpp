@@ -433,6 +433,121 @@ FileHandle* VolumeImplementation::OpenFileWithTruncateSize(
   return file_handle;
 }
 
+void VolumeImplementation::OpenFiles(
+    const xtreemfs::pbrpc::UserCredentials& user_credentials,
+    const std::vector<std::string>& paths,
+    const xtreemfs::pbrpc::SYSTEM_V_FCNTL flags,
+    std::vector<FileHandle*>* file_handles,
+    std::vector<xtreemfs::pbrpc::POSIXErrno>* errors) {
+  if (flags & SYSTEM_V_FCNTL_H_O_CREAT) {
+    throw PosixErrorException(
+        POSIX_ERROR_EINVAL,
+        "O_CREAT is not supported when opening several files at once.");
+  }
+
+  bool async_writes_enabled = volume_options_.enable_async_writes &&
+      !(flags & SYSTEM_V_FCNTL_H_O_SYNC);
+
+  vector<FileHandleImplementation*> handles(paths.size(), NULL);
+  errors->assign(paths.size(), POSIX_ERROR_NONE);
+
+  xtreemfs_open_bulkRequest rq;
+  rq.set_volume_name(volume_name_);
+  for (size_t i = 0; i < paths.size(); i++) {
+    rq.add_paths(paths[i]);
+  }
+  rq.set_flags(flags);
+
+  // set vivaldi coordinates if vivaldi is enabled
+  if (volume_options_.vivaldi_enable) {
+    rq.mutable_coordinates()->CopyFrom(this->client_->GetVivaldiCoordinates());
+  }
+
+  boost::scoped_ptr<rpc::SyncCallbackBase> response(
+      ExecuteSyncRequest(
+          boost::bind(
+              &xtreemfs::pbrpc::MRCServiceClient::xtreemfs_open_bulk_sync,
+              mrc_service_client_.get(),
+              _1,
+              boost::cref(auth_bogus_),
+              boost::cref(user_credentials),
+              &rq),
+          mrc_uuid_iterator_.get(),
+          uuid_resolver_,
+          RPCOptionsFromOptions(volume_options_)));
+
+  xtreemfs_open_bulkResponse* open_response =
+      static_cast<xtreemfs_open_bulkResponse*>(response->response());
+
+  for (size_t i = 0; i < paths.size(); i++) {
+    if (i >= static_cast<size_t>(open_response->results_size()) ||
+        !open_response->results(i).has_creds()) {
+      (*errors)[i] = i < static_cast<size_t>(open_response->results_size()) &&
+          open_response->results(i).has_posix_errno() ?
+          static_cast<POSIXErrno>(open_response->results(i).posix_errno()) :
+          POSIX_ERROR_EIO;
+      continue;
+    }
+
+    const FileCredentials& creds = open_response->results(i).creds();
+    if (creds.xlocs().replicas_size() == 0) {
+      string error = "MRC assigned no OSDs to file on open: " + paths[i] +
+          ", xloc: " + creds.xlocs().DebugString();
+      Logging::log->getLog(LEVEL_ERROR) << error << endl;
+      ErrorLog::error_log->AppendError(error);
+      (*errors)[i] = POSIX_ERROR_EIO;
+      continue;
+    }
+
+    // Create a FileInfo object if it does not exist yet.
+    boost::mutex::scoped_lock lock(open_file_table_mutex_);
+
+    FileInfo* file_info = GetFileInfoOrCreateUnmutexed(
+        ExtractFileIdFromXCap(creds.xcap()),
+        paths[i],
+        creds.xcap().replicate_on_close(),
+        creds.xlocs());
+    handles[i] = file_info->CreateFileHandle(creds.xcap(),
+                                             async_writes_enabled);
+  }
+
+  // Copy timestamp and free response memory.
+  uint64_t timestamp_s = open_response->timestamp_s();
+  response->DeleteBuffers();
+
+  // If O_TRUNC was set, truncate the opened files.
+  if ((flags & SYSTEM_V_FCNTL_H_O_TRUNC)) {
+    for (size_t i = 0; i < handles.size(); i++) {
+      if (handles[i] == NULL) {
+        continue;
+      }
+
+      // Update mtime and ctime of the file if O_TRUNC was set.
+      metadata_cache_.UpdateStatTime(
+          paths[i],
+          timestamp_s,
+          static_cast<Setattrs>(SETATTR_CTIME | SETATTR_MTIME));
+
+      try {
+        handles[i]->TruncatePhaseTwoAndThree(0);
+      } catch(const PosixErrorException& e) {
+        // Truncate did fail, close file again.
+        handles[i]->Close();
+        handles[i] = NULL;
+        (*errors)[i] = e.posix_errno();
+      } catch(const XtreemFSException& e) {
+        handles[i]->Close();
+        handles[i] = NULL;
+        (*errors)[i] = POSIX_ERROR_EIO;
+        Logging::log->getLog(LEVEL_ERROR) << "failed to truncate "
+            << paths[i] << " on open: " << e.what() << endl;
+      }
+    }
+  }
+
+  file_handles->assign(handles.begin(), handles.end());
+}
+
 void VolumeImplementation::Truncate(
     const xtreemfs::pbrpc::UserCredentials& user_credentials,
     const std::string& path,
@@ -633,6 +748,94 @@ void VolumeImplementation::GetAttr(
   }
 }
 
+void VolumeImplementation::GetAttrs(
+    const xtreemfs::pbrpc::UserCredentials& user_credentials,
+    const std::vector<std::string>& paths,
+    std::vector<xtreemfs::pbrpc::Stat>* stats,
+    std::vector<xtreemfs::pbrpc::POSIXErrno>* errors) {
+  stats->assign(paths.size(), Stat());
+  errors->assign(paths.size(), POSIX_ERROR_NONE);
+
+  // Only retrieve the entries from the MRC which are not cached.
+  xtreemfs_getattr_bulkRequest rq;
+  rq.set_volume_name(volume_name_);
+  vector<size_t> requested;
+  for (size_t i = 0; i < paths.size(); i++) {
+    MetadataCache::GetStatResult stat_cached =
+        metadata_cache_.GetStat(paths[i], &(*stats)[i]);
+    if (stat_cached == MetadataCache::kStatCached) {
+      continue;
+    } else if (stat_cached == MetadataCache::kPathDoesntExist) {
+      (*errors)[i] = POSIX_ERROR_ENOENT;
+      continue;
+    }
+    rq.add_paths(paths[i]);
+    requested.push_back(i);
+  }
+
+  if (!requested.empty()) {
+    boost::scoped_ptr<rpc::SyncCallbackBase> response(
+        ExecuteSyncRequest(
+            boost::bind(
+                &xtreemfs::pbrpc::MRCServiceClient::xtreemfs_getattr_bulk_sync,
+                mrc_service_client_.get(),
+                _1,
+                boost::cref(auth_bogus_),
+                boost::cref(user_credentials),
+                &rq),
+            mrc_uuid_iterator_.get(),
+            uuid_resolver_,
+            RPCOptionsFromOptions(volume_options_)));
+    xtreemfs_getattr_bulkResponse* getattr =
+        static_cast<xtreemfs_getattr_bulkResponse*>(response->response());
+
+    for (size_t j = 0; j < requested.size(); j++) {
+      const size_t i = requested[j];
+      if (j >= static_cast<size_t>(getattr->results_size()) ||
+          !getattr->results(j).has_stbuf()) {
+        (*errors)[i] = j < static_cast<size_t>(getattr->results_size()) &&
+            getattr->results(j).has_posix_errno() ?
+            static_cast<POSIXErrno>(getattr->results(j).posix_errno()) :
+            POSIX_ERROR_EIO;
+        continue;
+      }
+
+      (*stats)[i].CopyFrom(getattr->results(j).stbuf());
+      if ((*stats)[i].nlink() > 1) {  // Do not cache hard links.
+        metadata_cache_.Invalidate(paths[i]);
+      } else {
+        metadata_cache_.UpdateStat(paths[i], (*stats)[i]);
+      }
+    }
+
+    response->DeleteBuffers();
+  }
+
+  // Open files may have pending file size updates. Let GetAttr() merge them,
+  // which serves the attributes from the cache.
+  for (size_t i = 0; i < paths.size(); i++) {
+    if ((*errors)[i] != POSIX_ERROR_NONE) {
+      continue;
+    }
+
+    bool is_open;
+    {
+      boost::mutex::scoped_lock lock(open_file_table_mutex_);
+      is_open = open_file_table_.find((*stats)[i].ino())  // ino = file_id.
+          != open_file_table_.end();
+    }
+
+    if (is_open) {
+      try {
+        GetAttr(user_credentials, paths[i], false, &(*stats)[i], NULL);
+      } catch(const PosixErrorException& e) {
+        (*stats)[i].Clear();
+        (*errors)[i] = e.posix_errno();
+      }
+    }
+  }
+}
+
 void VolumeImplementation::SetAttr(
     const xtreemfs::pbrpc::UserCredentials& user_credentials,
     const std::string& path,
@@ -987,6 +1190,16 @@ xtreemfs::pbrpc::DirectoryEntries* VolumeImplementation::ReadDir(
     DirectoryEntries* dentries = static_cast<DirectoryEntries*>(
         response->response());
 
+    // Continue the next chunk at the cursor returned by the MRC, which saves
+    // it from skipping all preceding entries. Older MRCs return no cursor.
+    if (dentries->has_resume_cursor()) {
+      rq.set_resume_cursor(dentries->resume_cursor());
+    } else {
+      rq.clear_resume_cursor();
+    }
+    bool last_chunk = static_cast<uint32_t>(dentries->entries_size()) <
+        rq.limit_directory_entries_count();
+
     // Process request and free memory.
     if (current_offset == offset) {
       // First chunk
@@ -1004,11 +1217,11 @@ xtreemfs::pbrpc::DirectoryEntries* VolumeImplementation::ReadDir(
     }
 
     // Break if this is the last chunk.
-    if (result->entries_size() <
-        (current_offset + volume_options_.readdir_chunk_size)) {
+    if (last_chunk) {
       break;
     }
   }
+  result->clear_resume_cursor();
 
   // TODO(mberlin): Merge possible pending file size updates of files into
   //                the stat entries of listed files.
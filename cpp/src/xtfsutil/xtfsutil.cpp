@@ -735,6 +735,8 @@ bool SetDefaultRP(const string& xctl_file,
     request["update-policy"] = "WqRq";
   } else if (policy == "WAR1" || policy == "ALL") {
     request["update-policy"] = "WaR1";
+  } else if (policy == "CHAIN") {
+    request["update-policy"] = "Chain";
   } else if (policy == "NONE") {
     request["update-policy"] = "";
   } else {
@@ -795,6 +797,8 @@ bool SetReplicationPolicy(const string& xctl_file,
     request["policy"] = "WqRq";
   } else if (policy_uppercase == "WAR1" || policy_uppercase == "ALL") {
     request["policy"] = "WaR1";
+  } else if (policy_uppercase == "CHAIN") {
+    request["policy"] = "Chain";
   } else if (policy_uppercase == "NONE") {
     request["policy"] = "";
   } else {
@@ -1361,15 +1365,15 @@ int main(int argc, char **argv) {
        "stripe size in kB (object size)")
       ("set-drp", "set (change) the default replication policy (volume)")
       ("replication-policy", value<string>(),
-       "RONLY, WqRq, WaR1 or NONE to disable replication. The aliases"
+       "RONLY, WqRq, WaR1, Chain or NONE to disable replication. The aliases"
        " 'readonly', 'quorum' and 'all' are also allowed.")
       ("replication-factor", value<int>(),
        "number of replicas to create for a file")
       ("full", "full replica (readonly replication only, only allowed if"
                " --set-drp or --add-replica is set)")
       ("set-replication-policy,r", value<string>(),
-       "set (change) the replication policy for a file: RONLY, WqRq, WaR1 or"
-       " NONE to disable replication. The aliases"
+       "set (change) the replication policy for a file: RONLY, WqRq, WaR1,"
+       " Chain or NONE to disable replication. The aliases"
        " 'readonly', 'quorum' and 'all' are also allowed.")
       ("add-replica,a", value(&option_add_replica)->implicit_value("AUTO"),
        "adds a new replica on the osd with the given UUID or AUTO "
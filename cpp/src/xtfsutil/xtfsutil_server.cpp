@@ -417,9 +417,10 @@ void XtfsUtilServer::OpSetReplicationPolicy(
   if (policy_name != "ronly"
       && policy_name != "WqRq"
       && policy_name != "WaR1"
+      && policy_name != "Chain"
       && policy_name != "") {
     (*output)["error"] = Json::Value("Policy must be one of the following: "
-                                     "<empty string>, ronly, WaR1, WqRq");
+                                     "<empty string>, ronly, WaR1, WqRq, Chain");
     return;
   }
 
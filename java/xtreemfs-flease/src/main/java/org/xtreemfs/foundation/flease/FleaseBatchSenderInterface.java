@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+
+/**
+ * A sender that is able to transfer the messages of several cells to the same
+ * recipient at once. If the sender passed to the {@link FleaseStage}
+ * implements this interface, the stage collects the messages it sends to each
+ * recipient while processing a batch of requests and timers, and passes them
+ * on in a single call per recipient.
+ */
+public interface FleaseBatchSenderInterface extends FleaseMessageSenderInterface {
+
+    /**
+     * Sends several messages to the same recipient.
+     *
+     * @param messages
+     *            the messages, in the order they were sent by the stage
+     * @param recipient
+     *            the recipient
+     */
+    public void sendMessages(List<FleaseMessage> messages, InetSocketAddress recipient);
+
+}
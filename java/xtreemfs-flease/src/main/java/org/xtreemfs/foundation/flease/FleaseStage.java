@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +71,25 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
 
     public static final int MAX_BATCH_SIZE = 20;
 
+    /**
+     * Maximum number of messages that are collected for a recipient before
+     * they are sent, if the sender supports batches.
+     */
+    public static final int MAX_MESSAGES_PER_BATCH = 256;
+
+    /**
+     * Renewals are scheduled at multiples of this interval, so that the
+     * renewals of cells with similar lease timeouts are sent together.
+     */
+    public static final int RENEW_COALESCING_INTERVAL_MS = 500;
+
+    /**
+     * messages to send per recipient, if the sender supports batches
+     */
+    private final Map<InetSocketAddress, List<FleaseMessage>> outgoing;
+
+    private int                                               numOutgoing;
+
     private final FleaseStatusListener leaseListener;
 
     private final AtomicReference<List<Integer>> durRequests, durMsgs, durTimers;
@@ -110,7 +130,7 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
         proposer = new FleaseProposer(config, acceptor, new FleaseCommunicationInterface() {
 
             public void sendMessage(FleaseMessage msg, InetSocketAddress receiver) throws IOException {
-                sender.sendMessage(msg, receiver);
+                send(msg, receiver);
             }
 
             public void requestTimer(FleaseMessage msg, long timestamp) {
@@ -120,6 +140,11 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
         acceptor.setViewChangeListener(viewListener);
         proposer.setViewChangeListener(viewListener);
         this.sender = sender;
+        if (sender instanceof FleaseBatchSenderInterface) {
+            this.outgoing = new HashMap<InetSocketAddress, List<FleaseMessage>>();
+        } else {
+            this.outgoing = null;
+        }
 
         leaseTimeouts = new PriorityQueue<Flease>(1000, new Comparator<Flease>() {
 
@@ -356,6 +381,7 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
                     lastTimerRun = TimeSync.getLocalSystemTime();
                 }
                 if (tmp == null) {
+                    flushOutgoing();
                     continue;
                 }
 
@@ -416,7 +442,7 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
                                         meHandler.storeMasterEpoch(response, cont);
                                     }
                                 } else {
-                                    sender.sendMessage(response, msg.getSender());
+                                    send(response, msg.getSender());
                                 }
                             }
                         } else {
@@ -482,6 +508,12 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
                     }
                     
                 }
+
+                // wait for further messages to the same recipients, unless
+                // there is nothing left to process
+                if (messages.isEmpty() || numOutgoing >= MAX_MESSAGES_PER_BATCH)
+                    flushOutgoing();
+
                 if (DISABLE_RENEW_FOR_TESTING) {
                     Thread.sleep(0, 2);
                 }
@@ -583,6 +615,37 @@ public class FleaseStage extends LifeCycleThread implements LearnEventListener,
         }
     }
 
+    /**
+     * Sends a message, or adds it to the batch of its recipient if the sender
+     * supports batches. Must only be called by the stage thread.
+     */
+    private void send(FleaseMessage msg, InetSocketAddress recipient) {
+        if (outgoing == null) {
+            sender.sendMessage(msg, recipient);
+            return;
+        }
+
+        List<FleaseMessage> batch = outgoing.get(recipient);
+        if (batch == null) {
+            batch = new ArrayList<FleaseMessage>();
+            outgoing.put(recipient, batch);
+        }
+        // the proposer may modify the message before the batch is sent
+        batch.add(new FleaseMessage(msg));
+        numOutgoing++;
+    }
+
+    private void flushOutgoing() {
+        if (numOutgoing == 0)
+            return;
+
+        for (Map.Entry<InetSocketAddress, List<FleaseMessage>> e : outgoing.entrySet()) {
+            ((FleaseBatchSenderInterface) sender).sendMessages(e.getValue(), e.getKey());
+        }
+        outgoing.clear();
+        numOutgoing = 0;
+    }
+
     protected void createTimer(FleaseMessage msg, long timestamp) {
         msg.validateMessage();
         TimerEntry e = new TimerEntry(timestamp, msg);
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.foundation.flease;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * Stores the master epochs of many cells in an append-only journal, instead of
+ * one file per cell. All epochs are kept in memory; {@link #put} only appends
+ * a record to the journal, and {@link #commit} writes all records appended
+ * since the last commit to stable storage with a single sync. Thus, the
+ * epochs of many cells can be stored at the cost of one sync (group commit).
+ * <p>
+ * Once the journal has grown large compared to the number of cells, it is
+ * compacted into a snapshot that contains one record per cell, and a new
+ * journal is started.
+ * <p>
+ * If a commit fails, all records appended since the last commit are discarded,
+ * so that {@link #get} never returns an epoch that has not been committed
+ * after a failed commit.
+ * <p>
+ * The journal is not thread-safe, except for {@link #get}.
+ */
+public class MasterEpochJournal {
+
+    /**
+     * Minimum number of journal records before the journal is compacted.
+     */
+    public static final int         MIN_COMPACTION_RECORDS = 10000;
+
+    private static final String     JOURNAL_SUFFIX         = ".journal";
+
+    private static final String     SNAPSHOT_SUFFIX        = ".snapshot";
+
+    /**
+     * Upper bound for the length of a key, to detect corrupt records.
+     */
+    private static final int        MAX_KEY_LENGTH         = 4096;
+
+    private final File              journalFile;
+
+    private final File              snapshotFile;
+
+    private final Map<String, Long> epochs;
+
+    /**
+     * cell -> epoch at the last commit, or <code>null</code> if none had been
+     * stored; contains all cells whose epochs have been appended since then
+     */
+    private final Map<String, Long> committedEpochs;
+
+    private FileOutputStream        journalStream;
+
+    private DataOutputStream        journalOut;
+
+    private int                     numJournalRecords;
+
+    private int                     numCommittedRecords;
+
+    /**
+     * length of the journal at the last commit
+     */
+    private long                    committedLength;
+
+    private boolean                 uncommitted;
+
+    /**
+     * @param directory
+     *            the directory to store the journal and the snapshot in
+     * @param name
+     *            the name of the journal and snapshot files, without suffix
+     */
+    public MasterEpochJournal(File directory, String name) {
+        this.journalFile = new File(directory, name + JOURNAL_SUFFIX);
+        this.snapshotFile = new File(directory, name + SNAPSHOT_SUFFIX);
+        this.epochs = new ConcurrentHashMap<String, Long>();
+        this.committedEpochs = new HashMap<String, Long>();
+    }
+
+    /**
+     * Loads the snapshot and the journal, and opens the journal for appending.
+     * An incomplete record at the end of the journal, e.g. after a crash while
+     * appending, is discarded.
+     */
+    public void open() throws IOException {
+        if (snapshotFile.exists()) {
+            long validLength = load(snapshotFile);
+            if (validLength < snapshotFile.length())
+                throw new IOException("master epoch snapshot is corrupt: " + snapshotFile);
+        }
+
+        numJournalRecords = 0;
+        if (journalFile.exists()) {
+            long validLength = load(journalFile);
+            if (validLength < journalFile.length()) {
+                Logging.logMessage(Logging.LEVEL_WARN, Category.flease, this,
+                        "discarding %d bytes of incomplete records at the end of %s", journalFile.length()
+                                - validLength, journalFile);
+                RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+                try {
+                    raf.setLength(validLength);
+                    raf.getFD().sync();
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+
+        openJournal(true);
+    }
+
+    /**
+     * @return the master epoch of the given cell, or <code>null</code> if none
+     *         has been stored
+     */
+    public Long get(String key) {
+        return epochs.get(key);
+    }
+
+    /**
+     * Appends the master epoch of a cell to the journal. The epoch is only
+     * guaranteed to be on stable storage once {@link #commit} has returned.
+     */
+    public void put(String key, long epoch) throws IOException {
+        if (journalOut == null)
+            throw new IOException("master epoch journal is not available: " + journalFile);
+
+        writeRecord(journalOut, key, epoch);
+        if (!committedEpochs.containsKey(key))
+            committedEpochs.put(key, epochs.get(key));
+        epochs.put(key, epoch);
+        numJournalRecords++;
+        uncommitted = true;
+    }
+
+    /**
+     * @return <code>true</code>, if records have been appended since the last
+     *         commit
+     */
+    public boolean hasUncommittedRecords() {
+        return uncommitted;
+    }
+
+    /**
+     * Writes all records appended since the last commit to stable storage, and
+     * compacts the journal if necessary. If the records cannot be written, they
+     * are discarded, i.e. the epochs of the last commit are restored.
+     */
+    public void commit() throws IOException {
+        if (!uncommitted)
+            return;
+
+        try {
+            journalOut.flush();
+            journalStream.getFD().sync();
+        } catch (IOException ex) {
+            rollback();
+            throw ex;
+        }
+        committedLength = journalFile.length();
+        numCommittedRecords = numJournalRecords;
+        committedEpochs.clear();
+        uncommitted = false;
+
+        if (numJournalRecords > Math.max(MIN_COMPACTION_RECORDS, 2 * epochs.size()))
+            compact();
+    }
+
+    /**
+     * Writes a snapshot of all epochs and starts a new, empty journal.
+     */
+    public void compact() throws IOException {
+        commit();
+
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            for (Map.Entry<String, Long> e : epochs.entrySet())
+                writeRecord(out, e.getKey(), e.getValue());
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmpFile.renameTo(snapshotFile))
+            throw new IOException("cannot replace master epoch snapshot " + snapshotFile);
+
+        // the old journal only contains epochs that are part of the snapshot
+        journalOut.close();
+        openJournal(false);
+        numJournalRecords = 0;
+        numCommittedRecords = 0;
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.flease, this,
+                    "compacted master epoch journal, %d cells", epochs.size());
+    }
+
+    public int getNumEpochs() {
+        return epochs.size();
+    }
+
+    public int getNumJournalRecords() {
+        return numJournalRecords;
+    }
+
+    public void close() throws IOException {
+        if (journalOut == null)
+            return;
+        try {
+            commit();
+        } finally {
+            journalOut.close();
+        }
+    }
+
+    private void openJournal(boolean append) throws IOException {
+        journalStream = new FileOutputStream(journalFile, append);
+        journalOut = new DataOutputStream(new BufferedOutputStream(journalStream));
+        if (!append)
+            journalStream.getFD().sync();
+        committedLength = journalFile.length();
+        numCommittedRecords = numJournalRecords;
+    }
+
+    /**
+     * Restores the epochs of the last commit and truncates the journal to its
+     * length at the last commit. If the journal cannot be truncated, it is
+     * closed, and all further records are rejected.
+     */
+    private void rollback() {
+        for (Map.Entry<String, Long> e : committedEpochs.entrySet()) {
+            if (e.getValue() == null)
+                epochs.remove(e.getKey());
+            else
+                epochs.put(e.getKey(), e.getValue());
+        }
+        committedEpochs.clear();
+        numJournalRecords = numCommittedRecords;
+        uncommitted = false;
+
+        try {
+            try {
+                journalStream.close();
+            } catch (IOException ex) {
+                // the stream is discarded anyway
+            }
+            journalOut = null;
+
+            RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+            try {
+                raf.setLength(committedLength);
+            } finally {
+                raf.close();
+            }
+            openJournal(true);
+        } catch (IOException ex) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.flease, this,
+                    "cannot discard uncommitted records of %s: %s", journalFile, ex.toString());
+        }
+    }
+
+    /**
+     * Reads all valid records from a file into the map of epochs.
+     *
+     * @return the length of the valid part of the file
+     */
+    private long load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long validLength = 0;
+        try {
+            while (true) {
+                int keyLength = in.readInt();
+                if (keyLength < 0 || keyLength > MAX_KEY_LENGTH)
+                    break;
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                long epoch = in.readLong();
+                int checksum = in.readInt();
+                if (checksum != checksum(key, epoch))
+                    break;
+
+                epochs.put(new String(key, "UTF-8"), epoch);
+                if (file == journalFile)
+                    numJournalRecords++;
+                validLength += 4 + keyLength + 8 + 4;
+            }
+        } catch (EOFException ex) {
+            // end of file or incomplete record
+        } finally {
+            in.close();
+        }
+        return validLength;
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, long epoch) throws IOException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeLong(epoch);
+        out.writeInt(checksum(keyBytes, epoch));
+    }
+
+    private static int checksum(byte[] key, long epoch) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        for (int i = 56; i >= 0; i -= 8)
+            crc.update((int) (epoch >>> i));
+        return (int) crc.getValue();
+    }
+
+}
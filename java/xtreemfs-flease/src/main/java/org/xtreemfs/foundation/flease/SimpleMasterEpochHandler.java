@@ -7,10 +7,12 @@
 package org.xtreemfs.foundation.flease;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
-import org.xtreemfs.foundation.LRUCache;
+
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.buffer.ASCIIString;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
@@ -21,89 +23,112 @@ import org.xtreemfs.foundation.logging.Logging;
  * @author bjko
  */
 public class SimpleMasterEpochHandler extends LifeCycleThread implements MasterEpochHandlerInterface {
-    public static final int MAX_EPOCH_CACHE_SIZE = 10000;
+
+    /**
+     * Maximum number of requests that are processed with a single sync.
+     */
+    public static final int MAX_GROUP_COMMIT_SIZE = 1000;
+
+    public static final String JOURNAL_NAME = "mepoch";
 
 
     private final LinkedBlockingQueue<Request> requests;
 
-    private final LRUCache<ASCIIString,Long>   epochs;
+    private final MasterEpochJournal           journal;
 
     private final String                       directory;
 
     public SimpleMasterEpochHandler(String directory) {
         super("SimpleMEHandler");
         requests = new LinkedBlockingQueue<Request>();
-        epochs = new LRUCache<ASCIIString, Long>(MAX_EPOCH_CACHE_SIZE);
+        journal = new MasterEpochJournal(new File(directory), JOURNAL_NAME);
         this.directory = directory;
     }
 
     @Override
     public void run() {
         try {
+            journal.open();
             notifyStarted();
+
+            List<Request> batch = new ArrayList<Request>();
             do {
-                Request rq = requests.take();
-
-                switch (rq.type) {
-                    case SEND: {
-                        try {
-                            Long epoch = epochs.get(rq.message.getCellId());
-                            if (epoch == null) {
-
-                                File f = new File(getFileName(rq.message.getCellId()));
-                                if (f.exists()) {
-                                    RandomAccessFile raf = new RandomAccessFile(f, "r");
-                                    epoch = raf.readLong();
-                                    raf.close();
-                                } else {
-                                    epoch = 0l;
-                                }
-                                epochs.put(rq.message.getCellId(),epoch);
-                            Logging.logMessage(Logging.LEVEL_DEBUG, Logging.Category.all, this, "sent %d", epoch);
-                            }
-                            rq.message.setMasterEpochNumber(epoch);
-                        } catch (Exception ex) {
-                            rq.message.setMasterEpochNumber(-1);
-                        } finally {
+                batch.add(requests.take());
+                requests.drainTo(batch, MAX_GROUP_COMMIT_SIZE - 1);
+
+                for (Request rq : batch) {
+                    switch (rq.type) {
+                        case SEND: {
                             try {
-                                rq.callback.processingFinished();
+                                rq.message.setMasterEpochNumber(getEpoch(rq.message.getCellId()));
                             } catch (Exception ex) {
-                                Logging.logError(Logging.LEVEL_ERROR, this, ex);
+                                rq.message.setMasterEpochNumber(-1);
                             }
+                            break;
                         }
-                        break;
-                    }
-                    case STORE: {
-                        try {
-                            File f = new File(getFileName(rq.message.getCellId()));
-                            RandomAccessFile raf = new RandomAccessFile(f, "rw");
-                            raf.writeLong(rq.message.getMasterEpochNumber());
-                            raf.getFD().sync();
-                            raf.close();
-                        Logging.logMessage(Logging.LEVEL_DEBUG, Logging.Category.all, this, "stored %d",
-                                rq.message.getMasterEpochNumber());
-                            epochs.put(rq.message.getCellId(),rq.message.getMasterEpochNumber());
-                        } catch (Exception ex) {
-                            ex.printStackTrace();
-                        } finally {
+                        case STORE: {
                             try {
-                                rq.callback.processingFinished();
+                                journal.put(rq.message.getCellId().toString(), rq.message.getMasterEpochNumber());
+                                Logging.logMessage(Logging.LEVEL_DEBUG, Logging.Category.all, this, "stored %d",
+                                        rq.message.getMasterEpochNumber());
                             } catch (Exception ex) {
                                 Logging.logError(Logging.LEVEL_ERROR, this, ex);
                             }
+                            break;
                         }
-                        break;
                     }
                 }
 
+                // all epochs stored by the batch are written with a single
+                // sync before any response is sent
+                try {
+                    journal.commit();
+                } catch (Exception ex) {
+                    Logging.logError(Logging.LEVEL_ERROR, this, ex);
+                }
+
+                for (Request rq : batch) {
+                    try {
+                        rq.callback.processingFinished();
+                    } catch (Exception ex) {
+                        Logging.logError(Logging.LEVEL_ERROR, this, ex);
+                    }
+                }
+                batch.clear();
+
             } while (!interrupted());
         } catch (InterruptedException ex) {
         } catch (Throwable ex) {
             notifyCrashed(ex);
         }
+        try {
+            journal.close();
+        } catch (Exception ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
         notifyStopped();
     }
 
+    /**
+     * Returns the epoch of a cell from the journal, or from the file the epoch
+     * was stored in by earlier versions.
+     */
+    private long getEpoch(ASCIIString cellId) throws IOException {
+        Long epoch = journal.get(cellId.toString());
+        if (epoch != null)
+            return epoch;
+
+        File f = new File(getFileName(cellId));
+        if (!f.exists())
+            return 0;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
     private String getFileName(ASCIIString cellId) {
         return directory + cellId.toString() + ".me";
     }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.foundation.flease.comm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+
+/**
+ * Wire format for several flease messages that are transferred together. The
+ * messages are serialized back to back; the number of messages has to be
+ * transferred separately.
+ */
+public final class FleaseMessageBatch {
+
+    private FleaseMessageBatch() {
+    }
+
+    /**
+     * @return the number of bytes required to serialize the messages
+     */
+    public static int getSize(List<FleaseMessage> messages) {
+        int size = 0;
+        for (FleaseMessage msg : messages)
+            size += msg.getSize();
+        return size;
+    }
+
+    public static void serialize(List<FleaseMessage> messages, ReusableBuffer buffer) {
+        for (FleaseMessage msg : messages)
+            msg.serialize(buffer);
+    }
+
+    /**
+     * Reads the given number of messages from the buffer.
+     */
+    public static List<FleaseMessage> deserialize(ReusableBuffer buffer, int numMessages) {
+        List<FleaseMessage> messages = new ArrayList<FleaseMessage>(numMessages);
+        for (int i = 0; i < numMessages; i++)
+            messages.add(new FleaseMessage(buffer));
+        return messages;
+    }
+
+}
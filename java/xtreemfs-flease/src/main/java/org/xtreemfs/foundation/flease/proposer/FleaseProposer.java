@@ -1069,8 +1069,14 @@ public class FleaseProposer {
                 && cell.getMessageSent().getLeaseHolder().equals(config.getIdentity())) {
                 //renew after half of the time
                 //FIXE: could be relaxed
-                final long renewTime =
+                long renewTime =
                         cell.getMessageSent().getLeaseTimeout() - config.getRoundTimeout() * 4;
+                // align the renewal with those of other cells, so that their
+                // messages can be sent together
+                final long alignedRenewTime = renewTime - renewTime % FleaseStage.RENEW_COALESCING_INTERVAL_MS;
+                if (TimeSync.getGlobalTime() < alignedRenewTime) {
+                    renewTime = alignedRenewTime;
+                }
                 if (TimeSync.getGlobalTime() < renewTime) {
                     cell.addAction(ActionName.PROPOSER_SCHEDULED_RENEW);
                     final FleaseMessage timer = new FleaseMessage(MsgType.EVENT_RENEW);
@@ -10,8 +10,10 @@ package org.xtreemfs.foundation.flease.sim;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.flease.FleaseStage;
@@ -78,6 +80,16 @@ public class Communicator extends LifeCycleThread {
      */
     private boolean halfLink;
 
+    /**
+     * source of random numbers for packet loss and delay
+     */
+    private final Random random;
+
+    /**
+     * number of messages delivered to and lost on the way to the recipients
+     */
+    private final AtomicLong numDelivered, numLost;
+
     /**
      * Creates a new instance of UDPSim
      * @param pkgLossPct packet loss in percent
@@ -93,9 +105,24 @@ public class Communicator extends LifeCycleThread {
     public Communicator(int pkgLossPct, int minDelay, int maxDelay, int pctDelay,
                   boolean halfLink, double pHostUnavail, double pHostRecovery,
             boolean debug) {
+        this(pkgLossPct, minDelay, maxDelay, pctDelay, halfLink, pHostUnavail, pHostRecovery, debug, new Random());
+    }
+
+    /**
+     * Creates a new instance of UDPSim, which decides about packet loss and
+     * delay based on the given source of random numbers.
+     * @param random source of random numbers, e.g. with a fixed seed for repeatable runs
+     */
+    public Communicator(int pkgLossPct, int minDelay, int maxDelay, int pctDelay,
+                  boolean halfLink, double pHostUnavail, double pHostRecovery,
+            boolean debug, Random random) {
 
         super("UDP-Sim");
 
+        this.random = random;
+        this.numDelivered = new AtomicLong();
+        this.numLost = new AtomicLong();
+
         this.ports = new ConcurrentHashMap();
         this.blockedPorts = new ConcurrentHashMap();
         this.pkgLossPct = pkgLossPct;
@@ -211,11 +238,13 @@ public class Communicator extends LifeCycleThread {
                             //p.msg.setSender(new InetSocketAddress(ia, p.recipientPort));
                             try {
                                 rec.receiveMessage(p.msg);
+                                numDelivered.incrementAndGet();
                             } catch (IllegalStateException e) {
                                 //just drop it
                             }
                         }
                     } else {
+                        numLost.incrementAndGet();
                         if (debug)
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.flease, this,
                                     "msg lost " + p.recipientPort + " -> " + p.msg.getSender().getPort());
@@ -224,7 +253,8 @@ public class Communicator extends LifeCycleThread {
 
 
                 } catch (InterruptedException ex) {
-                    Logging.logError(Logging.LEVEL_ERROR,this,ex);
+                    if (!quit)
+                        Logging.logError(Logging.LEVEL_ERROR,this,ex);
                 }
             }
 
@@ -240,12 +270,26 @@ public class Communicator extends LifeCycleThread {
      * @return true, if the packet is to be dropped
      */
     private boolean dropPacket() {
-        int rv = (int)(Math.random()*100.0);
+        int rv = random.nextInt(100);
         return (rv < this.pkgLossPct);
     }
 
 
 
+    /**
+     * @return the number of messages delivered to their recipients
+     */
+    public long getNumDelivered() {
+        return numDelivered.get();
+    }
+
+    /**
+     * @return the number of messages lost due to the simulated packet loss
+     */
+    public long getNumLost() {
+        return numLost.get();
+    }
+
     /**
      * singleton
      * @return null, if not initialized, the instance otherwise
@@ -278,9 +322,9 @@ public class Communicator extends LifeCycleThread {
     private int delayPacket() {
         if (pctDelay == 0)
             return 0;
-        int rv = (int)(Math.random()*100.0);
+        int rv = random.nextInt(100);
         if (rv < this.pctDelay) {
-            return (int)(Math.random()*((double)maxDelay-minDelay))+minDelay;
+            return (int)(random.nextDouble()*((double)maxDelay-minDelay))+minDelay;
         } else {
             return 0;
         }
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease.sim;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.LifeCycleListener;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.buffer.ASCIIString;
+import org.xtreemfs.foundation.flease.Flease;
+import org.xtreemfs.foundation.flease.FleaseBatchSenderInterface;
+import org.xtreemfs.foundation.flease.FleaseConfig;
+import org.xtreemfs.foundation.flease.FleaseMessageSenderInterface;
+import org.xtreemfs.foundation.flease.FleaseStage;
+import org.xtreemfs.foundation.flease.FleaseStatusListener;
+import org.xtreemfs.foundation.flease.FleaseViewChangeListenerInterface;
+import org.xtreemfs.foundation.flease.MasterEpochHandlerInterface;
+import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+import org.xtreemfs.foundation.flease.proposer.FleaseException;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.util.CLOption;
+import org.xtreemfs.foundation.util.CLOptionParser;
+import org.xtreemfs.foundation.util.LatencyHistogram;
+
+/**
+ * Benchmark for the lease path. Runs several {@link FleaseStage}s in one
+ * process, connected by a simulated network ({@link Communicator}) with
+ * configurable message loss and delay. All cells are opened at once when the
+ * benchmark starts, as after an OSD restart; afterwards, the leases are
+ * renewed until the benchmark ends.
+ * <p>
+ * The report contains the percentiles of the time it takes a proposer to
+ * learn the lease of a cell, the number of messages and of sender calls
+ * (frames) per second, and the CPU time used by each flease stage thread.
+ * Runs with the same parameters and seed see the same sequence of loss and
+ * delay decisions.
+ */
+public class FleaseBench {
+
+    private static final int BASE_PORT = 1024;
+
+    private final int        numHosts;
+
+    private final int        numCells;
+
+    private final int        proposersPerCell;
+
+    private final int        lossPct;
+
+    private final int        delayPct;
+
+    private final int        minDelay;
+
+    private final int        maxDelay;
+
+    private final int        leaseTimeout;
+
+    private final int        durationMs;
+
+    private final boolean    batching;
+
+    private final boolean    masterEpochs;
+
+    private final long       seed;
+
+    private final String     lockfileDir;
+
+    public FleaseBench(int numHosts, int numCells, int proposersPerCell, int lossPct, int delayPct, int minDelay,
+            int maxDelay, int leaseTimeout, int durationMs, boolean batching, boolean masterEpochs, long seed,
+            String lockfileDir) {
+        if (numHosts < 2)
+            throw new IllegalArgumentException("at least two hosts are required");
+        if (proposersPerCell < 1 || proposersPerCell > numHosts)
+            throw new IllegalArgumentException("proposers per cell must be between 1 and the number of hosts");
+        this.numHosts = numHosts;
+        this.numCells = numCells;
+        this.proposersPerCell = proposersPerCell;
+        this.lossPct = lossPct;
+        this.delayPct = delayPct;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.leaseTimeout = leaseTimeout;
+        this.durationMs = durationMs;
+        this.batching = batching;
+        this.masterEpochs = masterEpochs;
+        this.seed = seed;
+        this.lockfileDir = lockfileDir;
+    }
+
+    /**
+     * Runs the benchmark.
+     */
+    public Report run() throws Exception {
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final boolean cpuTime = threadBean.isThreadCpuTimeSupported();
+        if (cpuTime)
+            threadBean.setThreadCpuTimeEnabled(true);
+
+        final Communicator com = new Communicator(lossPct, minDelay, maxDelay, delayPct, false, 0, 0, false,
+                new Random(seed));
+        com.start();
+        com.waitForStartup();
+
+        final Report report = new Report(numHosts);
+        final FleaseStage[] stages = new FleaseStage[numHosts];
+        final List<InetSocketAddress> allPorts = new ArrayList<InetSocketAddress>(numHosts);
+
+        // host -> (cell -> time the cell was opened)
+        final List<Map<ASCIIString, Long>> pendingOpens = new ArrayList<Map<ASCIIString, Long>>(numHosts);
+
+        for (int i = 0; i < numHosts; i++) {
+            final int portNo = BASE_PORT + i;
+            final InetSocketAddress address = new InetSocketAddress("localhost", portNo);
+            final Map<ASCIIString, Long> opens = new ConcurrentHashMap<ASCIIString, Long>();
+            pendingOpens.add(opens);
+            allPorts.add(address);
+
+            FleaseConfig cfg = new FleaseConfig(leaseTimeout, 500, 500, address, "localhost:" + portNo, 5);
+
+            MasterEpochHandlerInterface meHandler = null;
+            if (masterEpochs) {
+                final Map<ASCIIString, Long> epochs = new ConcurrentHashMap<ASCIIString, Long>();
+                meHandler = new MasterEpochHandlerInterface() {
+
+                    @Override
+                    public void sendMasterEpoch(FleaseMessage response, Continuation callback) {
+                        Long epoch = epochs.get(response.getCellId());
+                        response.setMasterEpochNumber(epoch == null ? 0 : epoch);
+                        callback.processingFinished();
+                    }
+
+                    @Override
+                    public void storeMasterEpoch(FleaseMessage request, Continuation callback) {
+                        epochs.put(request.getCellId(), request.getMasterEpochNumber());
+                        callback.processingFinished();
+                    }
+                };
+            }
+
+            final FleaseMessageSenderInterface sender;
+            if (batching) {
+                sender = new FleaseBatchSenderInterface() {
+
+                    @Override
+                    public void sendMessage(FleaseMessage message, InetSocketAddress recipient) {
+                        report.numFrames.incrementAndGet();
+                        send(message, recipient);
+                    }
+
+                    @Override
+                    public void sendMessages(List<FleaseMessage> messages, InetSocketAddress recipient) {
+                        report.numFrames.incrementAndGet();
+                        for (FleaseMessage message : messages)
+                            send(message, recipient);
+                    }
+
+                    private void send(FleaseMessage message, InetSocketAddress recipient) {
+                        report.numMessages.incrementAndGet();
+                        FleaseMessage copy = new FleaseMessage(message);
+                        copy.setSender(address);
+                        com.send(recipient.getPort(), copy);
+                    }
+                };
+            } else {
+                sender = new FleaseMessageSenderInterface() {
+
+                    @Override
+                    public void sendMessage(FleaseMessage message, InetSocketAddress recipient) {
+                        report.numFrames.incrementAndGet();
+                        report.numMessages.incrementAndGet();
+                        // the message is passed on by reference, while real
+                        // senders serialize it immediately
+                        FleaseMessage copy = new FleaseMessage(message);
+                        copy.setSender(address);
+                        com.send(recipient.getPort(), copy);
+                    }
+                };
+            }
+
+            stages[i] = new FleaseStage(cfg, lockfileDir, sender, true, new FleaseViewChangeListenerInterface() {
+
+                @Override
+                public void viewIdChangeEvent(ASCIIString cellId, int viewId, boolean onProposal) {
+                }
+            }, new FleaseStatusListener() {
+
+                @Override
+                public void statusChanged(ASCIIString cellId, Flease lease) {
+                    if (lease.isEmptyLease())
+                        return;
+                    Long openTime = opens.remove(cellId);
+                    if (openTime != null)
+                        report.acquisition.record(System.nanoTime() - openTime);
+                }
+
+                @Override
+                public void leaseFailed(ASCIIString cellId, FleaseException error) {
+                    report.numFailures.incrementAndGet();
+                }
+            }, meHandler);
+            stages[i].setLifeCycleListener(new LifeCycleListener() {
+
+                @Override
+                public void startupPerformed() {
+                }
+
+                @Override
+                public void shutdownPerformed() {
+                }
+
+                @Override
+                public void crashPerformed(Throwable cause) {
+                    Logging.logError(Logging.LEVEL_ERROR, this, cause);
+                }
+            });
+            stages[i].start();
+            stages[i].waitForStartup();
+            com.openPort(portNo, stages[i]);
+        }
+
+        final long[] cpuStart = new long[numHosts];
+        for (int i = 0; i < numHosts; i++)
+            cpuStart[i] = cpuTime ? threadBean.getThreadCpuTime(stages[i].getId()) : 0;
+        final long comCpuStart = cpuTime ? threadBean.getThreadCpuTime(com.getId()) : 0;
+        final long start = System.nanoTime();
+
+        for (int c = 0; c < numCells; c++) {
+            final ASCIIString cellId = new ASCIIString("cell" + c);
+            for (int p = 0; p < proposersPerCell; p++) {
+                final int host = (c + p) % numHosts;
+                List<InetSocketAddress> acceptors = new ArrayList<InetSocketAddress>(allPorts);
+                acceptors.remove(host);
+                pendingOpens.get(host).put(cellId, System.nanoTime());
+                stages[host].openCell(cellId, acceptors, masterEpochs, 0);
+            }
+        }
+
+        Thread.sleep(durationMs);
+
+        report.durationNanos = System.nanoTime() - start;
+        for (int i = 0; i < numHosts; i++) {
+            report.stageCpuNanos[i] = cpuTime ? threadBean.getThreadCpuTime(stages[i].getId()) - cpuStart[i] : -1;
+            report.numNotAcquired += pendingOpens.get(i).size();
+        }
+        report.communicatorCpuNanos = cpuTime ? threadBean.getThreadCpuTime(com.getId()) - comCpuStart : -1;
+        report.numDelivered = com.getNumDelivered();
+        report.numLost = com.getNumLost();
+
+        for (int i = 0; i < numHosts; i++) {
+            com.closePort(BASE_PORT + i);
+            stages[i].shutdown();
+            stages[i].waitForShutdown();
+        }
+        com.shutdown();
+
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hosts: %d, cells: %d, proposers/cell: %d, loss: %d%%, delayed: %d%% (%d-%d ms), "
+                + "lease timeout: %d ms, batching: %s, master epochs: %s, seed: %d", numHosts, numCells,
+                proposersPerCell, lossPct, delayPct, minDelay, maxDelay, leaseTimeout, batching ? "on" : "off",
+                masterEpochs ? "on" : "off", seed);
+    }
+
+    /**
+     * The results of a benchmark run.
+     */
+    public static final class Report {
+
+        private final LatencyHistogram acquisition;
+
+        private final AtomicLong       numMessages;
+
+        private final AtomicLong       numFrames;
+
+        private final AtomicLong       numFailures;
+
+        private final long[]           stageCpuNanos;
+
+        private long                   communicatorCpuNanos;
+
+        private long                   durationNanos;
+
+        private long                   numDelivered;
+
+        private long                   numLost;
+
+        private int                    numNotAcquired;
+
+        Report(int numHosts) {
+            acquisition = new LatencyHistogram();
+            numMessages = new AtomicLong();
+            numFrames = new AtomicLong();
+            numFailures = new AtomicLong();
+            stageCpuNanos = new long[numHosts];
+        }
+
+        /**
+         * @return the latencies between opening a cell and learning its lease
+         */
+        public LatencyHistogram getAcquisitionLatency() {
+            return acquisition;
+        }
+
+        /**
+         * @return the number of (proposer, cell) pairs that did not learn a
+         *         lease during the run
+         */
+        public int getNumNotAcquired() {
+            return numNotAcquired;
+        }
+
+        public long getNumMessages() {
+            return numMessages.get();
+        }
+
+        /**
+         * @return the number of calls to the senders of the stages
+         */
+        public long getNumFrames() {
+            return numFrames.get();
+        }
+
+        public long getNumFailures() {
+            return numFailures.get();
+        }
+
+        public long getNumLost() {
+            return numLost;
+        }
+
+        public double getMessagesPerSecond() {
+            return numMessages.get() * 1e9 / durationNanos;
+        }
+
+        public double getFramesPerSecond() {
+            return numFrames.get() * 1e9 / durationNanos;
+        }
+
+        /**
+         * @return the CPU time used by the stage thread of the given host, in
+         *         nanoseconds, or -1 if not supported by the JVM
+         */
+        public long getStageCpuNanos(int host) {
+            return stageCpuNanos[host];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("lease acquisition: %d (not acquired: %d), avg %.2f ms, 50%% %.2f ms, "
+                    + "90%% %.2f ms, 99%% %.2f ms, max %.2f ms%n", acquisition.getCount(), numNotAcquired,
+                    acquisition.getMean(), acquisition.getPercentile(50), acquisition.getPercentile(90), acquisition
+                            .getPercentile(99), acquisition.getMax()));
+            sb.append(String.format("messages: %d (%.1f/s), frames: %d (%.1f/s), delivered: %d, lost: %d%n",
+                    numMessages.get(), getMessagesPerSecond(), numFrames.get(), getFramesPerSecond(), numDelivered,
+                    numLost));
+            sb.append(String.format("lease failures: %d%n", numFailures.get()));
+            sb.append("CPU time:\n");
+            for (int i = 0; i < stageCpuNanos.length; i++)
+                sb.append(formatCpu("FleaseSt localhost:" + (BASE_PORT + i), stageCpuNanos[i]));
+            sb.append(formatCpu("network simulation", communicatorCpuNanos));
+            return sb.toString();
+        }
+
+        private String formatCpu(String thread, long cpuNanos) {
+            if (cpuNanos < 0)
+                return String.format("  %-28s n/a%n", thread);
+            return String.format("  %-28s %8.1f ms (%.1f%%)%n", thread, cpuNanos / 1e6, cpuNanos * 100.0
+                    / durationNanos);
+        }
+    }
+
+    /**
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        try {
+            CLOptionParser parser = new CLOptionParser("FleaseBench");
+            CLOption.IntegerValue optHosts = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue("n",
+                    "hosts", "number of flease stages (default 3)"));
+            CLOption.IntegerValue optCells = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue("c",
+                    "cells", "number of cells (default 1000)"));
+            CLOption.IntegerValue optProposers = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue(
+                    "p", "proposers", "number of hosts opening each cell (default 1)"));
+            CLOption.IntegerValue optLoss = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue("l",
+                    "loss", "percentage of lost messages (default 0)"));
+            CLOption.IntegerValue optDelayPct = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue(
+                    null, "delayed", "percentage of delayed messages (default 0)"));
+            CLOption.IntegerValue optMinDelay = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue(
+                    null, "min-delay", "minimum delay of a delayed message in ms (default 10)"));
+            CLOption.IntegerValue optMaxDelay = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue(
+                    null, "max-delay", "maximum delay of a delayed message in ms (default 100)"));
+            CLOption.IntegerValue optLeaseTimeout = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue(
+                    "t", "lease-timeout", "lease timeout in ms (default 15000)"));
+            CLOption.IntegerValue optDuration = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue(
+                    "d", "duration", "duration of the run in seconds (default 30)"));
+            CLOption.IntegerValue optSeed = (CLOption.IntegerValue) parser.addOption(new CLOption.IntegerValue("s",
+                    "seed", "seed for message loss and delay (default 0)"));
+            CLOption.Switch optBatching = (CLOption.Switch) parser.addOption(new CLOption.Switch("b", "batching",
+                    "send the messages of several cells to a host together"));
+            CLOption.Switch optMasterEpochs = (CLOption.Switch) parser.addOption(new CLOption.Switch("m",
+                    "master-epochs", "request master epochs"));
+            CLOption.Switch optHelp = (CLOption.Switch) parser.addOption(new CLOption.Switch("h", "help",
+                    "show usage info"));
+
+            parser.parse(args);
+            if (optHelp.isSet()) {
+                parser.printUsage("");
+                return;
+            }
+
+            File lockfileDir = new File(System.getProperty("java.io.tmpdir"), "flease-bench");
+            lockfileDir.mkdirs();
+
+            FleaseBench bench = new FleaseBench(optHosts.isSet() ? optHosts.getValue() : 3,
+                    optCells.isSet() ? optCells.getValue() : 1000, optProposers.isSet() ? optProposers.getValue() : 1,
+                    optLoss.isSet() ? optLoss.getValue() : 0, optDelayPct.isSet() ? optDelayPct.getValue() : 0,
+                    optMinDelay.isSet() ? optMinDelay.getValue() : 10, optMaxDelay.isSet() ? optMaxDelay.getValue()
+                            : 100, optLeaseTimeout.isSet() ? optLeaseTimeout.getValue() : 15000,
+                    (optDuration.isSet() ? optDuration.getValue() : 30) * 1000, optBatching.isSet(),
+                    optMasterEpochs.isSet(), optSeed.isSet() ? optSeed.getValue() : 0, lockfileDir.getPath());
+
+            Logging.start(Logging.LEVEL_WARN, Category.all);
+            TimeSync.initializeLocal(50);
+
+            System.out.println(bench);
+            Report report = bench.run();
+            System.out.print(report);
+
+            System.exit(0);
+
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -8,11 +8,14 @@
 package org.xtreemfs.foundation.flease;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -228,4 +231,83 @@ public class FleaseStageTest {
 
     }
 
+    /**
+     * Messages of several cells to the same acceptor have to be passed on together.
+     */
+    @Test
+    public void testBatchedMessages() throws Exception {
+        final int numCells = 50;
+        final InetSocketAddress acc1 = new InetSocketAddress("localhost", 12346);
+        final InetSocketAddress acc2 = new InetSocketAddress("localhost", 12347);
+
+        // recipient -> { number of calls, number of messages }
+        final Map<InetSocketAddress, int[]> sent = new HashMap<InetSocketAddress, int[]>();
+        final AtomicBoolean sentSingle = new AtomicBoolean(false);
+
+        FleaseStage fs = new FleaseStage(cfg, "/tmp/xtreemfs-test/", new FleaseBatchSenderInterface() {
+
+            @Override
+            public void sendMessage(FleaseMessage message, InetSocketAddress recipient) {
+                sentSingle.set(true);
+            }
+
+            @Override
+            public void sendMessages(List<FleaseMessage> messages, InetSocketAddress recipient) {
+                synchronized (sent) {
+                    int[] stats = sent.get(recipient);
+                    if (stats == null) {
+                        stats = new int[2];
+                        sent.put(recipient, stats);
+                    }
+                    stats[0]++;
+                    stats[1] += messages.size();
+                    sent.notifyAll();
+                }
+            }
+        }, true, new FleaseViewChangeListenerInterface() {
+
+            @Override
+            public void viewIdChangeEvent(ASCIIString cellId, int viewId, boolean onProposal) {
+            }
+        }, new FleaseStatusListener() {
+
+            @Override
+            public void statusChanged(ASCIIString cellId, Flease lease) {
+            }
+
+            @Override
+            public void leaseFailed(ASCIIString cellId, FleaseException error) {
+            }
+        }, null);
+
+        // open the cells before the stage is started, so that they are
+        // processed together
+        List<InetSocketAddress> acceptors = new ArrayList<InetSocketAddress>();
+        acceptors.add(acc1);
+        acceptors.add(acc2);
+        for (int i = 0; i < numCells; i++)
+            fs.openCell(new ASCIIString("cell" + i), acceptors, false, 0);
+
+        fs.start();
+        fs.waitForStartup();
+
+        synchronized (sent) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((sent.get(acc1) == null || sent.get(acc1)[1] < numCells || sent.get(acc2) == null || sent
+                    .get(acc2)[1] < numCells) && System.currentTimeMillis() < deadline)
+                sent.wait(100);
+
+            for (InetSocketAddress acc : acceptors) {
+                int[] stats = sent.get(acc);
+                assertTrue(stats != null && stats[1] >= numCells);
+                assertTrue("messages were not batched: " + stats[0] + " calls for " + stats[1] + " messages",
+                        stats[0] < stats[1]);
+            }
+        }
+        assertTrue(!sentSingle.get());
+
+        fs.shutdown();
+        fs.waitForShutdown();
+    }
+
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.util.FSUtils;
+
+public class MasterEpochJournalTest {
+
+    private static File testDir;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Logging.start(Logging.LEVEL_WARN, Category.all);
+        testDir = new File("/tmp/xtreemfs-test/");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        FSUtils.delTree(testDir);
+        testDir.mkdirs();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        MasterEpochJournal journal = new MasterEpochJournal(testDir, "mepoch");
+        journal.open();
+        assertNull(journal.get("cell1"));
+
+        journal.put("cell1", 1);
+        journal.put("cell2", 5);
+        journal.put("cell1", 2);
+        assertTrue(journal.hasUncommittedRecords());
+        journal.commit();
+        journal.close();
+
+        journal = new MasterEpochJournal(testDir, "mepoch");
+        journal.open();
+        assertEquals(2, journal.get("cell1").longValue());
+        assertEquals(5, journal.get("cell2").longValue());
+        assertEquals(2, journal.getNumEpochs());
+        assertEquals(3, journal.getNumJournalRecords());
+        journal.close();
+
+        // simulate a crash while appending a record
+        File journalFile = new File(testDir, "mepoch.journal");
+        long length = journalFile.length();
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        raf.seek(length);
+        raf.writeInt(5);
+        raf.write(new byte[] { 'c', 'e' });
+        raf.close();
+
+        journal = new MasterEpochJournal(testDir, "mepoch");
+        journal.open();
+        assertEquals(length, journalFile.length());
+        assertEquals(2, journal.get("cell1").longValue());
+
+        // records appended after the recovery have to be readable
+        journal.put("cell3", 7);
+        journal.close();
+
+        journal = new MasterEpochJournal(testDir, "mepoch");
+        journal.open();
+        assertEquals(7, journal.get("cell3").longValue());
+        assertEquals(3, journal.getNumEpochs());
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final int numCells = 100;
+        MasterEpochJournal journal = new MasterEpochJournal(testDir, "mepoch");
+        journal.open();
+
+        // each commit covers the epochs of all cells
+        int numRecords = 0;
+        for (int epoch = 1; numRecords <= MasterEpochJournal.MIN_COMPACTION_RECORDS; epoch++) {
+            for (int i = 0; i < numCells; i++)
+                journal.put("cell" + i, epoch);
+            numRecords += numCells;
+            journal.commit();
+        }
+        final long lastEpoch = numRecords / numCells;
+
+        // the journal has been compacted
+        assertTrue(journal.getNumJournalRecords() < MasterEpochJournal.MIN_COMPACTION_RECORDS);
+        assertTrue(new File(testDir, "mepoch.snapshot").exists());
+        journal.close();
+
+        journal = new MasterEpochJournal(testDir, "mepoch");
+        journal.open();
+        assertEquals(numCells, journal.getNumEpochs());
+        for (int i = 0; i < numCells; i++)
+            assertEquals(lastEpoch, journal.get("cell" + i).longValue());
+        journal.close();
+    }
+
+}
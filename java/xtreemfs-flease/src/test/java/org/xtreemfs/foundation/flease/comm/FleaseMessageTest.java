@@ -7,6 +7,9 @@
 
 package org.xtreemfs.foundation.flease.comm;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -77,4 +80,34 @@ public class FleaseMessageTest {
         assertEquals(m1.getMasterEpochNumber(),m2.getMasterEpochNumber());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBatchSerialization() throws Exception {
+        List<FleaseMessage> msgs = new ArrayList<FleaseMessage>();
+        for (int i = 0; i < 10; i++) {
+            FleaseMessage m = new FleaseMessage(FleaseMessage.MsgType.MSG_ACCEPT);
+            m.setCellId(new ASCIIString("testcell" + i));
+            if (i % 2 == 0)
+                m.setLeaseHolder(new ASCIIString("yagga"));
+            m.setLeaseTimeout(123456789l + i);
+            m.setProposalNo(new ProposalNumber(15 + i, 736456));
+            m.setViewId(i);
+            msgs.add(m);
+        }
+
+        ReusableBuffer rb = BufferPool.allocate(FleaseMessageBatch.getSize(msgs));
+        FleaseMessageBatch.serialize(msgs, rb);
+        assertEquals(0, rb.remaining());
+        rb.flip();
+
+        List<FleaseMessage> result = FleaseMessageBatch.deserialize(rb, msgs.size());
+        assertEquals(msgs.size(), result.size());
+        for (int i = 0; i < msgs.size(); i++) {
+            assertEquals(msgs.get(i).getCellId(), result.get(i).getCellId());
+            assertEquals(msgs.get(i).getLeaseTimeout(), result.get(i).getLeaseTimeout());
+            assertEquals(msgs.get(i).getProposalNo().getProposalNo(), result.get(i).getProposalNo().getProposalNo());
+            assertEquals(msgs.get(i).getViewId(), result.get(i).getViewId());
+        }
+        BufferPool.free(rb);
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.flease.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.util.FSUtils;
+
+public class FleaseBenchTest {
+
+    private static File testDir;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Logging.start(Logging.LEVEL_WARN, Category.all);
+        TimeSync.initializeLocal(50);
+        testDir = new File("/tmp/xtreemfs-test/");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        FSUtils.delTree(testDir);
+        testDir.mkdirs();
+    }
+
+    @Test
+    public void testBench() throws Exception {
+        final int numCells = 200;
+
+        FleaseBench bench = new FleaseBench(3, numCells, 1, 0, 0, 10, 100, 5000, 3000, false, false, 1,
+                testDir.getPath());
+        FleaseBench.Report report = bench.run();
+
+        assertEquals(numCells, report.getAcquisitionLatency().getCount());
+        assertEquals(0, report.getNumNotAcquired());
+        assertEquals(report.getNumMessages(), report.getNumFrames());
+        assertTrue(report.getMessagesPerSecond() > 0);
+    }
+
+    @Test
+    public void testBenchWithLossAndBatching() throws Exception {
+        final int numCells = 200;
+
+        // two proposers per cell compete for each lease
+        FleaseBench bench = new FleaseBench(3, numCells, 2, 5, 10, 10, 100, 5000, 5000, true, true, 1,
+                testDir.getPath());
+        FleaseBench.Report report = bench.run();
+
+        assertEquals(2 * numCells, report.getAcquisitionLatency().getCount() + report.getNumNotAcquired());
+        assertTrue(report.getAcquisitionLatency().getCount() > 0);
+        assertTrue(report.getNumLost() > 0);
+        assertTrue(report.getNumFrames() < report.getNumMessages());
+    }
+
+}
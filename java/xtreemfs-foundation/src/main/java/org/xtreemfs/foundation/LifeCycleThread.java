@@ -8,6 +8,7 @@
 
 package org.xtreemfs.foundation;
 
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 
@@ -67,6 +68,10 @@ public class LifeCycleThread extends Thread {
             Logging.logMessage(Logging.LEVEL_INFO, Category.lifecycle, this, "Thread %s terminated", Thread
                     .currentThread().getName());
         
+        // make the buffers cached by this thread available to other threads
+        if (Thread.currentThread() == this)
+            BufferPool.releaseThreadCache();
+        
         synchronized (stopLock) {
             stopped = true;
             stopLock.notifyAll();
@@ -9,12 +9,24 @@
 package org.xtreemfs.foundation.buffer;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A concurrent pool for buffer recycling.
+ * <p>
+ * Pooled buffers are direct buffers of a fixed set of sizes. Each thread
+ * caches a small number of buffers per size in front of the shared pool, so
+ * that most allocate/free operations of a thread do not touch shared state.
+ * Buffers of the larger sizes can be sliced from a pre-reserved off-heap arena
+ * (see {@link #reserveArena(long)}). If the pool of a size is exhausted, heap
+ * buffers are allocated which are left to the garbage collector when they are
+ * freed.
  *
  * @author bjko
  */
@@ -27,10 +39,73 @@ public final class BufferPool {
             2097152};
 
     /**
-     * max pool size for each class
+     * default max pool size for each class
      */
     public static final int[] MAX_POOL_SIZES = {2000, 200, 100, 10, 5};
 
+    /**
+     * default max number of buffers per class cached by a single thread
+     */
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 16;
+
+    /**
+     * buffers of at least this size are sliced from the arena, if an arena
+     * has been reserved
+     */
+    public static final int MIN_ARENA_BUFFER_SIZE = 524288;
+
+    /**
+     * max size of a single direct buffer the arena is made of
+     */
+    private static final int MAX_ARENA_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Buffers cached by a single thread, and the statistics of the thread.
+     * Only the owner thread accesses the buffers, unless the owner has
+     * terminated. Statistics are read by other threads without
+     * synchronization and may therefore be slightly out of date.
+     */
+    private static final class ThreadCache {
+
+        final Thread       owner;
+
+        final ByteBuffer[][] buffers;
+
+        final int[]        sizes;
+
+        /**
+         * stats for num requests, requests served from the pool and heap
+         * buffers allocated because the pool was exhausted, per class
+         */
+        final long[]       requests, hits, fallbacks, deletes;
+
+        long               bytesAllocated, bytesFreed;
+
+        ThreadCache(Thread owner) {
+            this.owner = owner;
+            this.buffers = new ByteBuffer[BUFF_SIZES.length][0];
+            this.sizes = new int[BUFF_SIZES.length];
+            this.requests = new long[BUFF_SIZES.length + 1];
+            this.hits = new long[BUFF_SIZES.length];
+            this.fallbacks = new long[BUFF_SIZES.length];
+            this.deletes = new long[BUFF_SIZES.length + 1];
+        }
+
+        ByteBuffer poll(int sizeClass) {
+            if (sizes[sizeClass] == 0)
+                return null;
+            ByteBuffer buf = buffers[sizeClass][--sizes[sizeClass]];
+            buffers[sizeClass][sizes[sizeClass]] = null;
+            return buf;
+        }
+
+        void push(int sizeClass, ByteBuffer buf) {
+            if (sizes[sizeClass] == buffers[sizeClass].length)
+                buffers[sizeClass] = Arrays.copyOf(buffers[sizeClass], Math.max(4, sizes[sizeClass] * 2));
+            buffers[sizeClass][sizes[sizeClass]++] = buf;
+        }
+    }
+
     /**
      * queues to store buffers in
      */
@@ -42,9 +117,40 @@ public final class BufferPool {
     private final AtomicInteger[] poolSizes;
 
     /**
-     * stats for num requests and creates of buffers per class
+     * number of direct buffers created per class, including buffers sliced
+     * from the arena
+     */
+    private final AtomicLong[] creates;
+
+    /**
+     * max number of direct buffers per class
      */
-    private final AtomicLong[] requests, creates, deletes;
+    private volatile int[] maxPoolSizes;
+
+    /**
+     * max number of buffers per class cached by a single thread
+     */
+    private volatile int[] threadCacheSizes;
+
+    private final ThreadLocal<ThreadCache> threadCache;
+
+    /**
+     * the caches of all threads which have used the pool
+     */
+    // JCIP @GuardedBy("caches")
+    private final List<ThreadCache> caches;
+
+    /**
+     * the statistics of threads which have terminated
+     */
+    // JCIP @GuardedBy("caches")
+    private final ThreadCache retiredStats;
+
+    /**
+     * total size of the arena in bytes
+     */
+    // JCIP @GuardedBy("this")
+    private long arenaSize;
 
     /**
      * singleton pattern.
@@ -70,18 +176,23 @@ public final class BufferPool {
             creates[i] = new AtomicLong();
         }
 
-        requests = new AtomicLong[BUFF_SIZES.length + 1];
-        deletes = new AtomicLong[BUFF_SIZES.length + 1];
-        for (int i = 0; i < BUFF_SIZES.length + 1; i++) {
-            requests[i] = new AtomicLong();
-            deletes[i] = new AtomicLong();
-        }
-
         poolSizes = new AtomicInteger[BUFF_SIZES.length];
         for (int i = 0; i < BUFF_SIZES.length; i++) {
             pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
             poolSizes[i] = new AtomicInteger(0);
         }
+
+        maxPoolSizes = MAX_POOL_SIZES.clone();
+        threadCacheSizes = computeThreadCacheSizes(maxPoolSizes, DEFAULT_THREAD_CACHE_SIZE);
+
+        caches = new ArrayList<ThreadCache>();
+        retiredStats = new ThreadCache(null);
+        threadCache = new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                return registerThreadCache();
+            }
+        };
     }
 
     /**
@@ -116,6 +227,56 @@ public final class BufferPool {
         }
     }
 
+    /**
+     * Sets the max number of direct buffers per class and the max number of
+     * buffers per class cached by a single thread. Buffers which have already
+     * been created remain in the pool.
+     *
+     * @param maxPoolSizes
+     *            max pool size for each class in {@link #BUFF_SIZES}, or
+     *            <code>null</code> to use {@link #MAX_POOL_SIZES}
+     * @param threadCacheSize
+     *            max number of buffers per class cached by a single thread;
+     *            at most a quarter of the pool size of a class is cached by a
+     *            thread
+     */
+    public static void configure(int[] maxPoolSizes, int threadCacheSize) {
+        if (maxPoolSizes == null) {
+            maxPoolSizes = MAX_POOL_SIZES;
+        }
+        if (maxPoolSizes.length != BUFF_SIZES.length) {
+            throw new IllegalArgumentException("expected " + BUFF_SIZES.length + " pool sizes, but got "
+                    + maxPoolSizes.length);
+        }
+        if (threadCacheSize < 0) {
+            throw new IllegalArgumentException("thread cache size must not be negative");
+        }
+        instance.maxPoolSizes = maxPoolSizes.clone();
+        instance.threadCacheSizes = computeThreadCacheSizes(maxPoolSizes, threadCacheSize);
+    }
+
+    /**
+     * Reserves an off-heap arena of the given size from which pooled buffers
+     * of at least {@link #MIN_ARENA_BUFFER_SIZE} bytes are sliced, starting
+     * with the largest class. Only as many buffers as the pool sizes permit
+     * are created. Subsequent calls have no effect.
+     *
+     * @return the number of bytes reserved
+     */
+    public static long reserveArena(long size) {
+        return instance.createArena(size);
+    }
+
+    /**
+     * Returns the buffers cached by the calling thread to the shared pool.
+     * Should be invoked by threads which terminate while the pool is still in
+     * use; buffers cached by terminated threads are otherwise only reclaimed
+     * when other threads access the pool statistics or start using the pool.
+     */
+    public static void releaseThreadCache() {
+        instance.flushThreadCache(instance.threadCache.get());
+    }
+
     /**
      * Returns a buffer which has at least size bytes.
      *
@@ -123,51 +284,56 @@ public final class BufferPool {
      */
     private ReusableBuffer getNewBuffer(int size) {
 
-        try {
+        final ThreadCache cache = threadCache.get();
 
-            // if there is a pooled buffer with sufficient capacity ...
-            for (int i = 0; i < BUFF_SIZES.length; i++) {
+        try {
 
-                if (size <= BUFF_SIZES[i]) {
+            final int sizeClass = getSizeClass(size);
 
-                    ByteBuffer buf = pools[i].poll();
+            // create an unpooled buffer if the size exceeds the largest class
+            if (sizeClass == -1) {
+                cache.requests[BUFF_SIZES.length]++;
+                cache.bytesAllocated += size;
 
-                    // if no free buffer is available in the pool ...
-                    if (buf == null) {
-                        
-                        /*
-                        ... create
-                        - a direct buffer if the pool is not full yet,
-                        - a non-direct buffer if the pool is full
+                ByteBuffer buf = ByteBuffer.allocate(size);
+                return new ReusableBuffer(buf, size);
+            }
 
-                        Thus, the first MAX_POOL_SIZES[i] buffers will be
-                        pooled, whereas any additional buffers will be
-                        allocated on demand and freed by the garbage
-                        collector.
-                        */
+            cache.requests[sizeClass]++;
 
-                        buf = creates[i].get() < MAX_POOL_SIZES[i] ? ByteBuffer.allocateDirect(BUFF_SIZES[i])
-                                : ByteBuffer.allocate(BUFF_SIZES[i]);
-                        creates[i].incrementAndGet();
-                    }
+            // take a buffer from the thread's cache, or from the shared pool
+            ByteBuffer buf = cache.poll(sizeClass);
+            if (buf == null) {
+                buf = refillThreadCache(cache, sizeClass);
+            }
 
-                    // otherwise, decrement the pool size to indicate that the
-                    // pooled buffer was handed out to the application
-                    else {
-                        poolSizes[i].decrementAndGet();
-                    }
+            if (buf != null) {
+                cache.hits[sizeClass]++;
+            }
 
-                    requests[i].incrementAndGet();
-                    return new ReusableBuffer(buf, size);
+            /*
+            if no free buffer is available in the pool, create
+            - a direct buffer if the pool is not full yet,
+            - a non-direct buffer if the pool is full
 
+            Thus, the first maxPoolSizes[i] buffers will be pooled, whereas
+            any additional buffers will be allocated on demand and freed by
+            the garbage collector.
+            */
+            else if (creates[sizeClass].incrementAndGet() <= maxPoolSizes[sizeClass]) {
+                try {
+                    buf = ByteBuffer.allocateDirect(BUFF_SIZES[sizeClass]);
+                } catch (OutOfMemoryError ex) {
+                    creates[sizeClass].decrementAndGet();
+                    throw ex;
                 }
-
+            } else {
+                creates[sizeClass].decrementAndGet();
+                cache.fallbacks[sizeClass]++;
+                buf = ByteBuffer.allocate(BUFF_SIZES[sizeClass]);
             }
 
-            // ... otherwise, create an unpooled buffer
-            requests[BUFF_SIZES.length].incrementAndGet();
-
-            ByteBuffer buf = ByteBuffer.allocate(size);
+            cache.bytesAllocated += buf.capacity();
             return new ReusableBuffer(buf, size);
 
         } catch (OutOfMemoryError ex) {
@@ -231,70 +397,284 @@ public final class BufferPool {
 
             ByteBuffer buf = buffer.getParent();
             buf.clear();
-            
+
+            final ThreadCache cache = threadCache.get();
+            cache.bytesFreed += buf.capacity();
+
             /*
             determine the pool to which the buffer is supposed to be
             returned
             */
-            for (int i = 0; i < BUFF_SIZES.length; i++) {
-
-                if (buf.capacity() == BUFF_SIZES[i]) {
-
-                    // return direct buffers to the pool
-                    if (buf.isDirect()) {
-
-                        poolSizes[i].incrementAndGet();
-                        pools[i].add(buf);
-                        
-                        /*
-                        since only direct buffers will be returned to the
-                        pool, which have been counted on allocation, there is
-                        no need to check the pool size here
-                        */
+            final int sizeClass = getSizeClass(buf.capacity());
+            if (sizeClass != -1 && buf.capacity() == BUFF_SIZES[sizeClass]) {
 
-                        return;
-                    }
+                // return direct buffers to the pool
+                if (buf.isDirect()) {
 
                     /*
-                    if the buffer is non-direct, increment the delete counter
-                    and implicitly make the buffer subject to garbage
-                    collection
+                    since only direct buffers will be returned to the pool,
+                    which have been counted on allocation, there is no need
+                    to check the pool size here
                     */
-                    else {
-                        deletes[i].incrementAndGet();
+                    final int cacheSize = threadCacheSizes[sizeClass];
+                    if (cacheSize == 0) {
+                        poolSizes[sizeClass].incrementAndGet();
+                        pools[sizeClass].add(buf);
                         return;
                     }
 
+                    // move half of the thread's cache to the shared pool if
+                    // it is full
+                    if (cache.sizes[sizeClass] >= cacheSize) {
+                        drainThreadCache(cache, sizeClass, cacheSize / 2);
+                    }
+                    cache.push(sizeClass, buf);
+                    return;
+                }
+
+                /*
+                if the buffer is non-direct, increment the delete counter
+                and implicitly make the buffer subject to garbage
+                collection
+                */
+                else {
+                    cache.deletes[sizeClass]++;
+                    return;
                 }
 
             }
 
             assert (!buf.isDirect()) : "encountered direct buffer that does not fit in any of the pools (size="
                     + buf.capacity() + "): " + buffer.freeStack;
-            
+
             /*
             if the buffer did not fit in any of the pools,
             increment the delete counter for the unpooled buffers
             */
-            deletes[deletes.length - 1].incrementAndGet();
+            cache.deletes[BUFF_SIZES.length]++;
+
+        }
+    }
+
+    /**
+     * Returns the index of the smallest class which can hold the given number
+     * of bytes, or -1 if the size exceeds the largest class.
+     */
+    private static int getSizeClass(int size) {
+        for (int i = 0; i < BUFF_SIZES.length; i++) {
+            if (size <= BUFF_SIZES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] computeThreadCacheSizes(int[] maxPoolSizes, int threadCacheSize) {
+        int[] sizes = new int[BUFF_SIZES.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Math.min(threadCacheSize, maxPoolSizes[i] / 4);
+        }
+        return sizes;
+    }
+
+    /**
+     * Takes a buffer from the shared pool and moves up to half of the thread
+     * cache size of additional buffers to the thread's cache.
+     *
+     * @return the buffer, or <code>null</code> if the shared pool is empty
+     */
+    private ByteBuffer refillThreadCache(ThreadCache cache, int sizeClass) {
+        ByteBuffer buf = pools[sizeClass].poll();
+        if (buf == null) {
+            return null;
+        }
+        poolSizes[sizeClass].decrementAndGet();
+
+        final int batchSize = threadCacheSizes[sizeClass] / 2;
+        for (int i = 0; i < batchSize; i++) {
+            ByteBuffer next = pools[sizeClass].poll();
+            if (next == null) {
+                break;
+            }
+            poolSizes[sizeClass].decrementAndGet();
+            cache.push(sizeClass, next);
+        }
+        return buf;
+    }
+
+    /**
+     * Moves buffers from a thread's cache to the shared pool until at most
+     * <code>remaining</code> buffers are left in the thread's cache.
+     */
+    private void drainThreadCache(ThreadCache cache, int sizeClass, int remaining) {
+        while (cache.sizes[sizeClass] > remaining) {
+            ByteBuffer buf = cache.poll(sizeClass);
+            poolSizes[sizeClass].incrementAndGet();
+            pools[sizeClass].add(buf);
+        }
+    }
+
+    private void flushThreadCache(ThreadCache cache) {
+        for (int i = 0; i < BUFF_SIZES.length; i++) {
+            drainThreadCache(cache, i, 0);
+        }
+    }
+
+    private ThreadCache registerThreadCache() {
+        ThreadCache cache = new ThreadCache(Thread.currentThread());
+        synchronized (caches) {
+            reclaimTerminatedThreadCaches();
+            caches.add(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the buffers cached by terminated threads to the shared pool.
+     */
+    // JCIP @GuardedBy("caches")
+    private void reclaimTerminatedThreadCaches() {
+        Iterator<ThreadCache> it = caches.iterator();
+        while (it.hasNext()) {
+            ThreadCache cache = it.next();
+            // a terminated thread no longer accesses its cache
+            if (!cache.owner.isAlive()) {
+                it.remove();
+                flushThreadCache(cache);
+                addStats(retiredStats, cache);
+            }
+        }
+    }
 
+    private static void addStats(ThreadCache total, ThreadCache cache) {
+        for (int i = 0; i < total.requests.length; i++) {
+            total.requests[i] += cache.requests[i];
+            total.deletes[i] += cache.deletes[i];
         }
+        for (int i = 0; i < total.hits.length; i++) {
+            total.hits[i] += cache.hits[i];
+            total.fallbacks[i] += cache.fallbacks[i];
+        }
+        total.bytesAllocated += cache.bytesAllocated;
+        total.bytesFreed += cache.bytesFreed;
     }
 
     /**
-     * Get the current pool size for a specific buffer size.
+     * Returns the sum of the statistics of all threads.
+     */
+    private ThreadCache getTotalStats() {
+        ThreadCache total = new ThreadCache(null);
+        synchronized (caches) {
+            reclaimTerminatedThreadCaches();
+            addStats(total, retiredStats);
+            for (ThreadCache cache : caches) {
+                addStats(total, cache);
+                for (int i = 0; i < BUFF_SIZES.length; i++) {
+                    total.sizes[i] += cache.sizes[i];
+                }
+            }
+        }
+        for (int i = 0; i < BUFF_SIZES.length; i++) {
+            total.sizes[i] += poolSizes[i].get();
+        }
+        return total;
+    }
+
+    private synchronized long createArena(long size) {
+
+        if (arenaSize > 0) {
+            return 0;
+        }
+
+        List<ByteBuffer> slices = new ArrayList<ByteBuffer>();
+        long remaining = size;
+        for (int i = BUFF_SIZES.length - 1; i >= 0 && BUFF_SIZES[i] >= MIN_ARENA_BUFFER_SIZE; i--) {
+
+            // reserve the pool capacity which has not been created yet
+            long numBuffers = Math.min(remaining / BUFF_SIZES[i], maxPoolSizes[i] - creates[i].get());
+            if (numBuffers <= 0) {
+                continue;
+            }
+            creates[i].addAndGet(numBuffers);
+            remaining -= numBuffers * BUFF_SIZES[i];
+
+            final int buffersPerSegment = Math.max(1, MAX_ARENA_SEGMENT_SIZE / BUFF_SIZES[i]);
+            while (numBuffers > 0) {
+                final int n = (int) Math.min(numBuffers, buffersPerSegment);
+                ByteBuffer segment = ByteBuffer.allocateDirect(n * BUFF_SIZES[i]);
+                for (int j = 0; j < n; j++) {
+                    segment.limit((j + 1) * BUFF_SIZES[i]);
+                    segment.position(j * BUFF_SIZES[i]);
+                    slices.add(segment.slice());
+                }
+                numBuffers -= n;
+            }
+
+            for (ByteBuffer slice : slices) {
+                poolSizes[i].incrementAndGet();
+                pools[i].add(slice);
+            }
+            slices.clear();
+        }
+
+        arenaSize = size - remaining;
+        return arenaSize;
+    }
+
+    /**
+     * Get the current pool size for a specific buffer size, including the
+     * buffers cached by threads.
      *
      * @throws IllegalArgumentException when bufferSize is not in the pool
      */
     public static int getPoolSize(int bufferSize) {
         for (int i = 0; i < BUFF_SIZES.length; i++) {
             if (BUFF_SIZES[i] == bufferSize) {
-                return instance.poolSizes[i].get();
+                return instance.getTotalStats().sizes[i];
             }
         }
         throw new IllegalArgumentException("Specified buffer size is not pooled. Check BufferPool configuration.");
     }
 
+    /**
+     * Returns the fraction of requests for pooled sizes which were served
+     * with a pooled buffer.
+     */
+    public static double getHitRate() {
+        ThreadCache stats = instance.getTotalStats();
+        long requests = 0;
+        long hits = 0;
+        for (int i = 0; i < BUFF_SIZES.length; i++) {
+            requests += stats.requests[i];
+            hits += stats.hits[i];
+        }
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * Returns the fraction of requests for pooled sizes which were served
+     * with a heap buffer because the pool was exhausted.
+     */
+    public static double getFallbackRate() {
+        ThreadCache stats = instance.getTotalStats();
+        long requests = 0;
+        long fallbacks = 0;
+        for (int i = 0; i < BUFF_SIZES.length; i++) {
+            requests += stats.requests[i];
+            fallbacks += stats.fallbacks[i];
+        }
+        return requests == 0 ? 0 : (double) fallbacks / requests;
+    }
+
+    /**
+     * Returns the number of bytes of all buffers which have been allocated
+     * and not yet returned to the pool.
+     */
+    public static long getBytesOutstanding() {
+        ThreadCache stats = instance.getTotalStats();
+        return stats.bytesAllocated - stats.bytesFreed;
+    }
+
     /**
      * Returns a textual representation of the pool status.
      *
@@ -302,16 +682,30 @@ public final class BufferPool {
      */
     public static String getStatus() {
 
+        ThreadCache stats = instance.getTotalStats();
+        long requests = 0;
+        long hits = 0;
+        long fallbacks = 0;
+
         String str = "";
         for (int i = 0; i < BUFF_SIZES.length; i++) {
             str += String.format(
-                    "%8d:      poolSize = %5d    numRequests = %8d    creates = %8d   deletes = %8d\n",
-                    BUFF_SIZES[i], instance.poolSizes[i].get(), instance.requests[i].get(), instance.creates[i]
-                            .get(), instance.deletes[i].get());
+                    "%8d:      poolSize = %5d    numRequests = %8d    hits = %8d    creates = %8d   "
+                            + "fallbacks = %8d   deletes = %8d\n", BUFF_SIZES[i], stats.sizes[i],
+                    stats.requests[i], stats.hits[i], instance.creates[i].get(), stats.fallbacks[i],
+                    stats.deletes[i]);
+            requests += stats.requests[i];
+            hits += stats.hits[i];
+            fallbacks += stats.fallbacks[i];
+        }
+        str += String.format("unpooled (> %8d)    numRequests = creates = %8d   deletes = %8d\n",
+                BUFF_SIZES[BUFF_SIZES.length - 1], stats.requests[BUFF_SIZES.length],
+                stats.deletes[BUFF_SIZES.length]);
+        synchronized (instance) {
+            str += String.format("hit rate = %.1f%%    fallback rate = %.1f%%    bytes outstanding = %d    "
+                    + "arena size = %d", requests == 0 ? 0.0 : 100.0 * hits / requests, requests == 0 ? 0.0
+                    : 100.0 * fallbacks / requests, stats.bytesAllocated - stats.bytesFreed, instance.arenaSize);
         }
-        str += String.format("unpooled (> %8d)    numRequests = creates = %8d   deletes = %8d",
-                BUFF_SIZES[BUFF_SIZES.length - 1], instance.requests[instance.requests.length - 1].get(),
-                instance.deletes[instance.deletes.length - 1].get());
         return str;
     }
 
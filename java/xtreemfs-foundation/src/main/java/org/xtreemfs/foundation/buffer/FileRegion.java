@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.buffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * A region of an open file which is sent to a socket without copying it into a
+ * buffer first (see {@link FileChannel#transferTo(long, long, WritableByteChannel)}).
+ * <p>
+ * A file region has to be released exactly once, which closes the given
+ * {@link Closeable}, e.g. to release a cached file descriptor.
+ * <p>
+ * The data is read from the file while it is sent. Thus, the file must not be
+ * modified in place before the region has been released. If the region cannot
+ * be read completely, sending it fails. As the size of the region has already
+ * been announced to the receiver at that point, the connection has to be
+ * closed.
+ */
+public final class FileRegion {
+
+    /**
+     * maximum number of bytes sent by a single call of
+     * {@link #transferTo(WritableByteChannel)}, so that the sending thread
+     * does not read large amounts of data from disk at once
+     */
+    public static final int   MAX_TRANSFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final long        position;
+
+    private final int         count;
+
+    private final Closeable   owner;
+
+    private int               transferred;
+
+    private boolean           released;
+
+    /**
+     * @param channel
+     *            the file to send data from
+     * @param position
+     *            the offset of the region within the file
+     * @param count
+     *            the number of bytes to send
+     * @param owner
+     *            closed when the region is released, may be <code>null</code>
+     */
+    public FileRegion(FileChannel channel, long position, int count, Closeable owner) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+        this.owner = owner;
+    }
+
+    /**
+     * @return the size of the region in bytes
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public boolean hasRemaining() {
+        return transferred < count;
+    }
+
+    /**
+     * Sends the next bytes of the region to the target channel. If the target
+     * is a non-blocking channel, only as many bytes are sent as the channel
+     * accepts, which may be none.
+     *
+     * @return the number of bytes sent
+     * @throws IOException
+     *             if the target channel cannot be written, or if the file
+     *             cannot be read or has become shorter than the region
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        final long sent = channel.transferTo(position + transferred,
+                Math.min(count - transferred, MAX_TRANSFER_SIZE), target);
+        if (sent == 0 && channel.size() < position + count) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "cannot send %s, the file was truncated", this);
+            throw new IOException("file was truncated while it was sent");
+        }
+        transferred += sent;
+        return sent;
+    }
+
+    /**
+     * Reads the (remaining) region into a newly allocated buffer. Used if data
+     * cannot be transferred directly, e.g. for SSL connections.
+     */
+    public ReusableBuffer toBuffer() throws IOException {
+        ReusableBuffer buf = BufferPool.allocate(count - transferred);
+        try {
+            while (buf.hasRemaining()) {
+                final int read = channel.read(buf.getBuffer(), position + transferred + buf.position());
+                if (read < 0) {
+                    throw new IOException("file was truncated while it was read");
+                }
+            }
+        } catch (IOException ex) {
+            BufferPool.free(buf);
+            throw ex;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Releases the region. Subsequent calls have no effect.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (owner != null) {
+            try {
+                owner.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    public String toString() {
+        return "FileRegion: position=" + position + ", count=" + count + ", transferred=" + transferred;
+    }
+}
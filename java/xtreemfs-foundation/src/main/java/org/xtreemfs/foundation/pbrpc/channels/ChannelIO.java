@@ -20,6 +20,8 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.cert.Certificate;
 
+import org.xtreemfs.foundation.buffer.FileRegion;
+
 /**
  * A abstraction of the SocketChannel
  *
@@ -120,6 +122,24 @@ public class ChannelIO {
         return false;
     }
 
+    /**
+     * @return true, if data can be transferred from files to the channel
+     *         directly, see {@link #transferFrom(FileRegion)}
+     */
+    public boolean isTransferFromFileSupported() {
+        return true;
+    }
+
+    /**
+     * Sends the next bytes of a file region to the channel without copying
+     * them into a buffer.
+     *
+     * @return the number of bytes written
+     */
+    public long transferFrom(FileRegion region) throws IOException {
+        return region.transferTo(channel);
+    }
+
     public Certificate[] getCerts() {
         return certs;
     }
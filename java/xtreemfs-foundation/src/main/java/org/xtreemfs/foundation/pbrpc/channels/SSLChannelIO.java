@@ -311,6 +311,12 @@ public class SSLChannelIO extends ChannelIO {
         return returnValue;
     }
 
+    @Override
+    public boolean isTransferFromFileSupported() {
+        // data has to pass the SSL engine
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -191,6 +191,12 @@ public class SSLHandshakeOnlyChannelIO extends ChannelIO {
         return returnValue;
     }
 
+    @Override
+    public boolean isTransferFromFileSupported() {
+        // the handshake is driven by write()
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -10,10 +10,14 @@ package org.xtreemfs.foundation.pbrpc.client;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -39,7 +43,13 @@ public class RPCClientConnection {
 
     private final Map<Integer,RPCClientRequest>  requests;
 
-    private final List<RPCClientRequest>         sendQueue;
+    /**
+     * Requests to send. High priority requests are sent before all other requests, the requests of each queue
+     * are sent in the order they were queued.
+     */
+    private final Queue<RPCClientRequest>        highPrioritySendQueue;
+
+    private final Queue<RPCClientRequest>        sendQueue;
 
     private long lastUsed;
 
@@ -61,18 +71,55 @@ public class RPCClientConnection {
 
     private final InetSocketAddress    endpoint;
 
+    /**
+     * Position of the connection in the pool of connections to the endpoint.
+     */
+    private final int                  slot;
+
+    /**
+     * Index of the client reactor which handles the connection.
+     */
+    private final int                  reactorIndex;
+
+    /**
+     * Set if the connection was removed from the client's connection table. No requests must be added after.
+     */
+    private boolean                    removed;
+
     volatile long bytesRX, bytesTX;
+
+    /**
+     * Number of requests sent and responses received. Only modified by the reactor's thread.
+     */
+    volatile long requestsSent, responsesReceived;
+
+    /**
+     * Sum of the sizes of all requests which are queued or waiting for a response.
+     */
+    private final AtomicLong           outstandingBytes;
     
 
     public RPCClientConnection(InetSocketAddress endpoint) {
+        this(endpoint, 0);
+    }
+
+    public RPCClientConnection(InetSocketAddress endpoint, int reactorIndex) {
+        this(endpoint, 0, reactorIndex);
+    }
+
+    public RPCClientConnection(InetSocketAddress endpoint, int slot, int reactorIndex) {
         requests = new HashMap<Integer, RPCClientRequest>();
         lastUsed = TimeSync.getLocalSystemTime();
         numConnectAttempts = 0;
         nextReconnectTime = 0;
-        sendQueue = new LinkedList<RPCClientRequest>();
+        highPrioritySendQueue = new ArrayDeque<RPCClientRequest>();
+        sendQueue = new ArrayDeque<RPCClientRequest>();
         requestRecordMarker = ByteBuffer.allocateDirect(RecordMarker.HDR_SIZE);
         responseRecordMarker = ByteBuffer.allocateDirect(RecordMarker.HDR_SIZE);
         this.endpoint = endpoint;
+        this.slot = slot;
+        this.reactorIndex = reactorIndex;
+        outstandingBytes = new AtomicLong(0);
         receiveState = ReceiveState.RECORD_MARKER;
         bytesTX = 0;
         bytesRX = 0;
@@ -83,6 +130,9 @@ public class RPCClientConnection {
             for (ReusableBuffer buf: responseBuffers)
                 BufferPool.free(buf);
         }
+        for (RPCClientRequest rq : highPrioritySendQueue) {
+            rq.freeBuffers();
+        }
         for (RPCClientRequest rq : sendQueue) {
             rq.freeBuffers();
         }
@@ -133,23 +183,144 @@ public class RPCClientConnection {
     }
 
     RPCClientRequest getRequest(int callId) {
-        return requests.remove(callId);
+        RPCClientRequest rq = requests.remove(callId);
+        if (rq != null) {
+            outstandingBytes.addAndGet(-rq.getSize());
+            responsesReceived++;
+        }
+        return rq;
     }
 
     void addRequest(int callId, RPCClientRequest rq) {
         requests.put(callId,rq);
+        requestsSent++;
     }
 
     void removeRequest(int callId) {
-        requests.remove(callId);
+        RPCClientRequest rq = requests.remove(callId);
+        if (rq != null) {
+            outstandingBytes.addAndGet(-rq.getSize());
+        }
     }
 
     Map<Integer,RPCClientRequest> getRequests() {
         return this.requests;
     }
 
-    List<RPCClientRequest> getSendQueue() {
-        return sendQueue;
+    /**
+     * Removes all requests which were sent and are waiting for a response.
+     *
+     * @return the removed requests
+     */
+    List<RPCClientRequest> removeSentRequests() {
+        List<RPCClientRequest> sent = new LinkedList<RPCClientRequest>(requests.values());
+        requests.clear();
+        for (RPCClientRequest rq : sent) {
+            outstandingBytes.addAndGet(-rq.getSize());
+        }
+        return sent;
+    }
+
+    /**
+     * Removes all sent requests which were queued before "time" and adds them to "timedOut".
+     */
+    void removeSentRequestsBefore(long time, List<RPCClientRequest> timedOut) {
+        Iterator<RPCClientRequest> iter = requests.values().iterator();
+        while (iter.hasNext()) {
+            final RPCClientRequest rq = iter.next();
+            if (rq.getTimeQueued() < time) {
+                timedOut.add(rq);
+                iter.remove();
+                outstandingBytes.addAndGet(-rq.getSize());
+            }
+        }
+    }
+
+    void enqueueRequest(RPCClientRequest rq, boolean highPriority) {
+        outstandingBytes.addAndGet(rq.getSize());
+        if (highPriority)
+            highPrioritySendQueue.add(rq);
+        else
+            sendQueue.add(rq);
+    }
+
+    /**
+     * @return the next request to send or null, if no request is queued
+     */
+    RPCClientRequest pollSendQueue() {
+        RPCClientRequest rq = highPrioritySendQueue.poll();
+        return rq != null ? rq : sendQueue.poll();
+    }
+
+    boolean isSendQueueEmpty() {
+        return highPrioritySendQueue.isEmpty() && sendQueue.isEmpty();
+    }
+
+    /**
+     * Removes all queued requests.
+     *
+     * @return the removed requests in the order they would have been sent
+     */
+    List<RPCClientRequest> removeQueuedRequests() {
+        List<RPCClientRequest> queued = new LinkedList<RPCClientRequest>(highPrioritySendQueue);
+        queued.addAll(sendQueue);
+        highPrioritySendQueue.clear();
+        sendQueue.clear();
+        for (RPCClientRequest rq : queued) {
+            outstandingBytes.addAndGet(-rq.getSize());
+        }
+        return queued;
+    }
+
+    /**
+     * Removes all queued requests which were queued before "time" and adds them to "timedOut".
+     */
+    void removeQueuedRequestsBefore(long time, List<RPCClientRequest> timedOut) {
+        removeRequestsBefore(highPrioritySendQueue, time, timedOut);
+        removeRequestsBefore(sendQueue, time, timedOut);
+    }
+
+    private void removeRequestsBefore(Queue<RPCClientRequest> queue, long time, List<RPCClientRequest> removed) {
+        Iterator<RPCClientRequest> iter = queue.iterator();
+        while (iter.hasNext()) {
+            final RPCClientRequest rq = iter.next();
+            if (rq.getTimeQueued() < time) {
+                removed.add(rq);
+                iter.remove();
+                outstandingBytes.addAndGet(-rq.getSize());
+            } else {
+                // requests are ordered :-)
+                break;
+            }
+        }
+    }
+
+    int getQueueLength() {
+        return highPrioritySendQueue.size() + sendQueue.size();
+    }
+
+    long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    InetSocketAddress getEndpoint() {
+        return endpoint;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    int getReactorIndex() {
+        return reactorIndex;
+    }
+
+    boolean isRemoved() {
+        return removed;
+    }
+
+    void markRemoved() {
+        removed = true;
     }
 
     
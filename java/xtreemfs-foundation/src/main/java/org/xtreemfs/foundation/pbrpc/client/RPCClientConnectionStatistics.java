@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.pbrpc.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Snapshot of the statistics of a single connection of an {@link RPCNIOSocketClient}.
+ */
+public class RPCClientConnectionStatistics {
+
+    private final InetSocketAddress endpoint;
+
+    private final int               slot;
+
+    private final boolean           connected;
+
+    private final long              bytesSent;
+
+    private final long              bytesReceived;
+
+    private final long              requestsSent;
+
+    private final long              responsesReceived;
+
+    private final int               queuedRequests;
+
+    private final int               pendingResponses;
+
+    private final long              outstandingBytes;
+
+    RPCClientConnectionStatistics(InetSocketAddress endpoint, int slot, boolean connected, long bytesSent,
+            long bytesReceived, long requestsSent, long responsesReceived, int queuedRequests, int pendingResponses,
+            long outstandingBytes) {
+        this.endpoint = endpoint;
+        this.slot = slot;
+        this.connected = connected;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.requestsSent = requestsSent;
+        this.responsesReceived = responsesReceived;
+        this.queuedRequests = queuedRequests;
+        this.pendingResponses = pendingResponses;
+        this.outstandingBytes = outstandingBytes;
+    }
+
+    public InetSocketAddress getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the position of the connection in the pool of connections to the endpoint
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getRequestsSent() {
+        return requestsSent;
+    }
+
+    public long getResponsesReceived() {
+        return responsesReceived;
+    }
+
+    /**
+     * @return the number of requests waiting to be sent
+     */
+    public int getQueuedRequests() {
+        return queuedRequests;
+    }
+
+    /**
+     * @return the number of sent requests waiting for a response
+     */
+    public int getPendingResponses() {
+        return pendingResponses;
+    }
+
+    /**
+     * @return the sum of the sizes of all queued requests and requests waiting for a response
+     */
+    public long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + "#" + slot + (connected ? "" : " (not connected)") + ": sent " + requestsSent
+                + " requests/" + bytesSent + " bytes, received " + responsesReceived + " responses/" + bytesReceived
+                + " bytes, " + queuedRequests + " queued, " + pendingResponses + " pending, " + outstandingBytes
+                + " bytes outstanding";
+    }
+}
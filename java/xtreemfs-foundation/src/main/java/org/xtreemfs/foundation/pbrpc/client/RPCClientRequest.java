@@ -127,6 +127,13 @@ public class RPCClientRequest<ReturnType extends Message> {
         return requestHeader;
     }
 
+    /**
+     * @return the number of bytes sent for the request, including the record marker
+     */
+    int getSize() {
+        return RecordMarker.HDR_SIZE + hdrLen + msgLen + dataLen;
+    }
+
     void queued() {
         this.timeQueued = TimeSync.getLocalSystemTime();
     }
@@ -20,16 +20,15 @@ import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.SSLOptions;
@@ -48,9 +47,21 @@ import org.xtreemfs.foundation.pbrpc.server.RPCNIOSocketServerConnection;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferInputStream;
 import org.xtreemfs.foundation.util.OutputUtils;
 
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Message;
 
 /**
+ * Client for PBRPC requests.<br>
+ * <br>
+ * By default, the client uses one connection per server. Optionally, it uses a pool of connections per server and
+ * sends each request over the connection with the least outstanding bytes. In this case, requests to the same
+ * server may overtake each other. Small requests can be given a connection of their own, so that they are not
+ * blocked by large transfers.<br>
+ * <br>
+ * The connections are distributed among one or more reactors, each
+ * of them running its own selector thread. The first reactor runs in the client's thread, additional ones in
+ * threads of their own. A connection is handled by the same reactor during its lifetime.
+ *
  * @author bjko
  */
 public class RPCNIOSocketClient extends LifeCycleThread {
@@ -62,15 +73,42 @@ public class RPCNIOSocketClient extends LifeCycleThread {
      */
     public static final int TIMEOUT_GRANULARITY = 250;
 
-    private final Map<InetSocketAddress, RPCClientConnection> connections;
+    public static final int DEFAULT_NUM_REACTORS = 1;
+
+    /**
+     * Name of the request field which identifies the file a request refers to. Large requests that carry data, i.e.
+     * writes, of the same file are always sent over the same connection of a pool, so that they are not reordered.
+     */
+    private static final String FILE_ID_FIELD = "file_id";
+
+    private final ConcurrentHashMap<ConnectionKey, RPCClientConnection> connections;
+
+    /**
+     * Number of connections per server.
+     */
+    private volatile int connectionsPerServer;
+
+    /**
+     * Requests up to this size (in bytes) are always sent over the first connection of a pool, larger ones over the
+     * other connections. 0 if small requests do not have a connection of their own.
+     */
+    private volatile int smallRequestThreshold;
 
     private final int requestTimeout;
 
     private final int connectionTimeout;
 
-    private AtomicLong lastCheck;
+    private final Reactor[] reactors;
 
-    private final Selector selector;
+    /**
+     * Used to assign new connections to the reactors in a round-robin fashion.
+     */
+    private final AtomicInteger nextReactor;
+
+    /**
+     * Set if a reactor thread other than the client's thread crashed.
+     */
+    private volatile Throwable reactorCrash;
 
     private volatile boolean quit;
 
@@ -78,8 +116,6 @@ public class RPCNIOSocketClient extends LifeCycleThread {
 
     private final AtomicInteger transactionId;
 
-    private final ConcurrentLinkedQueue<RPCClientConnection> toBeEstablished;
-
     private final int sendBufferSize;
 
     private final int receiveBufferSize;
@@ -120,6 +156,16 @@ public class RPCNIOSocketClient extends LifeCycleThread {
 
     public RPCNIOSocketClient(SSLOptions sslOptions, int requestTimeout, int connectionTimeout,
                               int sendBufferSize, int receiveBufferSize, SocketAddress localBindPoint, String threadName, boolean startAsDaemon) throws IOException {
+        this(sslOptions, requestTimeout, connectionTimeout, sendBufferSize, receiveBufferSize, localBindPoint, threadName,
+                startAsDaemon, DEFAULT_NUM_REACTORS);
+    }
+
+    /**
+     * @param numReactors number of selector threads which handle the connections, including the client's thread
+     */
+    public RPCNIOSocketClient(SSLOptions sslOptions, int requestTimeout, int connectionTimeout,
+                              int sendBufferSize, int receiveBufferSize, SocketAddress localBindPoint, String threadName,
+                              boolean startAsDaemon, int numReactors) throws IOException {
         super(threadName);
         setDaemon(startAsDaemon);
         if (requestTimeout >= connectionTimeout - TIMEOUT_GRANULARITY * 2) {
@@ -127,18 +173,25 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                     "request timeout must be smaller than connection timeout less " + TIMEOUT_GRANULARITY * 2
                             + "ms");
         }
-        this.lastCheck = new AtomicLong();
+        if (numReactors < 1) {
+            throw new IllegalArgumentException("number of reactors must be at least 1, but is " + numReactors);
+        }
         this.requestTimeout = requestTimeout;
         this.connectionTimeout = connectionTimeout;
         this.sendBufferSize = sendBufferSize;
         this.receiveBufferSize = receiveBufferSize;
         this.localBindPoint = localBindPoint;
-        connections = new HashMap<InetSocketAddress, RPCClientConnection>();
-        selector = Selector.open();
+        connections = new ConcurrentHashMap<ConnectionKey, RPCClientConnection>();
+        connectionsPerServer = 1;
+        smallRequestThreshold = 0;
+        reactors = new Reactor[numReactors];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i, threadName, startAsDaemon);
+        }
+        nextReactor = new AtomicInteger(0);
         this.sslOptions = sslOptions;
         quit = false;
         transactionId = new AtomicInteger((int) (Math.random() * 1e6 + 1.0));
-        toBeEstablished = new ConcurrentLinkedQueue<RPCClientConnection>();
 
         if (this.localBindPoint != null && Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
@@ -151,53 +204,126 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                             RPCResponse response, boolean highPriority) {
         try {
             RPCClientRequest rq = new RPCClientRequest(auth, uCred, transactionId.incrementAndGet(), interface_id, proc_id, message, data, response);
-            internalSendRequest(server, rq, highPriority);
+            // only writes have to keep their order, all other requests are load-balanced
+            final String fileId = connectionsPerServer > 1 && data != null ? getFileId(message) : null;
+            internalSendRequest(server, rq, fileId, highPriority);
         } catch (Throwable e) { // CancelledKeyException, RuntimeException (caused by missing TimeSyncThread)
             //e.printStackTrace();
             response.requestFailed(e.toString());
         }
     }
 
-    private void internalSendRequest(InetSocketAddress server, RPCClientRequest request, boolean highPriority) {
+    private void internalSendRequest(InetSocketAddress server, RPCClientRequest request, String fileId,
+            boolean highPriority) {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "sending request %s no %d", request
                     .toString(), transactionId.get());
         }
-        // get connection
-        RPCClientConnection con = null;
-        synchronized (connections) {
-            con = connections.get(server);
+        while (true) {
+            // get connection
+            final int slot = selectSlot(server, request, fileId);
+            final ConnectionKey conKey = new ConnectionKey(server, slot);
+            RPCClientConnection con = connections.get(conKey);
             if (con == null) {
-                con = new RPCClientConnection(server);
-                connections.put(server, con);
+                final RPCClientConnection newCon = new RPCClientConnection(server, slot,
+                        (nextReactor.getAndIncrement() & Integer.MAX_VALUE) % reactors.length);
+                con = connections.putIfAbsent(conKey, newCon);
+                if (con == null) {
+                    con = newCon;
+                }
             }
-        }
-        synchronized (con) {
-            boolean isEmpty = con.getSendQueue().isEmpty();
-            request.queued();
-            con.useConnection();
-            if (highPriority)
-                con.getSendQueue().add(0, request);
-            else
-                con.getSendQueue().add(request);
-
-            if (!con.isConnected()) {
-                establishConnection(server, con);
-
-            } else {
-                if (isEmpty) {
-                    final SelectionKey key = con.getChannel().keyFor(selector);
-                    if (key != null) {
-                        try {
-                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        } catch (CancelledKeyException e) {
-                            // Ignore it since the timeout mechanism will deal with it.
+            synchronized (con) {
+                if (con.isRemoved()) {
+                    // the connection was closed as idle in the meantime, use a new one
+                    continue;
+                }
+                final Selector selector = reactors[con.getReactorIndex()].selector;
+                boolean isEmpty = con.isSendQueueEmpty();
+                request.queued();
+                con.useConnection();
+                con.enqueueRequest(request, highPriority);
+
+                if (!con.isConnected()) {
+                    establishConnection(server, con);
+
+                } else {
+                    if (isEmpty) {
+                        final SelectionKey key = con.getChannel().keyFor(selector);
+                        if (key != null) {
+                            try {
+                                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                            } catch (CancelledKeyException e) {
+                                // Ignore it since the timeout mechanism will deal with it.
+                            }
                         }
+                        selector.wakeup();
                     }
-                    selector.wakeup();
                 }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Selects the connection of the server's pool which is used to send the request. Small requests always use the
+     * first connection. Larger requests with a file ID are always sent over the same connection per file, all others
+     * over the connection with the least outstanding bytes.
+     *
+     * @param fileId
+     *            the file the request refers to if its order has to be kept, or null
+     * @return the slot of the connection in the pool
+     */
+    private int selectSlot(InetSocketAddress server, RPCClientRequest request, String fileId) {
+        final int poolSize = connectionsPerServer;
+        if (poolSize <= 1) {
+            return 0;
+        }
+
+        int firstSlot = 0;
+        final int threshold = smallRequestThreshold;
+        if (threshold > 0) {
+            firstSlot = 1;
+        }
+
+        if (threshold > 0 && request.getSize() <= threshold) {
+            return 0;
+        }
+
+        if (fileId != null) {
+            return firstSlot + (fileId.hashCode() & Integer.MAX_VALUE) % (poolSize - firstSlot);
+        }
+
+        // use the connection with the least outstanding bytes
+        int bestSlot = firstSlot;
+        long bestOutstandingBytes = Long.MAX_VALUE;
+        for (int slot = firstSlot; slot < poolSize; slot++) {
+            final RPCClientConnection con = connections.get(new ConnectionKey(server, slot));
+            if (con == null) {
+                // not yet used
+                return slot;
+            }
+            final long outstandingBytes = con.getOutstandingBytes();
+            if (outstandingBytes < bestOutstandingBytes) {
+                bestSlot = slot;
+                bestOutstandingBytes = outstandingBytes;
             }
         }
+        return bestSlot;
+    }
+
+    /**
+     * @return the value of the request's file ID field, or null if it has none
+     */
+    private static String getFileId(Message message) {
+        if (message == null) {
+            return null;
+        }
+        final FieldDescriptor field = message.getDescriptorForType().findFieldByName(FILE_ID_FIELD);
+        if (field == null || field.isRepeated() || field.getJavaType() != FieldDescriptor.JavaType.STRING
+                || !message.hasField(field)) {
+            return null;
+        }
+        return (String) message.getField(field);
     }
 
     @Override
@@ -219,102 +345,47 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         }*/
 
         notifyStarted();
-        lastCheck.set(System.currentTimeMillis());
-
-        try {
-            while (!quit) {
-                if (!toBeEstablished.isEmpty()) {
-                    while (true) {
-                        RPCClientConnection con = toBeEstablished.poll();
-                        if (con == null) {
-                            break;
-                        }
-                        try {
-                            con.getChannel().register(selector,
-                                    SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE | SelectionKey.OP_READ, con);
-                        } catch (ClosedChannelException ex) {
-                            closeConnection(con.getChannel().keyFor(selector), ex.toString());
-                        }
-                    }
-                    toBeEstablished.clear();
-                }
-
-                int numKeys = 0;
-                try {
-                    numKeys = selector.select(TIMEOUT_GRANULARITY);
-                } catch (CancelledKeyException ex) {
-                    Logging.logMessage(Logging.LEVEL_WARN, Category.net, this, "Exception while selecting: %s",
-                            ex.toString());
-                    continue;
-                } catch (IOException ex) {
-                    Logging.logMessage(Logging.LEVEL_WARN, Category.net, this, "Exception while selecting: %s",
-                            ex.toString());
-                    continue;
-                }
-                if (numKeys > 0) {
-                    // fetch events
-                    Set<SelectionKey> keys = selector.selectedKeys();
-                    Iterator<SelectionKey> iter = keys.iterator();
-
-                    // process all events
-                    while (iter.hasNext()) {
-                        try {
-                            SelectionKey key = iter.next();
-
-                            // remove key from the list
-                            iter.remove();
-
-                            if (key.isConnectable()) {
-                                connectConnection(key);
-                            }
-                            if (key.isReadable()) {
-                                readConnection(key);
-                            }
-                            if (key.isWritable()) {
-                                writeConnection(key);
-                            }
-                        } catch (CancelledKeyException ex) {
-                        }
-                    }
-                }
 
-                if (numKeys == 0 && brokenSelect) {
+        for (int i = 1; i < reactors.length; i++) {
+            reactors[i].start();
+        }
 
-                    try {
-                        sleep(25);
-                    } catch (InterruptedException ex) {
-                        break;
-                    }
-                }
-                try {
-                    checkForTimers();
-                } catch (ConcurrentModificationException ce) {
-                    Logging.logMessage(Logging.LEVEL_CRIT, this,
-                            OutputUtils.getThreadDump());
-                }
+        try {
+            reactors[0].runLoop();
+            // clear the interrupt status set by shutdown() before waiting for the other reactors
+            Thread.interrupted();
+            for (int i = 1; i < reactors.length; i++) {
+                reactors[i].selector.wakeup();
+                reactors[i].join();
+            }
+            if (reactorCrash != null) {
+                throw reactorCrash;
             }
         } catch (Throwable thr) {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "PBRPC Client CRASHED!");
+            // stop the other reactors
+            quit = true;
+            for (Reactor reactor : reactors) {
+                reactor.selector.wakeup();
+            }
             notifyCrashed(thr);
         }
 
-        synchronized (connections) {
-            for (RPCClientConnection con : connections.values()) {
-                synchronized (con) {
-                    for (RPCClientRequest rq : con.getSendQueue()) {
-                        rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
-                        rq.freeBuffers();
-                    }
-                    for (RPCClientRequest rq : con.getRequests().values()) {
-                        rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
-                        rq.freeBuffers();
-                    }
-                    try {
-                        if (con.getChannel() != null)
-                            con.getChannel().close();
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
+        for (RPCClientConnection con : connections.values()) {
+            synchronized (con) {
+                for (RPCClientRequest rq : con.removeQueuedRequests()) {
+                    rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
+                    rq.freeBuffers();
+                }
+                for (RPCClientRequest rq : con.getRequests().values()) {
+                    rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
+                    rq.freeBuffers();
+                }
+                try {
+                    if (con.getChannel() != null)
+                        con.getChannel().close();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
                 }
             }
         }
@@ -367,8 +438,9 @@ public class RPCNIOSocketClient extends LifeCycleThread {
 
                 channel.connect(server);
                 con.setChannel(channel);
-                toBeEstablished.add(con);
-                selector.wakeup();
+                final Reactor reactor = reactors[con.getReactorIndex()];
+                reactor.toBeEstablished.add(con);
+                reactor.selector.wakeup();
                 if (Logging.isDebug()) {
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "connection created");
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "socket send buffer size: %d",
@@ -393,11 +465,10 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                             con.getEndpointString());
                 }
                 con.connectFailed();
-                for (RPCClientRequest rq : con.getSendQueue()) {
+                for (RPCClientRequest rq : con.removeQueuedRequests()) {
                     rq.getResponse().requestFailed("sending RPC failed: server '" + con.getEndpointString() + "' not reachable (" + ex + ")");
                     rq.freeBuffers();
                 }
-                con.getSendQueue().clear();
 
             }
         } else {
@@ -406,11 +477,10 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                         "reconnect to server still blocked locally to avoid flooding (server: %s)", con.getEndpointString());
             }
             synchronized (con) {
-                for (RPCClientRequest rq : con.getSendQueue()) {
+                for (RPCClientRequest rq : con.removeQueuedRequests()) {
                     rq.getResponse().requestFailed("sending RPC failed: reconnecting to the server '" + con.getEndpointString() + "' was blocked locally to avoid flooding");
                     rq.freeBuffers();
                 }
-                con.getSendQueue().clear();
             }
         }
 
@@ -448,6 +518,9 @@ public class RPCNIOSocketClient extends LifeCycleThread {
 
                         // read fragment header
                         final int numBytesRead = RPCNIOSocketServer.readData(key, channel, buf);
+                        if (numBytesRead > 0) {
+                            con.bytesRX += numBytesRead;
+                        }
                         if (numBytesRead == -1) {
                             // connection closed
                             if (Logging.isInfo()) {
@@ -592,12 +665,12 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                         if (buffers == null) {
                             assert (send == null);
                             synchronized (con) {
-                                if (con.getSendQueue().isEmpty()) {
+                                send = con.pollSendQueue();
+                                if (send == null) {
                                     // no more responses, stop writing...
                                     key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
                                     break;
                                 }
-                                send = con.getSendQueue().remove(0);
                             }
                             assert (send != null);
                             con.getRequestRecordMarker().clear();
@@ -618,6 +691,7 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                             closeConnection(key, "server unexpectedly closed connection (EOF)");
                             return;
                         }
+                        con.bytesTX += numBytesWritten;
                         // Detect if the client writes outside of the fragment.
                         send.recordBytesWritten(numBytesWritten);
 
@@ -673,7 +747,7 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                 channel.finishConnect();
             }
             synchronized (con) {
-                if (!con.getSendQueue().isEmpty()) {
+                if (!con.isSendQueueEmpty()) {
                     key.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
                 }
             }
@@ -704,10 +778,8 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                 channel.close();
             } catch (Exception ex) {
             }
-            cancelRq.addAll(con.getRequests().values());
-            cancelRq.addAll(con.getSendQueue());
-            con.getRequests().clear();
-            con.getSendQueue().clear();
+            cancelRq.addAll(con.removeSentRequests());
+            cancelRq.addAll(con.removeQueuedRequests());
             con.setChannel(null);
         }
 
@@ -723,60 +795,52 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         }
     }
 
-    private void checkForTimers() {
+    private void checkForTimers(Reactor reactor) {
         // poor man's timer
         long now = System.currentTimeMillis();
-        if (now >= lastCheck.get() + TIMEOUT_GRANULARITY) {
-            // check for timed out requests
-            synchronized (connections) {
-                Iterator<RPCClientConnection> conIter = connections.values().iterator();
-                while (conIter.hasNext()) {
-                    final RPCClientConnection con = conIter.next();
-
-                    if (con.getLastUsed() < (now - connectionTimeout)) {
-                        if (Logging.isDebug()) {
-                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
-                                    "removing idle connection");
-                        }
-                        try {
-                            conIter.remove();
-                            closeConnection(con.getChannel().keyFor(selector), null);
-                        } catch (Exception ex) {
-                        }
-                    } else {
-                        // check for request timeout
-                        List<RPCClientRequest> cancelRq = new LinkedList<RPCClientRequest>();
-                        synchronized (con) {
-                            Iterator<RPCClientRequest> iter = con.getRequests().values().iterator();
-                            while (iter.hasNext()) {
-                                final RPCClientRequest rq = iter.next();
-                                if (rq.getTimeQueued() + requestTimeout < now) {
-                                    cancelRq.add(rq);
-                                    iter.remove();
-                                }
-                            }
-                            iter = con.getSendQueue().iterator();
-                            while (iter.hasNext()) {
-                                final RPCClientRequest rq = iter.next();
-                                if (rq.getTimeQueued() + requestTimeout < now) {
-                                    cancelRq.add(rq);
-                                    iter.remove();
-                                } else {
-                                    // requests are ordered :-)
-                                    break;
-                                }
-                            }
-                        }
-                        for (RPCClientRequest rq : cancelRq) {
-                            rq.getResponse().requestFailed("sending RPC failed: request timed out");
-                            rq.freeBuffers();
-                        }
+        if (now >= reactor.lastCheck + TIMEOUT_GRANULARITY) {
+            // check for timed out requests on the connections of the reactor
+            Iterator<RPCClientConnection> conIter = connections.values().iterator();
+            while (conIter.hasNext()) {
+                final RPCClientConnection con = conIter.next();
+                if (con.getReactorIndex() != reactor.index) {
+                    continue;
+                }
 
+                boolean idle;
+                synchronized (con) {
+                    idle = con.getLastUsed() < (now - connectionTimeout);
+                    if (idle) {
+                        con.markRemoved();
                     }
                 }
 
-                lastCheck.set(now);
+                if (idle) {
+                    if (Logging.isDebug()) {
+                        Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                                "removing idle connection");
+                    }
+                    try {
+                        conIter.remove();
+                        closeConnection(con.getChannel().keyFor(reactor.selector), null);
+                    } catch (Exception ex) {
+                    }
+                } else {
+                    // check for request timeout
+                    List<RPCClientRequest> cancelRq = new LinkedList<RPCClientRequest>();
+                    synchronized (con) {
+                        con.removeSentRequestsBefore(now - requestTimeout, cancelRq);
+                        con.removeQueuedRequestsBefore(now - requestTimeout, cancelRq);
+                    }
+                    for (RPCClientRequest rq : cancelRq) {
+                        rq.getResponse().requestFailed("sending RPC failed: request timed out");
+                        rq.freeBuffers();
+                    }
+
+                }
             }
+
+            reactor.lastCheck = now;
         }
     }
 
@@ -784,6 +848,40 @@ public class RPCNIOSocketClient extends LifeCycleThread {
     public void shutdown() {
         this.quit = true;
         this.interrupt();
+        for (Reactor reactor : reactors) {
+            reactor.selector.wakeup();
+        }
+    }
+
+    /**
+     * Sets the number of connections which are used for each server. The default is 1.
+     * <p>
+     * Requests with a "file_id" field are pinned to a connection by their file ID, so requests on the same file
+     * arrive in the order they were sent. All other requests go over the connection with the least outstanding
+     * bytes; with more than one connection, they may overtake each other.
+     */
+    public void setConnectionsPerServer(int connectionsPerServer) {
+        if (connectionsPerServer < 1) {
+            throw new IllegalArgumentException("number of connections per server must be at least 1, but is "
+                    + connectionsPerServer);
+        }
+        this.connectionsPerServer = connectionsPerServer;
+    }
+
+    public int getConnectionsPerServer() {
+        return connectionsPerServer;
+    }
+
+    /**
+     * If there are multiple connections per server, requests up to "smallRequestThreshold" bytes are always sent
+     * over the first connection and all other requests over the remaining ones. 0 (the default) disables this.
+     */
+    public void setSmallRequestThreshold(int smallRequestThreshold) {
+        this.smallRequestThreshold = smallRequestThreshold;
+    }
+
+    public int getSmallRequestThreshold() {
+        return smallRequestThreshold;
     }
 
     /**
@@ -792,13 +890,200 @@ public class RPCNIOSocketClient extends LifeCycleThread {
      * @return an array with the number of bytes received [0] and sent [1]
      */
     public long[] getTransferStats(InetSocketAddress server) {
-        RPCClientConnection con = null;
-        synchronized (connections) {
-            con = connections.get(server);
+        long[] stats = null;
+        for (RPCClientConnectionStatistics conStats : getConnectionStatistics(server)) {
+            if (stats == null) {
+                stats = new long[2];
+            }
+            stats[0] += conStats.getBytesReceived();
+            stats[1] += conStats.getBytesSent();
+        }
+        return stats;
+    }
+
+    /**
+     * @return the statistics of all open connections to the server, ordered by their slot
+     */
+    public List<RPCClientConnectionStatistics> getConnectionStatistics(InetSocketAddress server) {
+        List<RPCClientConnectionStatistics> stats = new ArrayList<RPCClientConnectionStatistics>();
+        final int poolSize = connectionsPerServer;
+        for (int slot = 0; slot < poolSize; slot++) {
+            final RPCClientConnection con = connections.get(new ConnectionKey(server, slot));
+            if (con != null) {
+                stats.add(getConnectionStatistics(con));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the statistics of all open connections
+     */
+    public List<RPCClientConnectionStatistics> getConnectionStatistics() {
+        List<RPCClientConnectionStatistics> stats = new ArrayList<RPCClientConnectionStatistics>();
+        for (RPCClientConnection con : connections.values()) {
+            stats.add(getConnectionStatistics(con));
+        }
+        return stats;
+    }
+
+    private static RPCClientConnectionStatistics getConnectionStatistics(RPCClientConnection con) {
+        synchronized (con) {
+            return new RPCClientConnectionStatistics(con.getEndpoint(), con.getSlot(), con.isConnected(),
+                    con.bytesTX, con.bytesRX, con.requestsSent, con.responsesReceived, con.getQueueLength(),
+                    con.getRequests().size(), con.getOutstandingBytes());
+        }
+    }
+
+    /**
+     * @return the number of reactors which handle the connections
+     */
+    public int getNumReactors() {
+        return reactors.length;
+    }
+
+    /**
+     * Identifies a connection by the server and its position in the server's pool of connections.
+     */
+    private static final class ConnectionKey {
+
+        private final InetSocketAddress server;
+
+        private final int               slot;
+
+        ConnectionKey(InetSocketAddress server, int slot) {
+            this.server = server;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ConnectionKey)) {
+                return false;
+            }
+            ConnectionKey other = (ConnectionKey) obj;
+            return slot == other.slot && server.equals(other.server);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * server.hashCode() + slot;
+        }
+    }
+
+    /**
+     * A selector thread which handles the I/O and timeouts of the connections assigned to it.
+     */
+    private final class Reactor extends Thread {
+
+        private final int                                       index;
+
+        private final Selector                                  selector;
+
+        private final ConcurrentLinkedQueue<RPCClientConnection> toBeEstablished;
+
+        /**
+         * Time of the last timeout check. Only accessed by the reactor's thread.
+         */
+        private long                                            lastCheck;
+
+        Reactor(int index, String threadName, boolean startAsDaemon) throws IOException {
+            super(threadName + "-" + index);
+            setDaemon(startAsDaemon);
+            this.index = index;
+            this.selector = Selector.open();
+            this.toBeEstablished = new ConcurrentLinkedQueue<RPCClientConnection>();
+        }
+
+        @Override
+        public void run() {
+            try {
+                runLoop();
+            } catch (Throwable thr) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "PBRPC Client reactor %d CRASHED!", index);
+                reactorCrash = thr;
+                RPCNIOSocketClient.this.shutdown();
+            }
+        }
+
+        /**
+         * Processes events until the client is shut down.
+         */
+        void runLoop() throws IOException {
+            lastCheck = System.currentTimeMillis();
+
+            while (!quit) {
+                if (!toBeEstablished.isEmpty()) {
+                    while (true) {
+                        RPCClientConnection con = toBeEstablished.poll();
+                        if (con == null) {
+                            break;
+                        }
+                        try {
+                            con.getChannel().register(selector,
+                                    SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE | SelectionKey.OP_READ, con);
+                        } catch (ClosedChannelException ex) {
+                            closeConnection(con.getChannel().keyFor(selector), ex.toString());
+                        }
+                    }
+                }
+
+                int numKeys = 0;
+                try {
+                    numKeys = selector.select(TIMEOUT_GRANULARITY);
+                } catch (CancelledKeyException ex) {
+                    Logging.logMessage(Logging.LEVEL_WARN, Category.net, this, "Exception while selecting: %s",
+                            ex.toString());
+                    continue;
+                } catch (IOException ex) {
+                    Logging.logMessage(Logging.LEVEL_WARN, Category.net, this, "Exception while selecting: %s",
+                            ex.toString());
+                    continue;
+                }
+                if (numKeys > 0) {
+                    // fetch events
+                    Set<SelectionKey> keys = selector.selectedKeys();
+                    Iterator<SelectionKey> iter = keys.iterator();
+
+                    // process all events
+                    while (iter.hasNext()) {
+                        try {
+                            SelectionKey key = iter.next();
+
+                            // remove key from the list
+                            iter.remove();
+
+                            if (key.isConnectable()) {
+                                connectConnection(key);
+                            }
+                            if (key.isReadable()) {
+                                readConnection(key);
+                            }
+                            if (key.isWritable()) {
+                                writeConnection(key);
+                            }
+                        } catch (CancelledKeyException ex) {
+                        }
+                    }
+                }
+
+                if (numKeys == 0 && brokenSelect) {
+
+                    try {
+                        sleep(25);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+                try {
+                    checkForTimers(this);
+                } catch (ConcurrentModificationException ce) {
+                    Logging.logMessage(Logging.LEVEL_CRIT, this,
+                            OutputUtils.getThreadDump());
+                }
+            }
+
+            selector.close();
         }
-        if (con == null)
-            return null;
-        else
-            return new long[]{con.bytesRX, con.bytesTX};
     }
 }
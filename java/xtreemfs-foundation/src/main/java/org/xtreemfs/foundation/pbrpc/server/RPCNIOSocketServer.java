@@ -24,12 +24,15 @@ import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.SSLOptions;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -39,6 +42,13 @@ import org.xtreemfs.foundation.pbrpc.channels.SSLHandshakeOnlyChannelIO;
 import org.xtreemfs.foundation.util.OutputUtils;
 
 /**
+ * Server for PBRPC requests.<br>
+ * <br>
+ * The server can either run with a single selector thread, which accepts new connections and handles all reads
+ * and writes, or with one acceptor thread and a pool of selector threads ("reactors"). In the latter case, every
+ * accepted connection is assigned to a reactor in a round-robin fashion and is handled by this reactor until it
+ * is closed.
+ *
  * @author bjko
  */
 public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInterface {
@@ -55,42 +65,45 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     private final ServerSocketChannel socket;
 
     /**
-     * Selector for server socket
+     * Selector for server socket. Identical to the selector of the only reactor if there is a single one.
      */
-    private final Selector selector;
+    private final Selector acceptSelector;
 
     /**
-     * If set to true the main loop will exit upon next invocation
+     * Selector threads which handle the accepted connections.
      */
-    private volatile boolean quit;
+    private final Reactor[] reactors;
 
     /**
-     * The receiver that gets all incoming requests.
+     * Reactor to which the next accepted connection is assigned. Only accessed by the acceptor thread.
      */
-    private volatile RPCServerRequestListener receiver;
+    private int nextReactor;
 
     /**
-     * sslOptions if SSL is enabled, null otherwise
+     * Set if a reactor thread crashed while the server was running with multiple reactors.
      */
-    private final SSLOptions sslOptions;
+    private volatile Throwable reactorCrash;
+
+    /**
+     * If set to true the main loop will exit upon next invocation
+     */
+    private volatile boolean quit;
 
     /**
-     * Connection count
+     * The receiver that gets all incoming requests.
      */
-    private final AtomicInteger numConnections;
+    private volatile RPCServerRequestListener receiver;
 
     /**
-     * Number of requests received but not answered
+     * sslOptions if SSL is enabled, null otherwise
      */
-    private long pendingRequests;
+    private final SSLOptions sslOptions;
 
     /**
      * Port on which the server listens for incoming connections.
      */
     private final int bindPort;
 
-    private final List<RPCNIOSocketServerConnection> connections;
-
     /**
      * maximum number of pending client requests to allow
      */
@@ -104,6 +117,8 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
     public static final int DEFAULT_MAX_CLIENT_Q_LENGTH = 100;
 
+    public static final int DEFAULT_NUM_SELECTOR_THREADS = 1;
+
     public RPCNIOSocketServer(int bindPort, InetAddress bindAddr, RPCServerRequestListener rl,
                               SSLOptions sslOptions) throws IOException {
         this(bindPort, bindAddr, rl, sslOptions, 0, -1);
@@ -122,8 +137,24 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     public RPCNIOSocketServer(int bindPort, InetAddress bindAddr, RPCServerRequestListener rl,
                               SSLOptions sslOptions, int bindRetries, int receiveBufferSize,
                               int maxClientQLength) throws IOException {
+        this(bindPort, bindAddr, rl, sslOptions, bindRetries, receiveBufferSize, maxClientQLength,
+                DEFAULT_NUM_SELECTOR_THREADS);
+    }
+
+    /**
+     * @param numSelectorThreads number of reactors which handle the accepted connections. If it is greater than
+     *                           one, an additional thread accepts new connections.
+     */
+    public RPCNIOSocketServer(int bindPort, InetAddress bindAddr, RPCServerRequestListener rl,
+                              SSLOptions sslOptions, int bindRetries, int receiveBufferSize,
+                              int maxClientQLength, int numSelectorThreads) throws IOException {
         super("PBRPCSrv@" + bindPort);
 
+        if (numSelectorThreads < 1) {
+            throw new IllegalArgumentException("number of selector threads must be at least 1, but is "
+                    + numSelectorThreads);
+        }
+
         // open server socket
         socket = ServerSocketChannel.open();
         socket.configureBlocking(false);
@@ -183,9 +214,13 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
                     + " after " + bindTry + " attempts");
         }
 
-        // create a selector and register socket
-        selector = Selector.open();
-        socket.register(selector, SelectionKey.OP_ACCEPT);
+        // create the reactors and register socket
+        reactors = new Reactor[numSelectorThreads];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+        acceptSelector = reactors.length == 1 ? reactors[0].selector : Selector.open();
+        socket.register(acceptSelector, SelectionKey.OP_ACCEPT);
 
         // server is ready to accept connections now
 
@@ -193,10 +228,6 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
         this.sslOptions = sslOptions;
 
-        this.numConnections = new AtomicInteger(0);
-
-        this.connections = new LinkedList<RPCNIOSocketServerConnection>();
-
         this.maxClientQLength = maxClientQLength;
         this.clientQThreshold = (maxClientQLength / 2 >= 0) ? maxClientQLength / 2 : 0;
         if (maxClientQLength <= 1) {
@@ -211,6 +242,9 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     public void shutdown() {
         this.quit = true;
         this.interrupt();
+        for (Reactor reactor : reactors) {
+            reactor.selector.wakeup();
+        }
     }
 
     /**
@@ -234,6 +268,7 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
         assert (connection.getServer() == this);
 
         if (!connection.isConnectionClosed()) {
+            final Selector selector = reactors[connection.getReactorIndex()].selector;
             synchronized (connection) {
                 boolean isEmpty = connection.getPendingResponses().isEmpty();
                 connection.addPendingResponse(response);
@@ -273,59 +308,32 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
         }
 
         try {
-            while (!quit) {
-                // try to select events...
-                int numKeys = 0;
-                try {
-                    numKeys = selector.select();
-                } catch (CancelledKeyException ex) {
-                    // who cares
-                } catch (IOException ex) {
-                    Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
-                            "Exception while selecting: %s", ex.toString());
-                    continue;
+            if (reactors.length == 1) {
+                // the reactor accepts new connections as well
+                while (!quit) {
+                    reactors[0].selectAndProcess();
                 }
-
-                if (numKeys > 0) {
-                    // fetch events
-                    Set<SelectionKey> keys = selector.selectedKeys();
-                    Iterator<SelectionKey> iter = keys.iterator();
-
-                    // process all events
-                    while (iter.hasNext()) {
-                        SelectionKey key = iter.next();
-
-                        // remove key from the list
-                        iter.remove();
-                        try {
-
-                            if (key.isAcceptable()) {
-                                acceptConnection();
-                            }
-                            if (key.isReadable()) {
-                                readConnection(key);
-                            }
-                            if (key.isWritable()) {
-                                writeConnection(key);
-                            }
-                        } catch (CancelledKeyException ex) {
-                            // nobody cares...
-                            continue;
-                        }
-                    }
+                reactors[0].closeConnections();
+            } else {
+                for (Reactor reactor : reactors) {
+                    reactor.start();
                 }
-            }
-
-            for (RPCNIOSocketServerConnection con : connections) {
-                try {
-                    con.getChannel().close();
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+                while (!quit) {
+                    selectAndAccept();
+                }
+                // clear the interrupt status set by shutdown() before waiting for the reactors
+                Thread.interrupted();
+                for (Reactor reactor : reactors) {
+                    reactor.selector.wakeup();
+                    reactor.join();
+                }
+                acceptSelector.close();
+                if (reactorCrash != null) {
+                    throw reactorCrash;
                 }
             }
 
             // close socket
-            selector.close();
             socket.close();
 
             if (Logging.isInfo())
@@ -340,6 +348,37 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
     }
 
+    /**
+     * Waits for new connections on the server socket and accepts them. Only used if there are multiple reactors.
+     */
+    private void selectAndAccept() throws IOException {
+        int numKeys = 0;
+        try {
+            numKeys = acceptSelector.select();
+        } catch (CancelledKeyException ex) {
+            // who cares
+        } catch (IOException ex) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
+                    "Exception while selecting: %s", ex.toString());
+            return;
+        }
+
+        if (numKeys > 0) {
+            Iterator<SelectionKey> iter = acceptSelector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                try {
+                    if (key.isAcceptable()) {
+                        acceptConnection();
+                    }
+                } catch (CancelledKeyException ex) {
+                    // nobody cares...
+                }
+            }
+        }
+    }
+
     /**
      * read data from a readable connection
      *
@@ -349,6 +388,7 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
         final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
         final ChannelIO channel = con.getChannel();
+        final Reactor reactor = reactors[con.getReactorIndex()];
 
         try {
 
@@ -485,7 +525,7 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
                         if (Logging.isDebug())
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
                                     "request received");
-                        pendingRequests++;
+                        reactor.pendingRequests++;
                         if (!receiveRequest(rq, con)) {
                             closeConnection(key);
                             return;
@@ -531,6 +571,7 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
         final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
         final ChannelIO channel = con.getChannel();
+        final Reactor reactor = reactors[con.getReactorIndex()];
 
         try {
 
@@ -587,10 +628,22 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
                             key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                             break;
                         }
+
+                        // send the data from the file, if any; a chunk of at
+                        // most what the socket accepts is sent at a time, the
+                        // rest as soon as the socket is writable again
+                        final FileRegion region = con.getPendingResponses().peek().getFileRegion();
+                        if (region != null && region.hasRemaining()) {
+                            con.recordBytesSent(channel.transferFrom(region));
+                            if (region.hasRemaining()) {
+                                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                                break;
+                            }
+                        }
                         con.checkEnoughBytesSent();
                         // finished sending fragment
                         // clean up :-) request finished
-                        pendingRequests--;
+                        reactor.pendingRequests--;
                         RPCServerResponse rq = con.getPendingResponses().poll();
                         if (Logging.isDebug()) {
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
@@ -676,17 +729,18 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     private void closeConnection(SelectionKey key) {
         final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
         final ChannelIO channel = con.getChannel();
+        final Reactor reactor = reactors[con.getReactorIndex()];
 
         // remove the connection from the selector and close socket
         try {
-            connections.remove(con);
+            reactor.connections.remove(con);
             con.setConnectionClosed(true);
             key.cancel();
             channel.close();
         } catch (Exception ex) {
         } finally {
             // adjust connection count and make sure buffers are freed
-            numConnections.decrementAndGet();
+            reactor.numConnections.decrementAndGet();
             con.freeBuffers();
         }
 
@@ -697,7 +751,7 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     }
 
     /**
-     * accept a new incoming connection
+     * accept a new incoming connection and assign it to the next reactor
      */
     private void acceptConnection() throws IOException {
         SocketChannel client = null;
@@ -721,15 +775,22 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
             }
             con = new RPCNIOSocketServerConnection(this, channelIO);
 
+            final Reactor reactor = reactors[nextReactor];
+            nextReactor = (nextReactor + 1) % reactors.length;
+            con.setReactorIndex(reactor.index);
+
             // and configure it to be non blocking
             // IMPORTANT!
             client.configureBlocking(false);
-            client.register(selector, SelectionKey.OP_READ, con);
             client.socket().setTcpNoDelay(true);
 
-            numConnections.incrementAndGet();
-
-            this.connections.add(con);
+            // the connection is registered by the reactor's thread, since registering blocks while
+            // another thread is selecting
+            reactor.numConnections.incrementAndGet();
+            reactor.newConnections.add(con);
+            if (reactors.length > 1) {
+                reactor.selector.wakeup();
+            }
 
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "connect from client at %s",
@@ -778,10 +839,172 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     }
 
     public int getNumConnections() {
-        return this.numConnections.get();
+        int numConnections = 0;
+        for (Reactor reactor : reactors) {
+            numConnections += reactor.numConnections.get();
+        }
+        return numConnections;
     }
 
     public long getPendingRequests() {
-        return this.pendingRequests;
+        long pendingRequests = 0;
+        for (Reactor reactor : reactors) {
+            pendingRequests += reactor.pendingRequests;
+        }
+        return pendingRequests;
+    }
+
+    /**
+     * @return the number of reactors which handle the accepted connections
+     */
+    public int getNumSelectorThreads() {
+        return reactors.length;
+    }
+
+    /**
+     * @return the number of connections assigned to the reactor with the given index
+     */
+    public int getNumConnections(int reactorIndex) {
+        return reactors[reactorIndex].numConnections.get();
+    }
+
+    /**
+     * @return the number of requests received but not answered on connections of the reactor with the given
+     *         index
+     */
+    public long getPendingRequests(int reactorIndex) {
+        return reactors[reactorIndex].pendingRequests;
+    }
+
+    /**
+     * A selector thread which reads requests from and writes responses to the connections assigned to it.
+     */
+    private final class Reactor extends Thread {
+
+        private final int                                   index;
+
+        private final Selector                              selector;
+
+        /**
+         * Connections handled by this reactor. Only accessed by the reactor's thread.
+         */
+        private final List<RPCNIOSocketServerConnection>    connections;
+
+        /**
+         * Accepted connections which have not been registered with the selector yet.
+         */
+        private final Queue<RPCNIOSocketServerConnection>   newConnections;
+
+        private final AtomicInteger                         numConnections;
+
+        /**
+         * Number of requests received but not answered. Only modified by the reactor's thread.
+         */
+        private volatile long                               pendingRequests;
+
+        Reactor(int index) throws IOException {
+            super("PBRPCSrv@" + bindPort + "-" + index);
+            this.index = index;
+            this.selector = Selector.open();
+            this.connections = new LinkedList<RPCNIOSocketServerConnection>();
+            this.newConnections = new ConcurrentLinkedQueue<RPCNIOSocketServerConnection>();
+            this.numConnections = new AtomicInteger(0);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!quit) {
+                    selectAndProcess();
+                }
+                closeConnections();
+            } catch (Throwable thr) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "PBRPC Server %d reactor %d CRASHED!",
+                        bindPort, index);
+                reactorCrash = thr;
+                RPCNIOSocketServer.this.shutdown();
+            }
+        }
+
+        /**
+         * Registers new connections, waits for events and processes them.
+         */
+        void selectAndProcess() throws IOException {
+            registerNewConnections();
+
+            // try to select events...
+            int numKeys = 0;
+            try {
+                numKeys = selector.select();
+            } catch (CancelledKeyException ex) {
+                // who cares
+            } catch (IOException ex) {
+                Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
+                        "Exception while selecting: %s", ex.toString());
+                return;
+            }
+
+            if (numKeys > 0) {
+                // fetch events
+                Set<SelectionKey> keys = selector.selectedKeys();
+                Iterator<SelectionKey> iter = keys.iterator();
+
+                // process all events
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+
+                    // remove key from the list
+                    iter.remove();
+                    try {
+
+                        if (key.isAcceptable()) {
+                            acceptConnection();
+                        }
+                        if (key.isReadable()) {
+                            readConnection(key);
+                        }
+                        if (key.isWritable()) {
+                            writeConnection(key);
+                        }
+                    } catch (CancelledKeyException ex) {
+                        // nobody cares...
+                        continue;
+                    }
+                }
+            }
+        }
+
+        private void registerNewConnections() {
+            RPCNIOSocketServerConnection con;
+            while ((con = newConnections.poll()) != null) {
+                try {
+                    con.getChannel().register(selector, SelectionKey.OP_READ, con);
+                    connections.add(con);
+                } catch (ClosedChannelException ex) {
+                    if (Logging.isInfo()) {
+                        Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                                "client closed connection during accept");
+                    }
+                    numConnections.decrementAndGet();
+                    con.setConnectionClosed(true);
+                    con.freeBuffers();
+                }
+            }
+        }
+
+        /**
+         * Closes all connections of the reactor and its selector.
+         */
+        void closeConnections() throws IOException {
+            registerNewConnections();
+            for (RPCNIOSocketServerConnection con : connections) {
+                try {
+                    con.getChannel().close();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            selector.close();
+        }
     }
 }
@@ -59,6 +59,11 @@ public class RPCNIOSocketServerConnection implements RPCServerConnectionInterfac
     
     private int                 expectedRecordSize;
 
+    /**
+     * Index of the reactor of the server which handles the connection.
+     */
+    private int                 reactorIndex;
+
     public RPCNIOSocketServerConnection(RPCServerInterface server, ChannelIO channel) {
         assert(server != null);
         assert(channel != null);
@@ -194,6 +199,14 @@ public class RPCNIOSocketServerConnection implements RPCServerConnectionInterfac
     }
 
 
+    int getReactorIndex() {
+        return reactorIndex;
+    }
+
+    void setReactorIndex(int reactorIndex) {
+        this.reactorIndex = reactorIndex;
+    }
+
     /**
      * @return the clientAddress
      */
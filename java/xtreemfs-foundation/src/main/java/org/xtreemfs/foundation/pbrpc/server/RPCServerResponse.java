@@ -12,6 +12,7 @@ import com.google.protobuf.Message;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferOutputStream;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC;
@@ -30,13 +31,34 @@ public class RPCServerResponse {
     final int msgLen;
     final int dataLen;
 
+    /**
+     * data sent after the buffers, directly from a file
+     */
+    final FileRegion fileRegion;
+
     public RPCServerResponse(RPC.RPCHeader header, Message message, ReusableBuffer data) throws IOException {
+        this(header, message, data, null);
+    }
+
+    /**
+     * Creates a response with the data from either a buffer or a file region.
+     */
+    public RPCServerResponse(RPC.RPCHeader header, Message message, ReusableBuffer data, FileRegion fileRegion)
+            throws IOException {
+        assert (data == null || fileRegion == null);
         ReusableBufferOutputStream os = new ReusableBufferOutputStream(ReusableBufferOutputStream.BUFF_SIZE);
         callId = header.getCallId();
+        this.fileRegion = fileRegion;
 
         hdrLen = header.getSerializedSize();
         msgLen = (message != null) ? message.getSerializedSize() : 0;
-        dataLen = (data != null) ? data.capacity() : 0;
+        if (data != null) {
+            dataLen = data.capacity();
+        } else if (fileRegion != null) {
+            dataLen = fileRegion.getCount();
+        } else {
+            dataLen = 0;
+        }
 
         assert(hdrLen > 0);
         assert(msgLen >= 0);
@@ -60,6 +82,14 @@ public class RPCServerResponse {
         return buffers;
     }
 
+    /**
+     * @return the file region to be sent after the buffers, or
+     *         <code>null</code>
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
     public ByteBuffer[] packBuffers(ByteBuffer recordMarker) {
         ByteBuffer[] arr = new ByteBuffer[buffers.length];
         for (int i = 0; i < buffers.length; i++)
@@ -72,6 +102,9 @@ public class RPCServerResponse {
             BufferPool.free(buffers[i]);
             buffers[i] = null;
         }
+        if (fileRegion != null) {
+            fileRegion.release();
+        }
     }
 
     public String toString() {
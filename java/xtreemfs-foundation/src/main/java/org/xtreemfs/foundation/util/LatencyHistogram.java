@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with exponentially growing buckets, which can be
+ * updated concurrently without locking. Bucket <code>i</code> counts the
+ * latencies below 2^i microseconds that do not fall into a lower bucket, so
+ * that percentiles are accurate up to a factor of two.
+ */
+public final class LatencyHistogram {
+
+    private static final int   NUM_BUCKETS = 40;
+
+    private final AtomicLongArray buckets;
+
+    private final AtomicLong   count;
+
+    private final AtomicLong   sumNanos;
+
+    private final AtomicLong   maxNanos;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new AtomicLong();
+        sumNanos = new AtomicLong();
+        maxNanos = new AtomicLong();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        final long us = nanos / 1000;
+        final int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sumNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * @return the maximum latency in milliseconds
+     */
+    public double getMax() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the recorded
+     * latencies.
+     *
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the percentile in milliseconds
+     */
+    public double getPercentile(double percentile) {
+        final long n = count.get();
+        if (n == 0)
+            return 0;
+
+        final long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0)
+                return Math.min((1L << i) / 1e3, getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("avg %.2f ms, 50%% %.2f ms, 99%% %.2f ms, max %.2f ms", getMean(),
+                getPercentile(50), getPercentile(99), getMax());
+    }
+
+}
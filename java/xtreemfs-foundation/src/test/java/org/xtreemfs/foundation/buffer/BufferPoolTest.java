@@ -9,6 +9,9 @@ package org.xtreemfs.foundation.buffer;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 /**
@@ -100,6 +103,73 @@ public class BufferPoolTest {
                 BufferPool.getPoolSize(TEST_BUFFER_SIZE));
     }
 
+    @Test
+    public final void testBufferFreedByOtherThread() throws Exception {
+        final int currentPoolSize = BufferPool.getPoolSize(TEST_BUFFER_SIZE);
+        final ReusableBuffer buf = BufferPool.allocate(TEST_BUFFER_SIZE);
+        final int poolSizeAfterAllocate = BufferPool.getPoolSize(TEST_BUFFER_SIZE);
+
+        Thread t = new Thread() {
+            public void run() {
+                BufferPool.free(buf);
+            }
+        };
+        t.start();
+        t.join();
+
+        // the buffer cached by the terminated thread is returned to the shared pool
+        assertEquals(poolSizeAfterAllocate + 1, BufferPool.getPoolSize(TEST_BUFFER_SIZE));
+        assertEquals(Math.max(currentPoolSize, 1), BufferPool.getPoolSize(TEST_BUFFER_SIZE));
+    }
+
+    @Test
+    public final void testStatistics() {
+        long bytesOutstanding = BufferPool.getBytesOutstanding();
+
+        ReusableBuffer buf = BufferPool.allocate(100);
+        assertEquals(bytesOutstanding + TEST_BUFFER_SIZE, BufferPool.getBytesOutstanding());
+        ReusableBuffer unpooled = BufferPool.allocate(BufferPool.BUFF_SIZES[BufferPool.BUFF_SIZES.length - 1] + 1);
+        assertEquals(bytesOutstanding + TEST_BUFFER_SIZE + unpooled.capacity(), BufferPool.getBytesOutstanding());
+
+        BufferPool.free(buf);
+        BufferPool.free(unpooled);
+        assertEquals(bytesOutstanding, BufferPool.getBytesOutstanding());
+
+        // a buffer freed to the pool is reused
+        buf = BufferPool.allocate(TEST_BUFFER_SIZE);
+        BufferPool.free(buf);
+        assertTrue(BufferPool.getHitRate() > 0);
+        assertTrue(BufferPool.getStatus().contains("hit rate"));
+    }
+
+    @Test
+    public final void testArena() {
+        final int bufferSize = BufferPool.BUFF_SIZES[BufferPool.BUFF_SIZES.length - 1];
+
+        // the arena can only be reserved once
+        long arenaSize = BufferPool.reserveArena(2 * bufferSize);
+        assertTrue(arenaSize == 0 || arenaSize == 2 * bufferSize);
+        assertEquals(0, BufferPool.reserveArena(2 * bufferSize));
+
+        List<ReusableBuffer> buffers = new ArrayList<ReusableBuffer>();
+        for (int i = 0; i < BufferPool.MAX_POOL_SIZES[BufferPool.MAX_POOL_SIZES.length - 1]; i++) {
+            ReusableBuffer buf = BufferPool.allocate(bufferSize);
+            assertTrue(buf.getParent().isDirect());
+            assertEquals(bufferSize, buf.capacity());
+            buffers.add(buf);
+        }
+
+        // the pool is exhausted
+        ReusableBuffer fallback = BufferPool.allocate(bufferSize);
+        assertFalse(fallback.getParent().isDirect());
+        assertTrue(BufferPool.getFallbackRate() > 0);
+        BufferPool.free(fallback);
+
+        for (ReusableBuffer buf : buffers) {
+            BufferPool.free(buf);
+        }
+    }
+
     private void assertThatAssertionsAreEnabled() {
         boolean assertOn = false;
         // *assigns* true if assertions are on.
@@ -13,9 +13,11 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCClientConnectionStatistics;
 import org.xtreemfs.foundation.pbrpc.client.RPCNIOSocketClient;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.Ping;
@@ -28,7 +30,15 @@ import org.xtreemfs.foundation.pbrpc.server.RPCServerRequestListener;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferInputStream;
 import org.xtreemfs.foundation.util.OutputUtils;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -196,6 +206,173 @@ public class PBRPCTest {
     }
 
 
+    /**
+     * Sends the response data directly from a file.
+     */
+    @Test
+    public void testRPCWithFileData() throws Exception {
+        RPCNIOSocketClient client = null;
+        RPCNIOSocketServer server = null;
+
+        final int offset = 100;
+        final int length = 3 * 1024 * 1024;
+        final File file = File.createTempFile("PBRPCTest", null);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final CountDownLatch released = new CountDownLatch(1);
+
+        try {
+            byte[] arr = new byte[offset + length + 100];
+            for (int i = 0; i < arr.length; i++)
+                arr[i] = (byte) i;
+            raf.write(arr);
+
+            server = new RPCNIOSocketServer(TEST_PORT, null, new RPCServerRequestListener() {
+
+                @Override
+                public void receiveRecord(RPCServerRequest rq) {
+                    try {
+                        ReusableBufferInputStream is = new ReusableBufferInputStream(rq.getMessage());
+                        Ping.PingRequest pingRq = Ping.PingRequest.parseFrom(is);
+
+                        Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder().setText(pingRq.getText()).build();
+                        Ping.PingResponse resp = Ping.PingResponse.newBuilder().setResult(result).build();
+
+                        rq.sendFileResponse(resp, new FileRegion(raf.getChannel(), offset, length, new Closeable() {
+                            public void close() throws IOException {
+                                released.countDown();
+                            }
+                        }));
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        rq.sendError(RPC.RPCHeader.ErrorResponse.newBuilder().setErrorType(RPC.ErrorType.GARBAGE_ARGS).setErrorMessage(ex.getMessage()).setDebugInfo(OutputUtils.stackTraceToString(ex)).build());
+                        fail(ex.toString());
+                    }
+                }
+            }, null);
+
+            server.start();
+            server.waitForStartup();
+
+            client = new RPCNIOSocketClient(null, 15000, 5*60*1000, "testRPCWithFileData");
+            client.start();
+            client.waitForStartup();
+
+            PingServiceClient psClient = new PingServiceClient(client,null);
+
+            RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+            RPCResponse<PingResponse> response = psClient.doPing(new InetSocketAddress("localhost", TEST_PORT), RPCAuthentication.authNone, userCred, "Hello World!", false, null);
+            assertEquals(response.get().getResult().getText(),"Hello World!");
+
+            ReusableBuffer recdata = response.getData();
+            assertEquals(length, recdata.remaining());
+            for (int i = 0; i < length; i++) {
+                assertEquals((byte) (offset + i), recdata.get());
+            }
+            response.freeBuffers();
+
+            assertTrue(released.await(10, TimeUnit.SECONDS));
+
+        } finally {
+            //clean up
+            if (client != null) {
+                client.shutdown();
+                client.waitForShutdown();
+            }
+            if (server != null) {
+                server.shutdown();
+                server.waitForShutdown();
+            }
+            raf.close();
+            file.delete();
+        }
+
+    }
+
+    /**
+     * If a file region cannot be read completely, the connection is closed
+     * instead of sending incomplete data.
+     */
+    @Test
+    public void testRPCWithTruncatedFileData() throws Exception {
+        RPCNIOSocketClient client = null;
+        RPCNIOSocketServer server = null;
+
+        final int fileLength = 1000;
+        final int length = 4000;
+        final File file = File.createTempFile("PBRPCTest", null);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final CountDownLatch released = new CountDownLatch(1);
+
+        try {
+            byte[] arr = new byte[fileLength];
+            for (int i = 0; i < arr.length; i++)
+                arr[i] = (byte) (i % 100 + 1);
+            raf.write(arr);
+
+            server = new RPCNIOSocketServer(TEST_PORT, null, new RPCServerRequestListener() {
+
+                @Override
+                public void receiveRecord(RPCServerRequest rq) {
+                    try {
+                        ReusableBufferInputStream is = new ReusableBufferInputStream(rq.getMessage());
+                        Ping.PingRequest pingRq = Ping.PingRequest.parseFrom(is);
+
+                        Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder().setText(pingRq.getText()).build();
+                        Ping.PingResponse resp = Ping.PingResponse.newBuilder().setResult(result).build();
+
+                        rq.sendFileResponse(resp, new FileRegion(raf.getChannel(), 0, length, new Closeable() {
+                            public void close() throws IOException {
+                                released.countDown();
+                            }
+                        }));
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        rq.sendError(RPC.RPCHeader.ErrorResponse.newBuilder().setErrorType(RPC.ErrorType.GARBAGE_ARGS).setErrorMessage(ex.getMessage()).setDebugInfo(OutputUtils.stackTraceToString(ex)).build());
+                        fail(ex.toString());
+                    }
+                }
+            }, null);
+
+            server.start();
+            server.waitForStartup();
+
+            client = new RPCNIOSocketClient(null, 15000, 5*60*1000, "testRPCWithTruncatedFileData");
+            client.start();
+            client.waitForStartup();
+
+            PingServiceClient psClient = new PingServiceClient(client,null);
+            InetSocketAddress endpoint = new InetSocketAddress("localhost", TEST_PORT);
+
+            RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+            RPCResponse<PingResponse> response = psClient.doPing(endpoint, RPCAuthentication.authNone, userCred, "Hello World!", false, null);
+            try {
+                response.get();
+                fail("incomplete response was received");
+            } catch (IOException ex) {
+                // expected
+            } finally {
+                response.freeBuffers();
+            }
+
+            assertTrue(released.await(10, TimeUnit.SECONDS));
+
+        } finally {
+            //clean up
+            if (client != null) {
+                client.shutdown();
+                client.waitForShutdown();
+            }
+            if (server != null) {
+                server.shutdown();
+                server.waitForShutdown();
+            }
+            raf.close();
+            file.delete();
+        }
+
+    }
+
+
     @Test
     public void testEmptyMessages() throws Exception {
         RPCNIOSocketClient client = null;
@@ -253,4 +430,195 @@ public class PBRPCTest {
 
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void testMultipleReactors() throws Exception {
+        final int NUM_SERVERS = 3;
+        final int NUM_THREADS = 4;
+        final int NUM_REQUESTS = 50;
+
+        RPCNIOSocketClient client = null;
+        RPCNIOSocketServer[] servers = new RPCNIOSocketServer[NUM_SERVERS];
+
+        try {
+
+            RPCServerRequestListener echo = new RPCServerRequestListener() {
+
+                @Override
+                public void receiveRecord(RPCServerRequest rq) {
+                    try {
+                        ReusableBufferInputStream is = new ReusableBufferInputStream(rq.getMessage());
+                        Ping.PingRequest pingRq = Ping.PingRequest.parseFrom(is);
+
+                        Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder().setText(pingRq.getText()).build();
+                        Ping.PingResponse resp = Ping.PingResponse.newBuilder().setResult(result).build();
+
+                        rq.sendResponse(resp, null);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        rq.sendError(RPC.RPCHeader.ErrorResponse.newBuilder().setErrorType(RPC.ErrorType.GARBAGE_ARGS).setErrorMessage(ex.getMessage()).setDebugInfo(OutputUtils.stackTraceToString(ex)).build());
+                        fail(ex.toString());
+                    }
+                }
+            };
+
+            for (int i = 0; i < NUM_SERVERS; i++) {
+                servers[i] = new RPCNIOSocketServer(TEST_PORT + i, null, echo, null);
+                servers[i].start();
+                servers[i].waitForStartup();
+            }
+
+            client = new RPCNIOSocketClient(null, 15000, 5*60*1000, -1, -1, null, "PBRPCTest::testMultipleReactors()", false, 2);
+            client.start();
+            client.waitForStartup();
+            assertEquals(2, client.getNumReactors());
+
+            final PingServiceClient psClient = new PingServiceClient(client,null);
+            final RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+            final AtomicInteger numSuccessful = new AtomicInteger(0);
+
+            Thread[] threads = new Thread[NUM_THREADS];
+            for (int i = 0; i < NUM_THREADS; i++) {
+                final int threadNo = i;
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < NUM_REQUESTS; j++) {
+                                String text = "thread " + threadNo + " request " + j;
+                                RPCResponse<PingResponse> response = psClient.doPing(new InetSocketAddress("localhost",
+                                        TEST_PORT + (j % NUM_SERVERS)), RPCAuthentication.authNone, userCred, text,
+                                        false, null);
+                                try {
+                                    if (text.equals(response.get().getResult().getText())) {
+                                        numSuccessful.incrementAndGet();
+                                    }
+                                } finally {
+                                    response.freeBuffers();
+                                }
+                            }
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(NUM_THREADS * NUM_REQUESTS, numSuccessful.get());
+
+        } finally {
+            //clean up
+            if (client != null) {
+                client.shutdown();
+                client.waitForShutdown();
+            }
+            for (RPCNIOSocketServer server : servers) {
+                if (server != null) {
+                    server.shutdown();
+                    server.waitForShutdown();
+                }
+            }
+        }
+
+    }
+
+    @Test
+    public void testConnectionPool() throws Exception {
+        final int NUM_SMALL_REQUESTS = 5;
+        final int NUM_LARGE_REQUESTS = 6;
+
+        RPCNIOSocketClient client = null;
+        RPCNIOSocketServer server = null;
+
+        try {
+
+            server = new RPCNIOSocketServer(TEST_PORT, null, new RPCServerRequestListener() {
+
+                @Override
+                public void receiveRecord(RPCServerRequest rq) {
+                    try {
+                        ReusableBufferInputStream is = new ReusableBufferInputStream(rq.getMessage());
+                        Ping.PingRequest pingRq = Ping.PingRequest.parseFrom(is);
+
+                        Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder().setText(pingRq.getText()).build();
+                        Ping.PingResponse resp = Ping.PingResponse.newBuilder().setResult(result).build();
+
+                        rq.sendResponse(resp, null);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        rq.sendError(RPC.RPCHeader.ErrorResponse.newBuilder().setErrorType(RPC.ErrorType.GARBAGE_ARGS).setErrorMessage(ex.getMessage()).setDebugInfo(OutputUtils.stackTraceToString(ex)).build());
+                        fail(ex.toString());
+                    }
+                }
+            }, null);
+
+            server.start();
+            server.waitForStartup();
+
+            client = new RPCNIOSocketClient(null, 15000, 5*60*1000, "PBRPCTest::testConnectionPool()");
+            client.setConnectionsPerServer(3);
+            client.setSmallRequestThreshold(1024);
+            client.start();
+            client.waitForStartup();
+
+            PingServiceClient psClient = new PingServiceClient(client,null);
+            InetSocketAddress endpoint = new InetSocketAddress("localhost", TEST_PORT);
+            RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+
+            for (int i = 0; i < NUM_SMALL_REQUESTS; i++) {
+                RPCResponse<PingResponse> response = psClient.doPing(endpoint, RPCAuthentication.authNone, userCred, "small", false, null);
+                assertEquals("small", response.get().getResult().getText());
+                response.freeBuffers();
+            }
+
+            // send the large requests concurrently
+            @SuppressWarnings("unchecked")
+            RPCResponse<PingResponse>[] responses = new RPCResponse[NUM_LARGE_REQUESTS];
+            for (int i = 0; i < NUM_LARGE_REQUESTS; i++) {
+                ReusableBuffer data = ReusableBuffer.wrap(new byte[64 * 1024]);
+                responses[i] = psClient.doPing(endpoint, RPCAuthentication.authNone, userCred, "large", false, data);
+            }
+            for (RPCResponse<PingResponse> response : responses) {
+                assertEquals("large", response.get().getResult().getText());
+                response.freeBuffers();
+            }
+
+            List<RPCClientConnectionStatistics> stats = client.getConnectionStatistics(endpoint);
+            assertEquals(3, stats.size());
+            assertEquals(3, server.getNumConnections());
+
+            // small requests have a connection of their own, large ones are spread over the others
+            assertEquals(0, stats.get(0).getSlot());
+            assertEquals(NUM_SMALL_REQUESTS, stats.get(0).getRequestsSent());
+            assertTrue(stats.get(1).getRequestsSent() > 0);
+            assertTrue(stats.get(2).getRequestsSent() > 0);
+            assertEquals(NUM_LARGE_REQUESTS, stats.get(1).getRequestsSent() + stats.get(2).getRequestsSent());
+            for (RPCClientConnectionStatistics conStats : stats) {
+                assertEquals(conStats.getRequestsSent(), conStats.getResponsesReceived());
+                assertEquals(0, conStats.getOutstandingBytes());
+                assertEquals(0, conStats.getPendingResponses());
+            }
+            assertTrue(stats.get(1).getBytesSent() > 64 * 1024);
+
+            long[] transferStats = client.getTransferStats(endpoint);
+            assertEquals(stats.get(0).getBytesSent() + stats.get(1).getBytesSent() + stats.get(2).getBytesSent(),
+                    transferStats[1]);
+
+        } finally {
+            //clean up
+            if (client != null) {
+                client.shutdown();
+                client.waitForShutdown();
+            }
+            if (server != null) {
+                server.shutdown();
+                server.waitForShutdown();
+            }
+        }
+
+    }
+}
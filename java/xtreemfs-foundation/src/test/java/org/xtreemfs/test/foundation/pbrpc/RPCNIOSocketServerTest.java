@@ -8,6 +8,7 @@
 
 package org.xtreemfs.test.foundation.pbrpc;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -374,4 +375,87 @@ public class RPCNIOSocketServerTest {
         server.waitForShutdown();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMultipleSelectorThreads() throws Exception {
+
+        final int TEST_PORT = 9991;
+        final int NUM_SELECTOR_THREADS = 3;
+        final int NUM_CONNECTIONS = 2 * NUM_SELECTOR_THREADS;
+
+        server = new RPCNIOSocketServer(TEST_PORT, null, new RPCServerRequestListener() {
+
+            @Override
+            public void receiveRecord(RPCServerRequest rq) {
+                // echo the user name
+                try {
+                    RPC.UserCredentials msg = RPC.UserCredentials.newBuilder()
+                            .setUsername(rq.getHeader().getRequestHeader().getUserCreds().getUsername()).build();
+                    rq.sendResponse(msg, null);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    rq.sendError(RPC.RPCHeader.ErrorResponse.newBuilder().setErrorType(RPC.ErrorType.GARBAGE_ARGS).setErrorMessage(ex.getMessage()).setDebugInfo(OutputUtils.stackTraceToString(ex)).build());
+                    fail(ex.toString());
+                }
+            }
+        }, null, 0, -1, RPCNIOSocketServer.DEFAULT_MAX_CLIENT_Q_LENGTH, NUM_SELECTOR_THREADS);
+
+        server.start();
+        server.waitForStartup();
+        assertEquals(NUM_SELECTOR_THREADS, server.getNumSelectorThreads());
+
+        Socket[] socks = new Socket[NUM_CONNECTIONS];
+        for (int i = 0; i < NUM_CONNECTIONS; i++) {
+            socks[i] = new Socket("localhost", TEST_PORT);
+        }
+
+        // send requests on all connections before reading the responses
+        for (int i = 0; i < NUM_CONNECTIONS; i++) {
+            RPC.Auth auth = RPC.Auth.newBuilder().setAuthType(RPC.AuthType.AUTH_NONE).build();
+            RPC.UserCredentials ucred = RPC.UserCredentials.newBuilder().setUsername("user" + i).addGroups("user").build();
+            RPC.RPCHeader.RequestHeader rqHdr = RPC.RPCHeader.RequestHeader.newBuilder().setAuthData(auth).setUserCreds(ucred).setProcId(2).setInterfaceId(2).build();
+            RPC.RPCHeader header = RPC.RPCHeader.newBuilder().setCallId(i).setMessageType(RPC.MessageType.RPC_REQUEST).setRequestHeader(rqHdr).build();
+
+            byte[] data = header.toByteArray();
+            ByteBuffer recordMarker = ByteBuffer.allocate(RecordMarker.HDR_SIZE);
+            recordMarker.putInt(data.length);
+            recordMarker.putInt(0);
+            recordMarker.putInt(0);
+
+            OutputStream out = socks[i].getOutputStream();
+            out.write(recordMarker.array());
+            out.write(data);
+        }
+
+        for (int i = 0; i < NUM_CONNECTIONS; i++) {
+            DataInputStream in = new DataInputStream(socks[i].getInputStream());
+
+            int hdrLen = in.readInt();
+            int msgLen = in.readInt();
+            int dataLen = in.readInt();
+            assertEquals(0, dataLen);
+
+            byte[] hdrIn = new byte[hdrLen];
+            byte[] msgIn = new byte[msgLen];
+            in.readFully(hdrIn);
+            in.readFully(msgIn);
+
+            RPC.RPCHeader respHdr = RPC.RPCHeader.parseFrom(hdrIn);
+            assertEquals(RPC.MessageType.RPC_RESPONSE_SUCCESS, respHdr.getMessageType());
+            assertEquals(i, respHdr.getCallId());
+            assertEquals("user" + i, RPC.UserCredentials.parseFrom(msgIn).getUsername());
+        }
+
+        // connections are distributed evenly among the selector threads
+        assertEquals(NUM_CONNECTIONS, server.getNumConnections());
+        for (int i = 0; i < NUM_SELECTOR_THREADS; i++) {
+            assertEquals(NUM_CONNECTIONS / NUM_SELECTOR_THREADS, server.getNumConnections(i));
+        }
+
+        for (Socket sock : socks) {
+            sock.close();
+        }
+        server.shutdown();
+        server.waitForShutdown();
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.foundation.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.xtreemfs.foundation.util.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMean(), 0);
+        assertEquals(0, h.getPercentile(99), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+
+        // 99 fast requests of 100 us, one slow request of 50 ms
+        for (int i = 0; i < 99; i++)
+            h.record(100 * 1000);
+        h.record(50 * 1000 * 1000);
+
+        assertEquals(100, h.getCount());
+        assertEquals(50, h.getMax(), 0.001);
+        assertEquals((99 * 0.1 + 50) / 100, h.getMean(), 0.001);
+
+        // percentiles are accurate up to a factor of two
+        double p50 = h.getPercentile(50);
+        assertTrue(p50 >= 0.1 && p50 <= 0.2);
+        double p99 = h.getPercentile(99);
+        assertTrue(p99 >= 0.1 && p99 <= 0.2);
+        assertEquals(50, h.getPercentile(100), 0.001);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        final int numThreads = 4;
+        final int numRecords = 10000;
+
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < numRecords; j++)
+                        h.record(j * 1000L);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(numThreads * numRecords, h.getCount());
+        assertEquals((numRecords - 1) / 1000.0, h.getMax(), 0.001);
+    }
+}
@@ -206,7 +206,9 @@ public class Capability {
      *         otherwise
      */
     public boolean hasValidSignature() {
-        return xcap.getServerSignature().equals(calcSignature(xcap.toBuilder()));
+        return isSignatureOf(xcap.getServerSignature(), calcDigest(xcap.getFileId(), xcap.getAccessMode(), xcap
+                .getExpireTimeS(), xcap.getTruncateEpoch(), xcap.getSnapConfig().getNumber(), xcap
+                .getSnapTimestamp(), xcap.getVoucherSize(), xcap.getExpireTimeMs()));
     }
     
     public boolean isReplicateOnClose() {
@@ -245,25 +247,156 @@ public class Capability {
     
     protected String calcSignature(XCap.Builder builder) {
         
+        byte[] digest = calcDigest(builder.getFileId(), builder.getAccessMode(), builder.getExpireTimeS(),
+            builder.getTruncateEpoch(), builder.getSnapConfig().getNumber(), builder.getSnapTimestamp(),
+            builder.getVoucherSize(), builder.getExpireTimeMs());
+        
+        return digest == null ? null : OutputUtils.byteArrayToHexString(digest);
+    }
+    
+    /**
+     * Checks whether another capability has the same signature and the same
+     * signed content as this capability. If this capability has a valid
+     * signature, the other one has a valid signature as well.
+     * 
+     * @param other
+     *            the other capability
+     * @return <code>true</code>, if both capabilities are equal with respect
+     *         to their signatures
+     */
+    public boolean hasSameSignedContent(Capability other) {
+        final XCap o = other.xcap;
+        return xcap.getServerSignature().equals(o.getServerSignature()) && xcap.getFileId().equals(o.getFileId())
+            && xcap.getAccessMode() == o.getAccessMode() && xcap.getExpireTimeS() == o.getExpireTimeS()
+            && xcap.getTruncateEpoch() == o.getTruncateEpoch() && xcap.getSnapConfig() == o.getSnapConfig()
+            && xcap.getSnapTimestamp() == o.getSnapTimestamp() && xcap.getVoucherSize() == o.getVoucherSize()
+            && xcap.getExpireTimeMs() == o.getExpireTimeMs()
+            && (sharedSecret == null ? other.sharedSecret == null : sharedSecret.equals(other.sharedSecret));
+    }
+    
+    private static boolean isSignatureOf(String signature, byte[] digest) {
+        
+        if (digest == null || signature.length() != 2 * digest.length)
+            return false;
+        
+        for (int i = 0; i < digest.length; i++)
+            if (signature.charAt(2 * i) != OutputUtils.trHex[(digest[i] >> 4) & 0x0F]
+                || signature.charAt(2 * i + 1) != OutputUtils.trHex[digest[i] & 0x0F])
+                return false;
+        
+        return true;
+    }
+    
+    /**
+     * Calculates the MD5 digest of the signed fields and the shared secret.
+     * The digest is the same as the one of the concatenated string
+     * representations of all values, but it is calculated without creating
+     * intermediate strings, and with a message digest instance that is reused
+     * by the calling thread.
+     */
+    private byte[] calcDigest(String fileId, int accessMode, long expireTimeS, long truncateEpoch,
+        long snapConfig, long snapTimestamp, long voucherSize, long expireTimeMs) {
+        
         // right now, we use a shared secret between MRC and OSDs
         // as soon as we have a Public Key Infrastructure, signatures
         // will be generated and checked by means of asymmetric encryption
         // techniques
         
-        String plainText = builder.getFileId() + Integer.toString(builder.getAccessMode())
-            + Long.toString(builder.getExpireTimeS()) + Long.toString(builder.getTruncateEpoch())
-            + Long.toString(builder.getSnapConfig().getNumber()) + Long.toString(builder.getSnapTimestamp())
-            + Long.toString(builder.getVoucherSize()) + Long.toString(builder.getExpireTimeMs()) + sharedSecret;
+        final SignatureContext ctx = SIGNATURE_CONTEXT.get();
+        if (ctx.md5 == null)
+            return null;
+        
+        ctx.update(fileId);
+        ctx.update(accessMode);
+        ctx.update(expireTimeS);
+        ctx.update(truncateEpoch);
+        ctx.update(snapConfig);
+        ctx.update(snapTimestamp);
+        ctx.update(voucherSize);
+        ctx.update(expireTimeMs);
+        
+        // the encoded secret is cached, as it is the same for all capabilities
+        if (ctx.secretBytes == null || ctx.secret != sharedSecret) {
+            ctx.secret = sharedSecret;
+            ctx.secretBytes = String.valueOf(sharedSecret).getBytes();
+        }
+        ctx.md5.update(ctx.secretBytes);
+        
+        return ctx.md5.digest();
+    }
+    
+    private static final ThreadLocal<SignatureContext> SIGNATURE_CONTEXT = new ThreadLocal<SignatureContext>() {
+        @Override
+        protected SignatureContext initialValue() {
+            return new SignatureContext();
+        }
+    };
+    
+    /**
+     * Per-thread state for calculating signatures.
+     */
+    private static final class SignatureContext {
+        
+        private final MessageDigest md5;
+        
+        private byte[]              buf = new byte[64];
+        
+        private String              secret;
         
-        try {
-            MessageDigest md5 = MessageDigest.getInstance("MD5");
-            md5.update(plainText.getBytes());
-            byte[] digest = md5.digest();
+        private byte[]              secretBytes;
+        
+        SignatureContext() {
+            MessageDigest md = null;
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException exc) {
+                Logging.logError(Logging.LEVEL_ERROR, this, exc);
+            }
+            md5 = md;
+        }
+        
+        /**
+         * Adds a string in the platform's default encoding. ASCII strings are
+         * encoded without creating a new array.
+         */
+        void update(String s) {
             
-            return OutputUtils.byteArrayToHexString(digest);
-        } catch (NoSuchAlgorithmException exc) {
-            Logging.logError(Logging.LEVEL_ERROR, this, exc);
-            return null;
+            final int len = s.length();
+            if (buf.length < len)
+                buf = new byte[Math.max(len, 2 * buf.length)];
+            
+            for (int i = 0; i < len; i++) {
+                final char c = s.charAt(i);
+                if (c >= 0x80) {
+                    md5.update(s.getBytes());
+                    return;
+                }
+                buf[i] = (byte) c;
+            }
+            md5.update(buf, 0, len);
+        }
+        
+        /**
+         * Adds the decimal representation of a number.
+         */
+        void update(long value) {
+            
+            if (value == Long.MIN_VALUE) {
+                update(Long.toString(value));
+                return;
+            }
+            
+            // write the digits backwards, starting at the end of the buffer
+            int pos = buf.length;
+            long v = Math.abs(value);
+            do {
+                buf[--pos] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            if (value < 0)
+                buf[--pos] = '-';
+            
+            md5.update(buf, pos, buf.length - pos);
         }
     }
     
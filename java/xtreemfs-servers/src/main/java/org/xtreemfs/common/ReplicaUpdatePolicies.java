@@ -18,6 +18,7 @@ public class ReplicaUpdatePolicies {
     public static final String REPL_UPDATE_PC_RONLY  = "ronly";
     public static final String REPL_UPDATE_PC_WARONE = "WaR1";
     public static final String REPL_UPDATE_PC_WQRQ   = "WqRq";
+    public static final String REPL_UPDATE_PC_CHAIN  = "Chain";
 
     @Deprecated // as of XtreemFS 1.3.1 and no longer allowed to set. Use WaR1 instead.
     public static final String REPL_UPDATE_PC_WARA   = "WaRa";
@@ -41,7 +42,7 @@ public class ReplicaUpdatePolicies {
      */
     public static boolean isRW(String replicaUpdatePolicy) {
         return (replicaUpdatePolicy.equals(REPL_UPDATE_PC_WARA) || replicaUpdatePolicy.equals(REPL_UPDATE_PC_WARONE)
-                || replicaUpdatePolicy.equals(REPL_UPDATE_PC_WQRQ));
+                || replicaUpdatePolicy.equals(REPL_UPDATE_PC_WQRQ) || replicaUpdatePolicy.equals(REPL_UPDATE_PC_CHAIN));
     }
 
 }
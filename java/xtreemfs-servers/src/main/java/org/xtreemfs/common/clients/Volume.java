@@ -133,7 +133,7 @@ public class Volume {
         final String fixedPath = fixPath(path);
         try {
             response = mrcClient.readdir(null, RPCAuthentication.authNone, userCreds, fixedVol, fixedPath, 0, 0, true,
-                    0);
+                    0, ByteString.EMPTY);
             DirectoryEntries entries = response.get();
             String[] list = new String[entries.getEntriesCount()];
             for (int i = 0; i < list.length; i++) {
@@ -159,7 +159,7 @@ public class Volume {
         final String fixedPath = fixPath(path);
         try {
             response = mrcClient.readdir(null, RPCAuthentication.authNone, userCreds, fixedVol, fixedPath, 0, 0, false,
-                    0);
+                    0, ByteString.EMPTY);
             DirectoryEntries entries = response.get();
             DirectoryEntry[] list = new DirectoryEntry[entries.getEntriesCount()];
             for (int i = 0; i < list.length; i++) {
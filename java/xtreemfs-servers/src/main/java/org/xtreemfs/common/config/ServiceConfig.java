@@ -68,6 +68,10 @@ public class ServiceConfig extends Config {
         FAILOVER_MAX_RETRIES("failover.retries", 15, Integer.class, false),
         FAILOVER_WAIT("failover.wait_ms", 15 * 1000, Integer.class, false),
         MAX_CLIENT_Q("max_client_queue", 100, Integer.class, false),
+        SELECTOR_THREADS("listen.selector_threads", 1, Integer.class, false),
+        BUFFER_POOL_SIZES("buffer_pool.max_pool_sizes", "", String.class, false),
+        BUFFER_POOL_THREAD_CACHE_SIZE("buffer_pool.thread_cache_size", 16, Integer.class, false),
+        BUFFER_POOL_ARENA_SIZE("buffer_pool.arena_size_mb", 0, Integer.class, false),
         MAX_REQUEST_QUEUE_LENGTH("max_requests_queue_length", 1000, Integer.class, false),
         USE_MULTIHOMING("multihoming.enabled", false, Boolean.class, false),
         USE_RENEWAL_SIGNAL("multihoming.renewal_signal", false, Boolean.class, false ),
@@ -99,6 +103,9 @@ public class ServiceConfig extends Config {
         CAPABILITY_SECRET("capability_secret", null, String.class, true),
         CAPABILITY_TIMEOUT("capability_timeout", 600, Integer.class, false),
         RENEW_TIMED_OUT_CAPS("renew_to_caps", false, Boolean.class, false),
+        READ_ONLY_THREADS("processing.read_only_threads", 4, Integer.class, false),
+        VOLUME_THREADS("processing.volume_threads", 4, Integer.class, false),
+        METADATA_CACHE_SIZE("metadata_cache_size", 10000, Integer.class, false),
 
         /*
          * OSD specific configuration parameter
@@ -124,6 +131,15 @@ public class ServiceConfig extends Config {
         VIVALDI_MAX_REQUEST_TIMEOUT_IN_MS("vivaldi.max_request_timeout_ms", 10000, Integer.class, false),
         VIVALDI_TIMER_INTERVAL_IN_MS("vivaldi.timer_interval_ms", 60000, Integer.class, false),
         STORAGE_THREADS("storage_threads", 1, Integer.class, false),
+        PREPROC_THREADS("preproc_threads", 2, Integer.class, false),
+        RWR_THREADS("rwr_threads", 1, Integer.class, false),
+        STORAGE_WORK_STEALING("storage_work_stealing", true, Boolean.class, false),
+        STORAGE_FD_CACHE_SIZE("storage_fd_cache_size", 1024, Integer.class, false),
+        STORAGE_GROUP_COMMIT("storage_group_commit", true, Boolean.class, false),
+        STORAGE_GROUP_COMMIT_MAX_DELAY("storage_group_commit_max_delay_ms", 2, Integer.class, false),
+        ZERO_COPY_MIN_SIZE("zero_copy_min_size", 128 * 1024, Integer.class, false),
+        CLIENT_SELECTOR_THREADS("client.selector_threads", 1, Integer.class, false),
+        REPLICATION_CONNECTIONS("replication.connections_per_osd", 1, Integer.class, false),
         HEALTH_CHECK("health_check", "", String.class, false),
 
         /*
@@ -707,6 +723,39 @@ public class ServiceConfig extends Config {
         return (Integer) parameter.get(Parameter.MAX_CLIENT_Q);
     }
 
+    public int getSelectorThreads() {
+        return (Integer) parameter.get(Parameter.SELECTOR_THREADS);
+    }
+
+    /**
+     * Returns the max number of pooled buffers for each buffer size of the
+     * {@link org.xtreemfs.foundation.buffer.BufferPool}, or <code>null</code>
+     * if the default sizes are used.
+     */
+    public int[] getBufferPoolSizes() {
+        String sizes = ((String) parameter.get(Parameter.BUFFER_POOL_SIZES)).trim();
+        if (sizes.length() == 0) {
+            return null;
+        }
+        String[] tokens = sizes.split("\\s*,\\s*");
+        int[] result = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            result[i] = Integer.parseInt(tokens[i]);
+        }
+        return result;
+    }
+
+    public int getBufferPoolThreadCacheSize() {
+        return (Integer) parameter.get(Parameter.BUFFER_POOL_THREAD_CACHE_SIZE);
+    }
+
+    /**
+     * Returns the size of the off-heap arena for large pooled buffers in MB.
+     */
+    public int getBufferPoolArenaSize() {
+        return (Integer) parameter.get(Parameter.BUFFER_POOL_ARENA_SIZE);
+    }
+
     public InetSocketAddress getDirectoryService() {
         return (InetSocketAddress) parameter.get(Parameter.DIRECTORY_SERVICE);
     }
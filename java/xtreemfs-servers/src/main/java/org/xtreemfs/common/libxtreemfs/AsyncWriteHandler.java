@@ -310,6 +310,10 @@ public class AsyncWriteHandler {
     private synchronized void decreasePendingBytesHelper(AsyncWriteBuffer writeBuffer) {
         assert (writeBuffer != null);
 
+        // Objects read while the write was pending must not stay cached.
+        long objNo = writeBuffer.getWriteRequest().getObjectNumber();
+        fileInfo.invalidateCachedObjects(objNo, objNo);
+
         writesInFlight.remove(writeBuffer);
         pendingBytes -= writeBuffer.getDataLength();
 
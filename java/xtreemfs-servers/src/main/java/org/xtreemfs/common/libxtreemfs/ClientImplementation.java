@@ -299,7 +299,7 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
                     public RPCResponse<ServiceSet> executeCall(InetSocketAddress server, Auth authHeader,
                             UserCredentials userCreds, String input) throws IOException {
                         return ClientImplementation.this.dirServiceClient.xtreemfs_service_get_by_type(
-                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_MRC);
+                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_MRC, 0);
                     }
                 });
 
@@ -503,7 +503,7 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
                     public RPCResponse<ServiceSet> executeCall(InetSocketAddress server, Auth authHeader,
                             UserCredentials userCreds, String input) throws IOException {
                         return ClientImplementation.this.dirServiceClient.xtreemfs_service_get_by_type(
-                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_VOLUME);
+                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_VOLUME, 0);
                     }
                 });
 
@@ -535,7 +535,7 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
                     public RPCResponse<ServiceSet> executeCall(InetSocketAddress server, Auth authHeader,
                             UserCredentials userCreds, String input) throws IOException {
                         return ClientImplementation.this.dirServiceClient.xtreemfs_service_get_by_type(
-                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_VOLUME);
+                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_VOLUME, 0);
                     }
                 });
 
@@ -562,7 +562,7 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
                     public RPCResponse<ServiceSet> executeCall(InetSocketAddress server, Auth authHeader,
                             UserCredentials userCreds, String input) throws IOException {
                         return ClientImplementation.this.dirServiceClient.xtreemfs_service_get_by_type(
-                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_MIXED);
+                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_MIXED, 0);
                     }
                 });
 
@@ -593,7 +593,7 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
                     public RPCResponse<ServiceSet> executeCall(InetSocketAddress server, Auth authHeader,
                             UserCredentials userCreds, String input) throws IOException {
                         return ClientImplementation.this.dirServiceClient.xtreemfs_service_get_by_type(
-                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_OSD);
+                                server, authHeader, userCreds, ServiceType.SERVICE_TYPE_OSD, 0);
                     }
                 });
 
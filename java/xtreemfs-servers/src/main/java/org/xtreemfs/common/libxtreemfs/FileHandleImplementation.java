@@ -8,6 +8,7 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -22,13 +23,16 @@ import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
 import org.xtreemfs.common.libxtreemfs.exceptions.UUIDIteratorListIsEmpyException;
 import org.xtreemfs.common.libxtreemfs.exceptions.UUIDNotInXlocSetException;
 import org.xtreemfs.common.libxtreemfs.exceptions.XtreemFSException;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.osd.replication.ObjectSet;
@@ -153,6 +157,12 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
 
     final private Options                           volumeOptions;
 
+    /**
+     * Offset at which the next read has to start to be considered sequential. Used to trigger read-ahead.
+     */
+    // JCIP @GuardedBy("this")
+    private long                                    nextSequentialReadOffset;
+
     /**
      * Auth needed for ServiceClients. Always set to AUTH_NONE by Volume.
      */
@@ -290,64 +300,418 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         Vector<ReadOperation> operations = new Vector<ReadOperation>();
         translator.translateReadRequest(count, offset, policy, operations);
 
+        if (!volume.getObjectCache().isEnabled()) {
+            return readObjects(fc, operations, buf, new int[operations.size()]);
+        }
+
+        receivedData = readObjectsCached(fc, policy, operations, buf);
+
+        // Prefetch the following objects if the file is read sequentially.
+        boolean sequential;
+        synchronized (this) {
+            sequential = offset == nextSequentialReadOffset;
+            nextSequentialReadOffset = offset + receivedData;
+        }
+        if (sequential && receivedData == count && !operations.isEmpty()
+                && volumeOptions.getReadAheadObjects() > 0) {
+            prefetchObjects(fc, policy, translator, operations.lastElement().getObjNumber() + 1,
+                    volumeOptions.getReadAheadObjects());
+        }
+        return receivedData;
+    }
+
+    /**
+     * Reads the objects of "operations" into "buf" and stores the number of bytes read per operation in
+     * "bytesRead".
+     * 
+     * @return The total number of bytes read.
+     */
+    private int readObjects(FileCredentials fc, Vector<ReadOperation> operations, ReusableBuffer buf,
+            int[] bytesRead) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        if (operations.size() > 1 && volumeOptions.getMaxParallelReads() > 1) {
+            return readObjectsParallel(fc, operations, buf, volumeOptions.getMaxParallelReads(), bytesRead);
+        }
+
+        int receivedData = 0;
         UUIDIterator tempUuidIteratorForStriping = new UUIDIterator();
         // Read all objects
         for (int j = 0; j < operations.size(); j++) {
-            readRequest.Builder readRqBuilder = readRequest.newBuilder();
-
-            readRqBuilder.setFileCredentials(fc);
-            readRqBuilder.setFileId(fc.getXcap().getFileId());
-            readRqBuilder.setObjectNumber(operations.get(j).getObjNumber());
-            readRqBuilder.setObjectVersion(0);
-            readRqBuilder.setOffset(operations.get(j).getReqOffset());
-            readRqBuilder.setLength(operations.get(j).getReqSize());
-
-            // Differ between striping and the rest (replication, no replication).
-            UUIDIterator uuidIterator;
-            if (readRqBuilder.getFileCredentials().getXlocs().getReplicas(0).getOsdUuidsCount() > 1) {
-                // Replica is striped. Pick UUID from xlocset.
-                tempUuidIteratorForStriping.clear();
-                
-                // Replicas may have different stripe widths. However, the current Java client
-                // StripeTranslator code only supports the same stripe width as the first replica has.
-                int stripeWidthFirstReplica = fc.getXlocs().getReplicas(0).getStripingPolicy().getWidth();
-
-                for (int replicaIdx = 0; replicaIdx < fc.getXlocs().getReplicasCount(); replicaIdx++) {
-                    if (fc.getXlocs().getReplicas(replicaIdx).getStripingPolicy().getWidth() == stripeWidthFirstReplica) {
-                        tempUuidIteratorForStriping.addUUID(Helper.getOSDUUIDFromXlocSet(fc.getXlocs(),
-                                                            replicaIdx,
-                                                            operations.get(j).getOsdOffset()));
-                    }
+            ReadOperation operation = operations.get(j);
+            UUIDIterator uuidIterator = getReadUUIDIterator(fc, operation, tempUuidIteratorForStriping);
+
+            buf.position(operation.getBufferStart());
+            bytesRead[j] = readObjectSync(buildReadRequest(fc, operation), uuidIterator, buf, operation);
+            receivedData += bytesRead[j];
+        }
+        return receivedData;
+    }
+
+    /**
+     * Serves "operations" from the volume's ObjectCache. Objects which are not cached are read completely from
+     * the OSDs and added to the cache.
+     * 
+     * @return The total number of bytes read.
+     */
+    private int readObjectsCached(FileCredentials fc, StripingPolicy policy, Vector<ReadOperation> operations,
+            ReusableBuffer buf) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        ObjectCache objectCache = volume.getObjectCache();
+        long xlocSetVersion = fc.getXlocs().getVersion();
+        // Retrieve the generation before reading, results of reads overtaken by a write are not cached.
+        long generation = objectCache.getGeneration(fileInfo.fileId);
+        int objectSize = policy.getStripeSize() * 1024;
+
+        byte[][] objects = new byte[operations.size()][];
+        Vector<ReadOperation> missingObjects = new Vector<ReadOperation>();
+        int[] missingIndices = new int[operations.size()];
+        for (int j = 0; j < operations.size(); j++) {
+            ReadOperation operation = operations.get(j);
+            objects[j] = objectCache.get(fileInfo.fileId, operation.getObjNumber(), xlocSetVersion);
+            if (objects[j] == null) {
+                missingIndices[missingObjects.size()] = j;
+                missingObjects.add(new ReadOperation(operation.getObjNumber(), operation.getOsdOffset(),
+                        objectSize, 0, missingObjects.size() * objectSize));
+            }
+        }
+
+        if (!missingObjects.isEmpty()) {
+            byte[] data = new byte[missingObjects.size() * objectSize];
+            int[] bytesRead = new int[missingObjects.size()];
+            try {
+                readObjects(fc, missingObjects, ReusableBuffer.wrap(data), bytesRead);
+
+                for (int k = 0; k < missingObjects.size(); k++) {
+                    byte[] object = Arrays.copyOfRange(data, k * objectSize, k * objectSize + bytesRead[k]);
+                    objectCache.put(fileInfo.fileId, missingObjects.get(k).getObjNumber(), xlocSetVersion,
+                            generation, object);
+                    objects[missingIndices[k]] = object;
                 }
-                
-                uuidIterator = tempUuidIteratorForStriping;
-            } else {
-                // TODO(mberlin): Enhance UUIDIterator to read from different replicas.
-                uuidIterator = osdUuidIterator;
+            } finally {
+                objectCache.releaseGeneration(fileInfo.fileId, generation);
+            }
+        }
+
+        // Copy the requested ranges to the buffer.
+        int receivedData = 0;
+        for (int j = 0; j < operations.size(); j++) {
+            ReadOperation operation = operations.get(j);
+            int length = Math.max(0,
+                    Math.min(operation.getReqSize(), objects[j].length - operation.getReqOffset()));
+            buf.position(operation.getBufferStart());
+            buf.put(objects[j], operation.getReqOffset(), length);
+            receivedData += length;
+        }
+        return receivedData;
+    }
+
+    /**
+     * Asynchronously reads up to "numObjects" objects beginning with "firstObjNo" into the volume's ObjectCache.
+     * Objects which are already cached or being prefetched are skipped.
+     */
+    private void prefetchObjects(FileCredentials fc, StripingPolicy policy, StripeTranslator translator,
+            long firstObjNo, int numObjects) {
+        final ObjectCache objectCache = volume.getObjectCache();
+        final long xlocSetVersion = fc.getXlocs().getVersion();
+        final long generation = objectCache.getGeneration(fileInfo.fileId);
+        final long fileId = fileInfo.fileId;
+        int objectSize = policy.getStripeSize() * 1024;
+
+        Vector<ReadOperation> operations = new Vector<ReadOperation>();
+        translator.translateReadRequest(numObjects * objectSize, firstObjNo * objectSize, policy, operations);
+
+        for (ReadOperation operation : operations) {
+            final long objNo = operation.getObjNumber();
+            if (!objectCache.startPrefetch(fileId, objNo, xlocSetVersion)) {
+                continue;
             }
 
-            buf.position(operations.get(j).getBufferStart());
-            // If synccall gets a buffer it fill it with data from the response.
-            ObjectData objectData = RPCCaller.<readRequest, ObjectData> syncCall(SERVICES.OSD, userCredentialsBogus,
-                    authBogus, volumeOptions, uuidResolver, uuidIterator, false, readRqBuilder.build(), buf,
-                    new CallGenerator<readRequest, ObjectData>() {
+            RPCResponse<ObjectData> response = null;
+            try {
+                String osdUuid = getReadUUIDIterator(fc, operation, new UUIDIterator()).getUUID();
+                response = sendReadAsync(buildReadRequest(fc, operation), osdUuid);
+            } catch (IOException e) {
+                // Handled below.
+            }
 
-                        @Override
-                        public RPCResponse<ObjectData> executeCall(InetSocketAddress server, Auth auth,
-                                UserCredentials userCreds, readRequest callRequest) throws IOException {
-                            return osdServiceClient.read(server, auth, userCreds, callRequest);
+            if (response == null) {
+                objectCache.finishPrefetch(fileId, objNo, xlocSetVersion, generation, null);
+                continue;
+            }
 
+            response.registerListener(new RPCResponseAvailableListener<ObjectData>() {
+                @Override
+                public void responseAvailable(RPCResponse<ObjectData> r) {
+                    byte[] object = null;
+                    try {
+                        ObjectData objectData = r.get();
+                        ReusableBuffer data = r.getData();
+                        int dataLength = data == null ? 0 : data.remaining();
+                        object = new byte[dataLength + objectData.getZeroPadding()];
+                        if (data != null) {
+                            data.get(object, 0, dataLength);
+                            BufferPool.free(data);
+                        }
+                        // Do not cache objects behind the end of the file.
+                        if (object.length == 0) {
+                            object = null;
+                        }
+                    } catch (Exception e) {
+                        if (Logging.isDebug()) {
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                                    "Prefetching object %d of file %d failed: %s", objNo, fileId, e.getMessage());
+                        }
+                        object = null;
+                    } finally {
+                        r.freeBuffers();
+                        objectCache.finishPrefetch(fileId, objNo, xlocSetVersion, generation, object);
+                    }
+                }
+            });
+        }
+        objectCache.releaseGeneration(fileId, generation);
+    }
+
+    /**
+     * Reads the objects of "operations" by sending up to "maxParallelReads" read requests to the OSDs at the same
+     * time. The results are copied to their position in "buf" in the order of "operations" and the number of bytes
+     * read per operation is stored in "bytesRead".<br>
+     * A read which fails at its first attempt is retried with {@link RPCCaller#syncCall}, which takes care of
+     * redirects, failing over to other replicas and error handling.
+     */
+    private int readObjectsParallel(FileCredentials fc, Vector<ReadOperation> operations, ReusableBuffer buf,
+            int maxParallelReads, int[] bytesRead) throws IOException, PosixErrorException,
+            AddressToUUIDNotFoundException {
+        int numOperations = operations.size();
+        readRequest[] requests = new readRequest[numOperations];
+        UUIDIterator[] uuidIterators = new UUIDIterator[numOperations];
+        String[] usedUuids = new String[numOperations];
+        @SuppressWarnings("unchecked")
+        RPCResponse<ObjectData>[] responses = new RPCResponse[numOperations];
+
+        int receivedData = 0;
+        int sent = 0;
+        int collected = 0;
+        try {
+            while (collected < numOperations) {
+                // Keep up to maxParallelReads requests in flight.
+                while (sent < numOperations && sent - collected < maxParallelReads) {
+                    ReadOperation operation = operations.get(sent);
+                    requests[sent] = buildReadRequest(fc, operation);
+                    // Every striped read needs its own iterator because the requests are processed in parallel.
+                    uuidIterators[sent] = getReadUUIDIterator(fc, operation, new UUIDIterator());
+                    usedUuids[sent] = uuidIterators[sent].getUUID();
+                    responses[sent] = sendReadAsync(requests[sent], usedUuids[sent]);
+                    sent++;
+                }
+
+                ReadOperation operation = operations.get(collected);
+                RPCResponse<ObjectData> response = responses[collected];
+                responses[collected] = null;
+
+                buf.position(operation.getBufferStart());
+                ObjectData objectData = null;
+                if (response != null) {
+                    objectData = receiveRead(response, uuidIterators[collected], usedUuids[collected], buf);
+                }
+
+                if (objectData == null) {
+                    // The first attempt failed, retry it synchronously.
+                    buf.position(operation.getBufferStart());
+                    bytesRead[collected] = readObjectSync(requests[collected], uuidIterators[collected], buf,
+                            operation);
+                } else {
+                    bytesRead[collected] = padWithZeros(objectData, buf, operation);
+                }
+                receivedData += bytesRead[collected];
+                collected++;
+            }
+        } finally {
+            // Release the responses of requests which are still in flight if an error occurred.
+            for (int j = collected; j < sent; j++) {
+                if (responses[j] != null) {
+                    responses[j].registerListener(new RPCResponseAvailableListener<ObjectData>() {
+                        @Override
+                        public void responseAvailable(RPCResponse<ObjectData> r) {
+                            try {
+                                if (r.getData() != null) {
+                                    BufferPool.free(r.getData());
+                                }
+                            } catch (InterruptedException e) {
+                                // Cannot happen since the response is already available.
+                            } finally {
+                                r.freeBuffers();
+                            }
                         }
                     });
-            // if zeropadding > 0, put zeros at the end of the buffer.
-            for (int i = 0; i < objectData.getZeroPadding(); i++) {
-                buf.put((byte) 0);
+                }
             }
-            receivedData += buf.position() - operations.get(j).getBufferStart();
         }
         return receivedData;
     }
 
+    /**
+     * Sends the read request to the OSD with the given UUID without waiting for the response.
+     * 
+     * @return The pending response or null if the request could not be sent.
+     */
+    private RPCResponse<ObjectData> sendReadAsync(readRequest request, String osdUuid) {
+        try {
+            InetSocketAddress server = RPCCaller.getInetSocketAddressFromAddress(
+                    uuidResolver.uuidToAddress(osdUuid), SERVICES.OSD);
+            return osdServiceClient.read(server, authBogus, userCredentialsBogus, request);
+        } catch (IOException e) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "Sending the parallel read request to %s failed: %s", osdUuid, e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the response of a read request which was sent by {@link #sendReadAsync} and copies the received
+     * data to the current position of "buf".
+     * 
+     * @return The response or null if the request failed and has to be retried.
+     */
+    private ObjectData receiveRead(RPCResponse<ObjectData> response, UUIDIterator uuidIterator, String usedUuid,
+            ReusableBuffer buf) throws IOException {
+        try {
+            ObjectData objectData = response.get();
+            ReusableBuffer data = response.getData();
+            if (data != null) {
+                buf.put(data);
+                BufferPool.free(data);
+            }
+            return objectData;
+        } catch (PBRPCException e) {
+            if (e.getErrorType().equals(ErrorType.REDIRECT)) {
+                // Retry at the current master instead of skipping a healthy replica.
+                redirect(uuidIterator, usedUuid, e.getRedirectToServerUUID());
+            } else if (e.getErrorType().equals(ErrorType.IO_ERROR)
+                    || e.getErrorType().equals(ErrorType.INTERNAL_SERVER_ERROR)) {
+                // Skip the OSD for the retry in the same cases as RPCCaller does.
+                markUUIDAsFailed(uuidIterator, usedUuid);
+            }
+            return null;
+        } catch (IOException e) {
+            markUUIDAsFailed(uuidIterator, usedUuid);
+            return null;
+        } catch (InterruptedException e) {
+            throw new IOException("Caught interrupt while waiting for a read response, aborting read request");
+        } finally {
+            response.freeBuffers();
+        }
+    }
+
+    /**
+     * Makes "redirectUuid" the current UUID of the (shared) iterator, so that the retry is sent there, unless a
+     * previous read already moved the iterator on. Without a redirect target, "usedUuid" is marked as failed.
+     */
+    private void redirect(UUIDIterator uuidIterator, String usedUuid, String redirectUuid) {
+        if (redirectUuid == null || redirectUuid.isEmpty()) {
+            markUUIDAsFailed(uuidIterator, usedUuid);
+            return;
+        }
+        synchronized (uuidIterator) {
+            try {
+                if (usedUuid.equals(uuidIterator.getUUID())) {
+                    uuidIterator.setCurrentUUID(redirectUuid);
+                }
+            } catch (UUIDIteratorListIsEmpyException e) {
+                // Nothing to redirect, the retry will report the error.
+            }
+        }
+    }
+
+    /**
+     * Marks "usedUuid" as failed unless a previous read already moved the (shared) iterator on.
+     */
+    private void markUUIDAsFailed(UUIDIterator uuidIterator, String usedUuid) {
+        try {
+            if (usedUuid.equals(uuidIterator.getUUID())) {
+                uuidIterator.markUUIDAsFailed(usedUuid);
+            }
+        } catch (UUIDIteratorListIsEmpyException e) {
+            // Nothing to mark, the retry will report the error.
+        }
+    }
+
+    /**
+     * Reads a single object with {@link RPCCaller#syncCall} into the current position of "buf".
+     * 
+     * @return The number of bytes read including zero padding.
+     */
+    private int readObjectSync(readRequest request, UUIDIterator uuidIterator, ReusableBuffer buf,
+            ReadOperation operation) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        // If synccall gets a buffer it fill it with data from the response.
+        ObjectData objectData = RPCCaller.<readRequest, ObjectData> syncCall(SERVICES.OSD, userCredentialsBogus,
+                authBogus, volumeOptions, uuidResolver, uuidIterator, false, request, buf,
+                new CallGenerator<readRequest, ObjectData>() {
+
+                    @Override
+                    public RPCResponse<ObjectData> executeCall(InetSocketAddress server, Auth auth,
+                            UserCredentials userCreds, readRequest callRequest) throws IOException {
+                        return osdServiceClient.read(server, auth, userCreds, callRequest);
+
+                    }
+                });
+        return padWithZeros(objectData, buf, operation);
+    }
+
+    /**
+     * Appends the zero padding of the response to "buf".
+     * 
+     * @return The number of bytes of the operation which are now in "buf".
+     */
+    private int padWithZeros(ObjectData objectData, ReusableBuffer buf, ReadOperation operation) {
+        // if zeropadding > 0, put zeros at the end of the buffer.
+        for (int i = 0; i < objectData.getZeroPadding(); i++) {
+            buf.put((byte) 0);
+        }
+        return buf.position() - operation.getBufferStart();
+    }
+
+    private readRequest buildReadRequest(FileCredentials fc, ReadOperation operation) {
+        readRequest.Builder readRqBuilder = readRequest.newBuilder();
+
+        readRqBuilder.setFileCredentials(fc);
+        readRqBuilder.setFileId(fc.getXcap().getFileId());
+        readRqBuilder.setObjectNumber(operation.getObjNumber());
+        readRqBuilder.setObjectVersion(0);
+        readRqBuilder.setOffset(operation.getReqOffset());
+        readRqBuilder.setLength(operation.getReqSize());
+        return readRqBuilder.build();
+    }
+
+    /**
+     * Returns the UUIDIterator to read the object of "operation" from. For striped files "stripingIterator" is
+     * filled with the OSDs of all replicas which hold the object.
+     */
+    private UUIDIterator getReadUUIDIterator(FileCredentials fc, ReadOperation operation,
+            UUIDIterator stripingIterator) {
+        // Differ between striping and the rest (replication, no replication).
+        if (fc.getXlocs().getReplicas(0).getOsdUuidsCount() > 1) {
+            // Replica is striped. Pick UUID from xlocset.
+            stripingIterator.clear();
+
+            // Replicas may have different stripe widths. However, the current Java client
+            // StripeTranslator code only supports the same stripe width as the first replica has.
+            int stripeWidthFirstReplica = fc.getXlocs().getReplicas(0).getStripingPolicy().getWidth();
+
+            for (int replicaIdx = 0; replicaIdx < fc.getXlocs().getReplicasCount(); replicaIdx++) {
+                if (fc.getXlocs().getReplicas(replicaIdx).getStripingPolicy().getWidth() == stripeWidthFirstReplica) {
+                    stripingIterator.addUUID(Helper.getOSDUUIDFromXlocSet(fc.getXlocs(), replicaIdx,
+                            operation.getOsdOffset()));
+                }
+            }
+
+            return stripingIterator;
+        } else {
+            // TODO(mberlin): Enhance UUIDIterator to read from different replicas.
+            return osdUuidIterator;
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -417,6 +781,11 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
 
         FileCredentials fileCredentials = fcBuilder.build();
 
+        // Cached copies of the written objects become outdated.
+        long firstObjNo = operations.isEmpty() ? 0 : operations.firstElement().getObjNumber();
+        long lastObjNo = operations.isEmpty() ? -1 : operations.lastElement().getObjNumber();
+        fileInfo.invalidateCachedObjects(firstObjNo, lastObjNo);
+
         String osdUuid = "";
         writeRequest.Builder request;
 
@@ -507,6 +876,9 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
                     fileInfo.tryToUpdateOSDWriteResponse(response, xcap);
                 }
             }
+
+            // Discard objects which were read while the write was in progress.
+            fileInfo.invalidateCachedObjects(firstObjNo, lastObjNo);
         }
         return count;
     }
@@ -648,6 +1020,9 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
 
             assert (response != null);
             assert (response.hasSizeInBytes());
+
+            // Cached objects may be beyond the new end of the file.
+            fileInfo.invalidateCachedObjects();
         } else {
 
             // create OSDWriteResponse
@@ -211,11 +211,18 @@ public class FileInfo {
      * 
      */
     protected void updateXLocSetAndRest(XLocSet newXlocset, boolean replicateOnClose) {
+        boolean versionChanged;
         synchronized (xLocSetLock) {
+            versionChanged = xlocset.getVersion() != newXlocset.getVersion();
             xlocset = XLocSet.newBuilder(newXlocset).build();
             this.replicateOnClose = replicateOnClose;
         }
 
+        // Objects cached for the old XLocSet may be outdated.
+        if (versionChanged) {
+            invalidateCachedObjects();
+        }
+
         // Update the osdUuidIterator to reflect the changes in the xlocset.
         osdUuidIterator.clearAndAddUUIDs(Helper.getOSDUUIDsFromXlocSet(newXlocset));
     }
@@ -224,14 +231,36 @@ public class FileInfo {
      * @see FileInfo#updateXLocSetAndRest(XLocSet, boolean)
      */
     protected void updateXLocSetAndRest(XLocSet newXlocset) {
+        boolean versionChanged;
         synchronized (xLocSetLock) {
+            versionChanged = xlocset.getVersion() != newXlocset.getVersion();
             xlocset = XLocSet.newBuilder(newXlocset).build();
         }
 
+        // Objects cached for the old XLocSet may be outdated.
+        if (versionChanged) {
+            invalidateCachedObjects();
+        }
+
         // Update the osdUuidIterator to reflect the changes in the xlocset.
         osdUuidIterator.clearAndAddUUIDs(Helper.getOSDUUIDsFromXlocSet(newXlocset));
     }
 
+    /**
+     * Removes the objects "firstObjNo" to "lastObjNo" of this file from the volume's ObjectCache. Called before
+     * and after they are modified.
+     */
+    protected void invalidateCachedObjects(long firstObjNo, long lastObjNo) {
+        volume.getObjectCache().invalidate(fileId, firstObjNo, lastObjNo);
+    }
+
+    /**
+     * Removes all objects of this file from the volume's ObjectCache.
+     */
+    protected void invalidateCachedObjects() {
+        volume.getObjectCache().invalidate(fileId);
+    }
+
     /**
      * Returns a new FileHandle object to which xcap belongs.
      * 
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * Caches the content of whole objects read by libxtreemfs. Entries are identified by (fileId, objNo, version),
+ * where the version is the version of the XLocSet the object was read with. The cache is limited by the total
+ * number of cached bytes and evicts the least recently used objects first.<br>
+ * <br>
+ * Every file has a generation which changes whenever objects of the file are invalidated. Reads remember the
+ * generation before they send their requests and their results are only added to the cache if the generation
+ * did not change in the meantime. This prevents that data read before a write or truncate finished is cached.
+ */
+public class ObjectCache {
+
+    /**
+     * Identifies a cached object.
+     */
+    static class ObjectKey {
+        final long fileId;
+
+        final long objNo;
+
+        final long version;
+
+        ObjectKey(long fileId, long objNo, long version) {
+            this.fileId = fileId;
+            this.objNo = objNo;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ObjectKey)) {
+                return false;
+            }
+            ObjectKey other = (ObjectKey) obj;
+            return fileId == other.fileId && objNo == other.objNo && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (fileId ^ (fileId >>> 32));
+            hash = 31 * hash + (int) (objNo ^ (objNo >>> 32));
+            return 31 * hash + (int) (version ^ (version >>> 32));
+        }
+    }
+
+    /**
+     * Content of a cached object and the time it was cached.
+     */
+    private static class CachedObject {
+        final byte[] data;
+
+        final long   timestampS;
+
+        CachedObject(byte[] data, long timestampS) {
+            this.data = data;
+            this.timestampS = timestampS;
+        }
+    }
+
+    /**
+     * Cached objects and pending prefetches of a single file.
+     */
+    private static class FileEntry {
+        final long             generation;
+
+        final Set<ObjectKey>   objects;
+
+        final Set<ObjectKey>   pendingPrefetches;
+
+        FileEntry(long generation) {
+            this.generation = generation;
+            this.objects = new HashSet<ObjectKey>();
+            this.pendingPrefetches = new HashSet<ObjectKey>();
+        }
+    }
+
+    private final long                                  maxSizeBytes;
+
+    private final long                                  ttlS;
+
+    private final boolean                               enabled;
+
+    /**
+     * All cached objects in access order, i.e. the first entry is the least recently used one.
+     */
+    // JCIP @GuardedBy("this")
+    private final LinkedHashMap<ObjectKey, CachedObject> cache;
+
+    // JCIP @GuardedBy("this")
+    private final Map<Long, FileEntry>                  files;
+
+    /**
+     * Source of the file generations. Every generation is used only once.
+     */
+    // JCIP @GuardedBy("this")
+    private long                                        lastGeneration;
+
+    // JCIP @GuardedBy("this")
+    private long                                        sizeBytes;
+
+    // JCIP @GuardedBy("this")
+    private long                                        hits;
+
+    // JCIP @GuardedBy("this")
+    private long                                        misses;
+
+    /**
+     * Creates an ObjectCache which holds up to "maxSizeBytes" bytes of object data for at most "ttlS" seconds. A
+     * size of 0 disables the cache.
+     */
+    protected ObjectCache(long maxSizeBytes, long ttlS) {
+        this.maxSizeBytes = maxSizeBytes;
+        this.ttlS = ttlS;
+
+        enabled = maxSizeBytes > 0;
+
+        cache = new LinkedHashMap<ObjectKey, CachedObject>(16, 0.75f, true);
+        files = new HashMap<Long, FileEntry>();
+    }
+
+    protected boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the current generation of the file. Pass it to {@link #put} when the object read finished.
+     */
+    protected synchronized long getGeneration(long fileId) {
+        return getFileEntry(fileId).generation;
+    }
+
+    /**
+     * Drops the entry which {@link #getGeneration} created for the file if no object was added for it since,
+     * e.g. because the read failed. Has to be invoked once the reads of a generation are finished or started.
+     */
+    protected synchronized void releaseGeneration(long fileId, long generation) {
+        FileEntry fileEntry = files.get(fileId);
+        if (fileEntry != null && fileEntry.generation == generation) {
+            removeFileEntryIfUnused(fileEntry, fileId);
+        }
+    }
+
+    /**
+     * Returns the content of the object or null if it is not cached. If the object is being prefetched, waits
+     * until the prefetch did finish. Has to be invoked between {@link #getGeneration} and
+     * {@link #releaseGeneration}.
+     */
+    protected synchronized byte[] get(long fileId, long objNo, long version) {
+        if (!enabled) {
+            return null;
+        }
+
+        ObjectKey key = new ObjectKey(fileId, objNo, version);
+        FileEntry fileEntry = files.get(fileId);
+        while (fileEntry != null && fileEntry.pendingPrefetches.contains(key)) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                break;
+            }
+            fileEntry = files.get(fileId);
+        }
+
+        CachedObject object = cache.get(key);
+        if (object != null && object.timestampS + ttlS < nowS()) {
+            // Keep the file entry, so that the generation of the caller stays valid and the object is cached
+            // again once the caller has read it.
+            cache.remove(key);
+            sizeBytes -= object.data.length;
+            fileEntry.objects.remove(key);
+            object = null;
+        }
+
+        if (object == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return object.data;
+    }
+
+    /**
+     * Returns true if the object is cached or a prefetch of it is pending.
+     */
+    protected synchronized boolean contains(long fileId, long objNo, long version) {
+        ObjectKey key = new ObjectKey(fileId, objNo, version);
+        FileEntry fileEntry = files.get(fileId);
+        return cache.containsKey(key) || (fileEntry != null && fileEntry.pendingPrefetches.contains(key));
+    }
+
+    /**
+     * Adds the content of an object to the cache unless objects of the file were invalidated after "generation"
+     * was retrieved.
+     */
+    protected synchronized void put(long fileId, long objNo, long version, long generation, byte[] data) {
+        FileEntry fileEntry = files.get(fileId);
+        if (!enabled || fileEntry == null || fileEntry.generation != generation) {
+            return;
+        }
+        if (data.length > maxSizeBytes) {
+            removeFileEntryIfUnused(fileEntry, fileId);
+            return;
+        }
+
+        ObjectKey key = new ObjectKey(fileId, objNo, version);
+        CachedObject oldObject = cache.put(key, new CachedObject(data, nowS()));
+        if (oldObject != null) {
+            sizeBytes -= oldObject.data.length;
+        }
+        fileEntry.objects.add(key);
+        sizeBytes += data.length;
+
+        evictUnmutexed();
+    }
+
+    /**
+     * Marks the object as being prefetched.
+     *
+     * @return false if the object is already cached or being prefetched.
+     */
+    protected synchronized boolean startPrefetch(long fileId, long objNo, long version) {
+        if (!enabled || contains(fileId, objNo, version)) {
+            return false;
+        }
+        getFileEntry(fileId).pendingPrefetches.add(new ObjectKey(fileId, objNo, version));
+        return true;
+    }
+
+    /**
+     * Adds the result of a prefetch (null if it failed) to the cache and wakes up readers waiting for it.
+     */
+    protected synchronized void finishPrefetch(long fileId, long objNo, long version, long generation,
+            byte[] data) {
+        FileEntry fileEntry = files.get(fileId);
+        if (fileEntry != null) {
+            fileEntry.pendingPrefetches.remove(new ObjectKey(fileId, objNo, version));
+            if (data != null) {
+                put(fileId, objNo, version, generation, data);
+            } else {
+                removeFileEntryIfUnused(fileEntry, fileId);
+            }
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Removes the objects "firstObjNo" to "lastObjNo" of the file from the cache (independent of their version)
+     * and discards all reads of the file which are in flight.
+     */
+    protected synchronized void invalidate(long fileId, long firstObjNo, long lastObjNo) {
+        if (!enabled) {
+            return;
+        }
+
+        FileEntry oldEntry = files.get(fileId);
+        if (oldEntry == null) {
+            // Nothing is cached and no read of the file did retrieve the current generation.
+            return;
+        }
+
+        FileEntry newEntry = new FileEntry(++lastGeneration);
+        files.put(fileId, newEntry);
+        newEntry.pendingPrefetches.addAll(oldEntry.pendingPrefetches);
+        for (ObjectKey key : oldEntry.objects) {
+            if (key.objNo >= firstObjNo && key.objNo <= lastObjNo) {
+                CachedObject object = cache.remove(key);
+                sizeBytes -= object.data.length;
+            } else {
+                newEntry.objects.add(key);
+            }
+        }
+        removeFileEntryIfUnused(newEntry, fileId);
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                    "invalidated cached objects %d to %d of file %d", firstObjNo, lastObjNo, fileId);
+        }
+    }
+
+    /**
+     * Removes all objects of the file from the cache and discards all reads of the file which are in flight.
+     */
+    protected void invalidate(long fileId) {
+        invalidate(fileId, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of cached bytes.
+     */
+    protected synchronized long size() {
+        return sizeBytes;
+    }
+
+    /**
+     * Returns the maximum number of cached bytes.
+     */
+    protected long capacity() {
+        return maxSizeBytes;
+    }
+
+    /**
+     * Returns the ratio of get() calls which were answered from the cache.
+     */
+    protected synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    private FileEntry getFileEntry(long fileId) {
+        FileEntry fileEntry = files.get(fileId);
+        if (fileEntry == null) {
+            fileEntry = new FileEntry(++lastGeneration);
+            files.put(fileId, fileEntry);
+        }
+        return fileEntry;
+    }
+
+    /**
+     * Drops the entry of a file without cached objects and pending prefetches. A new entry gets a new
+     * generation, so in flight reads of the file will not be cached, which is safe.
+     */
+    private void removeFileEntryIfUnused(FileEntry fileEntry, long fileId) {
+        if (fileEntry.objects.isEmpty() && fileEntry.pendingPrefetches.isEmpty()) {
+            files.remove(fileId);
+        }
+    }
+
+    /**
+     * Evicts the least recently used objects until the size limit is met.
+     */
+    private void evictUnmutexed() {
+        Iterator<Map.Entry<ObjectKey, CachedObject>> it = cache.entrySet().iterator();
+        while (sizeBytes > maxSizeBytes && it.hasNext()) {
+            Map.Entry<ObjectKey, CachedObject> entry = it.next();
+            it.remove();
+            sizeBytes -= entry.getValue().data.length;
+
+            ObjectKey key = entry.getKey();
+            FileEntry fileEntry = files.get(key.fileId);
+            fileEntry.objects.remove(key);
+            removeFileEntryIfUnused(fileEntry, key.fileId);
+        }
+    }
+
+    private static long nowS() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
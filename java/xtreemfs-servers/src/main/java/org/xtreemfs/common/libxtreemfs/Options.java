@@ -29,6 +29,24 @@ public class Options {
      */
     private final long    metadataCacheTTLs                 = 120;
 
+    /**
+     * Maximum number of bytes of object data cached per volume. 0 disables the object cache and read-ahead.
+     * Default: 0
+     */
+    private long          objectCacheSize                   = 0;
+
+    /**
+     * Time to live for ObjectCache entries, i.e. how long data written by other clients may not be seen.
+     * Default: 10
+     */
+    private long          objectCacheTTLs                   = 10;
+
+    /**
+     * Number of objects which are prefetched once a file is read sequentially. Requires the object cache.
+     * Default: 4
+     */
+    private int           readAheadObjects                  = 4;
+
     /**
      * Enable asynchronous writes. <br>
      * Currently only operative through the native C++ client.
@@ -45,6 +63,25 @@ public class Options {
      */
     private final int     maxWriteaheadRequests             = 10;
 
+    /**
+     * Maximum number of object reads of a single read() call which are sent to the OSDs in parallel. A value of 1
+     * reads the objects one after another. Default: 10
+     */
+    private int           maxParallelReads                  = 10;
+
+    /**
+     * Number of TCP connections per server. Large writes of a file always use the same connection, so their order
+     * is kept; other requests are sent over the connection with the least outstanding bytes and may be reordered.
+     * Default: 1
+     */
+    private int           connectionsPerServer              = 1;
+
+    /**
+     * If there are multiple connections per server, requests up to this size (in bytes) get a connection of their
+     * own, so that they are not delayed by large transfers. 0 disables this. Default: 0
+     */
+    private int           smallRequestThreshold             = 0;
+
     /**
      * Number of retrieved entries per readdir request. Default: 1024
      */
@@ -230,6 +267,30 @@ public class Options {
         return maxWriteaheadRequests;
     }
 
+    public int getMaxParallelReads() {
+        return maxParallelReads;
+    }
+
+    public void setMaxParallelReads(int maxParallelReads) {
+        this.maxParallelReads = maxParallelReads;
+    }
+
+    public int getConnectionsPerServer() {
+        return connectionsPerServer;
+    }
+
+    public void setConnectionsPerServer(int connectionsPerServer) {
+        this.connectionsPerServer = connectionsPerServer;
+    }
+
+    public int getSmallRequestThreshold() {
+        return smallRequestThreshold;
+    }
+
+    public void setSmallRequestThreshold(int smallRequestThreshold) {
+        this.smallRequestThreshold = smallRequestThreshold;
+    }
+
     public int getReaddirChunkSize() {
         return readdirChunkSize;
     }
@@ -270,6 +331,30 @@ public class Options {
         return metadataCacheTTLs;
     }
 
+    public long getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    public void setObjectCacheSize(long objectCacheSize) {
+        this.objectCacheSize = objectCacheSize;
+    }
+
+    public long getObjectCacheTTLs() {
+        return objectCacheTTLs;
+    }
+
+    public void setObjectCacheTTLs(long objectCacheTTLs) {
+        this.objectCacheTTLs = objectCacheTTLs;
+    }
+
+    public int getReadAheadObjects() {
+        return readAheadObjects;
+    }
+
+    public void setReadAheadObjects(int readAheadObjects) {
+        this.readAheadObjects = readAheadObjects;
+    }
+
     public int getInterruptSignal() {
         return interruptSignal;
     }
@@ -16,6 +16,7 @@ import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException
 import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
 import org.xtreemfs.common.xloc.ReplicationFlags;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.mrc.metadata.ReplicationPolicy;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.REPL_FLAG;
@@ -26,6 +27,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.StatVFS;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.XATTR_FLAGS;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.listxattrResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResult;
 
 /**
  * Represents a volume. A volume object can be obtain by opening a volume with a client.
@@ -175,6 +177,30 @@ public interface Volume {
     public FileHandle openFile(UserCredentials userCredentials, String path, int flags, int mode)
             throws IOException, PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Opens several existing files with the same flags, using a single call to the MRC.
+     * SYSTEM_V_FCNTL_H_O_CREAT is not supported.
+     * 
+     * @param userCredentials
+     *            Name and Groups of the user.
+     * @param paths
+     *            Paths to the files.
+     * @param flags
+     *            Open flags as specified in xtreemfs::pbrpc::SYSTEM_V_FCNTL.
+     * @param errors
+     *            If not null, POSIX_ERROR_NONE or the error which occurred will be added for each path.
+     * @return One FileHandle per path, or null if the file at the same position could not be opened.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws {@link IOException}
+     * @throws PosixErrorException
+     * 
+     * @remark Ownership is NOT transferred to the caller. Instead FileHandle.close() has to be called to
+     *         destroy the objects.
+     */
+    public List<FileHandle> openFiles(UserCredentials userCredentials, List<String> paths, int flags,
+            List<POSIXErrno> errors) throws IOException, PosixErrorException, AddressToUUIDNotFoundException;
+
     /**
      * Truncates the file to "newFileSize" bytes.
      * 
@@ -208,6 +234,24 @@ public interface Volume {
     public Stat getAttr(UserCredentials userCredentials, String path) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Retrieves the attributes of several files or directories, using a single call to the MRC. Attributes
+     * found in the metadata cache are not requested again, and the retrieved attributes are added to the
+     * cache.
+     * 
+     * @param userCredentials
+     *            Name and Groups of the user.
+     * @param paths
+     *            Paths to the files/directories.
+     * @return One result per path, which contains either the attributes or the error which occurred.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws {@link IOException}
+     * @throws PosixErrorException
+     */
+    public List<xtreemfs_getattr_bulkResult> getAttrs(UserCredentials userCredentials, List<String> paths)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException;
+
     /**
      * Sets the attributes given by "stat" and specified in "toSet".
      * 
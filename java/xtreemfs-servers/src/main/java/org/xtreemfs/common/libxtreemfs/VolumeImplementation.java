@@ -8,6 +8,7 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -80,6 +81,12 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.unlinkResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_xlocsetRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResult;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkResult;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_removeRequest;
@@ -89,6 +96,8 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.unlink_osd_Request;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
 
+import com.google.protobuf.ByteString;
+
 /**
  * This class represents the volume as it is used internally by libxtreemfs-java.
  * 
@@ -165,6 +174,11 @@ public class VolumeImplementation implements Volume, AdminVolume {
      */
     private final MetadataCache                             metadataCache;
 
+    /**
+     * ObjectCache to cache the content of read objects.
+     */
+    private final ObjectCache                               objectCache;
+
     /**
      * XCap renewal thread to renew Xcap periodically.
      */
@@ -204,6 +218,7 @@ public class VolumeImplementation implements Volume, AdminVolume {
         this.authBogus = RPCAuthentication.authNone;
 
         this.metadataCache = new MetadataCache(options.getMetadataCacheSize(), options.getMetadataCacheTTLs());
+        this.objectCache = new ObjectCache(options.getObjectCacheSize(), options.getObjectCacheTTLs());
 
         // register all stripe translators
         this.stripeTranslators = new HashMap<StripingPolicyType, StripeTranslator>();
@@ -225,6 +240,8 @@ public class VolumeImplementation implements Volume, AdminVolume {
     public void start(boolean startThreadsAsDaemons) throws IOException {
         networkClient = new RPCNIOSocketClient(sslOptions, volumeOptions.getRequestTimeout_s() * 1000,
                 volumeOptions.getLingerTimeout_s() * 1000, "Volume", startThreadsAsDaemons);
+        networkClient.setConnectionsPerServer(volumeOptions.getConnectionsPerServer());
+        networkClient.setSmallRequestThreshold(volumeOptions.getSmallRequestThreshold());
         networkClient.start();
         try {
             networkClient.waitForStartup();
@@ -557,6 +574,90 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return fileHandle;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#openFiles(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC .UserCredentials, java.util.List, int, java.util.List)
+     */
+    @Override
+    public List<FileHandle> openFiles(UserCredentials userCredentials, List<String> paths, int flags,
+            List<POSIXErrno> errors) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        if ((flags & SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()) > 0) {
+            throw new PosixErrorException(POSIXErrno.POSIX_ERROR_EINVAL,
+                    "O_CREAT is not supported when opening several files at once.");
+        }
+
+        boolean asyncWritesEnabled = volumeOptions.isEnableAsyncWrites()
+                && (SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_SYNC.getNumber() & flags) == 0;
+
+        xtreemfs_open_bulkRequest request = xtreemfs_open_bulkRequest.newBuilder().setVolumeName(volumeName)
+                .addAllPaths(paths).setFlags(flags).build();
+
+        xtreemfs_open_bulkResponse response = RPCCaller
+                .<xtreemfs_open_bulkRequest, xtreemfs_open_bulkResponse> syncCall(SERVICES.MRC, userCredentials,
+                        authBogus, volumeOptions, uuidResolver, mrcUUIDIterator, false, request,
+                        new CallGenerator<xtreemfs_open_bulkRequest, xtreemfs_open_bulkResponse>() {
+                            @Override
+                            public RPCResponse<xtreemfs_open_bulkResponse> executeCall(InetSocketAddress server,
+                                    Auth authHeader, UserCredentials userCreds, xtreemfs_open_bulkRequest input)
+                                    throws IOException {
+                                return mrcServiceClient.xtreemfs_open_bulk(server, authHeader, userCreds, input);
+                            }
+                        });
+
+        assert (response != null);
+
+        List<FileHandle> fileHandles = new ArrayList<FileHandle>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            xtreemfs_open_bulkResult result = i < response.getResultsCount() ? response.getResults(i) : null;
+
+            POSIXErrno error = POSIXErrno.POSIX_ERROR_NONE;
+            FileHandleImplementation fileHandle = null;
+            if (result == null || !result.hasCreds()) {
+                error = result != null && result.hasPosixErrno() ? POSIXErrno.valueOf(result.getPosixErrno())
+                        : null;
+                if (error == null) {
+                    error = POSIXErrno.POSIX_ERROR_EIO;
+                }
+            } else if (result.getCreds().getXlocs().getReplicasCount() == 0) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this,
+                        "MRC assigned no OSDs to file on open" + path + ", xloc: "
+                                + result.getCreds().getXlocs().toString());
+                error = POSIXErrno.POSIX_ERROR_EIO;
+            } else {
+                // Create a FileInfo object if it does not exist yet.
+                FileInfo fileInfo = getOrCreateFileInfo(Helper.extractFileIdFromXcap(result.getCreds().getXcap()),
+                        path, result.getCreds().getXcap().getReplicateOnClose(), result.getCreds().getXlocs());
+                fileHandle = fileInfo.createFileHandle(result.getCreds().getXcap(), asyncWritesEnabled);
+
+                // If O_TRUNC was set, go on processing the truncate request.
+                if ((flags & SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber()) > 0) {
+
+                    // Update mtime and ctime of the file if O_TRUNC was set.
+                    metadataCache.updateStatTime(path, response.getTimestampS(),
+                            Setattrs.SETATTR_CTIME.getNumber() | Setattrs.SETATTR_MTIME.getNumber());
+
+                    try {
+                        fileHandle.truncatePhaseTwoAndThree(userCredentials, 0, false);
+                    } catch (PosixErrorException e) {
+                        // Truncate did fail, close file again
+                        fileHandle.close();
+                        fileHandle = null;
+                        error = e.getPosixError();
+                    }
+                }
+            }
+
+            fileHandles.add(fileHandle);
+            if (errors != null) {
+                errors.add(error);
+            }
+        }
+        return fileHandles;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -616,6 +717,86 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return stat;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#getAttrs(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC .UserCredentials, java.util.List)
+     */
+    @Override
+    public List<xtreemfs_getattr_bulkResult> getAttrs(UserCredentials userCredentials, List<String> paths)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        xtreemfs_getattr_bulkResult[] results = new xtreemfs_getattr_bulkResult[paths.size()];
+
+        // Only retrieve the entries from the MRC which are not cached.
+        xtreemfs_getattr_bulkRequest.Builder request = xtreemfs_getattr_bulkRequest.newBuilder().setVolumeName(
+                volumeName);
+        List<Integer> requested = new ArrayList<Integer>();
+        for (int i = 0; i < paths.size(); i++) {
+            Stat stat = metadataCache.getStat(paths.get(i));
+            if (stat != null) {
+                results[i] = xtreemfs_getattr_bulkResult.newBuilder().setStbuf(stat).build();
+            } else {
+                request.addPaths(paths.get(i));
+                requested.add(i);
+            }
+        }
+
+        if (!requested.isEmpty()) {
+            xtreemfs_getattr_bulkResponse response = RPCCaller
+                    .<xtreemfs_getattr_bulkRequest, xtreemfs_getattr_bulkResponse> syncCall(SERVICES.MRC,
+                            userCredentials, authBogus, volumeOptions, uuidResolver, mrcUUIDIterator, false,
+                            request.build(),
+                            new CallGenerator<xtreemfs_getattr_bulkRequest, xtreemfs_getattr_bulkResponse>() {
+                                @Override
+                                public RPCResponse<xtreemfs_getattr_bulkResponse> executeCall(
+                                        InetSocketAddress server, Auth authHeader, UserCredentials userCreds,
+                                        xtreemfs_getattr_bulkRequest input) throws IOException {
+                                    return mrcServiceClient.xtreemfs_getattr_bulk(server, authHeader, userCreds,
+                                            input);
+                                }
+                            });
+
+            assert (response != null);
+
+            for (int j = 0; j < requested.size(); j++) {
+                int i = requested.get(j);
+                if (j >= response.getResultsCount()) {
+                    results[i] = xtreemfs_getattr_bulkResult.newBuilder()
+                            .setPosixErrno(POSIXErrno.POSIX_ERROR_EIO.getNumber()).build();
+                    continue;
+                }
+
+                results[i] = response.getResults(j);
+                if (results[i].hasStbuf()) {
+                    if (results[i].getStbuf().getNlink() > 1) { // Do not cache hardlinks
+                        metadataCache.invalidate(paths.get(i));
+                    } else {
+                        metadataCache.updateStat(paths.get(i), results[i].getStbuf());
+                    }
+                }
+            }
+        }
+
+        // Merge the attributes of open files with possibly newer information from their FileInfo.
+        for (int i = 0; i < results.length; i++) {
+            if (results[i].hasStbuf()) {
+                FileInfo fileInfo = openFileTable.get(results[i].getStbuf().getIno()); // Ino == fileId
+                if (fileInfo != null) {
+                    fileInfo.waitForPendingAsyncWrites();
+                    results[i] = xtreemfs_getattr_bulkResult.newBuilder()
+                            .setStbuf(fileInfo.mergeStatAndOSDWriteResponse(results[i].getStbuf())).build();
+                }
+            }
+        }
+
+        List<xtreemfs_getattr_bulkResult> resultList = new ArrayList<xtreemfs_getattr_bulkResult>(results.length);
+        for (xtreemfs_getattr_bulkResult result : results) {
+            resultList.add(result);
+        }
+        return resultList;
+    }
+
     private Stat getAttrHelper(UserCredentials userCredentials, String path) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
         // Check if Stat object is cached.
@@ -973,16 +1154,22 @@ public class VolumeImplementation implements Volume, AdminVolume {
 
         DirectoryEntries.Builder dirEntriesBuilder = DirectoryEntries.newBuilder();
 
-        // Process large requests in multiples of readdirChunkSize.
+        // Process large requests in multiples of readdirChunkSize. Subsequent chunks are continued at the cursor
+        // returned with the previous chunk, which saves the MRC from skipping all preceding entries.
+        ByteString resumeCursor = null;
         for (int currentOffset = offset; currentOffset < offset + count; currentOffset += volumeOptions
                 .getReaddirChunkSize()) {
 
             int limitDirEntriesCount = (currentOffset > offset + count) ? (currentOffset - offset - count)
                     : volumeOptions.getReaddirChunkSize();
 
-            readdirRequest request = readdirRequest.newBuilder().setPath(path).setVolumeName(volumeName)
-                    .setNamesOnly(namesOnly).setKnownEtag(0).setSeenDirectoryEntriesCount(currentOffset)
-                    .setLimitDirectoryEntriesCount(limitDirEntriesCount).build();
+            readdirRequest.Builder requestBuilder = readdirRequest.newBuilder().setPath(path)
+                    .setVolumeName(volumeName).setNamesOnly(namesOnly).setKnownEtag(0)
+                    .setSeenDirectoryEntriesCount(currentOffset).setLimitDirectoryEntriesCount(limitDirEntriesCount);
+            if (resumeCursor != null) {
+                requestBuilder.setResumeCursor(resumeCursor);
+            }
+            readdirRequest request = requestBuilder.build();
 
             DirectoryEntries readDirResponse = RPCCaller.<readdirRequest, DirectoryEntries> syncCall(SERVICES.MRC,
                     userCredentials,
@@ -1001,9 +1188,12 @@ public class VolumeImplementation implements Volume, AdminVolume {
             dirEntriesBuilder.addAllEntries(readDirResponse.getEntriesList());
 
             // Break if this is the last chunk.
-            if (dirEntriesBuilder.getEntriesCount() < (currentOffset + volumeOptions.getReaddirChunkSize())) {
+            if (readDirResponse.getEntriesCount() < limitDirEntriesCount) {
                 break;
             }
+
+            // MRCs that do not support cursors are asked for the next chunk by its offset.
+            resumeCursor = readDirResponse.hasResumeCursor() ? readDirResponse.getResumeCursor() : null;
         }
 
         // TODO: Merge possible pending file size updates of files into
@@ -1736,6 +1926,10 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return this.metadataCache;
     }
 
+    protected ObjectCache getObjectCache() {
+        return this.objectCache;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -7,6 +7,7 @@
 package org.xtreemfs.common.libxtreemfs.jni;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -39,6 +40,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.StatVFS;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.XATTR_FLAGS;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.listxattrResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResult;
 
 public class NativeVolume implements Volume {
 
@@ -132,6 +134,27 @@ public class NativeVolume implements Volume {
         return fileHandleNative;
     }
 
+    @Override
+    public List<FileHandle> openFiles(UserCredentials userCredentials, List<String> paths, int flags,
+            List<POSIXErrno> errors) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        // The native library is not called in bulk, as its bulk calls are not wrapped.
+        List<FileHandle> fileHandles = new ArrayList<FileHandle>(paths.size());
+        for (String path : paths) {
+            FileHandle fileHandle = null;
+            POSIXErrno error = POSIXErrno.POSIX_ERROR_NONE;
+            try {
+                fileHandle = openFile(userCredentials, path, flags);
+            } catch (PosixErrorException e) {
+                error = e.getPosixError();
+            }
+            fileHandles.add(fileHandle);
+            if (errors != null) {
+                errors.add(error);
+            }
+        }
+        return fileHandles;
+    }
+
     @Override
     public void truncate(UserCredentials userCredentials, String path, int newFileSize) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
@@ -144,6 +167,23 @@ public class NativeVolume implements Volume {
         return proxy.getAttr(userCredentials, path);
     }
 
+    @Override
+    public List<xtreemfs_getattr_bulkResult> getAttrs(UserCredentials userCredentials, List<String> paths)
+            throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
+        // The native library is not called in bulk, as its bulk calls are not wrapped.
+        List<xtreemfs_getattr_bulkResult> results = new ArrayList<xtreemfs_getattr_bulkResult>(paths.size());
+        for (String path : paths) {
+            xtreemfs_getattr_bulkResult.Builder result = xtreemfs_getattr_bulkResult.newBuilder();
+            try {
+                result.setStbuf(getAttr(userCredentials, path));
+            } catch (PosixErrorException e) {
+                result.setPosixErrno(e.getPosixError().getNumber());
+            }
+            results.add(result.build());
+        }
+        return results;
+    }
+
     @Override
     public void setAttr(UserCredentials userCredentials, String path, Stat stat, int toSet) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
@@ -25,12 +25,17 @@ import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.Schemes;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMapping;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.AddressMappingSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchResponse;
 
 /**
- * Resolves UUID to InetSocketAddress+Protocol mappings.
+ * Resolves UUID to InetSocketAddress+Protocol mappings. Cached mappings are
+ * refreshed as soon as the DIR reports changes.
  * 
  * @author bjko
  */
@@ -51,7 +56,23 @@ public final class UUIDResolver extends Thread {
     
     public final int              maxUnusedEntry;
     
+    /**
+     * maximum time to wait for changes of the cached mappings in milliseconds,
+     * has to be lower than the RPC timeout
+     */
+    public static final int       WATCH_TIMEOUT_MS = 10 * 1000;
+    
     protected static UUIDResolver theInstance;
+    
+    /**
+     * address mapping version of the last watch response
+     */
+    protected long                mappingsVersion;
+    
+    /**
+     * false, if the DIR does not support watch requests
+     */
+    protected boolean             watchSupported;
 
     protected final UserCredentials uc;
 
@@ -66,6 +87,7 @@ public final class UUIDResolver extends Thread {
         this.dir = client;
         this.maxUnusedEntry = maxUnusedEntry;
         this.cacheCleanInterval = cacheCleanInterval;
+        this.watchSupported = true;
         this.uc = UserCredentials.newBuilder().setUsername("uuidresolver").addGroups("xtreemfs-services").build();
         myNetworks = new ArrayList<String>();
         renewNetworks(this);
@@ -260,12 +282,69 @@ public final class UUIDResolver extends Thread {
                 
             }
             try {
-                sleep(cacheCleanInterval);
+                // wait for changes of the cached mappings, or until the next
+                // cleanup is due
+                if (!watchMappings())
+                    sleep(cacheCleanInterval);
             } catch (InterruptedException ex) {
             }
         } while (!quit);
     }
     
+    /**
+     * Waits until the DIR reports changes of the address mappings of cached
+     * entries, or until the watch timeout expires, and refreshes the changed
+     * entries.
+     * 
+     * @return <code>false</code>, if the DIR could not be asked for changes
+     */
+    private boolean watchMappings() throws InterruptedException {
+        if (dir == null || !watchSupported)
+            return false;
+        
+        List<String> uuids = new ArrayList<String>();
+        for (UUIDCacheEntry entry : cache.values()) {
+            if (!entry.isSticky())
+                uuids.add(entry.getUuid());
+        }
+        if (uuids.isEmpty())
+            return false;
+        
+        final watchResponse changes;
+        try {
+            watchRequest request = watchRequest.newBuilder().addAllMappingUuids(uuids)
+                    .setMappingsSinceVersion(mappingsVersion)
+                    .setTimeoutMs(Math.min(cacheCleanInterval, WATCH_TIMEOUT_MS)).build();
+            changes = dir.xtreemfs_watch(null, GlobalConstants.AUTH_NONE, uc, request, 1);
+        } catch (IOException ex) {
+            if (ex.getCause() instanceof PBRPCException
+                && ((PBRPCException) ex.getCause()).getErrorType() == ErrorType.INVALID_PROC_ID) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.misc, this,
+                    "DIR does not support watch requests, UUID mappings are refreshed periodically");
+                watchSupported = false;
+            } else {
+                Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
+                    "cannot watch UUID mappings: %s", ex.toString());
+            }
+            return false;
+        }
+        
+        mappingsVersion = changes.getMappingsVersion();
+        for (String uuid : changes.getChangedMappingUuidsList()) {
+            try {
+                fetchUUID(uuid);
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "refreshed changed UUID mapping: %s", uuid);
+            } catch (UnknownUUIDException ex) {
+                Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
+                    "cannot refresh UIID mapping: %s", ex.toString());
+                cache.remove(uuid);
+            }
+        }
+        return true;
+    }
+    
     /**
      * Add a UUID which is mapped on localhost
      * 
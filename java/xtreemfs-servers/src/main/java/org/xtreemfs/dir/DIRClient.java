@@ -31,6 +31,8 @@ import org.xtreemfs.pbrpc.generatedinterfaces.DIR.addressMappingSetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.configurationSetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.globalTimeSGetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceRegisterResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceClient;
 
 /**
@@ -251,7 +253,24 @@ public class DIRClient implements TimeServerClient {
         ServiceSet response = (ServiceSet) syncCall(new CallGenerator() {
             @Override
             public RPCResponse executeCall(DIRServiceClient client, InetSocketAddress server) throws IOException {
-                return client.xtreemfs_service_get_by_type(server, authHeader, userCreds, type);
+                return client.xtreemfs_service_get_by_type(server, authHeader, userCreds, type, 0);
+            }
+        }, maxRetries);
+        return response;
+    }
+    
+    public watchResponse xtreemfs_watch(InetSocketAddress server, final Auth authHeader,
+            final UserCredentials userCreds, final watchRequest request) throws IOException, InterruptedException {
+        return xtreemfs_watch(server, authHeader, userCreds, request, maxRetries);
+    }
+    
+    public watchResponse xtreemfs_watch(InetSocketAddress server, final Auth authHeader,
+            final UserCredentials userCreds, final watchRequest request, int maxRetries) throws IOException,
+            InterruptedException {
+        watchResponse response = (watchResponse) syncCall(new CallGenerator() {
+            @Override
+            public RPCResponse executeCall(DIRServiceClient client, InetSocketAddress server) throws IOException {
+                return client.xtreemfs_watch(server, authHeader, userCreds, request);
             }
         }, maxRetries);
         return response;
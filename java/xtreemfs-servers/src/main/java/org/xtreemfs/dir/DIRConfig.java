@@ -55,6 +55,10 @@ public class DIRConfig extends ServiceConfig {
             Parameter.SNMP_PORT,
             Parameter.SNMP_ACL,
             Parameter.MAX_CLIENT_Q,
+            Parameter.SELECTOR_THREADS,
+            Parameter.BUFFER_POOL_SIZES,
+            Parameter.BUFFER_POOL_THREAD_CACHE_SIZE,
+            Parameter.BUFFER_POOL_ARENA_SIZE,
             Parameter.VIVALDI_MAX_CLIENTS,
             Parameter.VIVALDI_CLIENT_TIMEOUT
     };
@@ -49,6 +49,7 @@ import org.xtreemfs.dir.operations.ServiceOfflineOperation;
 import org.xtreemfs.dir.operations.SetAddressMappingOperation;
 import org.xtreemfs.dir.operations.SetConfigurationOperation;
 import org.xtreemfs.dir.operations.UpdateVivaldiClientOperation;
+import org.xtreemfs.dir.operations.WatchOperation;
 import org.xtreemfs.foundation.CrashReporter;
 import org.xtreemfs.foundation.LifeCycleListener;
 import org.xtreemfs.foundation.LifeCycleThread;
@@ -121,6 +122,10 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
     
     private VivaldiClientMap vivaldiClientMap;
     
+    private final ServiceRegistry                 serviceRegistry;
+    
+    private final WatchManager                    watchManager;
+    
     public DIRRequestDispatcher(final DIRConfig config, final BabuDBConfig dbsConfig) throws IOException,
         BabuDBException {
         super("DIR RqDisp");
@@ -141,6 +146,29 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
             }
         });
         
+        // load the services into memory; with a replicated database, slaves
+        // receive their updates through BabuDB replication, which bypasses the
+        // registry, so that lookups have to read the database
+        if (dbsConfig.getPlugins().size() > 0) {
+            serviceRegistry = null;
+        } else {
+            serviceRegistry = new ServiceRegistry();
+            try {
+                for (ServiceRecord sRec : getServices().getList())
+                    serviceRegistry.update(sRec);
+            } catch (Exception ex) {
+                throw new IOException("cannot load service registry", ex);
+            }
+        }
+        
+        // watches depend on the registry to learn about changes
+        if (serviceRegistry == null) {
+            watchManager = null;
+        } else {
+            watchManager = new WatchManager(serviceRegistry);
+            watchManager.setLifeCycleListener(this);
+        }
+        
         registerOperations();
         
         // start the server
@@ -169,7 +197,11 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         queue = new LinkedBlockingQueue<RPCServerRequest>();
         quit = false;
         
-        server = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, sslOptions, config.getBindRetries(), -1, config.getMaxClientQ());
+        BufferPool.configure(config.getBufferPoolSizes(), config.getBufferPoolThreadCacheSize());
+        BufferPool.reserveArena(config.getBufferPoolArenaSize() * 1024L * 1024L);
+        
+        server = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, sslOptions, config.getBindRetries(), -1, config.getMaxClientQ(),
+                config.getSelectorThreads());
         server.setLifeCycleListener(this);
         
         if (config.isAutodiscoverEnabled()) {
@@ -290,6 +322,11 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
     public void startup() throws Exception {
         this.start();
         
+        if (watchManager != null) {
+            watchManager.start();
+            watchManager.waitForStartup();
+        }
+        
         server.start();
         server.waitForStartup();
         
@@ -316,6 +353,10 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         }
         server.shutdown();
         server.waitForShutdown();
+        if (watchManager != null) {
+            watchManager.shutdown();
+            watchManager.waitForShutdown();
+        }
         database.shutdown();
         
         if (discoveryThr != null) {
@@ -374,12 +415,31 @@ public class DIRRequestDispatcher extends LifeCycleThread implements RPCServerRe
         
         op = new UpdateVivaldiClientOperation(this);
         registry.put(op.getProcedureId(), op);
+        
+        op = new WatchOperation(this);
+        registry.put(op.getProcedureId(), op);
     }
     
     public Database getDirDatabase() throws BabuDBException {
         return database.getDatabaseManager().getDatabase(DB_NAME);
     }
     
+    /**
+     * @return the in-memory service registry, or <code>null</code> if the DIR
+     *         database is replicated
+     */
+    public ServiceRegistry getServiceRegistry() {
+        return serviceRegistry;
+    }
+    
+    /**
+     * @return the watch manager, or <code>null</code> if the DIR database is
+     *         replicated
+     */
+    public WatchManager getWatchManager() {
+        return watchManager;
+    }
+    
     @Override
     public void receiveRecord(RPCServerRequest rq) {
         if (Logging.isDebug())
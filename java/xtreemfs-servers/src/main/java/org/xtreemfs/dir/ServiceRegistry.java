@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.xtreemfs.dir.data.ServiceRecord;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceDataMap;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+
+/**
+ * In-memory view of the service registry stored in the DIR database. It holds
+ * the deserialized services, so that lookups do not have to scan and
+ * deserialize the database index, and it is updated whenever a service record
+ * has been written to or deleted from the database.
+ * <p>
+ * Each change increments the registry version. A client that passes the
+ * registry version of its last reply to {@link #getServices} only receives the
+ * services that have changed since then, and the UUIDs of deregistered
+ * services; if nothing has changed, the reply is empty. The versions of a DIR
+ * instance start at a value derived from the current time, so that a client
+ * of a restarted DIR will not mistake the new versions for old ones and
+ * receives the full set of services instead.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class ServiceRegistry {
+
+    /**
+     * Key of the data entry that contains the time since the last update of a
+     * service, added to the services returned by {@link #getServices}.
+     */
+    public static final String              SECONDS_SINCE_LAST_UPDATE = "seconds_since_last_update";
+
+    /**
+     * Maximum number of deregistrations that are remembered for delta
+     * replies. Clients asking for changes since an older version receive the
+     * full set of services.
+     */
+    public static final int                 MAX_REMOVED_ENTRIES       = 1024;
+
+    /**
+     * uuid -> latest entry, i.e. the service or its remembered deregistration;
+     * sorted by UUID, so that services are returned in the same order as they
+     * are stored in the database
+     */
+    private final Map<String, Entry>        services;
+
+    /**
+     * change version -> entry, contains the same entries as
+     * <code>services</code>
+     */
+    private final TreeMap<Long, Entry>      changes;
+
+    private final LinkedList<Entry>         removed;
+
+    private int                             numServices;
+
+    private long                            version;
+
+    /**
+     * Deltas can only be computed for versions from this version on.
+     */
+    private long                            minDeltaVersion;
+
+    public ServiceRegistry() {
+        this.services = new TreeMap<String, Entry>();
+        this.changes = new TreeMap<Long, Entry>();
+        this.removed = new LinkedList<Entry>();
+        // leaves room for 2^20 changes per millisecond of uptime
+        this.version = System.currentTimeMillis() << 20;
+        this.minDeltaVersion = version;
+    }
+
+    /**
+     * Adds or replaces a service after it has been written to the database.
+     */
+    public synchronized void update(ServiceRecord record) {
+        Entry old = put(new Entry(record.getUuid(), record.getType(), record.getService(), ++version));
+        if (old == null || old.service == null)
+            numServices++;
+    }
+
+    /**
+     * Removes a service after it has been deleted from the database.
+     */
+    public synchronized void remove(String uuid) {
+        Entry old = services.get(uuid);
+        if (old == null || old.service == null)
+            return;
+
+        Entry tombstone = new Entry(uuid, old.type, null, ++version);
+        put(tombstone);
+        removed.add(tombstone);
+        numServices--;
+
+        if (removed.size() > MAX_REMOVED_ENTRIES) {
+            Entry oldest = removed.removeFirst();
+            if (services.get(oldest.uuid) == oldest) {
+                services.remove(oldest.uuid);
+                changes.remove(oldest.changeVersion);
+            }
+            minDeltaVersion = oldest.changeVersion;
+        }
+    }
+
+    /**
+     * @return the service with the given UUID, or <code>null</code> if no such
+     *         service is registered
+     */
+    public synchronized Service getService(String uuid) {
+        Entry e = services.get(uuid);
+        return e == null ? null : e.service;
+    }
+
+    /**
+     * @return all services with the given name
+     */
+    public synchronized ServiceSet getServicesByName(String name) {
+        ServiceSet.Builder set = ServiceSet.newBuilder();
+        for (Entry e : services.values()) {
+            if (e.service != null && e.service.getName().equals(name))
+                set.addServices(e.service);
+        }
+        return set.build();
+    }
+
+    /**
+     * Returns the services of the given type.
+     *
+     * @param type
+     *            the service type, or {@link ServiceType#SERVICE_TYPE_MIXED}
+     *            for all services
+     * @param sinceVersion
+     *            the registry version the caller knows about, or 0 to get all
+     *            services
+     * @param nowS
+     *            the current time in seconds, to compute the time since the
+     *            last update of each returned service
+     */
+    public synchronized ServiceSet getServices(ServiceType type, long sinceVersion, long nowS) {
+
+        ServiceSet.Builder set = ServiceSet.newBuilder().setRegistryVersion(version);
+
+        if (sinceVersion == 0 || sinceVersion < minDeltaVersion || sinceVersion > version) {
+            for (Entry e : services.values()) {
+                if (e.service != null && e.matches(type))
+                    set.addServices(addSecondsSinceLastUpdate(e.service, nowS));
+            }
+            return set.build();
+        }
+
+        set.setIsDelta(true);
+        for (Entry e : changes.tailMap(sinceVersion, false).values()) {
+            if (!e.matches(type))
+                continue;
+            if (e.service == null)
+                set.addRemovedUuids(e.uuid);
+            else
+                set.addServices(addSecondsSinceLastUpdate(e.service, nowS));
+        }
+        return set.build();
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized int getNumServices() {
+        return numServices;
+    }
+
+    /**
+     * @return the previous entry of the service
+     */
+    private Entry put(Entry entry) {
+        Entry old = services.put(entry.uuid, entry);
+        if (old != null)
+            changes.remove(old.changeVersion);
+        changes.put(entry.changeVersion, entry);
+        return old;
+    }
+
+    private static Service addSecondsSinceLastUpdate(Service service, long nowS) {
+        ServiceDataMap.Builder data = ServiceDataMap.newBuilder();
+        for (KeyValuePair kvp : service.getData().getDataList()) {
+            if (!kvp.getKey().equals(SECONDS_SINCE_LAST_UPDATE))
+                data.addData(kvp);
+        }
+        data.addData(KeyValuePair.newBuilder().setKey(SECONDS_SINCE_LAST_UPDATE).setValue(
+                Long.toString(nowS - service.getLastUpdatedS())));
+        return service.toBuilder().setData(data).build();
+    }
+
+    private static final class Entry {
+
+        final String      uuid;
+
+        final ServiceType type;
+
+        /**
+         * <code>null</code> if the service has been deregistered
+         */
+        final Service     service;
+
+        final long        changeVersion;
+
+        Entry(String uuid, ServiceType type, Service service, long changeVersion) {
+            this.uuid = uuid;
+            this.type = type;
+            this.service = service;
+            this.changeVersion = changeVersion;
+        }
+
+        boolean matches(ServiceType t) {
+            return t == ServiceType.SERVICE_TYPE_MIXED || t == type;
+        }
+    }
+
+}
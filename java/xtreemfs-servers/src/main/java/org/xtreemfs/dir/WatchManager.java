@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.xtreemfs.foundation.LifeCycleThread;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchResponse;
+
+/**
+ * Holds the pending watch requests, i.e. requests that wait for changes of
+ * services of a given type or of the address mappings of given UUIDs. A watch
+ * request is answered as soon as one of the watched entries changes, or when
+ * its timeout expires. Thus, clients learn about changes immediately, without
+ * having to poll the DIR.
+ * <p>
+ * Address mapping changes are tracked with a version counter, in the same way
+ * as service changes are tracked by the {@link ServiceRegistry}. The versions
+ * of a DIR instance start at a value derived from the current time; if a
+ * client passes a version unknown to the DIR, all watched address mappings
+ * are considered changed.
+ */
+public class WatchManager extends LifeCycleThread {
+
+    /**
+     * Upper bound for the timeout of a watch request, in milliseconds.
+     */
+    public static final int              MAX_TIMEOUT_MS = 60 * 1000;
+
+    private final ServiceRegistry        registry;
+
+    // JCIP @GuardedBy(this)
+    private final List<Watch>            watches;
+
+    /**
+     * uuid -> version of the last change of the address mappings
+     */
+    // JCIP @GuardedBy(this)
+    private final Map<String, Long>      mappingVersions;
+
+    private final long                   minMappingsVersion;
+
+    // JCIP @GuardedBy(this)
+    private long                         mappingsVersion;
+
+    private volatile boolean             quit;
+
+    public WatchManager(ServiceRegistry registry) {
+        super("DIR WatchMgr");
+        this.registry = registry;
+        this.watches = new LinkedList<Watch>();
+        this.mappingVersions = new HashMap<String, Long>();
+        // leaves room for 2^20 changes per millisecond of uptime
+        this.minMappingsVersion = System.currentTimeMillis() << 20;
+        this.mappingsVersion = minMappingsVersion;
+    }
+
+    /**
+     * Answers a watch request immediately if a watched entry has changed, or
+     * parks it until a change occurs or its timeout expires.
+     */
+    public void watch(DIRRequest rq, watchRequest request) {
+
+        final watchResponse response;
+        synchronized (this) {
+            Watch w = new Watch(rq, request, System.currentTimeMillis()
+                    + Math.min(request.getTimeoutMs(), MAX_TIMEOUT_MS));
+            response = getChanges(w, false);
+            if (response == null) {
+                watches.add(w);
+                this.notifyAll();
+                return;
+            }
+        }
+        rq.sendSuccess(response);
+    }
+
+    /**
+     * Has to be invoked after the service registry has been updated.
+     */
+    public void servicesChanged() {
+        answerChanged();
+    }
+
+    /**
+     * Has to be invoked after the address mappings of a UUID have been written
+     * to or deleted from the database.
+     */
+    public void mappingsChanged(String uuid) {
+        synchronized (this) {
+            mappingVersions.put(uuid, ++mappingsVersion);
+        }
+        answerChanged();
+    }
+
+    public synchronized int getNumWatches() {
+        return watches.size();
+    }
+
+    @Override
+    public void run() {
+
+        notifyStarted();
+
+        Logging.logMessage(Logging.LEVEL_INFO, Category.lifecycle, this, "WatchManager started");
+
+        while (!quit) {
+
+            final List<Watch> expired = new LinkedList<Watch>();
+            final List<watchResponse> responses = new LinkedList<watchResponse>();
+            try {
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    long nextDeadline = Long.MAX_VALUE;
+                    Iterator<Watch> iter = watches.iterator();
+                    while (iter.hasNext()) {
+                        Watch w = iter.next();
+                        if (w.deadline <= now) {
+                            iter.remove();
+                            expired.add(w);
+                            responses.add(getChanges(w, true));
+                        } else {
+                            nextDeadline = Math.min(nextDeadline, w.deadline);
+                        }
+                    }
+
+                    if (expired.isEmpty())
+                        this.wait(nextDeadline == Long.MAX_VALUE ? 0 : nextDeadline - now);
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            Iterator<watchResponse> respIter = responses.iterator();
+            for (Watch w : expired)
+                w.rq.sendSuccess(respIter.next());
+        }
+
+        notifyStopped();
+    }
+
+    public void shutdown() {
+        this.quit = true;
+        this.interrupt();
+    }
+
+    /**
+     * Answers all pending watch requests for which a watched entry has
+     * changed.
+     */
+    private void answerChanged() {
+
+        final List<Watch> changed = new LinkedList<Watch>();
+        final List<watchResponse> responses = new LinkedList<watchResponse>();
+        synchronized (this) {
+            Iterator<Watch> iter = watches.iterator();
+            while (iter.hasNext()) {
+                Watch w = iter.next();
+                watchResponse response = getChanges(w, false);
+                if (response != null) {
+                    iter.remove();
+                    changed.add(w);
+                    responses.add(response);
+                }
+            }
+        }
+
+        Iterator<watchResponse> respIter = responses.iterator();
+        for (Watch w : changed)
+            w.rq.sendSuccess(respIter.next());
+    }
+
+    /**
+     * @param force
+     *            if <code>true</code>, a response is returned even if nothing
+     *            has changed
+     * @return the changes of the entries watched by the given request, or
+     *         <code>null</code> if nothing has changed and <code>force</code>
+     *         is <code>false</code>
+     */
+    private watchResponse getChanges(Watch w, boolean force) {
+
+        assert (Thread.holdsLock(this));
+
+        final watchRequest request = w.request;
+        watchResponse.Builder response = watchResponse.newBuilder().setMappingsVersion(mappingsVersion);
+        boolean changed = false;
+
+        if (request.hasServiceType()) {
+            ServiceSet services = registry.getServices(request.getServiceType(), request
+                    .getServicesSinceVersion(), System.currentTimeMillis() / 1000l);
+            response.setServices(services);
+            changed = !services.getIsDelta() || services.getServicesCount() > 0
+                || services.getRemovedUuidsCount() > 0;
+        }
+
+        final long since = request.getMappingsSinceVersion();
+        final boolean unknownVersion = since < minMappingsVersion || since > mappingsVersion;
+        for (String uuid : request.getMappingUuidsList()) {
+            Long version = mappingVersions.get(uuid);
+            if (unknownVersion || (version != null && version > since)) {
+                response.addChangedMappingUuids(uuid);
+                changed = true;
+            }
+        }
+
+        return changed || force ? response.build() : null;
+    }
+
+    private static final class Watch {
+
+        final DIRRequest   rq;
+
+        final watchRequest request;
+
+        final long         deadline;
+
+        Watch(DIRRequest rq, watchRequest request, long deadline) {
+            this.rq = rq;
+            this.request = request;
+            this.deadline = deadline;
+        }
+    }
+
+}
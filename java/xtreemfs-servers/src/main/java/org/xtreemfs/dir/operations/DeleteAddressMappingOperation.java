@@ -39,7 +39,7 @@ public class DeleteAddressMappingOperation extends DIROperation {
     
     @Override
     public void startRequest(DIRRequest rq) {
-        addressMappingGetRequest request = (addressMappingGetRequest) rq.getRequestMessage();
+        final addressMappingGetRequest request = (addressMappingGetRequest) rq.getRequestMessage();
         
         DatabaseInsertGroup ig = database.createInsertGroup();
         ig.addDelete(DIRRequestDispatcher.INDEX_ID_ADDRMAPS, request.getUuid().getBytes());
@@ -47,6 +47,8 @@ public class DeleteAddressMappingOperation extends DIROperation {
             
             @Override
             Object execute(Object result, DIRRequest rq) throws Exception {
+                if (master.getWatchManager() != null)
+                    master.getWatchManager().mappingsChanged(request.getUuid());
                 return result;
             }
         });
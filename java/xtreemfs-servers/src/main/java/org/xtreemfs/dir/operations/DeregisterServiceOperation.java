@@ -39,7 +39,7 @@ public class DeregisterServiceOperation extends DIROperation {
     
     @Override
     public void startRequest(DIRRequest rq) {
-        serviceDeregisterRequest request = (serviceDeregisterRequest) rq.getRequestMessage();
+        final serviceDeregisterRequest request = (serviceDeregisterRequest) rq.getRequestMessage();
         
         DatabaseInsertGroup ig = database.createInsertGroup();
         ig.addDelete(DIRRequestDispatcher.INDEX_ID_SERVREG, request.getUuid().getBytes());
@@ -47,6 +47,10 @@ public class DeregisterServiceOperation extends DIROperation {
             
             @Override
             Object execute(Object result, DIRRequest rq) throws Exception {
+                if (master.getServiceRegistry() != null)
+                    master.getServiceRegistry().remove(request.getUuid());
+                if (master.getWatchManager() != null)
+                    master.getWatchManager().servicesChanged();
                 return result;
             }
         });
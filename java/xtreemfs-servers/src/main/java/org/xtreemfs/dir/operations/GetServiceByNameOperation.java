@@ -45,6 +45,11 @@ public class GetServiceByNameOperation extends DIROperation {
     public void startRequest(DIRRequest rq) {
         final serviceGetByNameRequest request = (serviceGetByNameRequest) rq.getRequestMessage();
         
+        if (master.getServiceRegistry() != null) {
+            requestFinished(master.getServiceRegistry().getServicesByName(request.getName()), rq);
+            return;
+        }
+        
         database.prefixLookup(DIRRequestDispatcher.INDEX_ID_SERVREG, new byte[0], rq).registerListener(
                 new DBRequestListener<ResultSet<byte[], byte[]>, ServiceSet>(true) {
                     
@@ -66,7 +71,6 @@ public class GetServiceByNameOperation extends DIROperation {
                         return services.build();
                     }
                 });
-        
     }
     
     @Override
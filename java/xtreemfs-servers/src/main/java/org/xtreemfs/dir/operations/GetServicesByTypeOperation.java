@@ -46,6 +46,15 @@ public class GetServicesByTypeOperation extends DIROperation {
     public void startRequest(DIRRequest rq) {
         final serviceGetByTypeRequest request = (serviceGetByTypeRequest) rq.getRequestMessage();
         
+        // served from memory, see ServiceRegistry
+        if (master.getServiceRegistry() != null) {
+            ServiceSet services = master.getServiceRegistry().getServices(request.getType(),
+                    request.getSinceVersion(), System.currentTimeMillis() / 1000l);
+            requestFinished(services, rq);
+            return;
+        }
+        
+        // without a registry, the full set of services is returned
         database.prefixLookup(DIRRequestDispatcher.INDEX_ID_SERVREG, new byte[0], rq).registerListener(
                 new DBRequestListener<ResultSet<byte[], byte[]>, ServiceSet>(true) {
                     
@@ -127,7 +127,7 @@ public class RegisterServiceOperation extends DIROperation {
                             reg.setLastUpdatedS(System.currentTimeMillis() / 1000l);
                         }
 
-                        ServiceRecord newRec = new ServiceRecord(reg.build());
+                        final ServiceRecord newRec = new ServiceRecord(reg.build());
 
                         Map<String, String> newRecData = newRec.getData();
                         // Remove attributes which must not be stored.
@@ -142,7 +142,10 @@ public class RegisterServiceOperation extends DIROperation {
 
                                     @Override
                                     Long execute(Object result, DIRRequest rq) throws Exception {
-
+                                        if (master.getServiceRegistry() != null)
+                                            master.getServiceRegistry().update(newRec);
+                                        if (master.getWatchManager() != null)
+                                            master.getWatchManager().servicesChanged();
                                         return version;
                                     }
                                 });
@@ -101,6 +101,8 @@ public class SetAddressMappingOperation extends DIROperation {
                                     
                                     @Override
                                     Long execute(Object result, DIRRequest rq) throws Exception {
+                                        if (master.getWatchManager() != null)
+                                            master.getWatchManager().mappingsChanged(UUID);
                                         return version;
                                     }
                                 });
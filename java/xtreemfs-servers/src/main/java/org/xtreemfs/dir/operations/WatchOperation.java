@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.dir.operations;
+
+import org.xtreemfs.dir.DIRRequest;
+import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceConstants;
+
+import com.google.protobuf.Message;
+
+/**
+ * Waits for changes of services or address mappings, see
+ * {@link org.xtreemfs.dir.WatchManager}.
+ */
+public class WatchOperation extends DIROperation {
+    
+    public WatchOperation(DIRRequestDispatcher master) {
+        super(master);
+    }
+    
+    @Override
+    public int getProcedureId() {
+        return DIRServiceConstants.PROC_ID_XTREEMFS_WATCH;
+    }
+    
+    @Override
+    public void startRequest(DIRRequest rq) {
+        final watchRequest request = (watchRequest) rq.getRequestMessage();
+        
+        // a replicated DIR cannot track changes replicated from the master;
+        // clients fall back to polling in this case
+        if (master.getWatchManager() == null) {
+            rq.sendError(ErrorType.INVALID_PROC_ID, POSIXErrno.POSIX_ERROR_EINVAL,
+                "watch requests are not supported by a replicated DIR");
+            return;
+        }
+        
+        // the request is answered by the watch manager
+        master.getWatchManager().watch(rq, request);
+    }
+    
+    @Override
+    public boolean isAuthRequired() {
+        return false;
+    }
+    
+    @Override
+    protected Message getRequestMessagePrototype() {
+        return watchRequest.getDefaultInstance();
+    }
+    
+    @Override
+    void requestFinished(Object result, DIRRequest rq) {
+        rq.sendSuccess((watchResponse) result);
+    }
+    
+}
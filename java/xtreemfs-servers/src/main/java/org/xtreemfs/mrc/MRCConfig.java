@@ -64,9 +64,16 @@ public class MRCConfig extends ServiceConfig {
             Parameter.FAILOVER_MAX_RETRIES,
             Parameter.FAILOVER_WAIT,
             Parameter.MAX_CLIENT_Q,
+            Parameter.SELECTOR_THREADS,
+            Parameter.BUFFER_POOL_SIZES,
+            Parameter.BUFFER_POOL_THREAD_CACHE_SIZE,
+            Parameter.BUFFER_POOL_ARENA_SIZE,
             Parameter.USE_RENEWAL_SIGNAL,
             Parameter.USE_MULTIHOMING,
-            Parameter.FLEASE_LEASE_TIMEOUT_MS
+            Parameter.FLEASE_LEASE_TIMEOUT_MS,
+            Parameter.READ_ONLY_THREADS,
+            Parameter.VOLUME_THREADS,
+            Parameter.METADATA_CACHE_SIZE
             };
     /*
      * @formatter:on
@@ -149,6 +156,29 @@ public class MRCConfig extends ServiceConfig {
 
     }
 
+    /**
+     * @return the number of threads executing read-only operations
+     */
+    public int getReadOnlyThreads() {
+        return (Integer) parameter.get(Parameter.READ_ONLY_THREADS);
+    }
+
+    /**
+     * @return the number of threads executing modifying operations of different
+     *         volumes in parallel
+     */
+    public int getVolumeThreads() {
+        return (Integer) parameter.get(Parameter.VOLUME_THREADS);
+    }
+
+    /**
+     * @return the maximum number of directories per volume cached for path
+     *         resolution
+     */
+    public int getMetadataCacheSize() {
+        return (Integer) parameter.get(Parameter.METADATA_CACHE_SIZE);
+    }
+
     /**
      * Set default values according to the value in {@link Parameter} for all configuration parameter which
      * are null.
@@ -36,6 +36,8 @@ public class MRCRequest {
     
     private RequestDetails         details;
     
+    private final long             receivedNanos;
+    
     public MRCRequest() {
         this(null);
     }
@@ -43,6 +45,7 @@ public class MRCRequest {
     public MRCRequest(RPCServerRequest rpcRequest) {
         this.rpcRequest = rpcRequest;
         details = new RequestDetails();
+        receivedNanos = System.nanoTime();
     }
     
     public RPCServerRequest getRPCRequest() {
@@ -97,6 +100,14 @@ public class MRCRequest {
         this.requestArgs = requestArgs;
     }
     
+    /**
+     * @return the value of {@link System#nanoTime()} when the request was
+     *         received
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+    
     public RequestDetails getDetails() {
         return details;
     }
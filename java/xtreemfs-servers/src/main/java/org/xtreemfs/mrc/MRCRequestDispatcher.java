@@ -195,7 +195,11 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
                 "MRCRequestDispatcher");
         clientStage.setLifeCycleListener(this);
 
-        serverStage = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, sslOptions, config.getBindRetries(), -1, config.getMaxClientQ());
+        BufferPool.configure(config.getBufferPoolSizes(), config.getBufferPoolThreadCacheSize());
+        BufferPool.reserveArena(config.getBufferPoolArenaSize() * 1024L * 1024L);
+        
+        serverStage = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, sslOptions, config.getBindRetries(), -1, config.getMaxClientQ(),
+                config.getSelectorThreads());
         serverStage.setLifeCycleListener(this);
 
         DIRServiceClient dirRpcClient = new DIRServiceClient(clientStage, config.getDirectoryService());
@@ -216,7 +220,7 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         xLocSetCoordinator = new XLocSetCoordinator(this);
         xLocSetCoordinator.setLifeCycleListener(this);
 
-        procStage = new ProcessingStage(this);
+        procStage = new ProcessingStage(this, config.getReadOnlyThreads(), config.getVolumeThreads());
 
         mrcQuotaManager = new QuotaManager();
         mrcVoucherManager = new VoucherManager(mrcQuotaManager);
@@ -478,6 +482,8 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         final RPCServerRequest rpcRequest = request.getRPCRequest();
         assert (rpcRequest != null);
 
+        procStage.recordLatency(request);
+
         if (request.getError() != null) {
 
             final ErrorRecord error = request.getError();
@@ -608,6 +614,10 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         data.put(Vars.DBVERSION, volumeManager.getDBVersion());
 
         data.put(Vars.PINKYQ, Long.toString(this.serverStage.getPendingRequests()));
+        data.put(Vars.PROCQ, procStage.getQueueLength() + " (read-only: " + procStage.getReadOnlyQueueLength()
+                + ", " + procStage.getNumReadOnlyThreads() + " threads; modifying: "
+                + procStage.getVolumeQueueLength() + " in " + procStage.getNumActiveVolumes() + " volumes, "
+                + procStage.getNumVolumeThreads() + " threads)");
         data.put(Vars.NUMCON, Integer.toString(this.serverStage.getNumConnections()));
 
         long freeMem = Runtime.getRuntime().freeMemory();
@@ -638,6 +648,8 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
                     rqTableBuf.append(req);
                     rqTableBuf.append("'</td><td>");
                     rqTableBuf.append(count);
+                    rqTableBuf.append("</td><td>");
+                    rqTableBuf.append(procStage.getLatencyHistogram(entry.getKey()));
                     rqTableBuf.append("</td></tr>");
 
                 } catch (Exception e) {
@@ -161,6 +161,13 @@ public interface StorageManager {
     
     public FileMetadata getMetadata(long parentId, String fileName) throws DatabaseException;
     
+    /**
+     * Returns the ID of the parent directory of a directory. The parent ID of
+     * the root directory is 0; if the directory does not exist, -1 is
+     * returned.
+     */
+    public long getParentId(long dirId) throws DatabaseException;
+    
     public StripingPolicy getDefaultStripingPolicy(long fileId) throws DatabaseException;
     
     public ReplicationPolicy getDefaultReplicationPolicy(long fileId) throws DatabaseException;
@@ -201,6 +208,23 @@ public interface StorageManager {
     
     public DatabaseResultSet<FileMetadata> getChildren(long parentId, int seen, int num) throws DatabaseException;
     
+    /**
+     * Returns the children of a directory that follow a given child in the
+     * index. Unlike {@link #getChildren(long, int, int)}, the preceding
+     * children do not have to be skipped, so that the costs of listing a
+     * directory in chunks do not depend on the position of a chunk.
+     * 
+     * @param parentId
+     *            the ID of the directory
+     * @param startAfter
+     *            the name of the last child that has been listed before, or
+     *            <code>null</code> to start with the first child
+     * @param num
+     *            the maximum number of children to return
+     */
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String startAfter, int num)
+        throws DatabaseException;
+    
     // handling snapshots
     
     public void createSnapshot(String snapName, long parentId, String dirName, boolean recursive)
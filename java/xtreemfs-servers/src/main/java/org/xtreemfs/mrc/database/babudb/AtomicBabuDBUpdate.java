@@ -8,6 +8,9 @@
 
 package org.xtreemfs.mrc.database.babudb;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
@@ -25,18 +28,38 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
     
     private Object                          context;
     
+    private final MetadataCache             metadataCache;
+    
+    /**
+     * modified keys of the file index, which are invalidated in the metadata
+     * cache once the update has been committed
+     */
+    private final List<byte[]>              fileIndexKeys;
+    
     // private List<Object[]> updates;
     //    
     // private String dbName;
     
     public AtomicBabuDBUpdate(Database database, DatabaseRequestListener<Object> listener, Object context)
         throws BabuDBException {
+        this(database, listener, context, null);
+    }
+    
+    /**
+     * @param metadataCache
+     *            the cache to invalidate for all modified keys of the file
+     *            index, or <code>null</code>
+     */
+    public AtomicBabuDBUpdate(Database database, DatabaseRequestListener<Object> listener, Object context,
+        MetadataCache metadataCache) throws BabuDBException {
         
         ig = database.createInsertGroup();
         
         this.database = database;
         this.listener = listener;
         this.context = context;
+        this.metadataCache = metadataCache;
+        this.fileIndexKeys = metadataCache == null ? null : new ArrayList<byte[]>();
         
         // updates = new LinkedList<Object[]>();
         // this.dbName = dbName;
@@ -46,6 +69,11 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
     public void addUpdate(Object... update) {
         ig.addInsert((Integer) update[0], (byte[]) update[1], (byte[]) update[2]);
         // updates.add(update);
+        
+        if (metadataCache != null && (Integer) update[0] == BabuDBStorageManager.FILE_INDEX) {
+            metadataCache.invalidate((byte[]) update[1]);
+            fileIndexKeys.add((byte[]) update[1]);
+        }
     }
     
     @Override
@@ -55,15 +83,46 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
             // checkDBConsistency();
             
             if (listener != null) {
-                database.insert(ig, context).registerListener(listener);
-            } else
-                database.insert(ig, context).get();
+                database.insert(ig, context).registerListener(
+                    fileIndexKeys == null || fileIndexKeys.isEmpty() ? listener : new InvalidatingListener());
+            } else {
+                try {
+                    database.insert(ig, context).get();
+                } finally {
+                    invalidateCache();
+                }
+            }
             
         } catch (Exception exc) {
             throw new DatabaseException(exc);
         }
     }
     
+    /**
+     * Invalidates the modified keys again after the update has been applied,
+     * in case they have been cached again by a concurrent lookup in between.
+     */
+    private void invalidateCache() {
+        if (fileIndexKeys != null)
+            for (byte[] key : fileIndexKeys)
+                metadataCache.invalidate(key);
+    }
+    
+    private final class InvalidatingListener implements DatabaseRequestListener<Object> {
+        
+        @Override
+        public void finished(Object result, Object context) {
+            invalidateCache();
+            listener.finished(result, context);
+        }
+        
+        @Override
+        public void failed(BabuDBException error, Object context) {
+            invalidateCache();
+            listener.failed(error, context);
+        }
+    }
+    
     public String toString() {
         return ig.toString();
     }
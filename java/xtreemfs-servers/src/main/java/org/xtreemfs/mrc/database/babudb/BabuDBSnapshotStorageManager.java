@@ -190,6 +190,17 @@ public class BabuDBSnapshotStorageManager implements StorageManager {
 
     }
 
+    @Override
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String startAfter, int num)
+        throws DatabaseException {
+
+        try {
+            return BabuDBStorageHelper.getChildren(database, parentId, startAfter, num);
+        } catch (Exception exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
     @Override
     public StripingPolicy getDefaultStripingPolicy(long fileId) throws DatabaseException {
 
@@ -488,6 +499,23 @@ public class BabuDBSnapshotStorageManager implements StorageManager {
         }
     }
 
+    @Override
+    public long getParentId(long dirId) throws DatabaseException {
+
+        try {
+
+            // directories are never hard-linked, so their file ID index
+            // entries always contain a back link to the parent directory
+            byte[] key = BabuDBStorageHelper.createFileIdIndexKey(dirId, (byte) 3);
+            byte[] value = database.lookup(BabuDBSnapshotStorageManager.FILE_ID_INDEX, key, null).get();
+
+            return value == null ? -1 : ByteBuffer.wrap(value).getLong();
+
+        } catch (BabuDBException exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
     @Override
     public String getSoftlinkTarget(long fileId) throws DatabaseException {
 
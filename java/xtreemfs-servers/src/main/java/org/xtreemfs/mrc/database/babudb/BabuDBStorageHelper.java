@@ -810,6 +810,23 @@ public class BabuDBStorageHelper {
         return new ChildrenIterator(database, it, from, num);
     }
     
+    public static ChildrenIterator getChildren(DatabaseRO database, long parentId, String startAfter, int num)
+        throws BabuDBException {
+        
+        if (startAfter == null)
+            return getChildren(database, parentId, 0, num);
+        
+        // all records of a file are stored in consecutive keys that end with
+        // the record type, so that the first key after the records of
+        // 'startAfter' is the one following the highest possible record type
+        byte[] from = createFileKey(parentId, startAfter, (byte) BufferBackedFileMetadata.NUM_BUFFERS);
+        byte[] to = createFilePrefixKey(parentId + 1);
+        ResultSet<byte[], byte[]> it = database.rangeLookup(BabuDBStorageManager.FILE_INDEX, from, to, null)
+                .get();
+        
+        return new ChildrenIterator(database, it, 0, num);
+    }
+    
     public static void getNestedFiles(List<FileMetadata> files, Database database, long dirId,
         boolean recursive) throws BabuDBException {
         
@@ -130,6 +130,8 @@ public class BabuDBStorageManager implements StorageManager {
     protected static final int[] ALL_INDICES = {FILE_INDEX, XATTRS_INDEX, ACL_INDEX,
             FILE_ID_INDEX, VOLUME_INDEX};
 
+    public static final int DEFAULT_METADATA_CACHE_SIZE = 10000;
+
     private final DatabaseManager dbMan;
 
     private final SnapshotManager snapMan;
@@ -140,6 +142,11 @@ public class BabuDBStorageManager implements StorageManager {
 
     private final BabuDBVolumeInfo volume;
 
+    /**
+     * caches directories for path resolution; <code>null</code> if disabled
+     */
+    private final MetadataCache metadataCache;
+
     /**
      * Instantiates a storage manager by loading an existing volume database.
      *
@@ -152,6 +159,7 @@ public class BabuDBStorageManager implements StorageManager {
         this.snapMan = dbs.getSnapshotManager();
         this.database = db;
         this.vcListeners = new LinkedList<VolumeChangeListener>();
+        this.metadataCache = new MetadataCache(DEFAULT_METADATA_CACHE_SIZE);
 
         volume = new BabuDBVolumeInfo();
         volume.init(this);
@@ -165,11 +173,26 @@ public class BabuDBStorageManager implements StorageManager {
      * @param db    the database
      */
     public BabuDBStorageManager(DatabaseManager dbMan, SnapshotManager sMan, Database db) throws DatabaseException {
+        this(dbMan, sMan, db, DEFAULT_METADATA_CACHE_SIZE);
+    }
+
+    /**
+     * Instantiates a storage manager by loading an existing volume database.
+     *
+     * @param dbMan the database manager
+     * @param sMan  the snapshot manager
+     * @param db    the database
+     * @param metadataCacheSize the maximum number of directories cached for
+     *                          path resolution; 0 disables the cache
+     */
+    public BabuDBStorageManager(DatabaseManager dbMan, SnapshotManager sMan, Database db, int metadataCacheSize)
+            throws DatabaseException {
 
         this.dbMan = dbMan;
         this.snapMan = sMan;
         this.database = db;
         this.vcListeners = new LinkedList<VolumeChangeListener>();
+        this.metadataCache = metadataCacheSize > 0 ? new MetadataCache(metadataCacheSize) : null;
 
         volume = new BabuDBVolumeInfo();
         volume.init(this);
@@ -190,6 +213,7 @@ public class BabuDBStorageManager implements StorageManager {
         this.snapMan = dbs.getSnapshotManager();
         this.vcListeners = new LinkedList<VolumeChangeListener>();
         this.volume = new BabuDBVolumeInfo();
+        this.metadataCache = new MetadataCache(DEFAULT_METADATA_CACHE_SIZE);
 
         TransactionalBabuDBUpdate update = new TransactionalBabuDBUpdate(dbMan);
         update.createDatabase(volumeId, 5);
@@ -236,6 +260,8 @@ public class BabuDBStorageManager implements StorageManager {
     public void deleteDatabase() throws DatabaseException {
         try {
             dbMan.deleteDatabase(database.getName());
+            if (metadataCache != null)
+                metadataCache.clear();
             notifyVolumeDelete(volume.getId());
         } catch (BabuDBException exc) {
             throw new DatabaseException(exc);
@@ -253,7 +279,7 @@ public class BabuDBStorageManager implements StorageManager {
             throws DatabaseException {
         try {
             return new AtomicBabuDBUpdate(database, listener == null ? null : new BabuDBRequestListenerWrapper<Object>(
-                    listener), context);
+                    listener), context, metadataCache);
         } catch (BabuDBException exc) {
             throw new DatabaseException(exc);
         }
@@ -546,6 +572,17 @@ public class BabuDBStorageManager implements StorageManager {
 
     }
 
+    @Override
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String startAfter, int num)
+        throws DatabaseException {
+
+        try {
+            return BabuDBStorageHelper.getChildren(database, parentId, startAfter, num);
+        } catch (Exception exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
     @Override
     public StripingPolicy getDefaultStripingPolicy(long fileId) throws DatabaseException {
 
@@ -835,12 +872,59 @@ public class BabuDBStorageManager implements StorageManager {
     public FileMetadata getMetadata(final long parentId, final String fileName) throws DatabaseException {
 
         try {
-            return BabuDBStorageHelper.getMetadata(database, parentId, fileName);
+            return lookupMetadata(parentId, fileName);
         } catch (BabuDBException exc) {
             throw new DatabaseException(exc);
         }
     }
 
+    @Override
+    public long getParentId(long dirId) throws DatabaseException {
+
+        try {
+
+            // directories are never hard-linked, so their file ID index
+            // entries always contain a back link to the parent directory
+            byte[] key = BabuDBStorageHelper.createFileIdIndexKey(dirId, (byte) 3);
+            byte[] value = database.lookup(BabuDBStorageManager.FILE_ID_INDEX, key, null).get();
+
+            return value == null ? -1 : ByteBuffer.wrap(value).getLong();
+
+        } catch (BabuDBException exc) {
+            throw new DatabaseException(exc);
+        }
+    }
+
+    /**
+     * Looks up the metadata of a file in the metadata cache, or in the file
+     * index if it is not cached.
+     */
+    private FileMetadata lookupMetadata(long parentId, String fileName) throws BabuDBException {
+
+        if (metadataCache == null)
+            return BabuDBStorageHelper.getMetadata(database, parentId, fileName);
+
+        FileMetadata md = metadataCache.get(parentId, fileName);
+        if (md != null)
+            return md;
+
+        final long version = metadataCache.getVersion(parentId, fileName);
+        BufferBackedFileMetadata result = BabuDBStorageHelper.getMetadata(database, parentId, fileName);
+        if (result != null)
+            metadataCache.put(parentId, fileName, result, version);
+
+        return result;
+    }
+
+    /**
+     * Returns the cache of directories used for path resolution.
+     *
+     * @return the cache, or <code>null</code> if disabled
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     @Override
     public String getSoftlinkTarget(long fileId) throws DatabaseException {
 
@@ -965,7 +1049,7 @@ public class BabuDBStorageManager implements StorageManager {
 
             long parentId = 0;
             for (int i = 0; i < md.length; i++) {
-                md[i] = BabuDBStorageHelper.getMetadata(database, parentId, path.getComp(i));
+                md[i] = lookupMetadata(parentId, path.getComp(i));
                 if (md[i] == null || i < md.length - 1 && !md[i].isDirectory()) {
                     md[i] = null;
                     return md;
@@ -19,6 +19,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -84,6 +85,11 @@ public class BabuDBVolumeManager implements VolumeManager {
     
     private final AtomicBoolean                    waitLock;
     
+    /**
+     * maximum number of directories cached per volume
+     */
+    private final int                              metadataCacheSize;
+    
     public BabuDBVolumeManager(MRCRequestDispatcher master, BabuDBConfig dbconfig) {
         initialized = new AtomicBoolean(false);
         volsById = Collections.synchronizedMap(new HashMap<String, StorageManager>());
@@ -91,6 +97,10 @@ public class BabuDBVolumeManager implements VolumeManager {
         listeners = new LinkedList<VolumeChangeListener>();
         config = dbconfig;
         waitLock = new AtomicBoolean(false);
+        
+        // the cache would not notice updates that are replicated from a
+        // remote master
+        metadataCacheSize = dbconfig.getPlugins().size() > 0 ? 0 : master.getConfig().getMetadataCacheSize();
     }
     
     /*
@@ -395,7 +405,30 @@ public class BabuDBVolumeManager implements VolumeManager {
     
     @Override
     public Map<String, Object> getDBStatus() {
-        return database == null ? null : database.getRuntimeState();
+        if (database == null)
+            return null;
+        
+        Map<String, Object> status = new TreeMap<String, Object>(database.getRuntimeState());
+        
+        // add the statistics of the metadata caches
+        long entries = 0, memory = 0, hits = 0, misses = 0;
+        for (StorageManager sMan : volsById.values().toArray(new StorageManager[0])) {
+            MetadataCache cache = ((BabuDBStorageManager) sMan).getMetadataCache();
+            if (cache != null) {
+                entries += cache.getSize();
+                memory += cache.getMemoryUsage();
+                hits += cache.getHits();
+                misses += cache.getMisses();
+            }
+        }
+        status.put("mrc.metadataCache.entries", entries);
+        status.put("mrc.metadataCache.memoryUsage", memory);
+        status.put("mrc.metadataCache.hits", hits);
+        status.put("mrc.metadataCache.misses", misses);
+        status.put("mrc.metadataCache.hitRate",
+                String.format("%.3f", hits + misses == 0 ? 0 : (double) hits / (hits + misses)));
+        
+        return status;
     }
     
     private void initDB(DatabaseManager dbMan, SnapshotManager snapMan) throws DatabaseException {
@@ -517,7 +550,8 @@ public class BabuDBVolumeManager implements VolumeManager {
             if (dbEntry.getKey().equals(VERSION_DB_NAME) || dbEntry.getKey().equals(SNAP_VERSIONS_DB_NAME))
                 continue;
             
-            BabuDBStorageManager sMan = new BabuDBStorageManager(dbMan, snapMan, dbEntry.getValue());
+            BabuDBStorageManager sMan = new BabuDBStorageManager(dbMan, snapMan, dbEntry.getValue(),
+                    metadataCacheSize);
             VolumeInfo vol = sMan.getVolumeInfo();
             
             volsById.put(vol.getId(), sMan);
@@ -567,7 +601,7 @@ public class BabuDBVolumeManager implements VolumeManager {
         try {
             
             BabuDBStorageManager sMan = new BabuDBStorageManager(dbMan, database.getSnapshotManager(),
-                    dbMan.getDatabase(volumeId));
+                    dbMan.getDatabase(volumeId), metadataCacheSize);
             
             VolumeInfo vol = sMan.getVolumeInfo();
             
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.database.babudb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.mrc.metadata.BufferBackedFileMetadata;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+
+/**
+ * A bounded LRU cache that maps (parent ID, file name) pairs to the metadata
+ * of directories, which saves index lookups when resolving paths.
+ * <p>
+ * The cache is kept consistent with the file index by means of
+ * {@link #invalidate(byte[])}, which has to be invoked for each key of the
+ * file index that is modified, both when the modification is added to an
+ * update and once the update has been committed. As lookups may run
+ * concurrently with updates, an entry is only added if no invalidation of its
+ * key has happened since the lookup was started, which is tracked by a set of
+ * version counters.
+ * <p>
+ * Cached metadata is never handed out directly. Each call to
+ * {@link #get(long, String)} returns a private copy that may be modified by
+ * the caller.
+ */
+public class MetadataCache {
+
+    private static final int NUM_STRIPES    = 64;
+
+    /**
+     * estimated size of the objects that make up an entry, in addition to the
+     * metadata buffers
+     */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private static final class Key {
+
+        private final long   parentId;
+
+        private final String fileName;
+
+        Key(long parentId, String fileName) {
+            this.parentId = parentId;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (parentId ^ (parentId >>> 32)) * 31 + fileName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return parentId == other.parentId && fileName.equals(other.fileName);
+        }
+    }
+
+    private final int                                      maxEntries;
+
+    // JCIP @GuardedBy(this)
+    private final LinkedHashMap<Key, BufferBackedFileMetadata> entries;
+
+    /**
+     * invalidation counters, one per stripe of keys
+     */
+    // JCIP @GuardedBy(this)
+    private final long[]                                   versions;
+
+    // JCIP @GuardedBy(this)
+    private long                                           memoryUsage;
+
+    private final AtomicLong                               hits;
+
+    private final AtomicLong                               misses;
+
+    /**
+     * @param maxEntries
+     *            the maximum number of directories kept in the cache
+     */
+    public MetadataCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, BufferBackedFileMetadata>(16, 0.75f, true);
+        this.versions = new long[NUM_STRIPES];
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Returns a copy of the cached metadata of a directory.
+     *
+     * @return the metadata, or <code>null</code> if it is not cached
+     */
+    public FileMetadata get(long parentId, String fileName) {
+
+        BufferBackedFileMetadata md;
+        synchronized (this) {
+            md = entries.get(new Key(parentId, fileName));
+        }
+
+        if (md == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return copy(md);
+    }
+
+    /**
+     * Returns the version of an entry, which has to be passed to
+     * {@link #put(long, String, BufferBackedFileMetadata, long)} after the
+     * metadata was retrieved from the database.
+     */
+    public synchronized long getVersion(long parentId, String fileName) {
+        return versions[stripe(new Key(parentId, fileName))];
+    }
+
+    /**
+     * Adds the metadata of a directory that was retrieved from the file index.
+     * The metadata is copied, so that the caller may modify it afterwards.
+     *
+     * @param version
+     *            the version of the entry before the lookup
+     */
+    public void put(long parentId, String fileName, BufferBackedFileMetadata md, long version) {
+
+        if (!md.isDirectory() || md.getIndexId() != BabuDBStorageManager.FILE_INDEX)
+            return;
+
+        final Key key = new Key(parentId, fileName);
+        final BufferBackedFileMetadata entry = copy(md);
+
+        synchronized (this) {
+
+            // the entry has been invalidated since the lookup
+            if (versions[stripe(key)] != version)
+                return;
+
+            BufferBackedFileMetadata old = entries.put(key, entry);
+            if (old != null)
+                memoryUsage -= size(old);
+            memoryUsage += size(entry);
+
+            Iterator<BufferBackedFileMetadata> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                memoryUsage -= size(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Invalidates the entry affected by a modification of the file index.
+     *
+     * @param fileIndexKey
+     *            the modified key of the file index
+     */
+    public void invalidate(byte[] fileIndexKey) {
+
+        // a file index key consists of the parent ID, the file name and the
+        // type of the metadata
+        if (fileIndexKey.length < 9) {
+            clear();
+            return;
+        }
+
+        final long parentId = ByteBuffer.wrap(fileIndexKey).getLong(0);
+        final String fileName = new String(fileIndexKey, 8, fileIndexKey.length - 9);
+        invalidate(parentId, fileName);
+    }
+
+    public synchronized void invalidate(long parentId, String fileName) {
+
+        final Key key = new Key(parentId, fileName);
+        versions[stripe(key)]++;
+
+        BufferBackedFileMetadata old = entries.remove(key);
+        if (old != null)
+            memoryUsage -= size(old);
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < versions.length; i++)
+            versions[i]++;
+        entries.clear();
+        memoryUsage = 0;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated amount of memory occupied by the cached entries in
+     * bytes.
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        final long h = hits.get();
+        final long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static int stripe(Key key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (NUM_STRIPES - 1);
+    }
+
+    private static BufferBackedFileMetadata copy(BufferBackedFileMetadata md) {
+        byte[][] keyBufs = new byte[BufferBackedFileMetadata.NUM_BUFFERS][];
+        byte[][] valBufs = new byte[BufferBackedFileMetadata.NUM_BUFFERS][];
+        for (byte i = 0; i < BufferBackedFileMetadata.NUM_BUFFERS; i++) {
+            keyBufs[i] = md.getKeyBuffer(i);
+            valBufs[i] = md.getValueBuffer(i);
+        }
+
+        // the constructor copies all buffers
+        return new BufferBackedFileMetadata(keyBufs, valBufs, md.getIndexId());
+    }
+
+    private static long size(BufferBackedFileMetadata md) {
+        long size = ENTRY_OVERHEAD;
+        for (byte i = 0; i < BufferBackedFileMetadata.NUM_BUFFERS; i++) {
+            size += md.getKeyBuffer(i).length;
+            size += md.getValueBuffer(i).length;
+        }
+        return size;
+    }
+
+}
@@ -31,6 +31,11 @@ public class AccessOperation extends MRCOperation {
     public AccessOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
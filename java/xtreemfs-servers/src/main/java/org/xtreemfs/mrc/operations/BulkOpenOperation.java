@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.DatabaseException.ExceptionType;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeInfo;
+import org.xtreemfs.mrc.utils.BulkPathResolver;
+import org.xtreemfs.mrc.utils.Path;
+import org.xtreemfs.mrc.utils.PathResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.openResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkResult;
+
+/**
+ * Opens several existing files of a volume with the same flags. Files that
+ * cannot be opened are reported by means of an error code in the
+ * corresponding result, without failing the entire request. All metadata
+ * modifications are committed in a single database update.
+ * <p>
+ * Files cannot be created by a bulk open, as a failed creation could not be
+ * undone without discarding the modifications made for the other files.
+ */
+public class BulkOpenOperation extends OpenOperation {
+
+    public BulkOpenOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        // perform master redirect if necessary
+        if (master.getReplMasterUUID() != null
+            && !master.getReplMasterUUID().equals(master.getConfig().getUUID().toString()))
+            throw new DatabaseException(ExceptionType.REDIRECT);
+
+        final xtreemfs_open_bulkRequest rqArgs = (xtreemfs_open_bulkRequest) rq.getRequestArgs();
+
+        final FileAccessManager faMan = master.getFileAccessManager();
+
+        if ((rqArgs.getFlags() & FileAccessManager.O_CREAT) != 0)
+            throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "O_CREAT is not supported by bulk open");
+
+        final StorageManager sMan = master.getVolumeManager().getStorageManagerByName(rqArgs.getVolumeName());
+        final VolumeInfo volume = sMan.getVolumeInfo();
+
+        List<Path> paths = new ArrayList<Path>(rqArgs.getPathsCount());
+        for (String path : rqArgs.getPathsList())
+            paths.add(new Path(rqArgs.getVolumeName(), path));
+
+        AtomicDBUpdate update = sMan.createAtomicDBUpdate(master, rq);
+
+        // atime, ctime, mtime
+        int time = (int) (TimeSync.getGlobalTime() / 1000);
+        int timestamp = 0;
+
+        xtreemfs_open_bulkResponse.Builder resp = xtreemfs_open_bulkResponse.newBuilder();
+
+        BulkPathResolver bulkRes = new BulkPathResolver(sMan, paths);
+        for (Path path : paths) {
+
+            xtreemfs_open_bulkResult.Builder result = xtreemfs_open_bulkResult.newBuilder();
+            try {
+
+                PathResolver res = bulkRes.getResolver(path);
+
+                // check whether the path prefix is searchable
+                faMan.checkSearchPermission(sMan, res, rq.getDetails().userId, rq.getDetails().superUser, rq
+                        .getDetails().groupIds);
+
+                openResponse open = openFile(rq, sMan, volume, res, path, rqArgs.getFlags(), 0, 0, rqArgs
+                        .getCoordinates(), time, update);
+
+                result.setCreds(open.getCreds());
+                timestamp = open.getTimestampS();
+
+            } catch (UserException exc) {
+                result.setPosixErrno(exc.getErrno().getNumber());
+            }
+
+            resp.addResults(result);
+        }
+
+        // set the response
+        rq.setResponse(resp.setTimestampS(timestamp).build());
+
+        update.execute();
+    }
+
+}
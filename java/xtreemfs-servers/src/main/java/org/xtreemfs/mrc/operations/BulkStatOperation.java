@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeInfo;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+import org.xtreemfs.mrc.utils.BulkPathResolver;
+import org.xtreemfs.mrc.utils.Path;
+import org.xtreemfs.mrc.utils.PathResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_dir_entry_ref;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResult;
+
+/**
+ * Returns the attributes of several files or directories of a volume at once.
+ * Files that cannot be accessed are reported by means of an error code in the
+ * corresponding result, without failing the entire request.
+ */
+public class BulkStatOperation extends MRCOperation {
+
+    public BulkStatOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+
+        final xtreemfs_getattr_bulkRequest rqArgs = (xtreemfs_getattr_bulkRequest) rq.getRequestArgs();
+
+        final FileAccessManager faMan = master.getFileAccessManager();
+
+        validateContext(rq);
+
+        final StorageManager sMan = master.getVolumeManager().getStorageManagerByName(rqArgs.getVolumeName());
+        final VolumeInfo volume = sMan.getVolumeInfo();
+
+        xtreemfs_getattr_bulkResponse.Builder resp = xtreemfs_getattr_bulkResponse.newBuilder();
+
+        // files identified by paths; the common directories are only resolved
+        // once
+        List<Path> paths = new ArrayList<Path>(rqArgs.getPathsCount());
+        for (String path : rqArgs.getPathsList())
+            paths.add(new Path(rqArgs.getVolumeName(), path));
+
+        BulkPathResolver bulkRes = new BulkPathResolver(sMan, paths);
+        for (Path p : paths) {
+
+            xtreemfs_getattr_bulkResult.Builder result = xtreemfs_getattr_bulkResult.newBuilder();
+            try {
+
+                PathResolver res = bulkRes.getResolver(p);
+
+                // check whether the path prefix is searchable
+                faMan.checkSearchPermission(sMan, res, rq.getDetails().userId, rq.getDetails().superUser, rq
+                        .getDetails().groupIds);
+
+                // check whether file exists
+                res.checkIfFileDoesNotExist();
+
+                result.setStbuf(StatOperation.getStat(sMan, faMan, rq, volume, res.getFile()));
+
+            } catch (UserException exc) {
+                result.setPosixErrno(exc.getErrno().getNumber());
+            }
+
+            resp.addResults(result);
+        }
+
+        // files identified by their parent directories; directory ID -> result
+        // of the search permission check, so that common ancestors are only
+        // checked once
+        Map<Long, UserException> checkedDirs = new HashMap<Long, UserException>();
+        for (xtreemfs_dir_entry_ref entry : rqArgs.getEntriesList()) {
+
+            xtreemfs_getattr_bulkResult.Builder result = xtreemfs_getattr_bulkResult.newBuilder();
+            try {
+
+                FileMetadata parent = sMan.getMetadata(entry.getParentId());
+                if (parent == null || !parent.isDirectory())
+                    throw new UserException(POSIXErrno.POSIX_ERROR_ENOENT, "directory " + entry.getParentId()
+                        + " does not exist");
+
+                // check whether the parent directory and all its ancestors are
+                // searchable, as for a path lookup
+                checkSearchPermission(sMan, faMan, rq, parent, checkedDirs);
+
+                FileMetadata file = sMan.getMetadata(entry.getParentId(), entry.getName());
+                if (file == null)
+                    throw new UserException(POSIXErrno.POSIX_ERROR_ENOENT, "file or directory '" + entry.getName()
+                        + "' does not exist in directory " + entry.getParentId());
+
+                result.setStbuf(StatOperation.getStat(sMan, faMan, rq, volume, file));
+
+            } catch (UserException exc) {
+                result.setPosixErrno(exc.getErrno().getNumber());
+            }
+
+            resp.addResults(result);
+        }
+
+        // set the response
+        rq.setResponse(resp.build());
+
+        finishRequest(rq);
+    }
+
+    /**
+     * Checks search permission on the given directory and all its ancestors up
+     * to the volume root. The results are recorded in <code>checkedDirs</code>,
+     * and directories contained in it are not checked again.
+     */
+    private static void checkSearchPermission(StorageManager sMan, FileAccessManager faMan, MRCRequest rq,
+        FileMetadata dir, Map<Long, UserException> checkedDirs) throws DatabaseException, UserException {
+
+        // collect all directories up to the root or the first directory that
+        // has already been checked
+        List<FileMetadata> dirs = new ArrayList<FileMetadata>();
+        List<Long> parentIds = new ArrayList<Long>();
+        UserException exc = null;
+        for (FileMetadata curr = dir;;) {
+
+            if (checkedDirs.containsKey(curr.getId())) {
+                exc = checkedDirs.get(curr.getId());
+                break;
+            }
+
+            long parentId = sMan.getParentId(curr.getId());
+            dirs.add(curr);
+            parentIds.add(parentId);
+
+            if (parentId == 0)
+                break;
+
+            curr = parentId == -1 ? null : sMan.getMetadata(parentId);
+            if (curr == null || !curr.isDirectory())
+                throw new UserException(POSIXErrno.POSIX_ERROR_ENOENT, "parent directory of directory "
+                    + dirs.get(dirs.size() - 1).getId() + " does not exist");
+        }
+
+        // check the directories top-down; if a directory is not searchable,
+        // none of its descendants is
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+
+            if (exc == null) {
+                try {
+                    faMan.checkPermission(FileAccessManager.NON_POSIX_SEARCH, sMan, dirs.get(i), parentIds.get(i),
+                        rq.getDetails().userId, rq.getDetails().superUser, rq.getDetails().groupIds);
+                } catch (UserException e) {
+                    exc = e;
+                }
+            }
+
+            checkedDirs.put(dirs.get(i).getId(), exc);
+        }
+
+        if (exc != null)
+            throw exc;
+    }
+
+}
@@ -29,6 +29,11 @@ public class CheckFileListOperation extends MRCOperation {
         super(master);
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
 
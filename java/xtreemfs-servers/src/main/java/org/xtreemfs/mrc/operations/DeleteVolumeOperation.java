@@ -34,6 +34,12 @@ public class DeleteVolumeOperation extends MRCOperation {
         super(master);
     }
     
+    @Override
+    public String getVolumeId(MRCRequest rq) {
+        // deleting a volume modifies the set of volumes
+        return null;
+    }
+    
     @Override
     public void startRequest(final MRCRequest rq) throws Throwable {
         
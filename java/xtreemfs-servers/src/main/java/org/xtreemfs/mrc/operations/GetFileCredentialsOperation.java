@@ -36,6 +36,11 @@ public class GetFileCredentialsOperation extends MRCOperation {
         super(master);
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
         final xtreemfs_get_file_credentialsRequest rqArgs = (xtreemfs_get_file_credentialsRequest) rq
@@ -34,6 +34,11 @@ public class GetSuitableOSDsOperation extends MRCOperation {
     public GetSuitableOSDsOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -33,6 +33,11 @@ public class GetXAttrOperation extends MRCOperation {
     public GetXAttrOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
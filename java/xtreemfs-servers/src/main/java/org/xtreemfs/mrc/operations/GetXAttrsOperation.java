@@ -39,6 +39,11 @@ public class GetXAttrsOperation extends MRCOperation {
     public GetXAttrsOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
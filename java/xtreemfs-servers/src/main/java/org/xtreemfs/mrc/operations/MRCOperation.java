@@ -9,6 +9,8 @@
 package org.xtreemfs.mrc.operations;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -22,6 +24,8 @@ import org.xtreemfs.mrc.MRCRequestDispatcher;
 import org.xtreemfs.mrc.UserException;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceConstants;
 
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Message;
 
 /**
@@ -44,6 +48,82 @@ public abstract class MRCOperation {
      */
     public abstract void startRequest(MRCRequest rq) throws Throwable;
 
+    /**
+     * Indicates whether the operation only reads metadata. Read-only
+     * operations may be executed concurrently with each other and with
+     * mutating operations, so they must not modify the database or any other
+     * shared state.
+     * 
+     * @return <code>true</code>, if the operation is read-only
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+    
+    /**
+     * Determines the volume modified by a request. Modifying requests of the
+     * same volume are executed one after another in the order in which they
+     * were received, whereas requests of different volumes may be executed
+     * concurrently.
+     * <p>
+     * By default, the volume is taken from the <code>volume_name</code> or
+     * <code>file_id</code> argument of the request, which may also be part of a
+     * capability. Operations that modify state shared by all volumes have to
+     * return <code>null</code>, which causes them to be executed exclusively.
+     * 
+     * @param rq
+     *            the request, with parsed arguments
+     * @return the ID of the volume, or <code>null</code> if the request is not
+     *         bound to a single volume
+     */
+    public String getVolumeId(MRCRequest rq) {
+        
+        if (rq.getRequestArgs() == null)
+            return null;
+        
+        final String volume = findVolume(rq.getRequestArgs(), 2);
+        if (volume == null)
+            return null;
+        if (volume.endsWith(":"))
+            return volume.substring(0, volume.length() - 1);
+        
+        // map volume names to IDs, so that requests addressing a volume by
+        // name are ordered with requests addressing it by file ID
+        try {
+            return master.getVolumeManager().getStorageManagerByName(volume).getVolumeInfo().getId();
+        } catch (UserException exc) {
+            // the volume does not exist (yet); the request will fail anyway
+            return volume;
+        }
+    }
+    
+    private static String findVolume(Message msg, int depth) {
+        
+        final Map<FieldDescriptor, Object> fields = msg.getAllFields();
+        for (Entry<FieldDescriptor, Object> field : fields.entrySet())
+            if (field.getKey().getName().equals("volume_name") && !"".equals(field.getValue()))
+                return (String) field.getValue();
+        
+        for (Entry<FieldDescriptor, Object> field : fields.entrySet())
+            if (field.getKey().getName().equals("file_id")) {
+                final String fileId = (String) field.getValue();
+                final int i = fileId.indexOf(':');
+                if (i > 0)
+                    // keep the separator to distinguish IDs from names
+                    return fileId.substring(0, i + 1);
+            }
+        
+        if (depth > 0)
+            for (Entry<FieldDescriptor, Object> field : fields.entrySet())
+                if (field.getKey().getJavaType() == JavaType.MESSAGE && !field.getKey().isRepeated()) {
+                    final String volume = findVolume((Message) field.getValue(), depth - 1);
+                    if (volume != null)
+                        return volume;
+                }
+        
+        return null;
+    }
+    
     /**
      * Called for internally requested operations.
      */
@@ -44,6 +44,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.openRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.openResponse;
@@ -86,19 +87,57 @@ public class OpenOperation extends MRCOperation {
                 .getDetails().groupIds);
         
         AtomicDBUpdate update = sMan.createAtomicDBUpdate(master, rq);
+        
+        // atime, ctime, mtime
+        int time = (int) (TimeSync.getGlobalTime() / 1000);
+        
+        // set the response
+        rq.setResponse(openFile(rq, sMan, volume, res, path, rqArgs.getFlags(), rqArgs.getMode(), rqArgs
+                .getAttributes(), rqArgs.getCoordinates(), time, update));
+        
+        update.execute();
+        
+        // enable only for test servers that should log each file
+        // create/write/trunc
+        /*
+         * if (create || write || truncate) { try {
+         * logfile.print(System.currentTimeMillis
+         * ()+";"+rq.getRPCRequest().getClientIdentity
+         * ()+";"+rqArgs.getPath()+"\n"); logfile.flush(); } catch (Exception
+         * ex) {
+         * 
+         * } }
+         */
+    }
+    
+    /**
+     * Opens a file and issues a new capability for it. All modifications of
+     * the file's metadata are added to the given update.
+     * 
+     * @param res
+     *            the resolver of the file's path; search permissions need to
+     *            be checked by the caller
+     * @param time
+     *            the current time in seconds since 1970
+     * @return the file credentials and the timestamp to which the file
+     *         timestamps were updated
+     */
+    protected openResponse openFile(MRCRequest rq, StorageManager sMan, VolumeInfo volume, PathResolver res,
+        Path path, int flags, int mode, int attributes, VivaldiCoordinates coordinates, int time,
+        AtomicDBUpdate update) throws Throwable {
+        
+        final FileAccessManager faMan = master.getFileAccessManager();
+        
         FileMetadata file = null;
         
         // analyze the flags
-        boolean create = (rqArgs.getFlags() & FileAccessManager.O_CREAT) != 0;
-        boolean excl = (rqArgs.getFlags() & FileAccessManager.O_EXCL) != 0;
-        boolean truncate = (rqArgs.getFlags() & FileAccessManager.O_TRUNC) != 0;
-        boolean write = (rqArgs.getFlags() & (FileAccessManager.O_WRONLY | FileAccessManager.O_RDWR)) != 0;
+        boolean create = (flags & FileAccessManager.O_CREAT) != 0;
+        boolean excl = (flags & FileAccessManager.O_EXCL) != 0;
+        boolean truncate = (flags & FileAccessManager.O_TRUNC) != 0;
+        boolean write = (flags & (FileAccessManager.O_WRONLY | FileAccessManager.O_RDWR)) != 0;
         
         boolean createNew = false;
         
-        // atime, ctime, mtime
-        int time = (int) (TimeSync.getGlobalTime() / 1000);
-        
         // check whether the file/directory exists
         try {
             
@@ -122,12 +161,12 @@ public class OpenOperation extends MRCOperation {
             // check whether the file is marked as 'read-only'; in this
             // case, throw an exception if write access is requested
             if (file.isReadOnly()
-                && ((rqArgs.getFlags() & (FileAccessManager.O_RDWR | FileAccessManager.O_WRONLY
+                && ((flags & (FileAccessManager.O_RDWR | FileAccessManager.O_WRONLY
                     | FileAccessManager.O_TRUNC | FileAccessManager.O_APPEND)) != 0))
                 throw new UserException(POSIXErrno.POSIX_ERROR_EPERM, "read-only files cannot be written");
             
             // check whether the permission is granted
-            faMan.checkPermission(rqArgs.getFlags(), sMan, file, res.getParentDirId(),
+            faMan.checkPermission(flags, sMan, file, res.getParentDirId(),
                 rq.getDetails().userId, rq.getDetails().superUser, rq.getDetails().groupIds);
 
         } catch (UserException exc) {
@@ -145,7 +184,7 @@ public class OpenOperation extends MRCOperation {
                 // get the next free file ID
                 long fileId = sMan.getNextFileId();
                 
-                if ((rqArgs.getMode() & GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO.getNumber()) != 0) {
+                if ((mode & GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO.getNumber()) != 0) {
                     throw new UserException(POSIXErrno.POSIX_ERROR_EIO, "FIFOs not supported");
                 }
                 
@@ -164,7 +203,7 @@ public class OpenOperation extends MRCOperation {
 
                 // create the metadata object
                 file = sMan.createFile(fileId, res.getParentDirId(), res.getFileName(), time, time, time,
-                        rq.getDetails().userId, groupId, rqArgs.getMode(), rqArgs.getAttributes(), 0, false, 0, 0,
+                        rq.getDetails().userId, groupId, mode, attributes, 0, false, 0, 0,
                         update);
                 
                 // set the file ID as the last one
@@ -232,7 +271,7 @@ public class OpenOperation extends MRCOperation {
                 // with a set of feasible OSDs from the OSD status manager
                 XLoc replica = MRCHelper.createReplica(null, sMan, master.getOSDStatusManager(), volume, res
                         .getParentDirId(), path.toString(), ((InetSocketAddress) rq.getRPCRequest()
-                        .getSenderAddress()).getAddress(), rqArgs.getCoordinates(), xLocList, 0);
+                        .getSenderAddress()).getAddress(), coordinates, xLocList, 0);
                 
                 // integrate the new replica in the XLoc list
                 String[] osds = new String[replica.getOSDCount()];
@@ -267,7 +306,7 @@ public class OpenOperation extends MRCOperation {
                     // with a set of feasible OSDs from the OSD status manager
                     XLoc replica = MRCHelper.createReplica(null, sMan, master.getOSDStatusManager(), volume,
                         res.getParentDirId(), path.toString(), ((InetSocketAddress) rq.getRPCRequest()
-                                .getSenderAddress()).getAddress(), rqArgs.getCoordinates(), xLocList,
+                                .getSenderAddress()).getAddress(), coordinates, xLocList,
                         defaultReplPolicy != null ? defaultReplPolicy.getFlags() : 0);
                     
                     // integrate the new replica in the XLoc list
@@ -304,7 +343,7 @@ public class OpenOperation extends MRCOperation {
         // re-order the replica list, based on the replica selection policy
         List<Replica> sortedReplList = master.getOSDStatusManager().getSortedReplicaList(volume.getId(),
             ((InetSocketAddress) rq.getRPCRequest().getSenderAddress()).getAddress(),
-            rqArgs.getCoordinates(), xLocSet.getReplicasList(), xLocList, path.toString()).getReplicasList();
+            coordinates, xLocSet.getReplicasList(), xLocList, path.toString()).getReplicasList();
         xLocSet.clearReplicas();
         xLocSet.addAllReplicas(sortedReplList);
         xLocSet.setReadOnlyFileSize(file.getSize());
@@ -328,7 +367,7 @@ public class OpenOperation extends MRCOperation {
             voucherSize = master.getMrcVoucherManager().getVoucher(quotaFileInformation, clientID, expireMs, update);
         }
 
-        Capability cap = new Capability(globalFileId, rqArgs.getFlags(), master.getConfig().getCapabilityTimeout(),
+        Capability cap = new Capability(globalFileId, flags, master.getConfig().getCapabilityTimeout(),
                 TimeSync.getGlobalTime() / 1000 + master.getConfig().getCapabilityTimeout(), clientID, trEpoch,
                 replicateOnClose, !volume.isSnapshotsEnabled() ? SnapConfig.SNAP_CONFIG_SNAPS_DISABLED
                         : volume.isSnapVolume() ? SnapConfig.SNAP_CONFIG_ACCESS_SNAP
@@ -361,23 +400,8 @@ public class OpenOperation extends MRCOperation {
             MRCHelper.updateFileTimes(res.getParentsParentId(), res.getParentDir(), false, true, true, sMan,
                 time, update);
         
-        // set the response
-        rq.setResponse(openResponse.newBuilder().setCreds(
+        return openResponse.newBuilder().setCreds(
             FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(xLocSet)).setTimestampS(time)
-                .build());
-        
-        update.execute();
-        
-        // enable only for test servers that should log each file
-        // create/write/trunc
-        /*
-         * if (create || write || truncate) { try {
-         * logfile.print(System.currentTimeMillis
-         * ()+";"+rq.getRPCRequest().getClientIdentity
-         * ()+";"+rqArgs.getPath()+"\n"); logfile.flush(); } catch (Exception
-         * ex) {
-         * 
-         * } }
-         */
+                .build();
     }
 }
@@ -9,32 +9,31 @@
 package org.xtreemfs.mrc.operations;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
-import org.xtreemfs.mrc.MRCException;
 import org.xtreemfs.mrc.MRCRequest;
 import org.xtreemfs.mrc.MRCRequestDispatcher;
 import org.xtreemfs.mrc.UserException;
 import org.xtreemfs.mrc.ac.FileAccessManager;
 import org.xtreemfs.mrc.database.AtomicDBUpdate;
-import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.DatabaseResultSet;
 import org.xtreemfs.mrc.database.StorageManager;
 import org.xtreemfs.mrc.database.VolumeInfo;
 import org.xtreemfs.mrc.database.VolumeManager;
 import org.xtreemfs.mrc.metadata.FileMetadata;
-import org.xtreemfs.mrc.metadata.XLocList;
 import org.xtreemfs.mrc.utils.MRCHelper;
 import org.xtreemfs.mrc.utils.Path;
 import org.xtreemfs.mrc.utils.PathResolver;
-import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntries;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntry;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.readdirRequest;
 
+import com.google.protobuf.ByteString;
+
 /**
  * 
  * @author stender
@@ -44,6 +43,12 @@ public class ReadDirAndStatOperation extends MRCOperation {
     public ReadDirAndStatOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        // access times are updated unless disabled
+        return master.getConfig().isNoAtime();
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -80,6 +85,20 @@ public class ReadDirAndStatOperation extends MRCOperation {
                 .getLimitDirectoryEntriesCount();
         boolean namesOnly = rqArgs.getNamesOnly();
         
+        // if a cursor is given, continue the listing after the entry it refers
+        // to; a cursor consists of the directory ID and the name of the entry,
+        // encoded in the same way as in the database keys; an empty cursor is
+        // treated like no cursor
+        String startAfter = null;
+        if (rqArgs.hasResumeCursor() && !rqArgs.getResumeCursor().isEmpty()) {
+            
+            ByteString cursor = rqArgs.getResumeCursor();
+            if (cursor.size() < 8 || ByteBuffer.wrap(cursor.toByteArray(), 0, 8).getLong() != file.getId())
+                throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL, "invalid readdir cursor for '" + p + "'");
+            
+            startAfter = new String(cursor.substring(8).toByteArray());
+        }
+        
         // do not report stat info for individual files if there are no search
         // permissions on the directory
         try {
@@ -104,14 +123,14 @@ public class ReadDirAndStatOperation extends MRCOperation {
         // get the parent directory
         FileMetadata parentDir = res.getParentDir();
         
-        if (seenEntries == 0 && numEntries > 0) {
+        if (startAfter == null && seenEntries == 0 && numEntries > 0) {
             
             // dir is not root directory
             if (parentDir != null) {
                 
                 DirectoryEntry.Builder entry = DirectoryEntry.newBuilder().setName("..");
                 if (!namesOnly)
-                    entry.setStbuf(getStat(sMan, faMan, rq, volume, parentDir));
+                    entry.setStbuf(StatOperation.getStat(sMan, faMan, rq, volume, parentDir));
                 
                 dirContent.addEntries(entry);
                 
@@ -122,7 +141,7 @@ public class ReadDirAndStatOperation extends MRCOperation {
                 
                 DirectoryEntry.Builder entry = DirectoryEntry.newBuilder().setName("..");
                 if (!namesOnly)
-                    entry.setStbuf(getStat(sMan, faMan, rq, volume, file));
+                    entry.setStbuf(StatOperation.getStat(sMan, faMan, rq, volume, file));
                 
                 dirContent.addEntries(entry);
             }
@@ -130,13 +149,14 @@ public class ReadDirAndStatOperation extends MRCOperation {
         }
         
         // get the current directory
-        Stat stat = getStat(sMan, faMan, rq, volume, file);
+        Stat stat = StatOperation.getStat(sMan, faMan, rq, volume, file);
         long newEtag = stat.getEtag();
         long knownEtag = rqArgs.getKnownEtag();
         
         if (newEtag != knownEtag) {
             
-            if ((seenEntries == 0 && numEntries >= 2) || (seenEntries == 1 && numEntries >= 1)) {
+            if (startAfter == null
+                && ((seenEntries == 0 && numEntries >= 2) || (seenEntries == 1 && numEntries >= 1))) {
                 
                 DirectoryEntry.Builder entry = DirectoryEntry.newBuilder().setName(".");
                 if (!namesOnly)
@@ -145,12 +165,16 @@ public class ReadDirAndStatOperation extends MRCOperation {
                 dirContent.addEntries(entry);
             }
             
-            // get all children
-            DatabaseResultSet<FileMetadata> it = sMan.getChildren(res.getFile().getId(), seenEntries - 2, numEntries
+            // get all children; with a cursor, the index lookup starts at the
+            // cursor position instead of skipping all preceding children
+            DatabaseResultSet<FileMetadata> it = startAfter != null ? sMan.getChildren(file.getId(), startAfter,
+                numEntries) : sMan.getChildren(file.getId(), seenEntries - 2, numEntries
                 - dirContent.getEntriesCount());
+            String lastChild = null;
             while (it.hasNext()) {
                 
                 FileMetadata child = it.next();
+                lastChild = child.getFileName();
                 if (child.getFileName().equals("")) {
                     Logging.logMessage(Logging.LEVEL_WARN, this, "WARNING: found nested %s w/ empty name", child
                             .isDirectory() ? "directory" : "file");
@@ -159,12 +183,17 @@ public class ReadDirAndStatOperation extends MRCOperation {
                 
                 DirectoryEntry.Builder entry = DirectoryEntry.newBuilder().setName(child.getFileName());
                 if (!namesOnly)
-                    entry.setStbuf(getStat(sMan, faMan, rq, volume, child));
+                    entry.setStbuf(StatOperation.getStat(sMan, faMan, rq, volume, child));
                 
                 dirContent.addEntries(entry);
             }
             it.destroy();
             
+            if (lastChild != null) {
+                byte[] name = lastChild.getBytes();
+                dirContent.setResumeCursor(ByteString.copyFrom(ByteBuffer.allocate(8 + name.length).putLong(
+                    file.getId()).put(name).array()));
+            }
         }
         
         // set the response
@@ -173,39 +202,6 @@ public class ReadDirAndStatOperation extends MRCOperation {
         update.execute();
     }
     
-    private Stat getStat(StorageManager sMan, FileAccessManager faMan, MRCRequest rq, VolumeInfo volume,
-        FileMetadata file) throws DatabaseException, MRCException {
-        
-        // FIXME: merge w/ 'stat' operation
-        
-        String linkTarget = sMan.getSoftlinkTarget(file.getId());
-        int mode = faMan.getPosixAccessMode(sMan, file, rq.getDetails().userId, rq.getDetails().groupIds);
-        mode |= linkTarget != null ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFLNK.getNumber()
-            : file.isDirectory() ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFDIR.getNumber()
-                : ((file.getPerms() & GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO.getNumber()) != 0) ? GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFIFO
-                        .getNumber()
-                    : GlobalTypes.SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_S_IFREG.getNumber();
-        long size = linkTarget != null ? linkTarget.length() : file.isDirectory() ? 0 : file.getSize();
-        int blkSize = 0;
-        if ((linkTarget == null) && (!file.isDirectory())) {
-            XLocList xlocList = file.getXLocList();
-            if ((xlocList != null) && (xlocList.getReplicaCount() > 0))
-                blkSize = xlocList.getReplica(0).getStripingPolicy().getStripeSize() * 1024;
-        }
-        
-        final long newEtag = file.getMtime() + file.getCtime();
-        
-        Stat stat = Stat.newBuilder().setDev(volume.getId().hashCode()).setIno(file.getId()).setMode(mode)
-                .setNlink(file.getLinkCount()).setUserId(file.getOwnerId()).setGroupId(
-                    file.getOwningGroupId()).setSize(size).setAtimeNs((long) file.getAtime() * (long) 1e9)
-                .setCtimeNs((long) file.getCtime() * (long) 1e9).setMtimeNs(
-                    (long) file.getMtime() * (long) 1e9).setBlksize(blkSize).setTruncateEpoch(
-                    file.isDirectory() ? 0 : file.getEpoch()).setAttributes((int) file.getW32Attrs())
-                .setEtag(newEtag).build();
-        
-        return stat;
-    }
-    
     public static void main(String[] args) throws Exception {
         
         String path = "/home/stender/mnt";
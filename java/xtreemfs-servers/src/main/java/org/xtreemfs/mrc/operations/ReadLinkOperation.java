@@ -32,6 +32,11 @@ public class ReadLinkOperation extends MRCOperation {
     public ReadLinkOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
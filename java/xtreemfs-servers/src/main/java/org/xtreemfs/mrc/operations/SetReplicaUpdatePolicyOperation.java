@@ -145,7 +145,8 @@ public class SetReplicaUpdatePolicyOperation extends MRCOperation {
         if (!ReplicaUpdatePolicies.REPL_UPDATE_PC_WARONE.equals(newReplicaUpdatePolicy)
                 && !ReplicaUpdatePolicies.REPL_UPDATE_PC_NONE.equals(newReplicaUpdatePolicy)
                 && !ReplicaUpdatePolicies.REPL_UPDATE_PC_RONLY.equals(newReplicaUpdatePolicy)
-                && !ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ.equals(newReplicaUpdatePolicy))
+                && !ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ.equals(newReplicaUpdatePolicy)
+                && !ReplicaUpdatePolicies.REPL_UPDATE_PC_CHAIN.equals(newReplicaUpdatePolicy))
             throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL,
                     "invalid replica update policy: " + newReplicaUpdatePolicy);
 
@@ -162,19 +163,16 @@ public class SetReplicaUpdatePolicyOperation extends MRCOperation {
         // Do not allow to switch between read-only and read/write replication
         // as there are currently no mechanisms in place to guarantee that the replicas are synchronized.
         if ((ReplicaUpdatePolicies.REPL_UPDATE_PC_RONLY.equals(curReplUpdatePolicy)
-                && (ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ.equals(newReplicaUpdatePolicy)
-                        || ReplicaUpdatePolicies.REPL_UPDATE_PC_WARONE.equals(newReplicaUpdatePolicy)))
+                && ReplicaUpdatePolicies.isRW(newReplicaUpdatePolicy))
                 || (ReplicaUpdatePolicies.REPL_UPDATE_PC_RONLY.equals(newReplicaUpdatePolicy)
-                        && (ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ.equals(curReplUpdatePolicy)
-                                || ReplicaUpdatePolicies.REPL_UPDATE_PC_WARONE.equals(curReplUpdatePolicy)))) {
+                        && ReplicaUpdatePolicies.isRW(curReplUpdatePolicy))) {
             throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL,
                     "Currently, it is not possible to change from a read-only to a read/write replication policy or vise versa.");
         }
 
         // check if striping + rw replication would be set
         StripingPolicy stripingPolicy = file.getXLocList().getReplica(0).getStripingPolicy();
-        if (stripingPolicy.getWidth() > 1 && (newReplicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_WARONE)
-                || newReplicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ))) {
+        if (stripingPolicy.getWidth() > 1 && ReplicaUpdatePolicies.isRW(newReplicaUpdatePolicy)) {
             throw new UserException(POSIXErrno.POSIX_ERROR_EINVAL,
                     "RW-replication of striped files is not supported yet.");
         }
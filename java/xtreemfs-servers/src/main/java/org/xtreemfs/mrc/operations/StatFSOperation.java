@@ -30,6 +30,11 @@ public class StatFSOperation extends MRCOperation {
     public StatFSOperation(MRCRequestDispatcher master) {
         super(master);
     }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
     
     @Override
     public void startRequest(MRCRequest rq) throws Throwable {
@@ -10,15 +10,19 @@ package org.xtreemfs.mrc.osdselection;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.xtreemfs.common.KeyValuePairs;
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.mrc.MRCRequestDispatcher;
 import org.xtreemfs.mrc.database.DatabaseException;
@@ -26,14 +30,19 @@ import org.xtreemfs.mrc.database.VolumeChangeListener;
 import org.xtreemfs.mrc.database.VolumeInfo;
 import org.xtreemfs.mrc.metadata.XLocList;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceDataMap;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replicas;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
 
 /**
- * Checks regularly for suitable OSDs for each volume.
+ * Checks regularly for suitable OSDs for each volume. Changes of the OSDs
+ * registered at the Directory Service are received by means of watch
+ * requests, which return as soon as an OSD has changed.
  * 
  * @author bjko
  */
@@ -44,6 +53,12 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
      */
     private int                                checkIntervalMillis = 1000 * 5;
     
+    /**
+     * Maximum time in ms to wait for changes of the OSD list, which has to be
+     * lower than the RPC timeout.
+     */
+    private static final int                   WATCH_TIMEOUT_MS    = 1000 * 10;
+    
     /**
      * A list of volumes registered with the thread.
      */
@@ -69,6 +84,22 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
      */
     private final MRCRequestDispatcher               master;
     
+    /**
+     * All OSDs received from the Directory Service, sorted by their UUIDs.
+     */
+    private final Map<String, ReceivedService> receivedOSDs;
+    
+    /**
+     * Registry version of the last list of OSDs received from the Directory
+     * Service.
+     */
+    private long                               registryVersion;
+    
+    /**
+     * False, if the Directory Service does not support watch requests.
+     */
+    private boolean                            watchSupported      = true;
+    
     public OSDStatusManager(MRCRequestDispatcher master) throws IOException {
         
         super("OSDStatusManager");
@@ -78,6 +109,7 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         volumeMap = new HashMap<String, VolumeOSDFilter>();
         knownOSDs = ServiceSet.newBuilder();
         knownOSDMap = new HashMap<String, Service>();
+        receivedOSDs = new TreeMap<String, ReceivedService>();
         
         int interval = master.getConfig().getOsdCheckInterval();
         checkIntervalMillis = 1000 * interval;
@@ -141,8 +173,7 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         
         // initially fetch the list of OSDs from the Directory Service
         try {
-            knownOSDs = master.getDirClient().xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
-                RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD).toBuilder();
+            updateOSDs(0);
         } catch (Throwable exc) {
             this.notifyCrashed(exc);
         }
@@ -153,15 +184,18 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
                 "OSD status manager operational, using DIR %s", master.getConfig().getDirectoryService()
                         .toString());
         
+        boolean failed = false;
         while (!quit) {
             
-            synchronized (this) {
-                try {
-                    this
-                            .wait(knownOSDs == null || knownOSDs.getServicesCount() == 0 ? checkIntervalMillis / 2
-                                : checkIntervalMillis);
-                } catch (InterruptedException ex) {
-                    break;
+            // without watch requests, or after an error, poll the DIR in regular intervals
+            if (!watchSupported || failed) {
+                synchronized (this) {
+                    try {
+                        this.wait(knownOSDs == null || knownOSDs.getServicesCount() == 0 ? checkIntervalMillis / 2
+                            : checkIntervalMillis);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
                 }
             }
             
@@ -169,20 +203,19 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
                 "sending request for OSD list to DIR...");
             
             try {
-                // request list of registered OSDs from Directory
-                // Service
-                knownOSDs = master.getDirClient().xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
-                            RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD).toBuilder();
+                // wait for changes of the registered OSDs at the Directory
+                // Service, or request the list of all OSDs
+                updateOSDs(Math.min(checkIntervalMillis, WATCH_TIMEOUT_MS));
+                failed = false;
                 
                 Logging
                         .logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
                             "... received OSD list from DIR");
                 
-                evaluateResponse(knownOSDs);
-                
             } catch (InterruptedException ex) {
                 break;
             } catch (Exception exc) {
+                failed = true;
                 if (!quit)
                     Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, OutputUtils
                             .stackTraceToString(exc));
@@ -193,6 +226,54 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         notifyStopped();
     }
     
+    /**
+     * Updates the list of known OSDs. If the DIR supports watch requests, the
+     * method waits up to <code>watchTimeoutMs</code> for changes and only
+     * applies the changes since the last update.
+     */
+    private void updateOSDs(int watchTimeoutMs) throws IOException, InterruptedException {
+        
+        ServiceSet osds = null;
+        if (watchSupported) {
+            watchRequest request = watchRequest.newBuilder().setServiceType(ServiceType.SERVICE_TYPE_OSD)
+                    .setServicesSinceVersion(registryVersion).setTimeoutMs(watchTimeoutMs).build();
+            try {
+                osds = master.getDirClient().xtreemfs_watch(null, RPCAuthentication.authNone,
+                    RPCAuthentication.userService, request).getServices();
+            } catch (IOException ex) {
+                if (!(ex.getCause() instanceof PBRPCException)
+                    || ((PBRPCException) ex.getCause()).getErrorType() != ErrorType.INVALID_PROC_ID)
+                    throw ex;
+                
+                Logging.logMessage(Logging.LEVEL_INFO, Category.misc, this,
+                    "DIR does not support watch requests, polling for OSD list every %d s",
+                    checkIntervalMillis / 1000);
+                watchSupported = false;
+            }
+        }
+        
+        if (osds == null)
+            osds = master.getDirClient().xtreemfs_service_get_by_type(null, RPCAuthentication.authNone,
+                RPCAuthentication.userService, ServiceType.SERVICE_TYPE_OSD);
+        
+        final long now = System.currentTimeMillis();
+        ServiceSet.Builder osdList = ServiceSet.newBuilder();
+        synchronized (receivedOSDs) {
+            if (!osds.getIsDelta())
+                receivedOSDs.clear();
+            for (String uuid : osds.getRemovedUuidsList())
+                receivedOSDs.remove(uuid);
+            for (Service osd : osds.getServicesList())
+                receivedOSDs.put(osd.getUuid(), new ReceivedService(osd, now));
+            registryVersion = osds.getRegistryVersion();
+            
+            for (ReceivedService osd : receivedOSDs.values())
+                osdList.addServices(osd.getService(now));
+        }
+        
+        evaluateResponse(osdList);
+    }
+    
     /**
      * Returns the list of usable OSDs for the given volume id.
      * 
@@ -350,4 +431,35 @@ public class OSDStatusManager extends LifeCycleThread implements VolumeChangeLis
         return total;
     }
     
+    /**
+     * An OSD received from the Directory Service. As OSDs are only sent again
+     * when they have changed, the time since their last update is advanced
+     * locally.
+     */
+    private static final class ReceivedService {
+        
+        private final Service service;
+        
+        private final long    receivedAt;
+        
+        private final long    secondsSinceLastUpdate;
+        
+        ReceivedService(Service service, long receivedAt) {
+            this.service = service;
+            this.receivedAt = receivedAt;
+            String value = KeyValuePairs.getValue(service.getData().getDataList(), "seconds_since_last_update");
+            this.secondsSinceLastUpdate = value == null ? -1 : Long.parseLong(value);
+        }
+        
+        Service getService(long now) {
+            if (secondsSinceLastUpdate < 0)
+                return service;
+            
+            List<KeyValuePair> data = new ArrayList<KeyValuePair>(service.getData().getDataList());
+            KeyValuePairs.putValue(data, "seconds_since_last_update", Long.toString(secondsSinceLastUpdate
+                + (now - receivedAt) / 1000));
+            return service.toBuilder().setData(ServiceDataMap.newBuilder().addAllData(data)).build();
+        }
+    }
+    
 }
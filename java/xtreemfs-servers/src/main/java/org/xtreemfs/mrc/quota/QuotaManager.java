@@ -42,7 +42,7 @@ public class QuotaManager {
         }
     }
 
-    public void addVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
+    public synchronized void addVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
 
         String volumeId = volumeQuotaManager.getVolumeId();
         if (!volQuotaManMap.containsKey(volumeId)) {
@@ -56,7 +56,7 @@ public class QuotaManager {
         }
     }
 
-    public VolumeQuotaManager getVolumeQuotaManagerById(String volumeId) throws MRCException {
+    public synchronized VolumeQuotaManager getVolumeQuotaManagerById(String volumeId) throws MRCException {
 
         if (volQuotaManMap.containsKey(volumeId)) {
             return volQuotaManMap.get(volumeId);
@@ -66,7 +66,7 @@ public class QuotaManager {
         }
     }
 
-    public void removeVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
+    public synchronized void removeVolumeQuotaManager(VolumeQuotaManager volumeQuotaManager) throws MRCException {
 
         String volumeId = volumeQuotaManager.getVolumeId();
         if (volQuotaManMap.containsKey(volumeId)) {
@@ -80,7 +80,7 @@ public class QuotaManager {
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return "MRCQuotaManager [volQuotaManMap=" + volQuotaManMap + "]";
     }
 }
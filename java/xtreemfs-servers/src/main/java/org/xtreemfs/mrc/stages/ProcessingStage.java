@@ -11,9 +11,12 @@ package org.xtreemfs.mrc.stages;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.xtreemfs.common.auth.AuthenticationException;
 import org.xtreemfs.common.auth.UserCredentials;
+import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
@@ -22,6 +25,7 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.MessageType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader;
 import org.xtreemfs.foundation.pbrpc.server.RPCServerRequest;
+import org.xtreemfs.foundation.util.LatencyHistogram;
 import org.xtreemfs.mrc.ErrorRecord;
 import org.xtreemfs.mrc.MRCException;
 import org.xtreemfs.mrc.MRCRequest;
@@ -32,6 +36,8 @@ import org.xtreemfs.mrc.database.DatabaseException;
 import org.xtreemfs.mrc.database.DatabaseException.ExceptionType;
 import org.xtreemfs.mrc.operations.AccessOperation;
 import org.xtreemfs.mrc.operations.AddReplicaOperation;
+import org.xtreemfs.mrc.operations.BulkOpenOperation;
+import org.xtreemfs.mrc.operations.BulkStatOperation;
 import org.xtreemfs.mrc.operations.CheckFileListOperation;
 import org.xtreemfs.mrc.operations.CheckpointOperation;
 import org.xtreemfs.mrc.operations.ClearVouchersOperation;
@@ -91,9 +97,44 @@ public class ProcessingStage extends MRCStage {
         
     private final Map<Integer, Integer>      _opCountMap;
     
+    private final Map<Integer, LatencyHistogram> _opLatencyMap;
+    
     private final boolean                    statisticsEnabled         = true;
     
+    /**
+     * threads executing read-only operations
+     */
+    private final ReadOnlyWorker[]           readOnlyWorkers;
+    
+    /**
+     * queue containing all read-only requests
+     */
+    private final BlockingQueue<StageMethod> readOnlyQ;
+    
+    /**
+     * threads executing modifying operations
+     */
+    private final VolumeWorker[]             volumeWorkers;
+    
+    /**
+     * queues of modifying requests per volume
+     */
+    private final VolumeScheduler<StageMethod> volumeScheduler;
+    
     public ProcessingStage(MRCRequestDispatcher master) {
+        this(master, 0, 0);
+    }
+    
+    /**
+     * @param numReadOnlyThreads
+     *            the number of threads executing read-only operations; if 0,
+     *            read-only operations are executed like modifying operations
+     * @param numVolumeThreads
+     *            the number of threads executing modifying operations of
+     *            different volumes in parallel; if 0, modifying operations are
+     *            executed by the stage thread
+     */
+    public ProcessingStage(MRCRequestDispatcher master, int numReadOnlyThreads, int numVolumeThreads) {
         super("ProcSt");
         this.master = master;
         
@@ -106,6 +147,25 @@ public class ProcessingStage extends MRCStage {
             for (Integer i : operations.keySet())
                 _opCountMap.put(i, 0);
         }
+        
+        // the map is not modified afterwards and may thus be read concurrently
+        _opLatencyMap = new HashMap<Integer, LatencyHistogram>();
+        for (Integer i : operations.keySet())
+            _opLatencyMap.put(i, new LatencyHistogram());
+        
+        readOnlyQ = new LinkedBlockingQueue<StageMethod>();
+        readOnlyWorkers = new ReadOnlyWorker[Math.max(0, numReadOnlyThreads)];
+        for (int i = 0; i < readOnlyWorkers.length; i++) {
+            readOnlyWorkers[i] = new ReadOnlyWorker(i);
+            readOnlyWorkers[i].setLifeCycleListener(master);
+        }
+        
+        volumeScheduler = new VolumeScheduler<StageMethod>();
+        volumeWorkers = new VolumeWorker[Math.max(0, numVolumeThreads)];
+        for (int i = 0; i < volumeWorkers.length; i++) {
+            volumeWorkers[i] = new VolumeWorker(i);
+            volumeWorkers[i].setLifeCycleListener(master);
+        }
     }
     
     public void installOperations() {
@@ -158,12 +218,104 @@ public class ProcessingStage extends MRCStage {
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_GET_XLOCSET, new GetXLocSetOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_RESELECT_OSDS, new ReselectOSDsOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_CLEAR_VOUCHERS, new ClearVouchersOperation(master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_GETATTR_BULK, new BulkStatOperation(master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_OPEN_BULK, new BulkOpenOperation(master));
     }
     
     public Map<Integer, Integer> get_opCountMap() {
         return _opCountMap;
     }
     
+    /**
+     * Returns the latency histogram of the given operation, which covers the
+     * time from the reception of a request until its response is sent.
+     * 
+     * @param procId
+     *            the operation
+     * @return the histogram, or <code>null</code> if the operation is unknown
+     */
+    public LatencyHistogram getLatencyHistogram(int procId) {
+        return _opLatencyMap.get(procId);
+    }
+    
+    /**
+     * Records the latency of a finished request.
+     */
+    public void recordLatency(MRCRequest rq) {
+        final RPCHeader header = rq.getRPCRequest().getHeader();
+        if (!header.hasRequestHeader())
+            return;
+        
+        final LatencyHistogram histogram = _opLatencyMap.get(header.getRequestHeader().getProcId());
+        if (histogram != null)
+            histogram.record(System.nanoTime() - rq.getReceivedNanos());
+    }
+    
+    /**
+     * Get the number of read-only requests waiting for a worker thread.
+     */
+    public int getReadOnlyQueueLength() {
+        return readOnlyQ.size();
+    }
+    
+    public int getNumReadOnlyThreads() {
+        return readOnlyWorkers.length;
+    }
+    
+    /**
+     * Get the number of modifying requests waiting for a volume thread.
+     */
+    public int getVolumeQueueLength() {
+        return volumeScheduler.getQueueLength();
+    }
+    
+    /**
+     * Get the number of volumes with pending modifying requests.
+     */
+    public int getNumActiveVolumes() {
+        return volumeScheduler.getNumVolumes();
+    }
+    
+    public int getNumVolumeThreads() {
+        return volumeWorkers.length;
+    }
+    
+    @Override
+    public synchronized void start() {
+        super.start();
+        for (ReadOnlyWorker worker : readOnlyWorkers)
+            worker.start();
+        for (VolumeWorker worker : volumeWorkers)
+            worker.start();
+    }
+    
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        for (ReadOnlyWorker worker : readOnlyWorkers)
+            worker.shutdown();
+        for (VolumeWorker worker : volumeWorkers)
+            worker.shutdown();
+    }
+    
+    @Override
+    public void waitForStartup() throws Exception {
+        super.waitForStartup();
+        for (ReadOnlyWorker worker : readOnlyWorkers)
+            worker.waitForStartup();
+        for (VolumeWorker worker : volumeWorkers)
+            worker.waitForStartup();
+    }
+    
+    @Override
+    public void waitForShutdown() throws Exception {
+        super.waitForShutdown();
+        for (ReadOnlyWorker worker : readOnlyWorkers)
+            worker.waitForShutdown();
+        for (VolumeWorker worker : volumeWorkers)
+            worker.waitForShutdown();
+    }
+    
 //    public String getOpName(int opId) {
 //        String opName = operations.get(opId).getClass().getSimpleName();
 //        return (opName.charAt(0) + "").toLowerCase() + opName.substring(0, opName.length() - "Operation".length()).substring(1);
@@ -186,6 +338,9 @@ public class ProcessingStage extends MRCStage {
     protected void processInternalRequest(StageMethod method) {
         switch (method.getStageMethod()) {
         case STAGEOP_INTERNAL_CALLBACK:
+            // internal callbacks may access any volume
+            if (!waitForVolumeWorkers())
+                return;
             executeInternalCallback(method);
             break;
         default:
@@ -230,14 +385,95 @@ public class ProcessingStage extends MRCStage {
             _opCountMap.put(rqHeader.getProcId(), _opCountMap.get(rqHeader.getProcId()) + 1);
         }
         
-        // parse request arguments
+        // read-only operations are executed concurrently by the worker threads
+        if (readOnlyWorkers.length > 0 && op.isReadOnly()) {
+            readOnlyQ.add(method);
+            return;
+        }
+        
+        if (!parseRequestArgs(op, method))
+            return;
+        
+        if (volumeWorkers.length > 0) {
+            
+            // modifying operations are executed by the volume threads, in
+            // order for each volume
+            final String volumeId = op.getVolumeId(rq);
+            if (volumeId != null) {
+                volumeScheduler.enqueue(volumeId, method);
+                return;
+            }
+            
+            // operations that are not bound to a single volume are executed
+            // exclusively
+            if (!waitForVolumeWorkers()) {
+                rq.setError(ErrorType.INTERNAL_SERVER_ERROR, "MRC is shutting down");
+                master.requestFinished(rq);
+                return;
+            }
+        }
+        
+        authenticateAndExecute(op, method);
+    }
+    
+    /**
+     * Waits until the volume threads have executed all pending requests.
+     * 
+     * @return <code>false</code>, if the stage thread was interrupted
+     */
+    private boolean waitForVolumeWorkers() {
+        if (volumeWorkers.length == 0)
+            return true;
+        
+        try {
+            volumeScheduler.waitForIdle();
+            return true;
+        } catch (InterruptedException ex) {
+            // the stage is shutting down
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Parse the request arguments.
+     * 
+     * @param op
+     *            the operation
+     * @param method
+     *            stagemethod to execute
+     * @return <code>false</code>, if the arguments could not be parsed and the
+     *         request has been finished with an error
+     */
+    private boolean parseRequestArgs(MRCOperation op, StageMethod method) {
+        
+        final MRCRequest rq = method.getRq();
+        
         ErrorRecord error = op.parseRequestArgs(rq);
         if (error != null) {
             rq.setError(error);
             master.requestFinished(rq);
-            return;
+            return false;
         }
         
+        return true;
+    }
+    
+    /**
+     * Authenticate the user and execute the operation. The request arguments
+     * must have been parsed.
+     * 
+     * @param op
+     *            the operation
+     * @param method
+     *            stagemethod to execute
+     */
+    private void authenticateAndExecute(MRCOperation op, StageMethod method) {
+        
+        final MRCRequest rq = method.getRq();
+        final RPCServerRequest rpcRequest = rq.getRPCRequest();
+        final RPCHeader header = rpcRequest.getHeader();
+        
         try {
             
             // get the auth data if available
@@ -396,4 +632,96 @@ public class ProcessingStage extends MRCStage {
         rq.getRPCRequest().sendRedirect(uuid);
     }
     
+    /**
+     * Executes read-only operations. Requests are parsed, authenticated and
+     * executed like in the stage thread, but concurrently with other requests.
+     */
+    private final class ReadOnlyWorker extends LifeCycleThread {
+        
+        private volatile boolean quit;
+        
+        ReadOnlyWorker(int id) {
+            super("ProcSt RO" + id);
+        }
+        
+        public void shutdown() {
+            this.quit = true;
+            this.interrupt();
+        }
+        
+        @Override
+        public void run() {
+            
+            notifyStarted();
+            
+            while (!quit) {
+                try {
+                    final StageMethod method = readOnlyQ.take();
+                    final MRCOperation op = operations.get(method.getRq().getRPCRequest().getHeader()
+                            .getRequestHeader().getProcId());
+                    
+                    if (parseRequestArgs(op, method))
+                        authenticateAndExecute(op, method);
+                    
+                } catch (InterruptedException ex) {
+                    break;
+                } catch (Throwable ex) {
+                    this.notifyCrashed(ex);
+                    break;
+                }
+            }
+            
+            notifyStopped();
+        }
+    }
+    
+    /**
+     * Executes modifying operations. Each worker processes the requests of one
+     * volume at a time, in the order in which they were received, so that the
+     * database updates of a volume are executed in order.
+     */
+    private final class VolumeWorker extends LifeCycleThread {
+        
+        private volatile boolean quit;
+        
+        VolumeWorker(int id) {
+            super("ProcSt Vol" + id);
+        }
+        
+        public void shutdown() {
+            this.quit = true;
+            this.interrupt();
+        }
+        
+        @Override
+        public void run() {
+            
+            notifyStarted();
+            
+            while (!quit) {
+                try {
+                    final VolumeScheduler.VolumeQueue<StageMethod> vq = volumeScheduler.take();
+                    
+                    int processed = 0;
+                    StageMethod method;
+                    while ((method = volumeScheduler.next(vq, processed)) != null) {
+                        final MRCOperation op = operations.get(method.getRq().getRPCRequest().getHeader()
+                                .getRequestHeader().getProcId());
+                        
+                        authenticateAndExecute(op, method);
+                        processed++;
+                    }
+                    
+                } catch (InterruptedException ex) {
+                    break;
+                } catch (Throwable ex) {
+                    this.notifyCrashed(ex);
+                    break;
+                }
+            }
+            
+            notifyStopped();
+        }
+    }
+    
 }
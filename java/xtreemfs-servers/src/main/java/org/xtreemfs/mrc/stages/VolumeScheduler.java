@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.stages;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Distributes modifying requests among a pool of threads.
+ * <p>
+ * Requests are queued per volume. A volume queue is processed by at most one
+ * thread at a time, so that all requests of a volume are executed one after
+ * another in the order in which they were enqueued, while the requests of
+ * different volumes are executed in parallel.
+ *
+ * @param <T>
+ *            the request type
+ */
+public class VolumeScheduler<T> {
+
+    /**
+     * Maximum number of requests of a single volume that are processed in a
+     * row while other volumes are waiting.
+     */
+    public static final int BATCH_SIZE = 32;
+
+    /**
+     * The requests of a single volume.
+     */
+    public static final class VolumeQueue<T> {
+
+        private final String        volumeId;
+
+        private final ArrayDeque<T> requests;
+
+        private VolumeQueue(String volumeId) {
+            this.volumeId = volumeId;
+            this.requests = new ArrayDeque<T>();
+        }
+
+        public String getVolumeId() {
+            return volumeId;
+        }
+    }
+
+    private final ReentrantLock                     lock;
+
+    /**
+     * volume queues which contain requests or are being processed
+     */
+    // JCIP @GuardedBy("lock")
+    private final Map<String, VolumeQueue<T>>       volumeQueues;
+
+    /**
+     * volume queues waiting for a thread
+     */
+    // JCIP @GuardedBy("lock")
+    private final ArrayDeque<VolumeQueue<T>>        runQueue;
+
+    // JCIP @GuardedBy("lock")
+    private int                                     numQueued;
+
+    /**
+     * number of volume queues currently being processed
+     */
+    // JCIP @GuardedBy("lock")
+    private int                                     numActive;
+
+    private final Condition                         workAvailable;
+
+    private final Condition                         idle;
+
+    public VolumeScheduler() {
+        lock = new ReentrantLock();
+        workAvailable = lock.newCondition();
+        idle = lock.newCondition();
+        volumeQueues = new HashMap<String, VolumeQueue<T>>();
+        runQueue = new ArrayDeque<VolumeQueue<T>>();
+    }
+
+    /**
+     * Enqueues a request of the given volume.
+     */
+    public void enqueue(String volumeId, T request) {
+        lock.lock();
+        try {
+            VolumeQueue<T> vq = volumeQueues.get(volumeId);
+            if (vq == null) {
+                vq = new VolumeQueue<T>(volumeId);
+                volumeQueues.put(volumeId, vq);
+                runQueue.add(vq);
+                workAvailable.signal();
+            }
+            vq.requests.add(request);
+            numQueued++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a volume with pending requests. The calling thread processes
+     * the volume's requests by calling {@link #next(VolumeQueue, int)} until it
+     * returns <code>null</code>.
+     */
+    public VolumeQueue<T> take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (runQueue.isEmpty())
+                workAvailable.await();
+            numActive++;
+            return runQueue.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next request of a volume taken by the calling thread. If no
+     * request is left, or if other volumes have been waiting while
+     * <code>processed</code> requests of this volume were executed, the volume
+     * is released and <code>null</code> is returned.
+     */
+    public T next(VolumeQueue<T> vq, int processed) {
+        lock.lock();
+        try {
+            if (vq.requests.isEmpty()) {
+                volumeQueues.remove(vq.volumeId);
+                release();
+                return null;
+            }
+            if (processed >= BATCH_SIZE && !runQueue.isEmpty()) {
+                // let the other volumes go first
+                runQueue.add(vq);
+                workAvailable.signal();
+                release();
+                return null;
+            }
+            numQueued--;
+            return vq.requests.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // JCIP @GuardedBy("lock")
+    private void release() {
+        numActive--;
+        if (numActive == 0 && numQueued == 0)
+            idle.signalAll();
+    }
+
+    /**
+     * Waits until all requests that have been enqueued so far are executed.
+     * As long as no further requests are enqueued, the caller may then access
+     * the database exclusively.
+     */
+    public void waitForIdle() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (numActive > 0 || numQueued > 0)
+                idle.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of requests waiting to be executed.
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return numQueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of volumes with pending requests.
+     */
+    public int getNumVolumes() {
+        lock.lock();
+        try {
+            return volumeQueues.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
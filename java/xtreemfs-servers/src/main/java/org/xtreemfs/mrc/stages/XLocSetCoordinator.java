@@ -290,7 +290,8 @@ public class XLocSetCoordinator extends LifeCycleThread implements DBAccessResul
             updateReplicas(fileId, cap, newXLocSet, curXLocSet, authState);
 
         } else if (replicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_WARONE)
-                || replicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_WARA)) {
+                || replicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_WARA)
+                || replicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_CHAIN)) {
             // Invalidate all of the replicas.
             int numAcksMajority = curXLocSet.getReplicasCount();
             ReplicaStatus[] states = invalidateReplicas(fileId, cap, curXLocSet, numAcksMajority);
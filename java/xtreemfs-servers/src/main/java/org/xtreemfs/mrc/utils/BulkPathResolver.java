@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.utils;
+
+import java.util.List;
+
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+
+/**
+ * Resolves a set of paths in the same volume. The directories that all paths
+ * have in common are only looked up once, so that only the remaining
+ * components have to be resolved for each path. This is needed by bulk
+ * operations, which typically refer to many files in the same directory.
+ */
+public class BulkPathResolver {
+
+    private final StorageManager sMan;
+
+    /**
+     * the resolved common directory prefix of all paths; if a component does
+     * not exist, the array is truncated after the missing component, which is
+     * set to <code>null</code>
+     */
+    private final FileMetadata[] prefix;
+
+    /**
+     * Creates a new resolver and resolves the common directory prefix of the
+     * given paths.
+     *
+     * @param sMan
+     *            the storage manager of the volume
+     * @param paths
+     *            the paths, including the volume name as first component
+     * @throws DatabaseException
+     */
+    public BulkPathResolver(StorageManager sMan, List<Path> paths) throws DatabaseException {
+
+        this.sMan = sMan;
+
+        // determine the number of leading directories shared by all paths
+        int prefixLength = paths.isEmpty() ? 0 : paths.get(0).getCompCount() - 1;
+        for (int i = 1; i < paths.size(); i++) {
+            Path p = paths.get(i);
+            prefixLength = Math.min(prefixLength, p.getCompCount() - 1);
+            for (int j = 0; j < prefixLength; j++)
+                if (!p.getComp(j).equals(paths.get(0).getComp(j))) {
+                    prefixLength = j;
+                    break;
+                }
+        }
+
+        FileMetadata[] md = new FileMetadata[prefixLength];
+        int resolved = resolve(paths.isEmpty() ? null : paths.get(0), md, 0);
+        if (resolved < md.length) {
+            FileMetadata[] tmp = new FileMetadata[resolved + 1];
+            System.arraycopy(md, 0, tmp, 0, tmp.length);
+            md = tmp;
+        }
+        this.prefix = md;
+    }
+
+    /**
+     * Creates a resolver for one of the paths passed to the constructor.
+     *
+     * @param path
+     *            the path
+     * @return a resolver, which behaves like a resolver created via
+     *         {@link PathResolver#PathResolver(StorageManager, Path)}
+     * @throws DatabaseException
+     * @throws UserException
+     *             if the parent directory of the path does not exist
+     */
+    public PathResolver getResolver(Path path) throws DatabaseException, UserException {
+
+        FileMetadata[] md = new FileMetadata[path.getCompCount()];
+        System.arraycopy(prefix, 0, md, 0, prefix.length);
+
+        // resolve the remaining components, unless the prefix is incomplete
+        if (prefix.length == 0 || prefix[prefix.length - 1] != null)
+            resolve(path, md, prefix.length);
+
+        // check if the resolved path prefix exists
+        if (md.length > 1 && md[md.length - 2] == null)
+            throw new UserException(POSIXErrno.POSIX_ERROR_ENOENT, "path '" + path + "' does not exist");
+
+        return new PathResolver(path, md);
+    }
+
+    /**
+     * Resolves the components of a path, starting at the given index. Like
+     * {@link StorageManager#resolvePath(Path)}, the first component that
+     * cannot be resolved or that refers to a non-directory file inside the
+     * path is set to <code>null</code>.
+     *
+     * @return the index of the first component that could not be resolved,
+     *         or the length of the array
+     */
+    private int resolve(Path path, FileMetadata[] md, int start) throws DatabaseException {
+
+        long parentId = start == 0 ? 0 : md[start - 1].getId();
+        for (int i = start; i < md.length; i++) {
+
+            md[i] = sMan.getMetadata(parentId, path.getComp(i));
+            if (md[i] == null || (i < path.getCompCount() - 1 && !md[i].isDirectory())) {
+                md[i] = null;
+                return i;
+            }
+
+            parentId = md[i].getId();
+        }
+
+        return md.length;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.common.Capability;
+
+/**
+ * A cache of capabilities with verified signatures, which may be accessed by
+ * multiple threads. If a request carries a capability that has been verified
+ * before, the signature does not have to be calculated again; only the
+ * expiration time has to be checked.
+ * <p>
+ * A capability is only regarded as verified if all of its signed fields match
+ * those of the verified capability, so that modified capabilities that reuse a
+ * valid signature are rejected. The number of cached capabilities per file is
+ * bounded; the cached capabilities of a file should be removed when the file
+ * is closed.
+ */
+public class CapabilityCache {
+
+    /**
+     * The verified capabilities of a file, in a ring buffer that replaces the
+     * oldest capability once it is full.
+     */
+    private static final class FileEntry {
+
+        // JCIP @GuardedBy(this)
+        private final Capability[] caps;
+
+        // JCIP @GuardedBy(this)
+        private int                next;
+
+        FileEntry(int size) {
+            caps = new Capability[size];
+        }
+
+        synchronized boolean contains(Capability cap) {
+            for (Capability c : caps)
+                if (c != null && c.hasSameSignedContent(cap))
+                    return true;
+            return false;
+        }
+
+        synchronized void add(Capability cap) {
+            caps[next] = cap;
+            next = (next + 1) % caps.length;
+        }
+    }
+
+    private final ConcurrentHashMap<String, FileEntry> files;
+
+    private final int                                  maxCapsPerFile;
+
+    private final AtomicLong                           hits;
+
+    private final AtomicLong                           misses;
+
+    /**
+     * @param maxCapsPerFile
+     *            the maximum number of verified capabilities kept per file
+     */
+    public CapabilityCache(int maxCapsPerFile) {
+        this.files = new ConcurrentHashMap<String, FileEntry>();
+        this.maxCapsPerFile = maxCapsPerFile;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Checks whether a capability is valid, i.e. whether it has not expired
+     * and has a valid signature. The signature is only calculated if the
+     * capability has not been verified before.
+     *
+     * @param cap
+     *            the capability
+     * @return <code>true</code>, if the capability is valid
+     */
+    public boolean isValid(Capability cap) {
+
+        if (cap.hasExpired())
+            return false;
+
+        FileEntry entry = files.get(cap.getFileId());
+        if (entry != null && entry.contains(cap)) {
+            hits.incrementAndGet();
+            return true;
+        }
+
+        misses.incrementAndGet();
+
+        // verify the signature without holding any locks
+        if (!cap.hasValidSignature())
+            return false;
+
+        if (entry == null) {
+            entry = new FileEntry(maxCapsPerFile);
+            FileEntry existing = files.putIfAbsent(cap.getFileId(), entry);
+            if (existing != null)
+                entry = existing;
+        }
+        entry.add(cap);
+
+        return true;
+    }
+
+    /**
+     * Removes all cached capabilities of a file.
+     *
+     * @param fileId
+     *            the file ID
+     */
+    public void remove(String fileId) {
+        files.remove(fileId);
+    }
+
+    public int getNumFiles() {
+        return files.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        final long h = hits.get();
+        final long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+}
@@ -7,6 +7,7 @@
 
 package org.xtreemfs.osd;
 
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
 
@@ -17,6 +18,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
 public class InternalObjectData {
 
     ReusableBuffer data;
+    FileRegion     fileRegion;
     ObjectData     metadata;
 
     public InternalObjectData(ObjectData metadata, ReusableBuffer data) {
@@ -41,6 +43,18 @@ public class InternalObjectData {
         this.data = data;
     }
 
+    /**
+     * @return the region of the object file that is sent instead of the data
+     *         buffer, or <code>null</code>
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
+    public void setFileRegion(FileRegion fileRegion) {
+        this.fileRegion = fileRegion;
+    }
+
     public void setZero_padding(int zero_padding) {
         metadata = metadata.toBuilder().setZeroPadding(zero_padding).build();
     }
@@ -72,6 +72,10 @@ public class OSDConfig extends ServiceConfig {
             Parameter.FAILOVER_MAX_RETRIES,
             Parameter.FAILOVER_WAIT,
             Parameter.MAX_CLIENT_Q,
+            Parameter.SELECTOR_THREADS,
+            Parameter.BUFFER_POOL_SIZES,
+            Parameter.BUFFER_POOL_THREAD_CACHE_SIZE,
+            Parameter.BUFFER_POOL_ARENA_SIZE,
             Parameter.MAX_REQUEST_QUEUE_LENGTH,
             Parameter.VIVALDI_RECALCULATION_INTERVAL_IN_MS,
             Parameter.VIVALDI_RECALCULATION_EPSILON_IN_MS,
@@ -80,6 +84,15 @@ public class OSDConfig extends ServiceConfig {
             Parameter.VIVALDI_MAX_REQUEST_TIMEOUT_IN_MS,
             Parameter.VIVALDI_TIMER_INTERVAL_IN_MS,
             Parameter.STORAGE_THREADS,
+            Parameter.PREPROC_THREADS,
+            Parameter.RWR_THREADS,
+            Parameter.STORAGE_WORK_STEALING,
+            Parameter.STORAGE_FD_CACHE_SIZE,
+            Parameter.STORAGE_GROUP_COMMIT,
+            Parameter.STORAGE_GROUP_COMMIT_MAX_DELAY,
+            Parameter.ZERO_COPY_MIN_SIZE,
+            Parameter.CLIENT_SELECTOR_THREADS,
+            Parameter.REPLICATION_CONNECTIONS,
             Parameter.USE_RENEWAL_SIGNAL,
             Parameter.USE_MULTIHOMING,
             Parameter.HEALTH_CHECK
@@ -284,6 +297,46 @@ public class OSDConfig extends ServiceConfig {
     public int getStorageThreads() {
         return (Integer) parameter.get(Parameter.STORAGE_THREADS);
     }
+
+    public int getPreprocThreads() {
+        return (Integer) parameter.get(Parameter.PREPROC_THREADS);
+    }
+
+    public int getRWRThreads() {
+        return (Integer) parameter.get(Parameter.RWR_THREADS);
+    }
+
+    public boolean isStorageWorkStealing() {
+        return (Boolean) parameter.get(Parameter.STORAGE_WORK_STEALING);
+    }
+
+    public int getStorageFDCacheSize() {
+        return (Integer) parameter.get(Parameter.STORAGE_FD_CACHE_SIZE);
+    }
+
+    public boolean isStorageGroupCommit() {
+        return (Boolean) parameter.get(Parameter.STORAGE_GROUP_COMMIT);
+    }
+
+    public int getStorageGroupCommitMaxDelay() {
+        return (Integer) parameter.get(Parameter.STORAGE_GROUP_COMMIT_MAX_DELAY);
+    }
+
+    /**
+     * Returns the minimum number of bytes a read request has to ask for to be
+     * sent directly from the object file, or 0 if this is disabled.
+     */
+    public int getZeroCopyMinSize() {
+        return (Integer) parameter.get(Parameter.ZERO_COPY_MIN_SIZE);
+    }
+
+    public int getClientSelectorThreads() {
+        return (Integer) parameter.get(Parameter.CLIENT_SELECTOR_THREADS);
+    }
+
+    public int getReplicationConnections() {
+        return (Integer) parameter.get(Parameter.REPLICATION_CONNECTIONS);
+    }
     
     public String getHealthCheckScript() {
         return (String) parameter.get(Parameter.HEALTH_CHECK);
@@ -12,6 +12,7 @@ import com.google.protobuf.Message;
 import java.io.IOException;
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -68,6 +69,19 @@ public final class OSDRequest {
         }
     }
 
+    /**
+     * Sends a response whose data is transferred directly from an object file.
+     * If the file cannot be read, an EIO error is sent instead.
+     */
+    public void sendFileSuccess(Message response, FileRegion data) {
+        try {
+            rpcRequest.sendFileResponse(response, data);
+        } catch (IOException ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+            sendError(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString());
+        }
+    }
+
     public void sendInternalServerError(Throwable cause) {
         if (getRpcRequest() != null) {
             rpcRequest.sendError(ErrorType.INTERNAL_SERVER_ERROR, POSIXErrno.POSIX_ERROR_NONE, "internal server error:" + cause, OutputUtils.stackTraceToString(cause));
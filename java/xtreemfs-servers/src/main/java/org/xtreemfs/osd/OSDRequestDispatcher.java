@@ -44,6 +44,7 @@ import org.xtreemfs.foundation.SSLOptions;
 import org.xtreemfs.foundation.SSLOptions.TrustManager;
 import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.VersionManagement;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.checksums.ChecksumFactory;
 import org.xtreemfs.foundation.checksums.provider.JavaChecksumProvider;
 import org.xtreemfs.foundation.logging.Logging;
@@ -75,6 +76,7 @@ import org.xtreemfs.osd.operations.EventInsertPaddingObject;
 import org.xtreemfs.osd.operations.EventRWRStatus;
 import org.xtreemfs.osd.operations.EventWriteObject;
 import org.xtreemfs.osd.operations.FinalizeVouchersOperation;
+import org.xtreemfs.osd.operations.FleaseMessageBatchOperation;
 import org.xtreemfs.osd.operations.FleaseMessageOperation;
 import org.xtreemfs.osd.operations.GetFileIDListOperation;
 import org.xtreemfs.osd.operations.GetObjectSetOperation;
@@ -294,8 +296,12 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
                 .getTrustedCertsPassphrase(), config.getTrustedCertsContainer(), false, config
                 .isGRIDSSLmode(), config.getSSLProtocolString(), tm1) : null;
         
+        BufferPool.configure(config.getBufferPoolSizes(), config.getBufferPoolThreadCacheSize());
+        BufferPool.reserveArena(config.getBufferPoolArenaSize() * 1024L * 1024L);
+        
         rpcServer = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, serverSSLopts,
-                config.getBindRetries(), config.getSocketReceiveBufferSize(), config.getMaxClientQ());
+                config.getBindRetries(), config.getSocketReceiveBufferSize(), config.getMaxClientQ(),
+                config.getSelectorThreads());
         rpcServer.setLifeCycleListener(this);
         
         final SSLOptions clientSSLopts = config.isUsingSSL() ? new SSLOptions(config.getServiceCredsFile(),
@@ -311,11 +317,14 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
                     "outgoing server connections will be bound to '%s'", config.getAddress());
         
         rpcClient = new RPCNIOSocketClient(clientSSLopts, RPC_TIMEOUT, CONNECTION_TIMEOUT,
-                config.getSocketSendBufferSize(), config.getSocketReceiveBufferSize(), bindPoint, "OSDRequestDispatcher");
+                config.getSocketSendBufferSize(), config.getSocketReceiveBufferSize(), bindPoint, "OSDRequestDispatcher",
+                false, config.getClientSelectorThreads());
         rpcClient.setLifeCycleListener(this);
         
         // replication uses its own RPCClient with a much higher timeout
-        rpcClientForReplication = new RPCNIOSocketClient(clientSSLopts, 30000, 5 * 60 * 1000, "OSDRequestDispatcher (for replication)");
+        rpcClientForReplication = new RPCNIOSocketClient(clientSSLopts, 30000, 5 * 60 * 1000, -1, -1, null,
+                "OSDRequestDispatcher (for replication)", false, config.getClientSelectorThreads());
+        rpcClientForReplication.setConnectionsPerServer(config.getReplicationConnections());
         rpcClientForReplication.setLifeCycleListener(this);
         
         // initialize ServiceAvailability
@@ -342,10 +351,12 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         udpCom = new RPCUDPSocketServer(config.getPort(), this);
         udpCom.setLifeCycleListener(this);
         
-        preprocStage = new PreprocStage(this, metadataCache, storageLayout, config.getMaxRequestsQueueLength());
+        preprocStage = new PreprocStage(this, metadataCache, storageLayout, config.getPreprocThreads(),
+                config.getMaxRequestsQueueLength());
         preprocStage.setLifeCycleListener(this);
         
-        stStage = new StorageStage(this, metadataCache, storageLayout, config.getStorageThreads(), config.getMaxRequestsQueueLength());
+        stStage = new StorageStage(this, metadataCache, storageLayout, config.getStorageThreads(), config.getMaxRequestsQueueLength(), config.isStorageWorkStealing(),
+                config.isStorageGroupCommit(), config.getStorageGroupCommitMaxDelay());
         stStage.setLifeCycleListener(this);
         
         delStage = new DeletionStage(this, metadataCache, storageLayout, config.getMaxRequestsQueueLength());
@@ -354,7 +365,8 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         replStage = new ReplicationStage(this, config.getMaxRequestsQueueLength());
         replStage.setLifeCycleListener(this);
         
-        rwrStage = new RWReplicationStage(this, serverSSLopts, config.getMaxRequestsQueueLength());
+        rwrStage = new RWReplicationStage(this, serverSSLopts, config.getRWRThreads(),
+                config.getMaxRequestsQueueLength());
         rwrStage.setLifeCycleListener(this);
 
         tracingStage = new TracingStage(this, config.getMaxRequestsQueueLength());
@@ -903,6 +915,9 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         op = new FleaseMessageOperation(this);
         operations.put(op.getProcedureId(), op);
 
+        op = new FleaseMessageBatchOperation(this);
+        operations.put(op.getProcedureId(), op);
+
         op = new InternalRWRUpdateOperation(this);
         operations.put(op.getProcedureId(), op);
 
@@ -10,15 +10,11 @@
 
 package org.xtreemfs.osd;
 
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -27,23 +23,52 @@ import org.xtreemfs.osd.storage.CowPolicy;
 
 /**
  * This class models an OpenFileTable, storing the set of files in an 'open' state; it makes available a 'clean' method
- * that cleans the table by deleting entries whose expiration time is expired
+ * that cleans the table by deleting entries whose expiration time is expired.
+ * <p>
+ * The expiration times are kept in hashed timing wheels, so that refreshing an entry takes constant time, and a clean
+ * only has to look at the entries whose expiration times fall into the time span that has passed since the last clean.
+ * <p>
+ * An OpenFileTable is not thread-safe. Each preprocessing thread owns a table for the files assigned to it.
  * 
  * @author Eugenio Cesario
  */
 public final class OpenFileTable {
 
+    /**
+     * default time span covered by a slot of a timing wheel, in ms
+     */
+    public static final long                          DEFAULT_RESOLUTION = 1000;
+
+    /**
+     * default number of slots of a timing wheel
+     */
+    public static final int                           DEFAULT_NUM_SLOTS  = 128;
+
     private final HashMap<String, OpenFileTableEntry> openFiles;
 
-    private final SortedSet<OpenFileTableEntry>       expTimes;
+    private final TimingWheel                         expTimes;
+
+    private final TimingWheel                         expTimesWrite;
 
-    private final SortedSet<OpenFileTableEntry>       expTimesWrite;
+    // read by other threads to report the number of open files
+    private volatile int                              numOpenFiles;
 
     // constructor
     public OpenFileTable() {
+        this(DEFAULT_RESOLUTION, DEFAULT_NUM_SLOTS);
+    }
+
+    /**
+     * @param resolution
+     *            the time span covered by a slot of the timing wheels, in ms
+     * @param numSlots
+     *            the number of slots of the timing wheels; ideally, <code>resolution * numSlots</code> exceeds the
+     *            time for which files are kept open
+     */
+    public OpenFileTable(long resolution, int numSlots) {
         openFiles = new HashMap<String, OpenFileTableEntry>();
-        expTimes = new TreeSet<OpenFileTableEntry>();
-        expTimesWrite = new TreeSet<OpenFileTableEntry>(OpenFileTableEntry.createWriteExpComparator());
+        expTimes = new TimingWheel(resolution, numSlots);
+        expTimesWrite = new TimingWheel(resolution, numSlots);
     }
 
     /**
@@ -66,31 +91,19 @@ public final class OpenFileTable {
             // if its expiration time is renewed
             if (expTime > currEntry.expTime) {
 
-                // openFiles.remove(fId);
-                expTimes.remove(currEntry);
-
                 currEntry.setExpirationTime(expTime);
-                openFiles.put(fId, currEntry);
-                boolean success = expTimes.add(currEntry);
-                assert (success);
+                expTimes.schedule(currEntry.expNode, expTime);
 
                 if (write) {
-                    expTimesWrite.remove(currEntry);
                     currEntry.setWriteExpirationTime(expTime);
                     currEntry.setWrite();
-                    expTimesWrite.add(currEntry);
+                    expTimesWrite.schedule(currEntry.writeExpNode, expTime);
                 }
             }
             return currEntry.getCowPolicy();
         } else {
             Logging.logMessage(Logging.LEVEL_WARN, this,
                     "attempt to keep file %s open failed because no open state exists anymore", fId);
-            // Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "new entry for %s", fId);
-            // // 'currEntry' is a new entry, so
-            // // insert it in the table
-            // OpenFileTableEntry newEntry = new OpenFileTableEntry(fId, expTime);
-            // openFiles.put(fId, newEntry);
-            // expTimes.add(newEntry);
             return null;
         }
     }
@@ -112,12 +125,13 @@ public final class OpenFileTable {
         // insert it in the table
         OpenFileTableEntry newEntry = new OpenFileTableEntry(fId, expTime, policy);
         openFiles.put(fId, newEntry);
-        expTimes.add(newEntry);
+        numOpenFiles = openFiles.size();
+        expTimes.schedule(newEntry.expNode, expTime);
 
         if (write) {
             newEntry.setWriteExpirationTime(expTime);
             newEntry.setWrite();
-            expTimesWrite.add(newEntry);
+            expTimesWrite.schedule(newEntry.writeExpNode, expTime);
         }
     }
 
@@ -129,67 +143,52 @@ public final class OpenFileTable {
     }
 
     /**
-     * Delete all the entries whose expiration time is strictly less than 'toTime'.
+     * Delete all the entries whose expiration time is strictly less than 'toTime'. The entries are returned in the
+     * order of the wheel slots they expired in, i.e. ordered by their expiration times at the granularity of the
+     * wheel resolution.
      */
     public List<OpenFileTableEntry> clean(long toTime) {
 
-        LinkedList<OpenFileTableEntry> closedFiles = new LinkedList<OpenFileTableEntry>();
-
-        OpenFileTableEntry dummyEntry = new OpenFileTableEntry(null, toTime);
+        List<OpenFileTableEntry> closedFiles = new ArrayList<OpenFileTableEntry>();
+        expTimes.expire(toTime, closedFiles);
 
-        Iterator<OpenFileTableEntry> it = expTimes.iterator();
-
-        // since entries in 'expTimes' are sorted w.r.t. their expiration time
-        // (ascending order), 'expTimes' has to be scanned until there is an
-        // entry with its 'expTimes' > 'toTime'
-
-        while (it.hasNext()) {
-
-            OpenFileTableEntry currEntry = (OpenFileTableEntry) it.next();
-
-            if (currEntry.compareTo(dummyEntry) < 0) {
-                String fId = currEntry.fileId;
-                openFiles.remove(fId);
-                it.remove();
-                currEntry.setClosed();
-                closedFiles.add(currEntry);
-            } else {
-                break;
-            }
+        for (OpenFileTableEntry currEntry : closedFiles) {
+            removeIfMapped(currEntry);
+            // a closed file does not have to be versioned again
+            expTimesWrite.cancel(currEntry.writeExpNode);
+            currEntry.setClosed();
         }
         return closedFiles;
     }
 
     /**
      * Deletes all entries of files that were opened for writing whose expiration time is strictly less than 'toTime'.
+     * The entries remain scheduled for being closed by {@link #clean(long)}.
      * 
      * @param toTime
      * @return
      */
     public List<OpenFileTableEntry> cleanWritten(long toTime) {
 
-        List<OpenFileTableEntry> closedFiles = new LinkedList<OpenFileTableEntry>();
-
-        OpenFileTableEntry dummyEntry = new OpenFileTableEntry(null, toTime);
+        List<OpenFileTableEntry> closedFiles = new ArrayList<OpenFileTableEntry>();
+        expTimesWrite.expire(toTime, closedFiles);
 
-        Iterator<OpenFileTableEntry> it = expTimesWrite.iterator();
+        for (OpenFileTableEntry currEntry : closedFiles)
+            removeIfMapped(currEntry);
 
-        while (it.hasNext()) {
+        return closedFiles;
 
-            OpenFileTableEntry currEntry = it.next();
+    }
 
-            if (currEntry.compareTo(dummyEntry) < 0) {
-                String fId = currEntry.fileId;
-                openFiles.remove(fId);
-                it.remove();
-                closedFiles.add(currEntry);
-            } else {
-                break;
-            }
+    /**
+     * Removes the entry from the map of open files, unless the file has been opened again with a new entry in the
+     * meantime.
+     */
+    private void removeIfMapped(OpenFileTableEntry entry) {
+        if (openFiles.get(entry.fileId) == entry) {
+            openFiles.remove(entry.fileId);
+            numOpenFiles = openFiles.size();
         }
-
-        return closedFiles;
-
     }
 
     /**
@@ -244,33 +243,158 @@ public final class OpenFileTable {
      */
     public OpenFileTableEntry close(String fileId) {
 
-        OpenFileTableEntry currEntry = openFiles.get(fileId);
+        OpenFileTableEntry currEntry = openFiles.remove(fileId);
 
         if (currEntry != null) {
-            expTimes.remove(currEntry);
-            expTimesWrite.remove(currEntry);
-            openFiles.remove(fileId);
+            numOpenFiles = openFiles.size();
+            expTimes.cancel(currEntry.expNode);
+            expTimesWrite.cancel(currEntry.writeExpNode);
             currEntry.setClosed();
         }
 
         return currEntry;
     }
 
+    /**
+     * May be called by any thread.
+     */
     public int getNumOpenFiles() {
-        return this.openFiles.size();
+        return numOpenFiles;
     }
 
     public OpenFileTableEntry getEntry(String fileId) {
         return this.openFiles.get(fileId);
     }
 
+    /**
+     * The position of an entry in a timing wheel. Nodes of the same slot form a doubly-linked list, so that they can
+     * be moved to another slot in constant time.
+     */
+    private static final class WheelNode {
+
+        private final OpenFileTableEntry entry;
+
+        private long                     time;
+
+        private int                      slot = -1;
+
+        private WheelNode                prev;
+
+        private WheelNode                next;
+
+        private WheelNode(OpenFileTableEntry entry) {
+            this.entry = entry;
+        }
+
+        private boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    /**
+     * A hashed timing wheel. A node that expires at time <i>t</i> is kept in slot
+     * <code>(t / resolution) % numSlots</code>. Times that lie more than one revolution ahead share slots with
+     * earlier times and are skipped until their revolution has come.
+     */
+    private static final class TimingWheel {
+
+        private final WheelNode[] slots;
+
+        private final long        resolution;
+
+        // the tick up to which all slots have been expired, -1 if no
+        // expiration has taken place yet
+        private long              expiredTick;
+
+        private TimingWheel(long resolution, int numSlots) {
+            this.slots = new WheelNode[numSlots];
+            this.resolution = resolution;
+            this.expiredTick = -1;
+        }
+
+        /**
+         * Schedules a node for the given time, or moves it if it has been scheduled before.
+         */
+        private void schedule(WheelNode node, long time) {
+
+            cancel(node);
+
+            // nodes that are already due are added to the slot that is
+            // looked at first by the next expiration
+            int slot = slotOf(Math.max(time / resolution, expiredTick));
+
+            node.time = time;
+            node.slot = slot;
+            node.prev = null;
+            node.next = slots[slot];
+            if (node.next != null)
+                node.next.prev = node;
+            slots[slot] = node;
+        }
+
+        /**
+         * Removes a node from the wheel, if it is scheduled.
+         */
+        private void cancel(WheelNode node) {
+
+            if (!node.isScheduled())
+                return;
+
+            if (node.prev != null)
+                node.prev.next = node.next;
+            else
+                slots[node.slot] = node.next;
+            if (node.next != null)
+                node.next.prev = node.prev;
+
+            node.prev = null;
+            node.next = null;
+            node.slot = -1;
+        }
+
+        /**
+         * Removes all nodes whose time is strictly less than <code>toTime</code> and adds their entries to
+         * <code>expired</code>. Only the slots of the ticks since the last expiration are looked at.
+         */
+        private void expire(long toTime, List<OpenFileTableEntry> expired) {
+
+            final long lastTick = toTime / resolution;
+
+            // the slot of the last expired tick may still contain nodes that
+            // were due later than the last expiration time
+            long firstTick = expiredTick < 0 ? lastTick - slots.length + 1 : expiredTick;
+            if (lastTick - firstTick >= slots.length)
+                firstTick = lastTick - slots.length + 1;
+
+            for (long tick = firstTick; tick <= lastTick; tick++) {
+
+                WheelNode node = slots[slotOf(tick)];
+                while (node != null) {
+                    WheelNode next = node.next;
+                    if (node.time < toTime) {
+                        cancel(node);
+                        expired.add(node.entry);
+                    }
+                    node = next;
+                }
+            }
+
+            expiredTick = Math.max(expiredTick, lastTick);
+        }
+
+        private int slotOf(long tick) {
+            int slot = (int) (tick % slots.length);
+            return slot < 0 ? slot + slots.length : slot;
+        }
+    }
+
     /**
      * Class used to model an entry in the OpenFileTable
      * 
      * @author Eugenio Cesario
      * 
      */
-    public static class OpenFileTableEntry implements Comparable<OpenFileTableEntry> {
+    public static class OpenFileTableEntry {
 
         private final String              fileId;
 
@@ -288,9 +412,9 @@ public final class OpenFileTable {
 
         private boolean                   deleteOnClose;
 
-        private OpenFileTableEntry(String fid, long et) {
-            this(fid, et, null);
-        }
+        private final WheelNode           expNode;
+
+        private final WheelNode           writeExpNode;
 
         private OpenFileTableEntry(String fid, long et, CowPolicy cow) {
             fileId = fid;
@@ -305,6 +429,9 @@ public final class OpenFileTable {
                 fileCowPolicy = cow;
             else
                 fileCowPolicy = new CowPolicy(CowPolicy.cowMode.NO_COW);
+
+            expNode = new WheelNode(this);
+            writeExpNode = new WheelNode(this);
         }
 
         private void setExpirationTime(long newExpTime) {
@@ -464,37 +591,6 @@ public final class OpenFileTable {
             }
         }
 
-        @Override
-        public int compareTo(OpenFileTableEntry e) {
-            int res = 0;
-            if (this.expTime < e.expTime) {
-                res = -1;
-            } else if (this.expTime == e.expTime) {
-                res = e.fileId == null ? -1 : this.fileId.compareTo(e.fileId);
-            } else {
-                res = 1;
-            }
-            return res;
-        }
-
-        public static Comparator<OpenFileTableEntry> createWriteExpComparator() {
-            return new Comparator<OpenFileTableEntry>() {
-                @Override
-                public int compare(OpenFileTableEntry e1, OpenFileTableEntry e2) {
-
-                    int res = 0;
-                    if (e1.writeExpTime < e2.writeExpTime) {
-                        res = -1;
-                    } else if (e1.writeExpTime == e2.writeExpTime) {
-                        res = e1.fileId == null ? -1 : e2.fileId.compareTo(e1.fileId);
-                    } else {
-                        res = 1;
-                    }
-                    return res;
-                }
-            };
-        }
-
         @Override
         public String toString() {
             return "(" + fileId + "," + expTime + "ms)";
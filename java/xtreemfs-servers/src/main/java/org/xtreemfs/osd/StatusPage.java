@@ -24,6 +24,9 @@ import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.Schemes;
 import org.xtreemfs.foundation.util.OutputUtils;
+import org.xtreemfs.osd.stages.GroupCommitStage;
+import org.xtreemfs.osd.stages.PreprocStage;
+import org.xtreemfs.osd.stages.StorageStage;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
 
@@ -49,8 +52,10 @@ class StatusPage extends StatusServerModule {
             PARSERQ("<!-- $PARSERQ -->"),
             AUTHQ("<!-- $AUTHQ -->"),
             STORAGEQ("<!-- $STORAGEQ -->"),
+            GROUPCOMMIT("<!-- $GROUPCOMMIT -->"),
             DELETIONQ("<!-- $DELETIONQ -->"),
             OPENFILES("<!-- $OPENFILES -->"),
+            PREPROC("<!-- $PREPROC -->"),
             OBJWRITE("<!-- $OBJWRITE -->"),
             OBJREAD("<!-- $OBJREAD -->"),
             BYTETX("<!-- $BYTETX -->"),
@@ -155,18 +160,49 @@ class StatusPage extends StatusServerModule {
         values.put(
                 Vars.PINKYQ,
                 Long.toString(myDispatcher.getPendingRequests()));
+        PreprocStage preprocStage = myDispatcher.getPreprocStage();
+        StringBuilder parserQ = new StringBuilder(Integer.toString(preprocStage.getQueueLength()));
+        parserQ.append(" (");
+        for (int i = 0; i < preprocStage.getNumThreads(); i++) {
+            if (i > 0)
+                parserQ.append(", ");
+            parserQ.append(preprocStage.getQueueLength(i));
+        }
+        parserQ.append(")");
         values.put(
                 Vars.PARSERQ,
-                Integer.toString(myDispatcher.getPreprocStage().getQueueLength()));
+                parserQ.toString());
+        StorageStage storageStage = myDispatcher.getStorageStage();
+        StringBuilder storageQ = new StringBuilder(Integer.toString(storageStage.getQueueLength()));
+        storageQ.append(" (");
+        for (int i = 0; i < storageStage.getNumThreads(); i++) {
+            if (i > 0)
+                storageQ.append(", ");
+            storageQ.append(storageStage.getQueueLength(i));
+        }
+        storageQ.append("; " + storageStage.getNumStolenFiles() + " files stolen)");
         values.put(
                 Vars.STORAGEQ,
-                Integer.toString(myDispatcher.getStorageStage().getQueueLength()));
+                storageQ.toString());
+        GroupCommitStage groupCommit = storageStage.getGroupCommitStage();
+        values.put(
+                Vars.GROUPCOMMIT,
+                groupCommit == null ? "disabled" : String.format(
+                        "%d writes in %d batches (avg. batch size %.1f, max. %d; avg. flush latency %.2f ms, max. %.2f ms)",
+                        groupCommit.getNumWrites(), groupCommit.getNumBatches(), groupCommit.getAverageBatchSize(),
+                        groupCommit.getMaxBatchSize(), groupCommit.getAverageFlushLatency(),
+                        groupCommit.getMaxFlushLatency()));
         values.put(
                 Vars.DELETIONQ,
                 Integer.toString(myDispatcher.getDeletionStage().getQueueLength()));
         values.put(
                 Vars.OPENFILES,
                 Integer.toString(myDispatcher.getPreprocStage().getNumOpenFiles()));
+        CapabilityCache capCache = myDispatcher.getPreprocStage().getCapabilityCache();
+        values.put(
+                Vars.PREPROC,
+                String.format("%s; capability cache hit rate %.1f%% (%d files)", myDispatcher.getPreprocStage()
+                        .getPrepareLatency(), capCache.getHitRate() * 100, capCache.getNumFiles()));
         values.put(
                 Vars.OBJWRITE,
                 Long.toString(myDispatcher.getObjectsReceived()));
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.operations;
+
+import java.net.InetSocketAddress;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_flease_msg_batchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
+
+/**
+ * Receives the flease messages of several cells that another OSD has sent in
+ * a single request.
+ */
+public class FleaseMessageBatchOperation extends OSDOperation {
+
+    public FleaseMessageBatchOperation(OSDRequestDispatcher master) {
+        super(master);
+    }
+
+    @Override
+    public int getProcedureId() {
+        return OSDServiceConstants.PROC_ID_XTREEMFS_RWR_FLEASE_MSG_BATCH;
+    }
+
+    @Override
+    public void startRequest(OSDRequest rq) {
+        xtreemfs_rwr_flease_msg_batchRequest args = (xtreemfs_rwr_flease_msg_batchRequest) rq.getRequestArgs();
+        try {
+            InetSocketAddress sender = new InetSocketAddress(args.getSenderHostname(), args.getSenderPort());
+            master.getRWReplicationStage().receiveFleaseMessages(rq.getRpcRequest().getData().createViewBuffer(),
+                    args.getNumMessages(), sender);
+            rq.sendSuccess(null,null);
+        } catch (Exception ex) {
+            Logging.logError(Logging.LEVEL_WARN, this,ex);
+        }
+        
+    }
+
+    @Override
+    public void startInternalEvent(Object[] args) {
+        throw new UnsupportedOperationException("not an internal event!");
+    }
+
+    @Override
+    public boolean requiresCapability() {
+        return false;
+    }
+
+    @Override
+    public ErrorResponse parseRPCMessage(OSDRequest rq) {
+        return null;
+    }
+
+
+}
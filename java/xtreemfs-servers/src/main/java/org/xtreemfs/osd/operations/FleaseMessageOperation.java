@@ -36,7 +36,8 @@ public class FleaseMessageOperation extends OSDOperation {
         xtreemfs_rwr_flease_msgRequest args = (xtreemfs_rwr_flease_msgRequest) rq.getRequestArgs();
         try {
             InetSocketAddress sender = new InetSocketAddress(args.getSenderHostname(), args.getSenderPort());
-            master.getRWReplicationStage().receiveFleaseMessage(rq.getRpcRequest().getData().createViewBuffer(),sender);
+            master.getRWReplicationStage().receiveFleaseMessages(rq.getRpcRequest().getData().createViewBuffer(), 1,
+                    sender);
             rq.sendSuccess(null,null);
         } catch (Exception ex) {
             Logging.logError(Logging.LEVEL_WARN, this,ex);
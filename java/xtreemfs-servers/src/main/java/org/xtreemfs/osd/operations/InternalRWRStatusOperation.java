@@ -54,7 +54,8 @@ public final class InternalRWRStatusOperation extends OSDOperation {
     
     public void getState(final OSDRequest rq, final xtreemfs_rwr_statusRequest args) {
         master.getStorageStage().internalGetReplicaState(args.getFileId(),
-               rq.getLocationList().getLocalReplica().getStripingPolicy(), args.getMaxLocalObjVersion(), new InternalGetReplicaStateCallback() {
+               rq.getLocationList().getLocalReplica().getStripingPolicy(), args.getMaxLocalObjVersion(),
+               args.getDigestRangeSize(), args.getRangeDigestsList(), new InternalGetReplicaStateCallback() {
 
             @Override
             public void getReplicaStateComplete(ReplicaStatus localState, ErrorResponse error) {
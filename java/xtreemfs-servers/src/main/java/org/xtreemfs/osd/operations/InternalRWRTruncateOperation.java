@@ -8,17 +8,22 @@
 
 package org.xtreemfs.osd.operations;
 
+import java.util.List;
+
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.common.xloc.InvalidXLocationsException;
 import org.xtreemfs.common.xloc.XLocations;
 import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
 import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.rwre.ChainedUpdate;
 import org.xtreemfs.osd.rwre.RWReplicationStage;
 import org.xtreemfs.osd.stages.StorageStage.TruncateCallback;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
@@ -59,6 +64,18 @@ public final class InternalRWRTruncateOperation extends OSDOperation {
             return;
         }
 
+        // pass the truncate on to the next OSD of the replication chain, if any
+        final ChainedUpdate chained = ChainedUpdate.forward(rq, args.getChainOsdUuidsList(),
+                new ChainedUpdate.Sender() {
+
+                    @Override
+                    public RPCResponse send(ServiceUUID next, List<String> remainingChain) throws Exception {
+                        return master.getRWReplicationStage().getOSDClient().xtreemfs_rwr_truncate(next.getAddress(),
+                                RPCAuthentication.authNone, RPCAuthentication.userService,
+                                args.toBuilder().clearChainOsdUuids().addAllChainOsdUuids(remainingChain).build());
+                    }
+                });
+
         master.getStorageStage().truncate(args.getFileId(), args.getNewFileSize(),
             rq.getLocationList().getLocalReplica().getStripingPolicy(),
             rq.getLocationList().getLocalReplica(), rq.getCapability().getEpochNo(), rq.getCowPolicy(),
@@ -67,7 +84,10 @@ public final class InternalRWRTruncateOperation extends OSDOperation {
 
             @Override
             public void truncateComplete(OSDWriteResponse result, ErrorResponse error) {
-                sendResult(rq, error);
+                if (chained != null)
+                    chained.localComplete(error);
+                else
+                    sendResult(rq, error);
             }
         });
     }
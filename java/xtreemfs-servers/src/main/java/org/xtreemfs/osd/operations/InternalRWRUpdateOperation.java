@@ -8,18 +8,23 @@
 
 package org.xtreemfs.osd.operations;
 
+import java.util.List;
+
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.common.xloc.InvalidXLocationsException;
 import org.xtreemfs.common.xloc.XLocations;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
 import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.rwre.ChainedUpdate;
 import org.xtreemfs.osd.rwre.RWReplicationStage;
 import org.xtreemfs.osd.stages.StorageStage.WriteObjectCallback;
 import org.xtreemfs.osd.storage.CowPolicy;
@@ -57,6 +62,19 @@ public final class InternalRWRUpdateOperation extends OSDOperation {
     public void localWrite(final OSDRequest rq, final xtreemfs_rwr_updateRequest args) {
         master.replicatedDataReceived(rq.getRPCRequest().getData().capacity());
 
+        // pass the update on to the next OSD of the replication chain, if any
+        final ChainedUpdate chained = ChainedUpdate.forward(rq, args.getChainOsdUuidsList(),
+                new ChainedUpdate.Sender() {
+
+                    @Override
+                    public RPCResponse send(ServiceUUID next, List<String> remainingChain) throws Exception {
+                        return master.getRWReplicationStage().getOSDClient().xtreemfs_rwr_update(next.getAddress(),
+                                RPCAuthentication.authNone, RPCAuthentication.userService,
+                                args.toBuilder().clearChainOsdUuids().addAllChainOsdUuids(remainingChain).build(),
+                                rq.getRPCRequest().getData().createViewBuffer());
+                    }
+                });
+
         ReusableBuffer viewBuffer = rq.getRPCRequest().getData().createViewBuffer();
         master.getStorageStage().writeObject(args.getFileId(), args.getObjectNumber(),
                 rq.getLocationList().getLocalReplica().getStripingPolicy(), args.getOffset(), viewBuffer,
@@ -65,7 +83,10 @@ public final class InternalRWRUpdateOperation extends OSDOperation {
                     
                     @Override
                     public void writeComplete(OSDWriteResponse result, ErrorResponse error) {
-                        sendResult(rq, error);
+                        if (chained != null)
+                            chained.localComplete(error);
+                        else
+                            sendResult(rq, error);
                     }
                 });
     }
@@ -45,10 +45,18 @@ public final class ReadOperation extends OSDOperation {
 
     final ServiceUUID localUUID;
 
+    /**
+     * minimum length of a read request to send the data directly from the
+     * object file; 0 if disabled
+     */
+    final int zeroCopyMinSize;
+
     public ReadOperation(OSDRequestDispatcher master) {
         super(master);
         sharedSecret = master.getConfig().getCapabilitySecret();
         localUUID = master.getConfig().getUUID();
+        // data sent over SSL connections has to be encrypted in user space
+        zeroCopyMinSize = master.getConfig().isUsingSSL() ? 0 : master.getConfig().getZeroCopyMinSize();
     }
 
     @Override
@@ -93,7 +101,7 @@ public final class ReadOperation extends OSDOperation {
                     ? rq.getCapability().getSnapTimestamp() : 0;
 
             master.getStorageStage().readObject(args.getFileId(), args.getObjectNumber(), sp, args.getOffset(),
-                    args.getLength(), snapVerTS, rq, new ReadObjectCallback() {
+                    args.getLength(), snapVerTS, isZeroCopy(args), rq, new ReadObjectCallback() {
 
                         @Override
                         public void readComplete(ObjectInformation result, ErrorResponse error) {
@@ -118,7 +126,7 @@ public final class ReadOperation extends OSDOperation {
 
                 //FIXME: ignore canExecOperation for now...
                 master.getStorageStage().readObject(args.getFileId(), args.getObjectNumber(), sp,
-                    args.getOffset(),args.getLength(), snapVerTS, rq, new ReadObjectCallback() {
+                    args.getOffset(),args.getLength(), snapVerTS, isZeroCopy(args), rq, new ReadObjectCallback() {
 
                     @Override
                     public void readComplete(ObjectInformation result, ErrorResponse error) {
@@ -139,6 +147,10 @@ public final class ReadOperation extends OSDOperation {
         }, rq);
     }
 
+    private boolean isZeroCopy(readRequest args) {
+        return zeroCopyMinSize > 0 && args.getLength() >= zeroCopyMinSize;
+    }
+
     public void postRead(final OSDRequest rq, readRequest args, ObjectInformation result, ErrorResponse error) {
         if (error != null) {
             rq.sendError(error);
@@ -175,7 +187,8 @@ public final class ReadOperation extends OSDOperation {
         final boolean isLastObjectLocallyKnown = lastKnownObject <= objNo;
         //check if GMAX must be fetched to determin EOF
         if ((objNo > lastKnownObject) ||
-                (objNo == lastKnownObject) && (result.getData() != null) && (result.getData().remaining() < result.getStripeSize())) {
+                (objNo == lastKnownObject) && (result.getData() != null || result.getFileRegion() != null)
+                && (result.getDataLength() < result.getStripeSize())) {
             try {
                 final List<ServiceUUID> osds = rq.getLocationList().getLocalReplica().getOSDs();
                 final RPCResponse[] gmaxRPCs = new RPCResponse[osds.size() - 1];
@@ -193,6 +206,7 @@ public final class ReadOperation extends OSDOperation {
                     }
                 });
             } catch (IOException ex) {
+                result.freeData();
                 rq.sendInternalServerError(ex);
                 return;
             }
@@ -215,22 +229,24 @@ public final class ReadOperation extends OSDOperation {
                     maxTruncate = gmax.getEpoch();
                 }
             }
-            final boolean isLastObjectLocallyKnown = maxObjNo <= args.getObjectNumber();
-            readFinish(rq, args, result, isLastObjectLocallyKnown);
-            
-            if (args.getFileCredentials().getXcap().getSnapConfig() == SnapConfig.SNAP_CONFIG_ACCESS_SNAP)
-                return;
-            
-            //and update gmax locally
-            master.getStorageStage().receivedGMAX_ASYNC(args.getFileId(), maxTruncate, maxObjNo);
-            
         } catch (Exception ex) {
+            result.freeData();
             rq.sendInternalServerError(ex);
+            return;
         } finally {
             for (RPCResponse r : gmaxRPCs)
                 r.freeBuffers();
         }
 
+        final boolean isLastObjectLocallyKnown = maxObjNo <= args.getObjectNumber();
+        readFinish(rq, args, result, isLastObjectLocallyKnown);
+
+        if (args.getFileCredentials().getXcap().getSnapConfig() == SnapConfig.SNAP_CONFIG_ACCESS_SNAP)
+            return;
+
+        //and update gmax locally
+        master.getStorageStage().receivedGMAX_ASYNC(args.getFileId(), maxTruncate, maxObjNo);
+
     }
 
     private void readFinish(OSDRequest rq, readRequest args, ObjectInformation result, boolean isLastObjectOrEOF) {
@@ -240,7 +256,9 @@ public final class ReadOperation extends OSDOperation {
 
         //must deliver enough data!
         int datasize = 0;
-        if (data.getData() != null)
+        if (data.getFileRegion() != null)
+            datasize = data.getFileRegion().getCount();
+        else if (data.getData() != null)
             datasize = data.getData().remaining();
         datasize += data.getZero_padding();
         assert((isLastObjectOrEOF && datasize <= args.getLength()) ||
@@ -249,7 +267,9 @@ public final class ReadOperation extends OSDOperation {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this, "zero data response (EOF), file %s",args.getFileId());
         }
         master.objectSent();
-        if (data.getData() != null)
+        if (data.getFileRegion() != null)
+            master.dataSent(data.getFileRegion().getCount());
+        else if (data.getData() != null)
             master.dataSent(data.getData().capacity());
 
         sendResponse(rq, data);
@@ -322,7 +342,10 @@ public final class ReadOperation extends OSDOperation {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, result.toString());
         }
-        rq.sendSuccess(result.getMetadata(),result.getData());
+        if (result.getFileRegion() != null)
+            rq.sendFileSuccess(result.getMetadata(), result.getFileRegion());
+        else
+            rq.sendSuccess(result.getMetadata(),result.getData());
     }
 
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.InternalObjectData;
+import org.xtreemfs.osd.rwre.RWReplicationStage.Operation;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Chain replication: like {@link WaR1UpdatePolicy}, an update has to be
+ * applied at all replicas, but instead of sending it to each backup, the
+ * primary only sends it to the first backup of the chain, which passes it on
+ * to the next one and so on. A backup acknowledges an update once it has been
+ * applied locally and acknowledged by the rest of the chain (see
+ * {@link ChainedUpdate}). Thus, each OSD sends the data of a write only once.
+ * <p>
+ * The chain consists of the remote replicas in the order of the XLocSet.
+ * Resets and reads are handled like in {@link WaR1UpdatePolicy}.
+ */
+public class ChainUpdatePolicy extends CoordinatedReplicaUpdatePolicy {
+
+    final int numResponses;
+
+    public ChainUpdatePolicy(List<ServiceUUID> remoteOSDUUIDs, String localUUID, String fileId,
+            OSDServiceClient client) {
+        super(remoteOSDUUIDs, localUUID, fileId, client);
+        this.numResponses = remoteOSDUUIDs.size();
+    }
+
+    @Override
+    public int getNumRequiredAcks(Operation operation) {
+        return numResponses;
+    }
+
+    @Override
+    public boolean backupCanRead() {
+        return true;
+    }
+
+    /**
+     * @return the UUIDs of the backups following the head of the chain
+     */
+    private List<String> getChainTail() {
+        List<String> tail = new ArrayList<String>(remoteOSDUUIDs.size() - 1);
+        for (int i = 1; i < remoteOSDUUIDs.size(); i++)
+            tail.add(remoteOSDUUIDs.get(i).toString());
+        return tail;
+    }
+
+    @Override
+    public void executeWrite(FileCredentials credentials, long objNo, long objVersion, InternalObjectData data,
+            ClientOperationCallback callback) {
+        final String fileId = credentials.getXcap().getFileId();
+
+        try {
+            RPCResponse response = client.xtreemfs_rwr_update(remoteOSDUUIDs.get(0).getAddress(),
+                    RPCAuthentication.authNone, RPCAuthentication.userService, credentials, fileId, 0, objNo,
+                    objVersion, 0, data.getMetadata(), getChainTail(), data.getData().createViewBuffer());
+            response.registerListener(getResponseListener(callback, 0, 1, fileId, Operation.WRITE));
+        } catch (IOException ex) {
+            callback.failed(ErrorUtils.getInternalServerError(ex));
+        } finally {
+            BufferPool.free(data.getData());
+        }
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "(R:%s) sent update for %s to chain head %s", localUUID, fileId, remoteOSDUUIDs.get(0));
+    }
+
+    @Override
+    public void executeTruncate(FileCredentials credentials, long newFileSize, long newObjectVersion,
+            ClientOperationCallback callback) {
+        final String fileId = credentials.getXcap().getFileId();
+
+        // truncates take the same path as writes, so that they cannot
+        // overtake preceding writes
+        try {
+            RPCResponse response = client.xtreemfs_rwr_truncate(remoteOSDUUIDs.get(0).getAddress(),
+                    RPCAuthentication.authNone, RPCAuthentication.userService, credentials, fileId, newFileSize,
+                    newObjectVersion, getChainTail());
+            response.registerListener(getResponseListener(callback, 0, 1, fileId, Operation.TRUNCATE));
+        } catch (IOException ex) {
+            callback.failed(ErrorUtils.getInternalServerError(ex));
+        }
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "(R:%s) sent truncate update for %s to chain head %s", localUUID, fileId,
+                    remoteOSDUUIDs.get(0));
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.util.List;
+
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.OSDRequest;
+
+/**
+ * An update (write or truncate) that a backup received via a replication
+ * chain and has to pass on to the next backup (see {@link ChainUpdatePolicy}).
+ * The update is forwarded while it is applied locally; the request is answered
+ * once both the local operation and the rest of the chain have completed, with
+ * the first error that occurred, if any.
+ */
+public class ChainedUpdate implements RPCResponseAvailableListener {
+
+    private final OSDRequest    request;
+
+    // JCIP @GuardedBy(this)
+    private int                 numPending;
+
+    // JCIP @GuardedBy(this)
+    private ErrorResponse       error;
+
+    private ChainedUpdate(OSDRequest request) {
+        this.request = request;
+        this.numPending = 2;
+    }
+
+    /**
+     * Forwards an update to the next backup of the chain, if there is one.
+     *
+     * @param request
+     *            the update request received by the local OSD
+     * @param chain
+     *            the backups the update has to be passed on to
+     * @param sender
+     *            sends the update to the given backup, with the given remaining
+     *            chain
+     * @return the chained update, which has to be notified when the local
+     *         operation has completed, or <code>null</code> if the local OSD is
+     *         the end of the chain
+     */
+    public static ChainedUpdate forward(OSDRequest request, List<String> chain, Sender sender) {
+
+        if (chain.isEmpty())
+            return null;
+
+        final ChainedUpdate update = new ChainedUpdate(request);
+        final ServiceUUID next = new ServiceUUID(chain.get(0));
+        try {
+            RPCResponse response = sender.send(next, chain.subList(1, chain.size()));
+            response.registerListener(update);
+        } catch (Exception ex) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.replication, update,
+                    "cannot pass on update for %s to %s: %s", request.getFileId(), next, ex.toString());
+            update.complete(ErrorUtils.getInternalServerError(ex));
+        }
+
+        return update;
+    }
+
+    /**
+     * Sends an update to the next backup of a chain.
+     */
+    public static interface Sender {
+        public RPCResponse send(ServiceUUID next, List<String> remainingChain) throws Exception;
+    }
+
+    /**
+     * Notifies the chained update that the update has been applied locally.
+     */
+    public void localComplete(ErrorResponse error) {
+        complete(error);
+    }
+
+    @Override
+    public void responseAvailable(RPCResponse r) {
+        ErrorResponse err = null;
+        try {
+            r.get();
+        } catch (PBRPCException ex) {
+            // pass on errors of the rest of the chain unchanged
+            err = ex.getErrorResponse() != null ? ex.getErrorResponse() : ErrorUtils.getInternalServerError(ex);
+        } catch (Exception ex) {
+            err = ErrorUtils.getInternalServerError(ex);
+        } finally {
+            r.freeBuffers();
+        }
+        complete(err);
+    }
+
+    private void complete(ErrorResponse err) {
+
+        final ErrorResponse result;
+        synchronized (this) {
+            if (err != null && error == null)
+                error = err;
+            if (--numPending > 0)
+                return;
+            result = error;
+        }
+
+        if (result != null)
+            request.sendError(result);
+        else
+            request.sendSuccess(null, null);
+    }
+
+}
@@ -10,6 +10,7 @@ package org.xtreemfs.osd.rwre;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -36,6 +37,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSD.AuthoritativeReplicaState;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersion;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionMapping;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionMapping.Builder;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionRangeDigest;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.TruncateLog;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.TruncateRecord;
@@ -47,7 +49,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
  */
 public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy {
 
-    private final OSDServiceClient client;
+    protected final OSDServiceClient client;
 
     public CoordinatedReplicaUpdatePolicy(List<ServiceUUID> remoteOSDUUIDs, String localUUID, String fileId,
             OSDServiceClient client) {
@@ -90,12 +92,19 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
                     localUUID, fileId, numRequests, numAcksRequired, this.localObjVersion);
         }
 
+        // Send digests of the local object versions, so that the remote OSDs only
+        // have to return the object versions of ranges that differ.
+        final int digestRangeSize = ObjectVersionDigest.getRangeSize(localReplicaState.getObjectVersionsCount());
+        final List<ObjectVersionRangeDigest> rangeDigests = new ObjectVersionDigest(digestRangeSize,
+                localReplicaState.getObjectVersionsList()).getRangeDigests();
+
         final RPCResponse[] responses = new RPCResponse[remoteOSDUUIDs.size()];
         try {
             for (int i = 0; i < responses.length; i++) {
                 responses[i] = client.xtreemfs_rwr_status(remoteOSDUUIDs.get(i).getAddress(), RPCAuthentication.authNone, RPCAuthentication.userService,
                         credentials, credentials.getXcap().getFileId(),
-                        0);  // maxObjVer = 0 => let the remote OSD assume that we don't have any objects yet. Important to detect wholes (writes not seen by this replica).
+                        0,  // maxObjVer = 0 => let the remote OSD assume that we don't have any objects yet. Important to detect wholes (writes not seen by this replica).
+                        digestRangeSize, rangeDigests);
             }
         } catch (IOException ex) {
             callback.failed(ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString(),ex));
@@ -120,9 +129,11 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
                     }
                     assert(osdNum > -1);
                     try {
-                        states[osdNum] = (ReplicaStatus)r.get();
+                        final ReplicaStatus remoteState = (ReplicaStatus) r.get();
+                        states[osdNum] = ObjectVersionDigest.expand(remoteState, localReplicaState, digestRangeSize);
                         if (Logging.isDebug()) {
-                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,"(R:%s) received status response for %s from %s", localUUID, fileId, remoteOSDUUIDs.get(osdNum));
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,"(R:%s) received status response for %s from %s (%d of %d ranges equal)",
+                                    localUUID, fileId, remoteOSDUUIDs.get(osdNum), remoteState.getMatchingRangesCount(), rangeDigests.size());
                         }
                         numResponses++;
                     } catch (Exception ex) {
@@ -330,7 +341,8 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
                 responses[i] = client.xtreemfs_rwr_update(remoteOSDUUIDs.get(i).getAddress(),
                         RPCAuthentication.authNone, RPCAuthentication.userService,
                         credentials, credentials.getXcap().getFileId(), 0,
-                        objNo, objVersion, 0, data.getMetadata(), data.getData().createViewBuffer());
+                        objNo, objVersion, 0, data.getMetadata(), Collections.<String> emptyList(),
+                        data.getData().createViewBuffer());
                 responses[i].registerListener(l);
             }
         } catch (IOException ex) {
@@ -356,7 +368,8 @@ public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy
         try {
             for (int i = 0; i < responses.length; i++) {
                 responses[i] = client.xtreemfs_rwr_truncate(remoteOSDUUIDs.get(i).getAddress(), RPCAuthentication.authNone, RPCAuthentication.userService,
-                        credentials, credentials.getXcap().getFileId(), newFileSize, newObjectVersion);
+                        credentials, credentials.getXcap().getFileId(), newFileSize, newObjectVersion,
+                        Collections.<String> emptyList());
                 responses[i].registerListener(l);
             }
         } catch (IOException ex) {
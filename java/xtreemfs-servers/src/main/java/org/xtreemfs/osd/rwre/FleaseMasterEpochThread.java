@@ -8,27 +8,64 @@
 
 package org.xtreemfs.osd.rwre;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.xtreemfs.foundation.flease.MasterEpochHandlerInterface;
+import org.xtreemfs.foundation.flease.MasterEpochJournal;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.osd.stages.Stage;
 import org.xtreemfs.osd.storage.StorageLayout;
 
 /**
- *
+ * Stores and retrieves the master epochs of the files' flease cells. The epochs are kept in a
+ * {@link MasterEpochJournal}; epochs that have been stored by earlier versions are read from the storage layout.
+ * <p>
+ * Stored epochs are committed to disk with a single sync for all requests that are in the queue at the same time.
+ * Responses are only sent after the commit, so that no uncommitted epoch is passed on.
+ * 
  * @author bjko
  */
 public class FleaseMasterEpochThread extends Stage implements MasterEpochHandlerInterface {
     private static final int STAGEOP_GET_MEPOCH = 1;
     private static final int STAGEOP_SET_MEPOCH = 2;
 
+    /**
+     * maximum number of requests waiting for a commit
+     */
+    private static final int MAX_GROUP_COMMIT_SIZE = 1000;
+
+    public static final String JOURNAL_NAME = ".mepoch";
+
     private final StorageLayout layout;
 
-    public FleaseMasterEpochThread(StorageLayout layout, int maxRequestsQueueLength) {
+    private final MasterEpochJournal journal;
+
+    /**
+     * requests waiting for the next commit
+     */
+    private final List<Continuation> pending;
+
+    public FleaseMasterEpochThread(StorageLayout layout, String journalDir, int maxRequestsQueueLength)
+            throws IOException {
         super("FlMEpoThr", maxRequestsQueueLength);
         this.layout = layout;
+        this.journal = new MasterEpochJournal(new File(journalDir), JOURNAL_NAME);
+        this.pending = new ArrayList<Continuation>();
+        journal.open();
+    }
+
+    @Override
+    public void run() {
+        super.run();
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
     }
 
     @Override
@@ -39,7 +76,8 @@ public class FleaseMasterEpochThread extends Stage implements MasterEpochHandler
         switch (method.getStageMethod()) {
             case STAGEOP_GET_MEPOCH: {
                 try {
-                    message.setMasterEpochNumber(layout.getMasterEpoch(fileId));
+                    Long masterEpoch = journal.get(fileId);
+                    message.setMasterEpochNumber(masterEpoch != null ? masterEpoch : layout.getMasterEpoch(fileId));
                     if (Logging.isDebug()) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, this, "fetched master epoch for %s: %d", fileId, message.getMasterEpochNumber());
                     }
@@ -47,16 +85,20 @@ public class FleaseMasterEpochThread extends Stage implements MasterEpochHandler
                     Logging.logError(Logging.LEVEL_ERROR, this, ex);
                     message.setMasterEpochNumber(-1l);
                 }
-                callback.processingFinished();
+                // the epoch may not have been committed yet
+                if (pending.isEmpty())
+                    callback.processingFinished();
+                else
+                    pending.add(callback);
                 break;
             }
             case STAGEOP_SET_MEPOCH: {
                 try {
-                    layout.setMasterEpoch(fileId, (int)message.getMasterEpochNumber());
+                    journal.put(fileId, message.getMasterEpochNumber());
                     if (Logging.isDebug()) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, this, "set master epoch for %s: %d", fileId, message.getMasterEpochNumber());
                     }
-                    callback.processingFinished();
+                    pending.add(callback);
                 } catch (IOException ex) {
                     Logging.logError(Logging.LEVEL_ERROR, this, ex);
                 }
@@ -66,6 +108,28 @@ public class FleaseMasterEpochThread extends Stage implements MasterEpochHandler
                 throw new IllegalStateException("no such operation: " + method.getStageMethod());
             }
         }
+
+        if (!pending.isEmpty() && (q.isEmpty() || pending.size() >= MAX_GROUP_COMMIT_SIZE))
+            commit();
+    }
+
+    /**
+     * Commits all stored epochs and sends the responses waiting for the commit.
+     */
+    private void commit() {
+        try {
+            journal.commit();
+        } catch (IOException ex) {
+            // the journal has discarded the uncommitted epochs, so that later
+            // requests only see committed ones; like a failed store, leave the
+            // requests waiting for the commit unanswered
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+            pending.clear();
+            return;
+        }
+        for (Continuation callback : pending)
+            callback.processingFinished();
+        pending.clear();
     }
 
     @Override
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersion;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionRangeDigest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
+
+/**
+ * Digests of the object versions stored by a replica, computed for ranges of
+ * <code>rangeSize</code> consecutive object numbers. During a replica reset,
+ * the primary sends the digests of its local object versions along with the
+ * status requests; the backups then omit the object versions of all ranges
+ * whose digests match their local ones, so that only the object versions of
+ * differing ranges are transferred.
+ * <p>
+ * The digest of a range is the sum of a 64-bit hash of each (object number,
+ * object version) pair in the range. Hence, it does not depend on the order in
+ * which the objects are added.
+ */
+public class ObjectVersionDigest {
+
+    /**
+     * The minimum number of objects per range.
+     */
+    public static final int       MIN_RANGE_SIZE = 64;
+
+    /**
+     * The maximum number of ranges the objects of a file are divided into.
+     */
+    public static final int       MAX_NUM_RANGES = 1024;
+
+    private final int             rangeSize;
+
+    /**
+     * range index -> { number of objects, digest }
+     */
+    private final Map<Long, long[]> ranges;
+
+    public ObjectVersionDigest(int rangeSize) {
+        assert (rangeSize > 0);
+        this.rangeSize = rangeSize;
+        this.ranges = new TreeMap<Long, long[]>();
+    }
+
+    /**
+     * Creates the digests of a list of object versions.
+     */
+    public ObjectVersionDigest(int rangeSize, List<ObjectVersion> objectVersions) {
+        this(rangeSize);
+        for (ObjectVersion ov : objectVersions)
+            add(ov.getObjectNumber(), ov.getObjectVersion());
+    }
+
+    /**
+     * Returns the range size for a replica with the given number of objects,
+     * such that the number of ranges does not exceed {@link #MAX_NUM_RANGES}.
+     */
+    public static int getRangeSize(int numObjects) {
+        return Math.max(MIN_RANGE_SIZE, (numObjects + MAX_NUM_RANGES - 1) / MAX_NUM_RANGES);
+    }
+
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+    public long getRangeIndex(long objNo) {
+        return objNo / rangeSize;
+    }
+
+    public int getNumRanges() {
+        return ranges.size();
+    }
+
+    public void add(long objNo, long objVersion) {
+        final Long index = getRangeIndex(objNo);
+        long[] range = ranges.get(index);
+        if (range == null) {
+            range = new long[2];
+            ranges.put(index, range);
+        }
+        range[0]++;
+        range[1] += hash(objNo, objVersion);
+    }
+
+    /**
+     * @return the digests of all non-empty ranges, ordered by range index
+     */
+    public List<ObjectVersionRangeDigest> getRangeDigests() {
+        List<ObjectVersionRangeDigest> digests = new ArrayList<ObjectVersionRangeDigest>(ranges.size());
+        for (Map.Entry<Long, long[]> e : ranges.entrySet())
+            digests.add(ObjectVersionRangeDigest.newBuilder().setRangeIndex(e.getKey())
+                    .setNumObjects((int) e.getValue()[0]).setDigest(e.getValue()[1]).build());
+        return digests;
+    }
+
+    /**
+     * Returns the indices of all ranges for which the given digests match the
+     * local ones. The given digests have to be computed with the same range
+     * size.
+     */
+    public Set<Long> getMatchingRanges(List<ObjectVersionRangeDigest> digests) {
+        Set<Long> matching = new HashSet<Long>();
+        for (ObjectVersionRangeDigest d : digests) {
+            long[] range = ranges.get(d.getRangeIndex());
+            if (range != null && range[0] == d.getNumObjects() && range[1] == d.getDigest())
+                matching.add(d.getRangeIndex());
+        }
+        return matching;
+    }
+
+    /**
+     * Restores the full status of a remote replica that has omitted the object
+     * versions of matching ranges, by adding the local object versions of these
+     * ranges.
+     *
+     * @param remoteState
+     *            the status received from the remote replica
+     * @param localState
+     *            the local status the digests sent to the remote replica have
+     *            been computed from
+     * @param rangeSize
+     *            the range size of the digests
+     * @return the full status of the remote replica
+     */
+    public static ReplicaStatus expand(ReplicaStatus remoteState, ReplicaStatus localState, int rangeSize) {
+
+        if (remoteState.getMatchingRangesCount() == 0)
+            return remoteState;
+
+        Set<Long> matching = new HashSet<Long>(remoteState.getMatchingRangesList());
+        ReplicaStatus.Builder full = remoteState.toBuilder().clearMatchingRanges();
+        for (ObjectVersion ov : localState.getObjectVersionsList()) {
+            if (matching.contains(ov.getObjectNumber() / rangeSize))
+                full.addObjectVersions(ov);
+        }
+        return full.build();
+    }
+
+    private static long hash(long objNo, long objVersion) {
+        return mix(mix(objNo) + objVersion);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+}
@@ -11,11 +11,14 @@ package org.xtreemfs.osd.rwre;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.libxtreemfs.exceptions.XtreemFSException;
@@ -23,16 +26,18 @@ import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.common.uuids.UnknownUUIDException;
 import org.xtreemfs.common.xloc.XLocations;
 import org.xtreemfs.foundation.SSLOptions;
+import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.buffer.ASCIIString;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.flease.Flease;
+import org.xtreemfs.foundation.flease.FleaseBatchSenderInterface;
 import org.xtreemfs.foundation.flease.FleaseConfig;
-import org.xtreemfs.foundation.flease.FleaseMessageSenderInterface;
 import org.xtreemfs.foundation.flease.FleaseStage;
 import org.xtreemfs.foundation.flease.FleaseStatusListener;
 import org.xtreemfs.foundation.flease.FleaseViewChangeListenerInterface;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
+import org.xtreemfs.foundation.flease.comm.FleaseMessageBatch;
 import org.xtreemfs.foundation.flease.proposer.FleaseException;
 import org.xtreemfs.foundation.flease.proposer.FleaseListener;
 import org.xtreemfs.foundation.logging.Logging;
@@ -71,10 +76,14 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSD.XLocSetVersionState;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
 
 /**
+ * Coordinates the read/write replication of files. The stage consists of several partitions, each with its own
+ * thread; the {@link ReplicatedFileState} of a file is owned by the partition its file ID is mapped to, and all
+ * requests and events for the file, including the lease changes of its Flease cell, are processed by that partition.
+ * Thus, the replication of different files may be coordinated in parallel.
  * 
  * @author bjko
  */
-public class RWReplicationStage extends Stage implements FleaseMessageSenderInterface {
+public class RWReplicationStage extends Stage implements FleaseBatchSenderInterface {
 
     public static final int STAGEOP_REPLICATED_WRITE          = 1;
     public static final int STAGEOP_CLOSE                     = 2;
@@ -110,10 +119,15 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     private final OSDServiceClient                 osdClient;
 
+    /**
+     * the states of all open files; a state may only be accessed by the partition owning the file
+     */
     private final Map<String, ReplicatedFileState> files;
 
     private final Map<ASCIIString, String>         cellToFileId;
 
+    private final Partition[]                      partitions;
+
     private final OSDRequestDispatcher             master;
 
     private final FleaseStage                      fstage;
@@ -124,38 +138,64 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     private final ASCIIString                      localID;
 
-    private int                                    numObjsInFlight;
+    /**
+     * OSDs that do not support batched flease messages; messages to them are sent one at a time
+     */
+    private final Set<InetSocketAddress>           fleaseBatchUnsupported;
+
+    private static final int                       MIN_RESET_BYTES_IN_FLIGHT  = 1024 * 1024;
 
-    private static final int                       MAX_OBJS_IN_FLIGHT         = 10;
+    private static final int                       MAX_RESET_BYTES_IN_FLIGHT  = 32 * 1024 * 1024;
 
     private static final int                       MAX_PENDING_PER_FILE       = 10;
 
     private static final int                       MAX_EXTERNAL_REQUESTS_IN_Q = 250;
 
-    private final Queue<ReplicatedFileState>       filesInReset;
-
     private final FleaseMasterEpochThread          masterEpochThread;
 
     private final AtomicInteger                    externalRequestsInQueue;
 
+    private final int                              maxExternalRequestsInQueue;
+
     public RWReplicationStage(OSDRequestDispatcher master, SSLOptions sslOpts, int maxRequestsQueueLength)
             throws IOException {
+        this(master, sslOpts, 1, maxRequestsQueueLength);
+    }
+
+    /**
+     * @param numPartitions
+     *            the number of partitions, i.e. threads, the replicated files are distributed across
+     */
+    public RWReplicationStage(OSDRequestDispatcher master, SSLOptions sslOpts, int numPartitions,
+            int maxRequestsQueueLength) throws IOException {
         super("RWReplSt", maxRequestsQueueLength);
         this.master = master;
-        client = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage");
-        fleaseClient = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage (flease)");
+        final int numSelectorThreads = master.getConfig().getClientSelectorThreads();
+        client = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, -1, -1, null, "RWReplicationStage", false,
+                numSelectorThreads);
+        fleaseClient = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, -1, -1, null, "RWReplicationStage (flease)",
+                false, numSelectorThreads);
         osdClient = new OSDServiceClient(client, null);
         fleaseOsdClient = new OSDServiceClient(fleaseClient, null);
-        files = new HashMap<String, ReplicatedFileState>();
-        cellToFileId = new HashMap<ASCIIString, String>();
-        numObjsInFlight = 0;
-        filesInReset = new LinkedList<ReplicatedFileState>();
+        fleaseBatchUnsupported = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+        files = new ConcurrentHashMap<String, ReplicatedFileState>();
+        cellToFileId = new ConcurrentHashMap<ASCIIString, String>();
         externalRequestsInQueue = new AtomicInteger(0);
 
+        // the amount of data fetched by resets is limited per partition
+        partitions = new Partition[Math.max(numPartitions, 1)];
+        final int maxResetBytesInFlight = Math.max(MIN_RESET_BYTES_IN_FLIGHT, MAX_RESET_BYTES_IN_FLIGHT
+                / partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i, maxRequestsQueueLength, maxResetBytesInFlight);
+            partitions[i].setLifeCycleListener(master);
+        }
+        maxExternalRequestsInQueue = MAX_EXTERNAL_REQUESTS_IN_Q * partitions.length;
+
         localID = new ASCIIString(master.getConfig().getUUID().toString());
 
-        masterEpochThread = new FleaseMasterEpochThread(master.getStorageStage().getStorageLayout(),
-                maxRequestsQueueLength);
+        masterEpochThread = new FleaseMasterEpochThread(master.getStorageStage().getStorageLayout(), master
+                .getConfig().getObjDir(), maxRequestsQueueLength);
 
         FleaseConfig fcfg = new FleaseConfig(master.getConfig().getFleaseLeaseToMS(), master.getConfig()
                 .getFleaseDmaxMS(), master.getConfig().getFleaseMsgToMS(), null, localID.toString(), master.getConfig()
@@ -192,7 +232,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         client.start();
         fleaseClient.start();
         fstage.start();
-        super.start();
+        for (Partition p : partitions)
+            p.start();
     }
 
     @Override
@@ -201,7 +242,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         fleaseClient.shutdown();
         fstage.shutdown();
         masterEpochThread.shutdown();
-        super.shutdown();
+        for (Partition p : partitions)
+            p.shutdown();
     }
 
     @Override
@@ -210,7 +252,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         client.waitForStartup();
         fleaseClient.waitForStartup();
         fstage.waitForStartup();
-        super.waitForStartup();
+        for (Partition p : partitions)
+            p.waitForStartup();
     }
 
     @Override
@@ -219,43 +262,68 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         fleaseClient.waitForShutdown();
         fstage.waitForShutdown();
         masterEpochThread.waitForShutdown();
-        super.waitForShutdown();
+        for (Partition p : partitions)
+            p.waitForShutdown();
+    }
+
+    /**
+     * Returns the partition owning the state of the given file.
+     */
+    private Partition getPartition(String fileId) {
+        return partitions[(fileId.hashCode() & Integer.MAX_VALUE) % partitions.length];
+    }
+
+    @Override
+    protected void enqueueOperation(int stageOp, Object[] args, OSDRequest request, ReusableBuffer createdViewBuffer,
+            Object callback) {
+        throw new UnsupportedOperationException("requests have to be enqueued in the partition of their file");
+    }
+
+    private void enqueueOperation(String fileId, int stageOp, Object[] args, OSDRequest request, Object callback) {
+        getPartition(fileId).enqueue(stageOp, args, request, null, callback);
     }
 
     public void eventReplicaStateAvailable(String fileId, ReplicaStatus localState, ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_STATEAVAIL, new Object[] { fileId, localState, error }, null, null);
+        this.enqueueOperation(fileId, STAGEOP_INTERNAL_STATEAVAIL, new Object[] { fileId, localState, error }, null,
+                null);
     }
 
     public void eventForceReset(FileCredentials credentials, XLocations xloc) {
-        this.enqueueOperation(STAGEOP_FORCE_RESET, new Object[] { credentials, xloc }, null, null);
+        this.enqueueOperation(credentials.getXcap().getFileId(), STAGEOP_FORCE_RESET, new Object[] { credentials,
+                xloc }, null, null);
     }
 
     public void eventDeleteObjectsComplete(String fileId, ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_DELETE_COMPLETE, new Object[] { fileId, error }, null, null);
+        this.enqueueOperation(fileId, STAGEOP_INTERNAL_DELETE_COMPLETE, new Object[] { fileId, error }, null, null);
     }
 
-    void eventObjectFetched(String fileId, ObjectVersionMapping object, InternalObjectData data, ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_OBJFETCHED, new Object[] { fileId, object, data, error }, null, null);
+    void eventObjectFetched(String fileId, ObjectVersionMapping object, long size, long latencyNanos,
+            InternalObjectData data, ErrorResponse error) {
+        this.enqueueOperation(fileId, STAGEOP_INTERNAL_OBJFETCHED, new Object[] { fileId, object, data, error, size,
+                latencyNanos }, null, null);
     }
 
     void eventSetAuthState(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
             ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_AUTHSTATE, new Object[] { fileId, authState, localState, error }, null,
-                null);
+        this.enqueueOperation(fileId, STAGEOP_INTERNAL_AUTHSTATE, new Object[] { fileId, authState, localState,
+                error }, null, null);
     }
 
     void eventLeaseStateChanged(ASCIIString cellId, Flease lease, FleaseException error) {
-        this.enqueueOperation(STAGEOP_LEASE_STATE_CHANGED, new Object[] { cellId, lease, error }, null, null);
+        // lease changes are processed by the partition of the file the cell belongs to
+        this.enqueueOperation(ReplicaUpdatePolicy.cellToFileId(cellId), STAGEOP_LEASE_STATE_CHANGED, new Object[] {
+                cellId, lease, error }, null, null);
     }
 
     void eventMaxObjAvail(String fileId, long maxObjVer, long fileSize, long truncateEpoch, ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_MAXOBJ_AVAIL, new Object[] { fileId, maxObjVer, error }, null, null);
+        this.enqueueOperation(fileId, STAGEOP_INTERNAL_MAXOBJ_AVAIL, new Object[] { fileId, maxObjVer, error }, null,
+                null);
     }
 
     public void eventBackupReplicaReset(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
             FileCredentials credentials, XLocations xloc) {
-        this.enqueueOperation(STAGEOP_INTERNAL_BACKUP_AUTHSTATE, new Object[] { fileId, authState, localState,
-                credentials, xloc }, null, null);
+        this.enqueueOperation(fileId, STAGEOP_INTERNAL_BACKUP_AUTHSTATE, new Object[] { fileId, authState,
+                localState, credentials, xloc }, null, null);
     }
 
     void eventViewIdChanged(ASCIIString cellId, int viewId, boolean onProposal) {
@@ -305,7 +373,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                         "(R:%s) replica RESET required updates for: %s", localID, state.getFileId());
             }
             state.setObjectsToFetch(new LinkedList(missingObjects.values()));
-            filesInReset.add(state);
+            getPartition(fileId).filesInReset.add(state);
             // Start by deleting the old objects.
             master.getStorageStage().deleteObjects(fileId, state.getsPolicy(), authState.getTruncateEpoch(),
                     objectsToBeDeleted, new DeleteObjectsCallback() {
@@ -493,7 +561,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 if (error != null) {
                     failed(state, error, "processDeleteObjectsComplete");
                 } else {
-                    fetchObjects();
+                    fetchObjects(getPartition(fileId));
                 }
             } else {
                 Logging.logMessage(Logging.LEVEL_WARN, this, "file state not found after deleting objects");
@@ -504,11 +572,18 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         }
     }
 
-    private void fetchObjects() {
+    /**
+     * Fetches missing objects for the files in reset of a partition, as long as the fetch window of the partition
+     * permits it.
+     */
+    private void fetchObjects(Partition partition) {
 
-        while (numObjsInFlight < MAX_OBJS_IN_FLIGHT) {
+        final Queue<ReplicatedFileState> filesInReset = partition.filesInReset;
+        final ResetFetchWindow fetchWindow = partition.fetchWindow;
 
-            ReplicatedFileState fileInReset = filesInReset.poll();
+        while (true) {
+
+            ReplicatedFileState fileInReset = filesInReset.peek();
             if (fileInReset == null)
                 break;
 
@@ -518,16 +593,23 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             // abort the RESET.
             ReplicatedFileState file = files.get(fileInReset.getFileId());
             if (file == null || file != fileInReset) {
+                filesInReset.poll();
                 continue;
             }
 
-            // Remove an object from the queue and process it
+            // Remove an object from the queue and process it, unless the
+            // amount of data in flight would exceed the fetch window
             if (!file.getObjectsToFetch().isEmpty()) {
+                final long size = file.getsPolicy().getStripeSizeForObject(
+                        file.getObjectsToFetch().get(0).getObjectNumber());
+                if (!fetchWindow.canFetch(size))
+                    break;
                 ObjectVersionMapping o = file.getObjectsToFetch().remove(0);
                 file.incrementNumObjectsPending();
-                numObjsInFlight++;
-                fetchObject(file, o);
+                fetchWindow.fetchStarted(size);
+                fetchObject(file, o, size);
             }
+            filesInReset.poll();
 
             // If there are still missing objects, return the file to the reset queue
             if (!file.getObjectsToFetch().isEmpty()) {
@@ -543,8 +625,9 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         }
     }
 
-    private void fetchObject(final ReplicatedFileState state, final ObjectVersionMapping record) {
+    private void fetchObject(final ReplicatedFileState state, final ObjectVersionMapping record, final long size) {
         final String fileId = state.getFileId();
+        final long startTime = System.nanoTime();
         try {
             final ServiceUUID osd = new ServiceUUID(record.getOsdUuidsList().get(0));
             // fetch that object
@@ -563,7 +646,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     try {
                         ObjectData metadata = (ObjectData) r.get();
                         InternalObjectData data = new InternalObjectData(metadata, r.getData());
-                        eventObjectFetched(fileId, record, data, null);
+                        eventObjectFetched(fileId, record, size, System.nanoTime() - startTime, data, null);
                     } catch (PBRPCException ex) {
                         // Transform exception into correct ErrorResponse.
                         // TODO(mberlin): Generalize this functionality by returning "Throwable" instead of
@@ -572,12 +655,16 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                         //                invocation of failed().
                         eventObjectFetched(fileId,
                                            record,
+                                           size,
+                                           System.nanoTime() - startTime,
                                            null,
                                            ErrorUtils.getErrorResponse(ex.getErrorType(), ex.getPOSIXErrno(), ex.toString(), ex));
                     } catch (Exception ex) {
                         eventObjectFetched(
                                 fileId,
                                            record,
+                                           size,
+                                           System.nanoTime() - startTime,
                                            null,
                                            ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_NONE, ex.toString(), ex));
                     } finally {
@@ -586,7 +673,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 }
             });
         } catch (IOException ex) {
-            eventObjectFetched(fileId, record, null,
+            eventObjectFetched(fileId, record, size, System.nanoTime() - startTime, null,
                     ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString(), ex));
         }
 
@@ -598,18 +685,21 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             final ObjectVersionMapping record = (ObjectVersionMapping) method.getArgs()[1];
             final InternalObjectData data = (InternalObjectData) method.getArgs()[2];
             final ErrorResponse error = (ErrorResponse) method.getArgs()[3];
+            final long size = (Long) method.getArgs()[4];
+            final long latencyNanos = (Long) method.getArgs()[5];
 
-            numObjsInFlight--;
+            final Partition partition = getPartition(fileId);
+            partition.fetchWindow.fetchCompleted(size, latencyNanos, error == null && data.getData() != null);
 
             ReplicatedFileState state = files.get(fileId);
             if (state != null) {
                 if (error != null) {
-                    fetchObjects();
+                    fetchObjects(partition);
 
                     failed(state, error, "processObjectFetched");
                 } else if (data.getData() == null) {
                     // data is null if object was deleted meanwhile.
-                    fetchObjects();
+                    fetchObjects(partition);
 
                     ErrorResponse generatedError = ErrorResponse
                             .newBuilder()
@@ -636,12 +726,13 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     master.replicatedDataReceived(bytes);
 
                     state.decrementNumObjectsPending();
+                    state.objectFetched(bytes);
                     state.getPolicy().objectFetched(record.getObjectVersion());
                     if (Logging.isDebug())
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
                                 "(R:%s) fetched object for replica, file %s, remaining %d", localID, fileId,
                                 state.getNumObjectsPending());
-                    fetchObjects();
+                    fetchObjects(partition);
                     // If no more objects in flight are pending and the queue is empty, the reset is complete.
                     if (state.getNumObjectsPending() == 0 && state.getObjectsToFetch().size() == 0) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
@@ -795,7 +886,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 file.setPrimaryReset(false);
                 file.setState(ReplicaState.PRIMARY);
                 while (file.hasPendingRequests()) {
-                    enqueuePrioritized(file.removePendingRequest());
+                    getPartition(file.getFileId()).enqueuePrioritized(file.removePendingRequest());
                 }
             }
         } catch (IOException ex) {
@@ -811,7 +902,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         file.setPrimaryReset(false);
         file.setState(ReplicaState.BACKUP);
         while (file.hasPendingRequests()) {
-            enqueuePrioritized(file.removePendingRequest());
+            getPartition(file.getFileId()).enqueuePrioritized(file.removePendingRequest());
         }
         /*} catch (IOException ex) {
             failed(file, ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString(), ex));
@@ -822,7 +913,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         file.setState(ReplicaState.INVALIDATED);
 
         while (file.hasPendingRequests()) {
-            enqueuePrioritized(file.removePendingRequest());
+            getPartition(file.getFileId()).enqueuePrioritized(file.removePendingRequest());
         }
     }
 
@@ -838,15 +929,6 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         file.clearPendingRequests(ex);
     }
 
-    private void enqueuePrioritized(StageRequest rq) {
-        while (!q.offer(rq)) {
-            StageRequest otherRq = q.poll();
-            otherRq.sendInternalServerError(new IllegalStateException(
-                    "internal queue overflow, cannot enqueue operation for processing."));
-            Logging.logMessage(Logging.LEVEL_DEBUG, this, "Dropping request from rwre queue due to overload");
-        }
-    }
-
     public static interface RWReplicationFailableCallback {
         public void failed(ErrorResponse ex);
     }
@@ -861,9 +943,9 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         this.enqueueOperation(STAGEOP_OPEN, new Object[]{credentials,locations,forceReset}, request, callback);
     }*/
 
-    protected void enqueueExternalOperation(int stageOp, Object[] arguments, OSDRequest request,
+    protected void enqueueExternalOperation(String fileId, int stageOp, Object[] arguments, OSDRequest request,
             ReusableBuffer createdViewBuffer, Object callback) {
-        if (externalRequestsInQueue.get() >= MAX_EXTERNAL_REQUESTS_IN_Q) {
+        if (externalRequestsInQueue.get() >= maxExternalRequestsInQueue) {
             Logging.logMessage(Logging.LEVEL_WARN, this,
                     "RW replication stage is overloaded, request %d for %s dropped", request.getRequestId(),
                     request.getFileId());
@@ -881,47 +963,102 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
         } else {
             externalRequestsInQueue.incrementAndGet();
-            this.enqueueOperation(stageOp, arguments, request, createdViewBuffer, callback);
+            getPartition(fileId).enqueue(stageOp, arguments, request, createdViewBuffer, callback);
         }
     }
 
     public void prepareOperation(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
             Operation op, RWReplicationCallback callback, OSDRequest request) {
-        this.enqueueExternalOperation(STAGEOP_PREPAREOP, new Object[] { credentials, xloc, objNo, objVersion, op },
-                request, null, callback);
+        this.enqueueExternalOperation(credentials.getXcap().getFileId(), STAGEOP_PREPAREOP, new Object[] {
+                credentials, xloc, objNo, objVersion, op }, request, null, callback);
     }
 
     public void replicatedWrite(FileCredentials credentials, XLocations xloc, long objNo, long objVersion,
             InternalObjectData data, ReusableBuffer createdViewBuffer, RWReplicationCallback callback,
             OSDRequest request) {
-        this.enqueueExternalOperation(STAGEOP_REPLICATED_WRITE, new Object[] { credentials, xloc, objNo, objVersion,
-                data }, request, createdViewBuffer, callback);
+        this.enqueueExternalOperation(credentials.getXcap().getFileId(), STAGEOP_REPLICATED_WRITE, new Object[] {
+                credentials, xloc, objNo, objVersion, data }, request, createdViewBuffer, callback);
     }
 
     public void replicateTruncate(FileCredentials credentials, XLocations xloc, long newFileSize,
             long newObjectVersion, RWReplicationCallback callback, OSDRequest request) {
-        this.enqueueExternalOperation(STAGEOP_TRUNCATE,
-                new Object[] { credentials, xloc, newFileSize, newObjectVersion }, request, null, callback);
+        this.enqueueExternalOperation(credentials.getXcap().getFileId(), STAGEOP_TRUNCATE, new Object[] {
+                credentials, xloc, newFileSize, newObjectVersion }, request, null, callback);
     }
 
     public void fileClosed(String fileId) {
-        this.enqueueOperation(STAGEOP_CLOSE, new Object[] { fileId }, null, null);
+        this.enqueueOperation(fileId, STAGEOP_CLOSE, new Object[] { fileId }, null, null);
     }
 
-    public void receiveFleaseMessage(ReusableBuffer message, InetSocketAddress sender) {
+    /**
+     * Passes on the flease messages of several cells that have been sent together by another OSD.
+     */
+    public void receiveFleaseMessages(ReusableBuffer messages, int numMessages, InetSocketAddress sender) {
         // this.enqueueOperation(STAGEOP_PROCESS_FLEASE_MSG, new Object[]{message,sender}, null, null);
         try {
-            FleaseMessage msg = new FleaseMessage(message);
-            BufferPool.free(message);
-            msg.setSender(sender);
-            fstage.receiveMessage(msg);
+            List<FleaseMessage> msgs = FleaseMessageBatch.deserialize(messages, numMessages);
+            for (FleaseMessage msg : msgs) {
+                msg.setSender(sender);
+                fstage.receiveMessage(msg);
+            }
         } catch (Exception ex) {
             Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        } finally {
+            BufferPool.free(messages);
         }
     }
 
-    public void getStatus(StatusCallback callback) {
-        this.enqueueOperation(STAGEOP_GETSTATUS, new Object[] {}, null, callback);
+    /**
+     * Returns the client used to send replication requests to other OSDs.
+     */
+    public OSDServiceClient getOSDClient() {
+        return osdClient;
+    }
+
+    /**
+     * Collects the status of all open files from all partitions.
+     */
+    public void getStatus(final StatusCallback callback) {
+        final Map<String, Map<String, String>> status = new HashMap<String, Map<String, String>>();
+        final AtomicInteger numPending = new AtomicInteger(partitions.length);
+        final StatusCallback collector = new StatusCallback() {
+
+            private boolean failed;
+
+            @Override
+            public void statusComplete(Map<String, Map<String, String>> partitionStatus) {
+                synchronized (status) {
+                    if (partitionStatus == null)
+                        failed = true;
+                    else
+                        status.putAll(partitionStatus);
+                }
+                if (numPending.decrementAndGet() == 0)
+                    callback.statusComplete(failed ? null : status);
+            }
+
+            @Override
+            public void failed(ErrorResponse ex) {
+                statusComplete(null);
+            }
+        };
+        for (Partition p : partitions)
+            p.enqueue(STAGEOP_GETSTATUS, new Object[] {}, null, null, collector);
+    }
+
+    /**
+     * @return the number of requests in the queues of all partitions
+     */
+    @Override
+    public int getQueueLength() {
+        int length = 0;
+        for (Partition p : partitions)
+            length += p.getQueueLength();
+        return length;
+    }
+
+    public int getNumPartitions() {
+        return partitions.length;
     }
 
     public static interface StatusCallback extends RWReplicationFailableCallback {
@@ -948,8 +1085,59 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         }
     }
 
+    /**
+     * Sends the flease messages of several cells to another OSD in a single request. OSDs that do not support
+     * batched messages reject the request with INVALID_PROC_ID; the messages are then sent one at a time, to these
+     * OSDs also in the future.
+     */
+    @Override
+    public void sendMessages(final List<FleaseMessage> messages, final InetSocketAddress recipient) {
+        if (messages.size() == 1 || fleaseBatchUnsupported.contains(recipient)) {
+            for (FleaseMessage msg : messages)
+                sendMessage(msg, recipient);
+            return;
+        }
+
+        ReusableBuffer data = BufferPool.allocate(FleaseMessageBatch.getSize(messages));
+        FleaseMessageBatch.serialize(messages, data);
+        data.flip();
+        try {
+            RPCResponse r = fleaseOsdClient.xtreemfs_rwr_flease_msg_batch(recipient, RPCAuthentication.authNone,
+                    RPCAuthentication.userService, master.getHostName(), master.getConfig().getPort(),
+                    messages.size(), data);
+            r.registerListener(new RPCResponseAvailableListener() {
+
+                @Override
+                public void responseAvailable(RPCResponse r) {
+                    try {
+                        r.get();
+                    } catch (PBRPCException ex) {
+                        if (ex.getErrorType() == ErrorType.INVALID_PROC_ID) {
+                            Logging.logMessage(Logging.LEVEL_INFO, Category.replication, RWReplicationStage.this,
+                                    "OSD %s does not support batched flease messages, sending them one at a time",
+                                    recipient);
+                            fleaseBatchUnsupported.add(recipient);
+                            for (FleaseMessage msg : messages)
+                                sendMessage(msg, recipient);
+                        }
+                    } catch (Exception ex) {
+                        // lost flease messages are tolerated, as for single messages
+                    } finally {
+                        r.freeBuffers();
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
+    }
+
     @Override
     protected void processMethod(StageRequest method) {
+        throw new UnsupportedOperationException("requests are processed by the partitions");
+    }
+
+    private void processMethod(StageRequest method, Partition partition) {
         switch (method.getStageMethod()) {
         case STAGEOP_REPLICATED_WRITE: {
             externalRequestsInQueue.decrementAndGet();
@@ -976,7 +1164,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         case STAGEOP_INTERNAL_MAXOBJ_AVAIL: processMaxObjAvail(method); break;
         case STAGEOP_INTERNAL_BACKUP_AUTHSTATE: processBackupAuthoritativeState(method); break;
         case STAGEOP_FORCE_RESET: processForceReset(method); break;
-        case STAGEOP_GETSTATUS: processGetStatus(method); break;
+        case STAGEOP_GETSTATUS: processGetStatus(method, partition); break;
         case STAGEOP_SETVIEW: processSetView(method); break;
         case STAGEOP_INVALIDATEVIEW: processInvalidateReplica(method); break;
         case STAGEOP_INVALIDATED_RESET: processInvalidatedReplicaReset(method); break;
@@ -1306,16 +1494,20 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         }
     }
 
-    private void processGetStatus(StageRequest method) {
+    private void processGetStatus(StageRequest method, Partition partition) {
         final StatusCallback callback = (StatusCallback) method.getCallback();
         try {
             Map<String, Map<String, String>> status = new HashMap();
 
-            Map<ASCIIString, FleaseMessage> fleaseState = fstage.getLocalState();
-
             for (String fileId : this.files.keySet()) {
+                // only the files owned by the partition may be accessed
+                if (getPartition(fileId) != partition)
+                    continue;
+
                 Map<String, String> fStatus = new HashMap();
                 final ReplicatedFileState fState = files.get(fileId);
+                if (fState == null)
+                    continue;
                 final ASCIIString cellId = fState.getPolicy().getCellId();
                 fStatus.put("policy", fState.getPolicy().getClass().getSimpleName());
                 fStatus.put("peers (OSDs)", fState.getPolicy().getRemoteOSDUUIDs().toString());
@@ -1334,6 +1526,14 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     }
                 }
                 fStatus.put("role", primary);
+                if (fState.getState() == ReplicaState.RESET && fState.getObjectsToFetch() != null) {
+                    fStatus.put("reset progress", String.format(
+                            "%d of %d objects (%d kB) fetched in %d s, fetch window: %d kB",
+                            fState.getNumObjectsFetched(), fState.getNumObjectsToFetchTotal(),
+                            fState.getBytesFetched() / 1024,
+                            (TimeSync.getLocalSystemTime() - fState.getResetStartTime()) / 1000,
+                            partition.fetchWindow.getWindow() / 1024));
+                }
                 status.put(fileId, fStatus);
             }
             callback.statusComplete(status);
@@ -1351,7 +1551,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
      * @param versionState
      */
     public void setView(String fileId, ASCIIString cellId, XLocSetVersionState versionState) {
-        enqueueOperation(STAGEOP_SETVIEW, new Object[] { fileId, cellId, versionState }, null, null);
+        enqueueOperation(fileId, STAGEOP_SETVIEW, new Object[] { fileId, cellId, versionState }, null, null);
     }
 
     private void processSetView(StageRequest method) {
@@ -1415,7 +1615,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
      */
     public void invalidateReplica(String fileId, FileCredentials fileCreds, XLocations xLoc,
             InvalidateXLocSetCallback callback) {
-        enqueueOperation(STAGEOP_INVALIDATEVIEW, new Object[] { fileId, fileCreds, xLoc }, null, callback);
+        enqueueOperation(fileId, STAGEOP_INVALIDATEVIEW, new Object[] { fileId, fileCreds, xLoc }, null, callback);
     }
 
     private void processInvalidateReplica(StageRequest method) {
@@ -1497,8 +1697,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     public void invalidatedReplicaReset(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
             FileCredentials credentials, XLocations xloc, OSDRequest request) {
-        this.enqueueOperation(STAGEOP_INVALIDATED_RESET,
-                new Object[] { fileId, authState, localState, credentials, xloc }, request, null, null);
+        this.enqueueOperation(fileId, STAGEOP_INVALIDATED_RESET, new Object[] { fileId, authState, localState,
+                credentials, xloc }, request, null);
     }
 
     private void processInvalidatedReplicaReset(StageRequest method) {
@@ -1575,7 +1775,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
      * @param request
      */
     public void getReplicatedFileState(String fileId, GetReplicatedFileStateCallback callback, OSDRequest request) {
-        this.enqueueOperation(STAGEOP_GET_REPLICATED_FILE_STATE, new Object[] { fileId }, request, null, callback);
+        this.enqueueOperation(fileId, STAGEOP_GET_REPLICATED_FILE_STATE, new Object[] { fileId }, request, callback);
     }
 
     public interface GetReplicatedFileStateCallback extends RWReplicationFailableCallback {
@@ -1593,4 +1793,40 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             callback.getReplicatedFileStateComplete(null);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A partition of the replicated files. Its thread processes all requests and events for the files mapped to it,
+     * and it keeps track of the files in reset.
+     */
+    private final class Partition extends Stage {
+
+        private final Queue<ReplicatedFileState> filesInReset;
+
+        private final ResetFetchWindow           fetchWindow;
+
+        Partition(int id, int maxRequestsQueueLength, int maxResetBytesInFlight) {
+            super("RWReplSt " + id, maxRequestsQueueLength);
+            filesInReset = new LinkedList<ReplicatedFileState>();
+            fetchWindow = new ResetFetchWindow(MIN_RESET_BYTES_IN_FLIGHT, maxResetBytesInFlight);
+        }
+
+        private void enqueue(int stageOp, Object[] args, OSDRequest request, ReusableBuffer createdViewBuffer,
+                Object callback) {
+            enqueueOperation(stageOp, args, request, createdViewBuffer, callback);
+        }
+
+        private void enqueuePrioritized(StageRequest rq) {
+            while (!q.offer(rq)) {
+                StageRequest otherRq = q.poll();
+                otherRq.sendInternalServerError(new IllegalStateException(
+                        "internal queue overflow, cannot enqueue operation for processing."));
+                Logging.logMessage(Logging.LEVEL_DEBUG, this, "Dropping request from rwre queue due to overload");
+            }
+        }
+
+        @Override
+        protected void processMethod(StageRequest method) {
+            RWReplicationStage.this.processMethod(method, this);
+        }
+    }
+}
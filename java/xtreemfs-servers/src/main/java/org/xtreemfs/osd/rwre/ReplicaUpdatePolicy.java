@@ -65,6 +65,8 @@ public abstract class ReplicaUpdatePolicy {
             return new WaRaUpdatePolicy(remoteOSDUUIDs, localUUID, fileId, client);
         } else if (replicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ)) {
             return new WqRqUpdatePolicy(remoteOSDUUIDs, localUUID, fileId, client);
+        } else if (replicaUpdatePolicy.equals(ReplicaUpdatePolicies.REPL_UPDATE_PC_CHAIN)) {
+            return new ChainUpdatePolicy(remoteOSDUUIDs, localUUID, fileId, client);
         } else {
             throw new IllegalArgumentException("unsupported replica update mode: " + replicaUpdatePolicy);
         }
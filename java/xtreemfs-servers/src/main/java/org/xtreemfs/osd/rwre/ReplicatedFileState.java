@@ -19,6 +19,7 @@ import org.xtreemfs.common.uuids.UnknownUUIDException;
 import org.xtreemfs.common.xloc.Replica;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.flease.Flease;
 import org.xtreemfs.foundation.flease.FleaseStage;
 import org.xtreemfs.foundation.flease.comm.FleaseMessage;
@@ -72,6 +73,14 @@ public class ReplicatedFileState {
 
     private int                        numObjectsPending;
 
+    private int                        numObjectsToFetchTotal;
+
+    private int                        numObjectsFetched;
+
+    private long                       bytesFetched;
+
+    private long                       resetStartTime;
+
     private boolean                    primaryReset;
 
     private boolean                    forceReset;
@@ -305,10 +314,43 @@ public class ReplicatedFileState {
     }
 
     /**
+     * Sets the objects to fetch during a reset and resets the reset progress.
+     *
      * @param objectsToFetch the objectsToFetch to set
      */
     public void setObjectsToFetch(List<ObjectVersionMapping> objectsToFetch) {
         this.objectsToFetch = objectsToFetch;
+        this.numObjectsToFetchTotal = objectsToFetch.size();
+        this.numObjectsFetched = 0;
+        this.bytesFetched = 0;
+        this.resetStartTime = TimeSync.getLocalSystemTime();
+    }
+
+    /**
+     * Records the progress of a reset after an object has been fetched.
+     */
+    public void objectFetched(long bytes) {
+        numObjectsFetched++;
+        bytesFetched += bytes;
+    }
+
+    public int getNumObjectsToFetchTotal() {
+        return numObjectsToFetchTotal;
+    }
+
+    public int getNumObjectsFetched() {
+        return numObjectsFetched;
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    /**
+     * @return the local time in ms at which the objects to fetch were set
+     */
+    public long getResetStartTime() {
+        return resetStartTime;
     }
 
     /**
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+/**
+ * Limits the amount of object data that replica resets fetch concurrently from
+ * other OSDs. The window is bounded in bytes and adapts to the latency of the
+ * fetches: it grows as long as fetches complete about as fast as the fastest
+ * recent ones, and it shrinks once the latency rises, i.e. when the fetches
+ * start to compete with other requests for disk or network bandwidth. A failed
+ * fetch halves the window.
+ * <p>
+ * At least one fetch may always be in flight, regardless of its size.
+ * Instances are not thread-safe.
+ */
+public class ResetFetchWindow {
+
+    /**
+     * Factor by which the smoothed latency may exceed the base latency before
+     * the window is reduced.
+     */
+    private static final int LATENCY_TOLERANCE    = 2;
+
+    /**
+     * Number of samples after which the base latency is determined anew, so
+     * that it follows lasting changes of the latency.
+     */
+    private static final int BASE_LATENCY_SAMPLES = 256;
+
+    private final long       minWindow;
+
+    private final long       maxWindow;
+
+    private long             window;
+
+    private long             bytesInFlight;
+
+    private int              numInFlight;
+
+    private long             smoothedLatency;
+
+    private long             baseLatency;
+
+    private long             nextBaseLatency;
+
+    private int              numSamples;
+
+    private long             bytesSinceDecrease;
+
+    /**
+     * @param minWindow
+     *            the initial and minimum window size in bytes
+     * @param maxWindow
+     *            the maximum window size in bytes
+     */
+    public ResetFetchWindow(long minWindow, long maxWindow) {
+        assert (minWindow > 0 && minWindow <= maxWindow);
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.window = minWindow;
+        this.baseLatency = Long.MAX_VALUE;
+        this.nextBaseLatency = Long.MAX_VALUE;
+    }
+
+    /**
+     * @return <code>true</code>, if a fetch of the given size may be started
+     */
+    public boolean canFetch(long bytes) {
+        return numInFlight == 0 || bytesInFlight + bytes <= window;
+    }
+
+    public void fetchStarted(long bytes) {
+        numInFlight++;
+        bytesInFlight += bytes;
+    }
+
+    /**
+     * @param bytes
+     *            the size the fetch was started with
+     * @param latencyNanos
+     *            the time the fetch took
+     * @param success
+     *            <code>false</code>, if the fetch failed
+     */
+    public void fetchCompleted(long bytes, long latencyNanos, boolean success) {
+        assert (numInFlight > 0);
+        numInFlight--;
+        bytesInFlight -= bytes;
+
+        if (!success) {
+            window = Math.max(minWindow, window / 2);
+            bytesSinceDecrease = 0;
+            return;
+        }
+
+        smoothedLatency = smoothedLatency == 0 ? latencyNanos : (7 * smoothedLatency + latencyNanos) / 8;
+        nextBaseLatency = Math.min(nextBaseLatency, latencyNanos);
+        if (++numSamples >= BASE_LATENCY_SAMPLES) {
+            baseLatency = nextBaseLatency;
+            nextBaseLatency = Long.MAX_VALUE;
+            numSamples = 0;
+        }
+        baseLatency = Math.min(baseLatency, latencyNanos);
+
+        bytesSinceDecrease += bytes;
+        if (smoothedLatency > LATENCY_TOLERANCE * baseLatency) {
+            // reduce the window at most once per window of completed fetches
+            if (bytesSinceDecrease >= window) {
+                window = Math.max(minWindow, window * 3 / 4);
+                bytesSinceDecrease = 0;
+            }
+        } else {
+            window = Math.min(maxWindow, window + bytes);
+        }
+    }
+
+    /**
+     * @return the current window size in bytes
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    public long getBytesInFlight() {
+        return bytesInFlight;
+    }
+
+    public int getNumInFlight() {
+        return numInFlight;
+    }
+
+}
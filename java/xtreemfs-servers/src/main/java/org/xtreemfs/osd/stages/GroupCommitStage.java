@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.stages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.stages.StorageStage.WriteObjectCallback;
+import org.xtreemfs.osd.storage.UnsyncedWrite;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+
+/**
+ * Makes synchronous writes durable in batches. Storage threads hand over the
+ * open object files of completed writes instead of syncing them one by one.
+ * The stage forces all pending files to disk and completes the writes of a
+ * batch together. The files of a batch are forced concurrently by a pool of
+ * sync threads, so that the disk can process the syncs in parallel as it did
+ * when each storage thread synced its own writes.
+ * <p>
+ * A batch is started as soon as a write is pending. If the previous batch
+ * contained more than one write, i.e. if there are concurrent synchronous
+ * writers, the stage waits up to the configured delay for further writes to
+ * join the batch. Hence, the latency of a single synchronous writer is not
+ * increased.
+ */
+public class GroupCommitStage extends Stage {
+
+    public static final int    STAGEOP_SYNC      = 0;
+
+    public static final int    STAGEOP_NONE      = 1;
+
+    /**
+     * maximum number of writes that are completed in one batch
+     */
+    public static final int    MAX_BATCH_SIZE    = 256;
+
+    private final long         maxDelayNanos;
+
+    private final ExecutorService syncThreads;
+
+    private final List<StageRequest> batch;
+
+    // JCIP @GuardedBy(this)
+    private boolean            stopped;
+
+    private int                lastBatchSize;
+
+    private final AtomicLong   numBatches;
+
+    private final AtomicLong   numWrites;
+
+    private final AtomicLong   maxBatchSize;
+
+    private final AtomicLong   sumFlushNanos;
+
+    private final AtomicLong   maxFlushNanos;
+
+    /**
+     * @param maxDelayMs
+     *            the maximum time a write waits for others to join its batch
+     * @param numSyncThreads
+     *            the maximum number of files that are forced concurrently
+     */
+    public GroupCommitStage(int maxDelayMs, int numSyncThreads) {
+
+        super("OSD GroupCommit", Integer.MAX_VALUE);
+
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.syncThreads = Executors.newFixedThreadPool(numSyncThreads, new ThreadFactory() {
+            private int num;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "OSD GroupCommit sync " + num++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.batch = new ArrayList<StageRequest>(MAX_BATCH_SIZE);
+        this.numBatches = new AtomicLong();
+        this.numWrites = new AtomicLong();
+        this.maxBatchSize = new AtomicLong();
+        this.sumFlushNanos = new AtomicLong();
+        this.maxFlushNanos = new AtomicLong();
+    }
+
+    /**
+     * Forces the object file of the given write to disk and closes it.
+     * Afterwards, the response is passed to the callback, or an EIO error if
+     * the file could not be synced. The callback is invoked by the group
+     * commit thread and should hand the completion of the write over to the
+     * storage thread of the file (see
+     * {@link StorageStage#writeSynced(String, org.xtreemfs.common.xloc.StripingPolicyImpl, UnsyncedWrite, OSDWriteResponse, ErrorResponse, WriteObjectCallback)}
+     * ).
+     */
+    public void sync(UnsyncedWrite write, OSDWriteResponse response, WriteObjectCallback callback) {
+
+        synchronized (this) {
+            if (!stopped) {
+                enqueueOperation(STAGEOP_SYNC, new Object[] { write, response }, null, callback);
+                return;
+            }
+        }
+
+        // the stage has already been shut down
+        List<StageRequest> rqs = new ArrayList<StageRequest>(1);
+        rqs.add(new StageRequest(STAGEOP_SYNC, new Object[] { write, response }, null, callback));
+        processBatch(rqs);
+    }
+
+    /**
+     * Shuts the stage down. Pending writes are completed before the stage
+     * terminates. In contrast to other stages, the thread is not interrupted,
+     * as this would close the files that are currently being synced.
+     */
+    @Override
+    public void shutdown() {
+        this.quit = true;
+        enqueueOperation(STAGEOP_NONE, new Object[0], null, null);
+    }
+
+    @Override
+    public void run() {
+
+        notifyStarted();
+
+        while (!quit) {
+            try {
+                batch.add(q.take());
+
+                if (lastBatchSize > 1 && maxDelayNanos > 0) {
+                    // other writers are active; wait for them to join the batch
+                    final long deadline = System.nanoTime() + maxDelayNanos;
+                    while (batch.size() < MAX_BATCH_SIZE) {
+                        final long wait = deadline - System.nanoTime();
+                        if (wait <= 0)
+                            break;
+                        final StageRequest rq = q.poll(wait, TimeUnit.NANOSECONDS);
+                        if (rq == null)
+                            break;
+                        batch.add(rq);
+                    }
+                }
+                q.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+
+                processBatch(batch);
+                batch.clear();
+
+            } catch (InterruptedException ex) {
+                break;
+            } catch (Throwable ex) {
+                this.notifyCrashed(ex);
+                return;
+            }
+        }
+
+        // complete all writes that are still pending
+        synchronized (this) {
+            stopped = true;
+            q.drainTo(batch);
+        }
+        processBatch(batch);
+        batch.clear();
+        syncThreads.shutdown();
+
+        notifyStopped();
+    }
+
+    @Override
+    protected void processMethod(StageRequest method) {
+        throw new UnsupportedOperationException("requests are processed in batches");
+    }
+
+    private void processBatch(List<StageRequest> rqs) {
+
+        final long start = System.nanoTime();
+
+        // force all files before completing any write
+        ErrorResponse[] errors = new ErrorResponse[rqs.size()];
+        List<Future<ErrorResponse>> syncs = new ArrayList<Future<ErrorResponse>>(rqs.size());
+        int numSyncs = 0;
+        for (int i = 0; i < rqs.size(); i++) {
+            final StageRequest rq = rqs.get(i);
+            if (rq.getStageMethod() != STAGEOP_SYNC) {
+                syncs.add(null);
+                continue;
+            }
+
+            numSyncs++;
+            final UnsyncedWrite write = (UnsyncedWrite) rq.getArgs()[0];
+            Future<ErrorResponse> sync = null;
+            try {
+                sync = syncThreads.submit(new Callable<ErrorResponse>() {
+                    public ErrorResponse call() {
+                        return sync(write);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // the stage has already been shut down
+                errors[i] = sync(write);
+            }
+            syncs.add(sync);
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < syncs.size(); i++) {
+            final Future<ErrorResponse> sync = syncs.get(i);
+            while (sync != null) {
+                try {
+                    errors[i] = sync.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    // the file is still being synced
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Logging.logError(Logging.LEVEL_ERROR, this, ex.getCause());
+                    errors[i] = ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex
+                            .getCause().toString());
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        final long duration = System.nanoTime() - start;
+
+        for (int i = 0; i < rqs.size(); i++) {
+            final StageRequest rq = rqs.get(i);
+            if (rq.getStageMethod() != STAGEOP_SYNC)
+                continue;
+
+            final WriteObjectCallback cback = (WriteObjectCallback) rq.getCallback();
+            if (errors[i] == null) {
+                cback.writeComplete((OSDWriteResponse) rq.getArgs()[1], null);
+            } else {
+                cback.writeComplete(null, errors[i]);
+            }
+        }
+
+        if (numSyncs > 0) {
+            lastBatchSize = numSyncs;
+            numBatches.incrementAndGet();
+            numWrites.addAndGet(numSyncs);
+            sumFlushNanos.addAndGet(duration);
+            updateMax(maxBatchSize, numSyncs);
+            updateMax(maxFlushNanos, duration);
+
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                        "synced %d object files in %d us", numSyncs, duration / 1000);
+            }
+        }
+    }
+
+    /**
+     * @return <code>null</code> if the write has been synced, or the error
+     */
+    private ErrorResponse sync(UnsyncedWrite write) {
+        try {
+            write.sync();
+            return null;
+        } catch (IOException ex) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "Failed to sync object file to disk: %s", ex.toString());
+            return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString());
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    /**
+     * Get the number of batches that have been synced.
+     */
+    public long getNumBatches() {
+        return numBatches.get();
+    }
+
+    /**
+     * Get the number of writes that have been made durable.
+     */
+    public long getNumWrites() {
+        return numWrites.get();
+    }
+
+    public double getAverageBatchSize() {
+        final long batches = numBatches.get();
+        return batches == 0 ? 0 : (double) numWrites.get() / batches;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * Get the average time needed to sync a batch in milliseconds.
+     */
+    public double getAverageFlushLatency() {
+        final long batches = numBatches.get();
+        return batches == 0 ? 0 : sumFlushNanos.get() / 1e6 / batches;
+    }
+
+    /**
+     * Get the maximum time needed to sync a batch in milliseconds.
+     */
+    public double getMaxFlushLatency() {
+        return maxFlushNanos.get() / 1e6;
+    }
+
+}
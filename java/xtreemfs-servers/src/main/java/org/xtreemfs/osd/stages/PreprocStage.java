@@ -9,16 +9,14 @@
 package org.xtreemfs.osd.stages;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.ReplicaUpdatePolicies;
 import org.xtreemfs.common.xloc.InvalidXLocationsException;
 import org.xtreemfs.common.xloc.XLocations;
-import org.xtreemfs.foundation.LRUCache;
 import org.xtreemfs.foundation.TimeSync;
 import org.xtreemfs.foundation.buffer.ASCIIString;
 import org.xtreemfs.foundation.logging.Logging;
@@ -28,10 +26,13 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.MessageType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.server.RPCServerConnectionInterface;
 import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferInputStream;
+import org.xtreemfs.foundation.util.LatencyHistogram;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.osd.AdvisoryLock;
+import org.xtreemfs.osd.CapabilityCache;
 import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
 import org.xtreemfs.osd.OpenFileTable;
@@ -56,6 +57,15 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
 
 import com.google.protobuf.Message;
 
+/**
+ * Parses and authenticates incoming requests, and keeps track of open files, advisory locks and the XLocSet views
+ * of files. The stage consists of several preprocessing threads; the state of a file is owned by the thread its file
+ * ID is mapped to, so that requests for different files may be processed in parallel.
+ * <p>
+ * A request is parsed by the thread its connection is mapped to, which preserves the order of the requests received
+ * via the same connection. Once its file ID is known, the request is passed on to the thread of the file, unless it
+ * is the same thread.
+ */
 public class PreprocStage extends Stage {
     
     public final static int                                 STAGEOP_PARSE_AUTH_OFTOPEN = 1;
@@ -82,26 +92,23 @@ public class PreprocStage extends Stage {
 
     public final static int                                 STAGEOP_UPDATE_XLOC        = 17;
 
+    public final static int                                 STAGEOP_OPEN_FILE          = 18;
+
     private final static long                               OFT_CLEAN_INTERVAL         = 1000 * 60;
     
     private final static long                               OFT_OPEN_EXTENSION         = 1000 * 30;
     
-    private final Map<String, LRUCache<String, Capability>> capCache;
-    
-    private final OpenFileTable                             oft;
-    
-    // time left to next clean op
-    private long                                            timeToNextOFTclean;
+    private final CapabilityCache                           capCache;
     
-    // last check of the OFT
-    private long                                            lastOFTcheck;
+    private final PreprocThread[]                           threads;
     
-    private volatile long                                   numRequests;
+    private final AtomicLong                                numRequests;
     
     /**
-     * X-Location cache
+     * time needed to parse, authenticate and register requests, including
+     * the time a request waits to be passed on to the thread of its file
      */
-    private final LRUCache<String, XLocations>              xLocCache;
+    private final LatencyHistogram                          prepareLatency;
     
     private final MetadataCache                             metadataCache;
     
@@ -116,20 +123,53 @@ public class PreprocStage extends Stage {
     /** Creates a new instance of AuthenticationStage */
     public PreprocStage(OSDRequestDispatcher master, MetadataCache metadataCache, StorageLayout layout,
             int maxRequestsQueueLength) {
+        this(master, metadataCache, layout, 1, maxRequestsQueueLength);
+    }
+    
+    /**
+     * @param numOfThreads
+     *            the number of preprocessing threads
+     */
+    public PreprocStage(OSDRequestDispatcher master, MetadataCache metadataCache, StorageLayout layout,
+            int numOfThreads, int maxRequestsQueueLength) {
         
         super("OSD PreProcSt", maxRequestsQueueLength);
         
-        capCache = new HashMap();
-        oft = new OpenFileTable();
-        xLocCache = new LRUCache<String, XLocations>(10000);
+        capCache = new CapabilityCache(MAX_CAP_CACHE);
+        prepareLatency = new LatencyHistogram();
+        numRequests = new AtomicLong();
         this.master = master;
         this.metadataCache = metadataCache;
         this.layout = layout;
         this.ignoreCaps = master.getConfig().isIgnoreCaps();
+        
+        threads = new PreprocThread[Math.max(numOfThreads, 1)];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new PreprocThread(i, maxRequestsQueueLength);
+            threads[i].setLifeCycleListener(master);
+        }
+    }
+    
+    /**
+     * Returns the thread owning the state of the given file.
+     */
+    private PreprocThread getThread(String fileId) {
+        return threads[(fileId.hashCode() & Integer.MAX_VALUE) % threads.length];
+    }
+    
+    /**
+     * Returns the thread parsing the requests received via the given
+     * connection.
+     */
+    private PreprocThread getThread(RPCServerConnectionInterface connection) {
+        if (connection == null)
+            return threads[0];
+        return threads[(System.identityHashCode(connection) & Integer.MAX_VALUE) % threads.length];
     }
     
     public void prepareRequest(OSDRequest request, ParseCompleteCallback listener) {
-        this.enqueueOperation(STAGEOP_PARSE_AUTH_OFTOPEN, new Object[] { request }, null, listener);
+        getThread(request.getRPCRequest().getConnection()).enqueueOperation(STAGEOP_PARSE_AUTH_OFTOPEN,
+            new Object[] { request }, null, listener);
     }
     
     public static interface ParseCompleteCallback {
@@ -137,11 +177,12 @@ public class PreprocStage extends Stage {
         public void parseComplete(OSDRequest result, ErrorResponse error);
     }
     
-    private void doPrepareRequest(StageRequest rq) {
+    private void doPrepareRequest(StageRequest rq, PreprocThread thread) {
         final OSDRequest request = (OSDRequest) rq.getArgs()[0];
         final ParseCompleteCallback callback = (ParseCompleteCallback) rq.getCallback();
+        final long start = System.nanoTime();
         
-        numRequests++;
+        numRequests.incrementAndGet();
         
         if (parseRequest(request) == false)
             return;
@@ -161,6 +202,35 @@ public class PreprocStage extends Stage {
             }
         }
         
+        // continue at the thread owning the file
+        String fileId = request.getFileId();
+        PreprocThread fileThread = fileId == null ? thread : getThread(fileId);
+        if (fileThread != thread) {
+            fileThread.enqueueOperation(STAGEOP_OPEN_FILE, new Object[] { request, start }, null, callback);
+            return;
+        }
+        
+        doOpenFile(request, callback, thread);
+        prepareLatency.record(System.nanoTime() - start);
+    }
+    
+    private void doOpenFile(StageRequest rq, PreprocThread thread) {
+        final OSDRequest request = (OSDRequest) rq.getArgs()[0];
+        final long start = (Long) rq.getArgs()[1];
+        final ParseCompleteCallback callback = (ParseCompleteCallback) rq.getCallback();
+        
+        doOpenFile(request, callback, thread);
+        prepareLatency.record(System.nanoTime() - start);
+    }
+    
+    /**
+     * Validates the view of a parsed request and registers its file in the
+     * open file table of the thread owning the file.
+     */
+    private void doOpenFile(OSDRequest request, ParseCompleteCallback callback, PreprocThread thread) {
+        
+        final OpenFileTable oft = thread.oft;
+        
         // Check if the request is from the same view (same XLocationSet version) and install newer one.
         if (!request.getOperation().bypassViewValidation() && request.getLocationList() != null) {
             if (Logging.isDebug())
@@ -246,10 +316,10 @@ public class PreprocStage extends Stage {
     }
     
     public void pingFile(String fileId) {
-        this.enqueueOperation(STAGEOP_PING_FILE, new Object[] { fileId }, null, null);
+        getThread(fileId).enqueueOperation(STAGEOP_PING_FILE, new Object[] { fileId }, null, null);
     }
     
-    private void doPingFile(StageRequest m) {
+    private void doPingFile(StageRequest m, OpenFileTable oft) {
         
         final String fileId = (String) m.getArgs()[0];
         
@@ -259,7 +329,7 @@ public class PreprocStage extends Stage {
     }
     
     public void checkDeleteOnClose(String fileId, DeleteOnCloseCallback listener) {
-        this.enqueueOperation(STAGEOP_OFT_DELETE, new Object[] { fileId }, null, listener);
+        getThread(fileId).enqueueOperation(STAGEOP_OFT_DELETE, new Object[] { fileId }, null, listener);
     }
     
     public static interface DeleteOnCloseCallback {
@@ -267,7 +337,7 @@ public class PreprocStage extends Stage {
         public void deleteOnCloseResult(boolean isDeleteOnClose, ErrorResponse error);
     }
     
-    private void doCheckDeleteOnClose(StageRequest m) {
+    private void doCheckDeleteOnClose(StageRequest m, OpenFileTable oft) {
         
         final String fileId = (String) m.getArgs()[0];
         final DeleteOnCloseCallback callback = (DeleteOnCloseCallback) m.getCallback();
@@ -286,11 +356,11 @@ public class PreprocStage extends Stage {
     
     public void acquireLock(String clientUuid, int pid, String fileId, long offset, long length,
         boolean exclusive, OSDRequest request, LockOperationCompleteCallback listener) {
-        this.enqueueOperation(STAGEOP_ACQUIRE_LOCK, new Object[] { clientUuid, pid, fileId, offset, length,
+        getThread(fileId).enqueueOperation(STAGEOP_ACQUIRE_LOCK, new Object[] { clientUuid, pid, fileId, offset, length,
             exclusive }, request, listener);
     }
     
-    public void doAcquireLock(StageRequest m) {
+    private void doAcquireLock(StageRequest m, OpenFileTable oft) {
         final LockOperationCompleteCallback callback = (LockOperationCompleteCallback) m.getCallback();
         try {
             final String clientUuid = (String) m.getArgs()[0];
@@ -321,11 +391,11 @@ public class PreprocStage extends Stage {
     
     public void checkLock(String clientUuid, int pid, String fileId, long offset, long length,
         boolean exclusive, OSDRequest request, LockOperationCompleteCallback listener) {
-        this.enqueueOperation(STAGEOP_CHECK_LOCK, new Object[] { clientUuid, pid, fileId, offset, length,
+        getThread(fileId).enqueueOperation(STAGEOP_CHECK_LOCK, new Object[] { clientUuid, pid, fileId, offset, length,
             exclusive }, request, listener);
     }
     
-    public void doCheckLock(StageRequest m) {
+    private void doCheckLock(StageRequest m, OpenFileTable oft) {
         final LockOperationCompleteCallback callback = (LockOperationCompleteCallback) m.getCallback();
         try {
             final String clientUuid = (String) m.getArgs()[0];
@@ -352,10 +422,10 @@ public class PreprocStage extends Stage {
     
     public void unlock(String clientUuid, int pid, String fileId, OSDRequest request,
         LockOperationCompleteCallback listener) {
-        this.enqueueOperation(STAGEOP_UNLOCK, new Object[] { clientUuid, pid, fileId }, request, listener);
+        getThread(fileId).enqueueOperation(STAGEOP_UNLOCK, new Object[] { clientUuid, pid, fileId }, request, listener);
     }
     
-    public void doUnlock(StageRequest m) {
+    private void doUnlock(StageRequest m, OpenFileTable oft) {
         final LockOperationCompleteCallback callback = (LockOperationCompleteCallback) m.getCallback();
         try {
             final String clientUuid = (String) m.getArgs()[0];
@@ -386,14 +456,14 @@ public class PreprocStage extends Stage {
      * @param listener
      */
     public void close(String fileId, CloseCallback listener) {
-        this.enqueueOperation(STAGEOP_CLOSE_FILE, new Object[] { fileId }, null, listener);
+        getThread(fileId).enqueueOperation(STAGEOP_CLOSE_FILE, new Object[] { fileId }, null, listener);
     }
 
     public static interface CloseCallback {
         public void closeResult( OpenFileTableEntry entry, ErrorResponse error);
     }
 
-    private void doClose(StageRequest m) {
+    private void doClose(StageRequest m, OpenFileTable oft) {
 
         final String fileId = (String) m.getArgs()[0];
         final CloseCallback callback = (CloseCallback) m.getCallback();
@@ -401,59 +471,49 @@ public class PreprocStage extends Stage {
         OpenFileTableEntry entry = oft.close(fileId);
 
         if(entry != null && entry.getFileId() != null) {
-            LRUCache<String, Capability> cachedCaps = capCache.remove(entry.getFileId());
+            capCache.remove(entry.getFileId());
             callback.closeResult(entry, null);
         }
     }
 
     @Override
     public void run() {
-        
-        notifyStarted();
-        
-        // interval to check the OFT
-        
-        timeToNextOFTclean = OFT_CLEAN_INTERVAL;
-        lastOFTcheck = TimeSync.getLocalSystemTime();
-        
-        while (!quit) {
-            try {
-                final StageRequest op = q.poll(timeToNextOFTclean, TimeUnit.MILLISECONDS);
-                
-                checkOpenFileTable(false);
-                
-                if (op == null) {
-                    // Logging.logMessage(Logging.LEVEL_DEBUG,this,"no request
-                    // -- timer only");
-                    continue;
-                }
-                
-                processMethod(op);
-                
-            } catch (InterruptedException ex) {
-                break;
-            } catch (Throwable ex) {
-                notifyCrashed(ex);
-                break;
-            }
-        }
-        
-        notifyStopped();
+        // start all preprocessing threads
+        for (PreprocThread th : threads)
+            th.start();
+    }
+    
+    @Override
+    public void shutdown() {
+        for (PreprocThread th : threads)
+            th.shutdown();
+    }
+    
+    @Override
+    public void waitForStartup() throws Exception {
+        // wait for all preprocessing threads to be ready
+        for (PreprocThread th : threads)
+            th.waitForStartup();
+    }
+    
+    @Override
+    public void waitForShutdown() throws Exception {
+        // wait for all preprocessing threads to be shut down
+        for (PreprocThread th : threads)
+            th.waitForShutdown();
     }
     
     /**
-     * Removes all open files from the {@link OpenFileTable} whose time has expired and triggers for each file
-     * the internal event {@link EventCloseFile} or {@link EventCreateFileVersion}.
+     * Removes all open files from the {@link OpenFileTable} of a thread whose time has expired and triggers for each
+     * file the internal event {@link EventCloseFile} or {@link EventCreateFileVersion}.
      * 
      * @param force
      *            If true, force the cleaning and do not respect the cleaning interval.
      */
-    private void checkOpenFileTable(boolean force) {
-        final long tPassed = TimeSync.getLocalSystemTime() - lastOFTcheck;
-        timeToNextOFTclean = timeToNextOFTclean - tPassed;
-        // Logging.logMessage(Logging.LEVEL_DEBUG,this,"time to next OFT:
-        // "+timeToNextOFTclean);
-        if (force || timeToNextOFTclean <= 0) {
+    private void checkOpenFileTable(PreprocThread thread, boolean force) {
+        final long tPassed = TimeSync.getLocalSystemTime() - thread.lastOFTcheck;
+        thread.timeToNextOFTclean = thread.timeToNextOFTclean - tPassed;
+        if (force || thread.timeToNextOFTclean <= 0) {
             
             if (Logging.isDebug())
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "OpenFileTable clean");
@@ -461,9 +521,7 @@ public class PreprocStage extends Stage {
             long currentTime = TimeSync.getLocalSystemTime();
             
             // do OFT clean
-            List<OpenFileTableEntry> closedFiles = oft.clean(currentTime);
-            // Logging.logMessage(Logging.LEVEL_DEBUG,this,"closing
-            // "+closedFiles.size()+" files");
+            List<OpenFileTableEntry> closedFiles = thread.oft.clean(currentTime);
             for (OpenFileTableEntry entry : closedFiles) {
                 
                 if (Logging.isDebug())
@@ -484,7 +542,7 @@ public class PreprocStage extends Stage {
             
             // Check if written files need to be versioned (copied on write). If the file has been already closed it
             // unnecessary to create another version because EventCloseFile already did.
-            List<OpenFileTableEntry> closedWrittenFiles = oft.cleanWritten(currentTime);
+            List<OpenFileTableEntry> closedWrittenFiles = thread.oft.cleanWritten(currentTime);
             for (OpenFileTableEntry entry : closedWrittenFiles) {
                 if (!entry.isClosed() && entry.isWrite()) {
                     entry.clearWrite();
@@ -495,37 +553,44 @@ public class PreprocStage extends Stage {
                 }
             }
 
-            timeToNextOFTclean = OFT_CLEAN_INTERVAL;
+            thread.timeToNextOFTclean = OFT_CLEAN_INTERVAL;
         }
-        lastOFTcheck = TimeSync.getLocalSystemTime();
+        thread.lastOFTcheck = TimeSync.getLocalSystemTime();
     }
     
     @Override
     protected void processMethod(StageRequest m) {
+        throw new UnsupportedOperationException("requests are processed by the preprocessing threads");
+    }
+    
+    private void processMethod(StageRequest m, PreprocThread thread) {
         
         final int requestedMethod = m.getStageMethod();
         
         switch (requestedMethod) {
         case STAGEOP_PARSE_AUTH_OFTOPEN:
-            doPrepareRequest(m);
+            doPrepareRequest(m, thread);
+            break;
+        case STAGEOP_OPEN_FILE:
+            doOpenFile(m, thread);
             break;
         case STAGEOP_OFT_DELETE:
-            doCheckDeleteOnClose(m);
+            doCheckDeleteOnClose(m, thread.oft);
             break;
         case STAGEOP_ACQUIRE_LOCK:
-            doAcquireLock(m);
+            doAcquireLock(m, thread.oft);
             break;
         case STAGEOP_CHECK_LOCK:
-            doCheckLock(m);
+            doCheckLock(m, thread.oft);
             break;
         case STAGEOP_UNLOCK:
-            doUnlock(m);
+            doUnlock(m, thread.oft);
             break;
         case STAGEOP_PING_FILE:
-            doPingFile(m);
+            doPingFile(m, thread.oft);
             break;
         case STAGEOP_CLOSE_FILE:
-            doClose(m);
+            doClose(m, thread.oft);
             break;
         case STAGEOP_INVALIDATE_XLOC:
             doInvalidateXLocSet(m);
@@ -635,32 +700,9 @@ public class PreprocStage extends Stage {
         if (ignoreCaps)
             return null;
         
-        // check if the capability is valid
-        boolean isValid = false;
-        // look in capCache
-        LRUCache<String, Capability> cachedCaps = capCache.get(rqCap.getFileId());
-        if (cachedCaps != null) {
-            final Capability cap = cachedCaps.get(rqCap.getSignature());
-            if (cap != null) {
-                if (Logging.isDebug()) {
-                    Logging.logMessage(Logging.LEVEL_DEBUG, this, "using cached cap: %s %s", cap.getFileId(),
-                        cap.getSignature());
-                }
-                isValid = !cap.hasExpired();
-            }
-        }
-                
-        if (!isValid) {
-            isValid = rqCap.isValid();
-            if (isValid) {
-                // add to cache
-                if (cachedCaps == null) {
-                    cachedCaps = new LRUCache<String, Capability>(MAX_CAP_CACHE);
-                    capCache.put(rqCap.getFileId(), cachedCaps);
-                }
-                cachedCaps.put(rqCap.getSignature(), rqCap);
-            }
-        }
+        // check if the capability is valid; the signature is only checked if
+        // the capability has not been verified before
+        final boolean isValid = capCache.isValid(rqCap);
         
         // depending on the result the event listener is sent
         if (!isValid) {
@@ -767,7 +809,8 @@ public class PreprocStage extends Stage {
      * Process a viewIdChangeEvent from flease and update the persistent version/state
      */
     public void updateXLocSetFromFlease(ASCIIString cellId, int version) {
-        enqueueOperation(STAGEOP_UPDATE_XLOC, new Object[] { cellId, version }, null, null);
+        getThread(ReplicaUpdatePolicy.cellToFileId(cellId)).enqueueOperation(STAGEOP_UPDATE_XLOC,
+            new Object[] { cellId, version }, null, null);
     }
 
     private void doUpdateXLocSetFromFlease(StageRequest m) {
@@ -817,7 +860,8 @@ public class PreprocStage extends Stage {
      */
     public void invalidateXLocSet(OSDRequest request, FileCredentials fileCreds, boolean validateView,
             InvalidateXLocSetCallback listener) {
-        enqueueOperation(STAGEOP_INVALIDATE_XLOC, new Object[] { fileCreds, validateView }, request, listener);
+        getThread(request.getFileId()).enqueueOperation(STAGEOP_INVALIDATE_XLOC,
+            new Object[] { fileCreds, validateView }, request, listener);
     }
 
     private void doInvalidateXLocSet(StageRequest m) {
@@ -874,11 +918,98 @@ public class PreprocStage extends Stage {
     }
 
     public int getNumOpenFiles() {
-        return oft.getNumOpenFiles();
+        int numOpenFiles = 0;
+        for (PreprocThread th : threads)
+            numOpenFiles += th.oft.getNumOpenFiles();
+        return numOpenFiles;
     }
     
     public long getNumRequests() {
-        return numRequests;
+        return numRequests.get();
+    }
+    
+    @Override
+    public int getQueueLength() {
+        int length = 0;
+        for (PreprocThread th : threads)
+            length += th.getQueueLength();
+        return length;
+    }
+    
+    /**
+     * Get the number of requests queued at the given preprocessing thread.
+     */
+    public int getQueueLength(int thread) {
+        return threads[thread].getQueueLength();
+    }
+    
+    public int getNumThreads() {
+        return threads.length;
+    }
+    
+    public LatencyHistogram getPrepareLatency() {
+        return prepareLatency;
+    }
+    
+    public CapabilityCache getCapabilityCache() {
+        return capCache;
+    }
+    
+    /**
+     * A preprocessing thread. It owns the open file table of the files
+     * mapped to it, which it cleans periodically.
+     */
+    private final class PreprocThread extends Stage {
+        
+        private final OpenFileTable oft;
+        
+        // time left to next clean op
+        private long                timeToNextOFTclean;
+        
+        // last check of the OFT
+        private long                lastOFTcheck;
+        
+        PreprocThread(int id, int maxRequestsQueueLength) {
+            super("OSD PreProcThr " + id, maxRequestsQueueLength);
+            oft = new OpenFileTable();
+        }
+        
+        @Override
+        public void run() {
+            
+            notifyStarted();
+            
+            // interval to check the OFT
+            
+            timeToNextOFTclean = OFT_CLEAN_INTERVAL;
+            lastOFTcheck = TimeSync.getLocalSystemTime();
+            
+            while (!quit) {
+                try {
+                    final StageRequest op = q.poll(timeToNextOFTclean, TimeUnit.MILLISECONDS);
+                    
+                    checkOpenFileTable(this, false);
+                    
+                    if (op == null)
+                        continue;
+                    
+                    processMethod(op);
+                    
+                } catch (InterruptedException ex) {
+                    break;
+                } catch (Throwable ex) {
+                    notifyCrashed(ex);
+                    break;
+                }
+            }
+            
+            notifyStopped();
+        }
+        
+        @Override
+        protected void processMethod(StageRequest m) {
+            PreprocStage.this.processMethod(m, this);
+        }
     }
     
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.stages;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.xtreemfs.osd.stages.Stage.StageRequest;
+
+/**
+ * Distributes the requests of the storage stage among the storage threads.
+ * <p>
+ * Requests are queued per file. A file queue is processed by at most one
+ * storage thread at a time, which preserves the order of all requests for the
+ * same file. New file queues are assigned to the thread the file ID hashes to.
+ * If work stealing is enabled, a storage thread that runs out of work takes
+ * over a whole file queue that is waiting at the thread with the longest
+ * queue, so that files which hash to the same thread do not have to wait for
+ * each other while other threads are idle.
+ */
+public class StorageScheduler {
+
+    /**
+     * Maximum number of requests of a single file that are processed in a row
+     * while other files are waiting at the same thread.
+     */
+    public static final int                 BATCH_SIZE = 16;
+
+    /**
+     * The requests of a single file.
+     */
+    public static final class FileQueue {
+
+        private final String                   fileId;
+
+        private final ArrayDeque<StageRequest> requests;
+
+        /**
+         * the thread the queue is currently assigned to
+         */
+        private int                            owner;
+
+        private FileQueue(String fileId, int owner) {
+            this.fileId = fileId;
+            this.owner = owner;
+            this.requests = new ArrayDeque<StageRequest>();
+        }
+
+        public String getFileId() {
+            return fileId;
+        }
+    }
+
+    private final ReentrantLock                 lock;
+
+    /**
+     * file queues which contain requests or are being processed
+     */
+    // JCIP @GuardedBy("lock")
+    private final Map<String, FileQueue>        fileQueues;
+
+    /**
+     * file queues waiting to be processed, per thread
+     */
+    // JCIP @GuardedBy("lock")
+    private final ArrayDeque<FileQueue>[]       runQueues;
+
+    /**
+     * number of queued requests, per thread
+     */
+    // JCIP @GuardedBy("lock")
+    private final int[]                         queueLengths;
+
+    // JCIP @GuardedBy("lock")
+    private final boolean[]                     idle;
+
+    private final Condition[]                   workAvailable;
+
+    private final int                           maxQueueLength;
+
+    private final boolean                       workStealing;
+
+    // JCIP @GuardedBy("lock")
+    private long                                numStolen;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param numThreads
+     *            number of storage threads
+     * @param maxQueueLength
+     *            maximum number of external requests queued at a single
+     *            thread
+     * @param workStealing
+     *            if idle threads may take over file queues of busy threads
+     */
+    @SuppressWarnings("unchecked")
+    public StorageScheduler(int numThreads, int maxQueueLength, boolean workStealing) {
+        this.lock = new ReentrantLock();
+        this.fileQueues = new HashMap<String, FileQueue>();
+        this.runQueues = new ArrayDeque[numThreads];
+        this.queueLengths = new int[numThreads];
+        this.idle = new boolean[numThreads];
+        this.workAvailable = new Condition[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            runQueues[i] = new ArrayDeque<FileQueue>();
+            workAvailable[i] = lock.newCondition();
+        }
+        this.maxQueueLength = maxQueueLength;
+        this.workStealing = workStealing;
+    }
+
+    /**
+     * Appends a request to the queue of the given file. External requests
+     * (i.e. requests with an {@link org.xtreemfs.osd.OSDRequest}) are rejected
+     * if the thread the file queue is assigned to has reached the maximum
+     * queue length.
+     *
+     * @return false, if the request was rejected
+     */
+    public boolean enqueue(String fileId, StageRequest rq) {
+        lock.lock();
+        try {
+            FileQueue fq = fileQueues.get(fileId);
+            int thread = fq == null ? getHomeThread(fileId) : fq.owner;
+
+            if (rq.getRequest() != null && queueLengths[thread] >= maxQueueLength)
+                return false;
+
+            queueLengths[thread]++;
+            if (fq == null) {
+                fq = new FileQueue(fileId, thread);
+                fq.requests.add(rq);
+                fileQueues.put(fileId, fq);
+                runQueues[thread].add(fq);
+                signal(thread);
+            } else {
+                fq.requests.add(rq);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a file queue is available for the given thread. The thread
+     * has to process the queue by means of {@link #next(FileQueue, int)} until
+     * <code>null</code> is returned.
+     */
+    public FileQueue take(int thread) throws InterruptedException {
+        lock.lock();
+        try {
+            for (;;) {
+                FileQueue fq = runQueues[thread].poll();
+                if (fq == null && workStealing)
+                    fq = steal(thread);
+                if (fq != null)
+                    return fq;
+
+                idle[thread] = true;
+                try {
+                    workAvailable[thread].await();
+                } finally {
+                    idle[thread] = false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next request of a file queue obtained from
+     * {@link #take(int)}, or <code>null</code> if the queue is empty or has to
+     * yield to other files.
+     *
+     * @param processed
+     *            the number of requests already processed since the queue was
+     *            taken
+     */
+    public StageRequest next(FileQueue fq, int processed) {
+        lock.lock();
+        try {
+            if (fq.requests.isEmpty()) {
+                fileQueues.remove(fq.fileId);
+                return null;
+            }
+
+            if (processed >= BATCH_SIZE && !runQueues[fq.owner].isEmpty()) {
+                // give the other files a chance; the queue may now be stolen
+                runQueues[fq.owner].add(fq);
+                signal(fq.owner);
+                return null;
+            }
+
+            queueLengths[fq.owner]--;
+            return fq.requests.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the thread a file queue is initially assigned to.
+     */
+    public int getHomeThread(String fileId) {
+        assert (fileId != null);
+        int hash = fileId.hashCode();
+        if (hash == Integer.MIN_VALUE) {
+            return 0;
+        }
+        return Math.abs(hash) % runQueues.length;
+    }
+
+    public int getNumThreads() {
+        return runQueues.length;
+    }
+
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    public boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    /**
+     * Get the number of requests queued at the given thread.
+     */
+    public int getQueueLength(int thread) {
+        lock.lock();
+        try {
+            return queueLengths[thread];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of requests queued at all threads.
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            int len = 0;
+            for (int l : queueLengths)
+                len += l;
+            return len;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of file queues taken over by idle threads so far.
+     */
+    public long getNumStolen() {
+        lock.lock();
+        try {
+            return numStolen;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up the given thread if it is idle. Otherwise, another idle thread
+     * is woken up which may steal the work.
+     */
+    // JCIP @GuardedBy("lock")
+    private void signal(int thread) {
+        if (idle[thread]) {
+            idle[thread] = false;
+            workAvailable[thread].signal();
+            return;
+        }
+        if (!workStealing)
+            return;
+        for (int i = 0; i < idle.length; i++) {
+            if (idle[i]) {
+                idle[i] = false;
+                workAvailable[i].signal();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes over the file queue that would be processed last by the thread
+     * with the most queued requests.
+     */
+    // JCIP @GuardedBy("lock")
+    private FileQueue steal(int thief) {
+        int victim = -1;
+        for (int i = 0; i < runQueues.length; i++) {
+            if (i != thief && !runQueues[i].isEmpty()
+                && (victim == -1 || queueLengths[i] > queueLengths[victim]))
+                victim = i;
+        }
+        if (victim == -1)
+            return null;
+
+        FileQueue fq = runQueues[victim].pollLast();
+        queueLengths[victim] -= fq.requests.size();
+        queueLengths[thief] += fq.requests.size();
+        fq.owner = thief;
+        numStolen++;
+        return fq;
+    }
+}
@@ -10,36 +10,63 @@ package org.xtreemfs.osd.stages;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.xtreemfs.common.xloc.Replica;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
 import org.xtreemfs.osd.replication.ObjectSet;
+import org.xtreemfs.osd.rwre.ObjectVersionDigest;
 import org.xtreemfs.osd.storage.CowPolicy;
 import org.xtreemfs.osd.storage.FileMetadata;
 import org.xtreemfs.osd.storage.MetadataCache;
 import org.xtreemfs.osd.storage.ObjectInformation;
 import org.xtreemfs.osd.storage.StorageLayout;
 import org.xtreemfs.osd.storage.StorageThread;
+import org.xtreemfs.osd.storage.UnsyncedWrite;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDFinalizeVouchersResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.InternalGmax;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionRangeDigest;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
 
 public class StorageStage extends Stage {
     
     private final StorageThread[] storageThreads;
+    private final StorageScheduler scheduler;
+    private final GroupCommitStage groupCommit;
     private final StorageLayout layout;
     
     /** Creates a new instance of MultithreadedStorageStage */
     public StorageStage(OSDRequestDispatcher master, MetadataCache cache, StorageLayout layout,
         int numOfThreads, int maxRequestsQueueLength) throws IOException {
+        this(master, cache, layout, numOfThreads, maxRequestsQueueLength, true);
+    }
+    
+    public StorageStage(OSDRequestDispatcher master, MetadataCache cache, StorageLayout layout,
+        int numOfThreads, int maxRequestsQueueLength, boolean workStealing) throws IOException {
+        this(master, cache, layout, numOfThreads, maxRequestsQueueLength, workStealing, false, 0);
+    }
+    
+    /**
+     * @param groupCommit
+     *            if set, synchronous writes are synced in batches by a
+     *            {@link GroupCommitStage}
+     * @param groupCommitMaxDelay
+     *            the maximum time in ms a synchronous write waits for others
+     *            to join its batch
+     */
+    public StorageStage(OSDRequestDispatcher master, MetadataCache cache, StorageLayout layout,
+        int numOfThreads, int maxRequestsQueueLength, boolean workStealing, boolean groupCommit,
+        int groupCommitMaxDelay) throws IOException {
         
         super("OSD Storage Stage", maxRequestsQueueLength);
 
@@ -49,10 +76,20 @@ public class StorageStage extends Stage {
         if (numOfThreads > 0)
             numberOfThreads = numOfThreads;
         
+        // Each storage thread gets the max. queue length as it is possible that one thread gets the whole load
+        scheduler = new StorageScheduler(numberOfThreads, maxRequestsQueueLength, workStealing);
+        
+        if (groupCommit) {
+            // as many files can be synced concurrently as without group commit
+            this.groupCommit = new GroupCommitStage(groupCommitMaxDelay, numberOfThreads);
+            this.groupCommit.setLifeCycleListener(master);
+        } else {
+            this.groupCommit = null;
+        }
+        
         storageThreads = new StorageThread[numberOfThreads];
         for (int i = 0; i < numberOfThreads; i++) {
-            // Each storage thread gets the max. queue length as it is possible that one thread gets the whole load
-            storageThreads[i] = new StorageThread(i, master, cache, layout, maxRequestsQueueLength);
+            storageThreads[i] = new StorageThread(i, master, cache, layout, scheduler, this.groupCommit);
             storageThreads[i].setLifeCycleListener(master);
         }
     }
@@ -64,8 +101,18 @@ public class StorageStage extends Stage {
     
     public void readObject(String fileId, long objNo, StripingPolicyImpl sp, int offset, int length,
         long versionTimestamp, OSDRequest request, ReadObjectCallback listener) {
+        readObject(fileId, objNo, sp, offset, length, versionTimestamp, false, request, listener);
+    }
+    
+    /**
+     * Reads an object. If <code>zeroCopy</code> is set, the data may be
+     * returned as a region of the object file instead of a buffer (see
+     * {@link ObjectInformation#getFileRegion()}).
+     */
+    public void readObject(String fileId, long objNo, StripingPolicyImpl sp, int offset, int length,
+        long versionTimestamp, boolean zeroCopy, OSDRequest request, ReadObjectCallback listener) {
         this.enqueueOperation(fileId, StorageThread.STAGEOP_READ_OBJECT, new Object[] { fileId, objNo, sp,
-            offset, length, versionTimestamp }, request, listener);
+            offset, length, versionTimestamp, zeroCopy }, request, listener);
     }
     
     public static interface ReadObjectCallback {
@@ -107,6 +154,20 @@ public class StorageStage extends Stage {
             offset, data, cow, xloc, true, sync, newVersion }, request, listener);
     }
     
+    /**
+     * Completes a synchronous write whose data has been synced by the
+     * {@link GroupCommitStage}. The write is completed by the storage thread
+     * of the file, which also deletes the data the write has replaced.
+     *
+     * @param error
+     *            <code>null</code>, if the data is on disk
+     */
+    public void writeSynced(String fileId, StripingPolicyImpl sp, UnsyncedWrite write, OSDWriteResponse response,
+        ErrorResponse error, WriteObjectCallback listener) {
+        this.enqueueOperation(fileId, StorageThread.STAGEOP_WRITE_SYNCED, new Object[] { fileId, sp, write,
+            response, error }, null, listener);
+    }
+    
     public static interface WriteObjectCallback {
         
         public void writeComplete(OSDWriteResponse result, ErrorResponse error);
@@ -180,7 +241,17 @@ public class StorageStage extends Stage {
 
     public void internalGetReplicaState(String fileId, StripingPolicyImpl sp, long remoteMaxObjVersion,
             InternalGetReplicaStateCallback callback) {
-        this.enqueueOperation(fileId, StorageThread.STAGEOP_GET_REPLICA_STATE, new Object[]{fileId,sp,remoteMaxObjVersion}, null, callback);
+        internalGetReplicaState(fileId, sp, remoteMaxObjVersion, 0, null, callback);
+    }
+
+    /**
+     * Gets the replica state, omitting the object versions of all ranges whose
+     * digests match the given ones (see {@link ObjectVersionDigest}).
+     */
+    public void internalGetReplicaState(String fileId, StripingPolicyImpl sp, long remoteMaxObjVersion,
+            int digestRangeSize, List<ObjectVersionRangeDigest> rangeDigests, InternalGetReplicaStateCallback callback) {
+        this.enqueueOperation(fileId, StorageThread.STAGEOP_GET_REPLICA_STATE, new Object[]{fileId,sp,remoteMaxObjVersion,
+                digestRangeSize, rangeDigests}, null, callback);
     }
 
     public static interface InternalGetReplicaStateCallback {
@@ -235,15 +306,21 @@ public class StorageStage extends Stage {
             
             // rq.setEnqueueNanos(System.nanoTime());
             
-            // choose the thread the new request has to be
-            // assigned to, for its execution
-            int taskId = getTaskId(fileId);
-            
-            // add the new request to the storageTask,
-            // in order to start/schedule its execution
-            // concurrently with other threads assigned to other
-            // storageTasks
-            storageThreads[taskId].enqueueOperation(stageOp, args, request, createdViewBuffer, callback);
+            // add the new request to the queue of the file; the scheduler
+            // assigns the file to a storage thread and makes sure that the
+            // requests of a file are executed in order
+            if (!scheduler.enqueue(fileId, new StageRequest(stageOp, args, request, callback))) {
+                // Make sure that the data buffer is returned to the pool if
+                // necessary, as some operations create view buffers on the
+                // data.
+                if (createdViewBuffer != null) {
+                    assert (createdViewBuffer.getRefCount() >= 2);
+                    BufferPool.free(createdViewBuffer);
+                }
+                Logging.logMessage(Logging.LEVEL_WARN, this, "stage is overloaded, request %d for %s dropped",
+                        request.getRequestId(), request.getFileId());
+                request.sendInternalServerError(new IllegalStateException("server overloaded, request dropped"));
+            }
         }
     
     @Override
@@ -251,10 +328,22 @@ public class StorageStage extends Stage {
         // start all storage threads
         for (StorageThread th : storageThreads)
             th.start();
+        if (groupCommit != null)
+            groupCommit.start();
     }
     
     @Override
     public void shutdown() {
+        // pending synchronous writes are synced before the storage threads,
+        // which complete them, are stopped
+        if (groupCommit != null) {
+            groupCommit.shutdown();
+            try {
+                groupCommit.waitForShutdown();
+            } catch (Exception ex) {
+                Logging.logError(Logging.LEVEL_ERROR, this, ex);
+            }
+        }
         for (StorageThread th : storageThreads)
             th.shutdown();
     }
@@ -264,6 +353,8 @@ public class StorageStage extends Stage {
         // wait for all storage threads to be ready
         for (StorageThread th : storageThreads)
             th.waitForStartup();
+        if (groupCommit != null)
+            groupCommit.waitForStartup();
     }
     
     @Override
@@ -271,26 +362,8 @@ public class StorageStage extends Stage {
         // wait for all storage threads to be shut down
         for (StorageThread th : storageThreads)
             th.waitForShutdown();
-    }
-    
-    private int getTaskId(String fileId) {
-        
-        // calculate a hash value from the file ID and return the responsible
-        // thread
-        assert (fileId != null);
-        int hash = fileId.hashCode();
-        if (hash == Integer.MIN_VALUE) {
-            return 0;
-        }
-        int key = Math.abs(hash);
-        int index = (key % storageThreads.length);
-        
-        // String objId = rq.getDetails().getFileId()
-        // + rq.getDetails().getObjectNumber();
-        // int key = Math.abs(objId.hashCode());
-        // int index = (key % storageThreads.length);
-        
-        return index;
+        if (groupCommit != null)
+            groupCommit.waitForShutdown();
     }
     
     @Override
@@ -300,12 +373,33 @@ public class StorageStage extends Stage {
     
     @Override
     public int getQueueLength() {
-        
-        int len = 0;
-        for(StorageThread th: storageThreads)
-            len += th.getQueueLength();
-        
-        return len;
+        return scheduler.getQueueLength();
+    }
+    
+    /**
+     * Get the number of requests queued at the given storage thread.
+     */
+    public int getQueueLength(int thread) {
+        return scheduler.getQueueLength(thread);
+    }
+    
+    public int getNumThreads() {
+        return storageThreads.length;
+    }
+    
+    /**
+     * Get the number of files taken over by idle storage threads.
+     */
+    public long getNumStolenFiles() {
+        return scheduler.getNumStolen();
+    }
+    
+    /**
+     * Get the stage that syncs synchronous writes in batches, or
+     * <code>null</code> if group commit is disabled.
+     */
+    public GroupCommitStage getGroupCommitStage() {
+        return groupCommit;
     }
     
 }
@@ -10,6 +10,7 @@ package org.xtreemfs.osd.storage;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
@@ -22,8 +23,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EmptyStackException;
 import java.util.HashMap;
 import java.util.Map;
@@ -34,6 +37,7 @@ import java.util.TreeSet;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.foundation.LRUCache;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.checksums.ChecksumAlgorithm;
 import org.xtreemfs.foundation.checksums.ChecksumFactory;
@@ -131,9 +135,44 @@ public class HashStorageLayout extends StorageLayout {
      */
     private static final int               RETRIES_INCOMPLETE_READ       = 2;
 
+    /**
+     * maximum number of file regions of zero-copy reads that may be pending at
+     * the same time; each one keeps an object file open
+     */
+    private static final int               MAX_PINNED_REGIONS            = 1024;
+
     private static final String            ERROR_MESSAGE_INCOMPLETE_READ = "Failed to read the requested number of bytes from the file on disk. Maybe there's a media error or the file was modified outside the scope of the OSD by another process?";
 
-    private final LRUCache<String, XLocSetVersionState> xLocSetVSCache;
+    // accessed by all preprocessing threads and the cleanup thread
+    private final Map<String, XLocSetVersionState> xLocSetVSCache;
+
+    /**
+     * object files opened for reading
+     */
+    private final ObjectFileCache          objectFileCache;
+
+    /**
+     * relative paths of file directories known to exist
+     */
+    private final LRUCache<String, Boolean> existingDirs;
+
+    /**
+     * object files that are being sent by zero-copy reads and must therefore
+     * not be modified in place, see {@link #copyIfPinned(String)}
+     */
+    // JCIP @GuardedBy("pinnedFiles")
+    private final Map<String, Pin>         pinnedFiles;
+
+    // JCIP @GuardedBy("pinnedFiles")
+    private int                            numPinnedRegions;
+
+    /**
+     * The pending file regions of an object file.
+     */
+    private static final class Pin {
+        // JCIP @GuardedBy("pinnedFiles")
+        int regions;
+    }
 
     /** Creates a new instance of HashStorageLayout */
     public HashStorageLayout(OSDConfig config, MetadataCache cache) throws IOException {
@@ -197,12 +236,24 @@ public class HashStorageLayout extends StorageLayout {
 
         hashedPathCache = new LRUCache<String, String>(2048);
 
-        xLocSetVSCache = new LRUCache<String, XLocSetVersionState>(2048);
+        xLocSetVSCache = Collections.synchronizedMap(new LRUCache<String, XLocSetVersionState>(2048));
+
+        objectFileCache = new ObjectFileCache(config.getStorageFDCacheSize());
+
+        existingDirs = new LRUCache<String, Boolean>(8192);
+
+        pinnedFiles = new HashMap<String, Pin>();
     }
 
     @Override
     public ObjectInformation readObject(String fileId, FileMetadata md, long objNo, int offset, int length,
             long version) throws IOException {
+        return readObject(fileId, md, objNo, offset, length, version, false);
+    }
+
+    @Override
+    public ObjectInformation readObject(String fileId, FileMetadata md, long objNo, int offset, int length,
+            long version, boolean zeroCopy) throws IOException {
 
         final int stripeSize = md.getStripingPolicy().getStripeSizeForObject(objNo);
         if (Logging.isDebug()) {
@@ -233,20 +284,20 @@ public class HashStorageLayout extends StorageLayout {
         }
 
         final long oldChecksum = md.getObjectChecksum(objNo, version);
-        String fileName = generateAbsoluteObjectPathFromFileId(fileId, objNo, version, oldChecksum);
+        final String fileName = generateAbsoluteObjectPathFromFileId(fileId, objNo, version, oldChecksum);
 
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this, "path to object on disk: %s",
                     fileName);
         }
 
-        File file = new File(fileName);
+        ObjectFileCache.Entry cachedFile = objectFileCache.acquire(fileName);
 
-        if (file.exists()) {
+        if (cachedFile != null) {
 
-            RandomAccessFile f = new RandomAccessFile(file, "r");
+            final FileChannel f = cachedFile.getChannel();
 
-            final int flength = (int) f.length();
+            final int flength = (int) f.size();
 
             try {
                 if (flength == 0) {
@@ -276,6 +327,26 @@ public class HashStorageLayout extends StorageLayout {
                     int lastoffset = offset + length;
                     assert (lastoffset <= stripeSize);
 
+                    // the file is pinned until the region has been sent, so
+                    // that it is not modified in the meantime; if too many
+                    // regions are pending, the data is read into a buffer
+                    final Pin pin = zeroCopy && !checkChecksum ? pin(fileName) : null;
+                    if (pin != null) {
+                        // the open file is released together with the region
+                        final ObjectFileCache.Entry regionFile = cachedFile;
+                        cachedFile = null;
+                        ObjectInformation oInfo = new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS,
+                                null, stripeSize);
+                        oInfo.setFileRegion(new FileRegion(f, offset, Math.min(lastoffset, flength) - offset,
+                                new Closeable() {
+                                    public void close() {
+                                        unpin(fileName, pin);
+                                        objectFileCache.release(regionFile);
+                                    }
+                                }));
+                        return oInfo;
+                    }
+
                     if (lastoffset > flength) {
                         assert (flength - offset > 0);
                         bbuf = BufferPool.allocate(flength - offset);
@@ -294,8 +365,8 @@ public class HashStorageLayout extends StorageLayout {
                                     attempt, RETRIES_INCOMPLETE_READ, fileName);
                         }
 
-                        f.getChannel().position(offset);
-                        f.getChannel().read(bbuf.getBuffer());
+                        // positional reads do not modify the state of the shared channel
+                        f.read(bbuf.getBuffer(), offset);
                         if (Logging.isDebug()) {
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
                                     "object %d is read at offset %d, %d bytes read, attempt: %d", objNo,
@@ -325,8 +396,6 @@ public class HashStorageLayout extends StorageLayout {
                         }
                     }
 
-                    f.close();
-
                     bbuf.position(0);
                     ObjectInformation oInfo = new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS,
                             bbuf, stripeSize);
@@ -356,7 +425,8 @@ public class HashStorageLayout extends StorageLayout {
                     throw new IOException(e);
                 }
             } finally {
-                f.close();
+                if (cachedFile != null)
+                    objectFileCache.release(cachedFile);
             }
 
         } else {
@@ -373,15 +443,33 @@ public class HashStorageLayout extends StorageLayout {
     @Override
     public void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo, int offset,
             long newVersion, boolean sync, boolean cow) throws IOException {
+        writeObject(fileId, md, data, objNo, offset, newVersion, sync, cow, false);
+    }
+
+    @Override
+    public UnsyncedWrite writeObjectDeferredSync(String fileId, FileMetadata md, ReusableBuffer data, long objNo,
+            int offset, long newVersion, boolean cow) throws IOException {
+        return writeObject(fileId, md, data, objNo, offset, newVersion, true, cow, true);
+    }
+
+    /**
+     * Writes the object. If <code>deferSync</code> is set, the data is not
+     * synced and the object file is returned open, so that the caller can force
+     * it to disk later on. A previous version of the object which is replaced
+     * by the write is only deleted after the sync. Otherwise,
+     * <code>null</code> is returned.
+     */
+    private UnsyncedWrite writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo,
+            int offset, long newVersion, boolean sync, boolean cow, boolean deferSync) throws IOException {
 
         assert (newVersion > 0) : "object version must be > 0";
 
         if (data.capacity() == 0) {
-            return;
+            return null;
         }
 
         String relPath = generateRelativeFilePath(fileId);
-        new File(this.storageDir + relPath).mkdirs();
+        createFileDir(relPath);
 
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
@@ -394,22 +482,28 @@ public class HashStorageLayout extends StorageLayout {
                     || (data.capacity() < md.getStripingPolicy().getStripeSizeForObject(objNo));
             if (isRangeWrite) {
                 if (cow || checksumsEnabled) {
-                    partialWriteCOW(relPath, fileId, md, data, offset, objNo, newVersion, sync, !cow);
+                    return partialWriteCOW(relPath, fileId, md, data, offset, objNo, newVersion, sync, !cow,
+                            deferSync);
                 } else {
-                    partialWriteNoCOW(relPath, fileId, md, data, objNo, offset, newVersion, sync);
+                    return partialWriteNoCOW(relPath, fileId, md, data, objNo, offset, newVersion, sync,
+                            deferSync);
                 }
             } else {
-                completeWrite(relPath, fileId, md, data, objNo, newVersion, sync, !cow);
+                return completeWrite(relPath, fileId, md, data, objNo, newVersion, sync, !cow, deferSync);
             }
 
         } catch (FileNotFoundException ex) {
+            // the directory may have been removed in the meantime
+            synchronized (existingDirs) {
+                existingDirs.remove(relPath);
+            }
             throw new IOException("unable to create file directory or object: " + ex.getMessage());
         }
     }
 
-    private void partialWriteCOW(String relativePath, String fileId, FileMetadata md, ReusableBuffer data,
-            int offset, long objNo, long newVersion, boolean sync, boolean deleteOldVersion)
-            throws IOException {
+    private UnsyncedWrite partialWriteCOW(String relativePath, String fileId, FileMetadata md,
+            ReusableBuffer data, int offset, long objNo, long newVersion, boolean sync, boolean deleteOldVersion,
+            boolean deferSync) throws IOException {
         // write file
 
         assert (data != null);
@@ -430,39 +524,46 @@ public class HashStorageLayout extends StorageLayout {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "writing to file (COW): %s", newFilename);
         }
+        copyIfPinned(newFilename);
         File file = new File(newFilename);
-        String mode = sync ? "rwd" : "rw";
+        String mode = sync && !deferSync ? "rwd" : "rw";
         RandomAccessFile f = null;
+        boolean keepOpen = false;
 
         try {
             f = new RandomAccessFile(file, mode);
             fullObj.position(0);
             f.getChannel().write(fullObj.getBuffer());
+            keepOpen = deferSync;
         } catch (IOException e) {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
                     "Failed to write object file to disk. Error: %s Path to the file on disk: %s",
                     e.getMessage(), newFilename);
             throw e;
         } finally {
-            if (f != null) {
+            if (f != null && !keepOpen) {
                 f.close();
             }
             BufferPool.free(fullObj);
         }
 
+        String oldFilename = null;
         if (deleteOldVersion) {
-            String oldFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, oldVersion,
-                    oldChecksum);
-            File oldFile = new File(oldFilename);
-            oldFile.delete();
+            oldFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, oldVersion, oldChecksum);
+            if (!keepOpen) {
+                deleteObjectFile(oldFilename);
+            }
         }
 
         md.updateObjectVersion(objNo, newVersion);
         md.updateObjectChecksum(objNo, newVersion, newChecksum);
+
+        return keepOpen ? unsyncedWrite(f, objNo, oldVersion, oldChecksum, oldFilename) : null;
     }
 
-    private void partialWriteNoCOW(String relativePath, String fileId, FileMetadata md, ReusableBuffer data,
-            long objNo, int offset, long newVersion, boolean sync) throws IOException {
+    private UnsyncedWrite partialWriteNoCOW(String relativePath, String fileId, FileMetadata md,
+            ReusableBuffer data, long objNo, int offset, long newVersion, boolean sync, boolean deferSync)
+            throws IOException {
         // write file
         assert (!checksumsEnabled);
 
@@ -471,22 +572,25 @@ public class HashStorageLayout extends StorageLayout {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "writing to file: %s", filename);
         }
+        copyIfPinned(filename);
         File file = new File(filename);
-        String mode = sync ? "rwd" : "rw";
+        String mode = sync && !deferSync ? "rwd" : "rw";
         RandomAccessFile f = null;
+        boolean keepOpen = false;
 
         try {
             f = new RandomAccessFile(file, mode);
             data.position(0);
             f.seek(offset);
             f.getChannel().write(data.getBuffer());
+            keepOpen = deferSync;
         } catch (IOException e) {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
                     "Failed to write object file to disk. Error: %s Path to the file on disk: %s",
                     e.getMessage(), filename);
             throw e;
         } finally {
-            if (f != null) {
+            if (f != null && !keepOpen) {
                 f.close();
             }
             BufferPool.free(data);
@@ -494,16 +598,20 @@ public class HashStorageLayout extends StorageLayout {
 
         if (newVersion != oldVersion) {
             String newFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, newVersion, 0l);
+            objectFileCache.invalidate(filename);
             file.renameTo(new File(newFilename));
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, "renamed to: %s", newFilename);
             }
             md.updateObjectVersion(objNo, newVersion);
         }
+
+        return keepOpen ? unsyncedWrite(f, objNo, 0, 0, null) : null;
     }
 
-    private void completeWrite(String relativePath, String fileId, FileMetadata md, ReusableBuffer data,
-            long objNo, long newVersion, boolean sync, boolean deleteOldVersion) throws IOException {
+    private UnsyncedWrite completeWrite(String relativePath, String fileId, FileMetadata md,
+            ReusableBuffer data, long objNo, long newVersion, boolean sync, boolean deleteOldVersion,
+            boolean deferSync) throws IOException {
         // write file
 
         final long oldVersion = md.getLatestObjectVersion(objNo);
@@ -520,32 +628,153 @@ public class HashStorageLayout extends StorageLayout {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "writing to file: %s", newFilename);
         }
+        copyIfPinned(newFilename);
         File file = new File(newFilename);
-        String mode = sync ? "rwd" : "rw";
+        String mode = sync && !deferSync ? "rwd" : "rw";
         RandomAccessFile f = null;
+        boolean keepOpen = false;
 
         try {
             f = new RandomAccessFile(file, mode);
             data.position(0);
             f.getChannel().write(data.getBuffer());
+            keepOpen = deferSync;
         } finally {
-            if (f != null) {
+            if (f != null && !keepOpen) {
                 f.close();
             }
             BufferPool.free(data);
         }
 
+        String oldFilename = null;
         if (((oldVersion != newVersion) || (newChecksum != oldChecksum)) && (deleteOldVersion)) {
-            String oldFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, oldVersion,
-                    oldChecksum);
-            File oldFile = new File(oldFilename);
-            oldFile.delete();
+            oldFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, oldVersion, oldChecksum);
+            if (!keepOpen) {
+                deleteObjectFile(oldFilename);
+            }
         }
 
         md.updateObjectVersion(objNo, newVersion);
 
         if (checksumsEnabled)
             md.updateObjectChecksum(objNo, newVersion, newChecksum);
+
+        return keepOpen ? unsyncedWrite(f, objNo, oldVersion, oldChecksum, oldFilename) : null;
+    }
+
+    /**
+     * Pins an object file for a file region of a zero-copy read.
+     *
+     * @return the pin, which has to be passed to
+     *         {@link #unpin(String, Pin)} when the region is released, or
+     *         <code>null</code> if too many regions are pending
+     */
+    private Pin pin(String filename) {
+        synchronized (pinnedFiles) {
+            if (numPinnedRegions >= MAX_PINNED_REGIONS) {
+                return null;
+            }
+            Pin pin = pinnedFiles.get(filename);
+            if (pin == null) {
+                pin = new Pin();
+                pinnedFiles.put(filename, pin);
+            }
+            pin.regions++;
+            numPinnedRegions++;
+            return pin;
+        }
+    }
+
+    private void unpin(String filename, Pin pin) {
+        synchronized (pinnedFiles) {
+            numPinnedRegions--;
+            if (--pin.regions == 0 && pinnedFiles.get(filename) == pin) {
+                pinnedFiles.remove(filename);
+            }
+        }
+    }
+
+    /**
+     * Has to be invoked before an existing object file is modified in place.
+     * If the file is pinned by pending zero-copy reads, it is replaced by a
+     * copy, which can be modified. The regions keep on sending the original
+     * data from their open file until they are released.
+     */
+    private void copyIfPinned(String filename) throws IOException {
+        synchronized (pinnedFiles) {
+            if (pinnedFiles.remove(filename) == null) {
+                return;
+            }
+        }
+
+        File file = new File(filename);
+        if (!file.exists()) {
+            return;
+        }
+
+        // files starting with '.' are no object files
+        File copy = new File(file.getParentFile(), ".copy_" + file.getName());
+        RandomAccessFile in = null;
+        RandomAccessFile out = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            out = new RandomAccessFile(copy, "rw");
+            out.setLength(0);
+            final FileChannel src = in.getChannel();
+            final long size = src.size();
+            for (long pos = 0; pos < size;) {
+                pos += src.transferTo(pos, size - pos, out.getChannel());
+            }
+            out.getChannel().force(false);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        if (!copy.renameTo(file)) {
+            copy.delete();
+            throw new IOException("cannot replace object file which is being read: " + filename);
+        }
+        objectFileCache.invalidate(filename);
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                    "replaced object file which is being read by a copy: %s", filename);
+        }
+    }
+
+    private void deleteObjectFile(String filename) {
+        objectFileCache.invalidate(filename);
+        File file = new File(filename);
+        file.delete();
+    }
+
+    /**
+     * @param obsoleteFilename
+     *            the previous version of the object, which is deleted as soon
+     *            as the written object is on disk, or <code>null</code>
+     */
+    private UnsyncedWrite unsyncedWrite(RandomAccessFile f, final long objNo, final long obsoleteVersion,
+            final long obsoleteChecksum, final String obsoleteFilename) {
+        return new UnsyncedWrite(f.getChannel()) {
+            @Override
+            public void synced(FileMetadata md) {
+                if (obsoleteFilename == null) {
+                    return;
+                }
+                // a later write may have created the same file again, e.g. by
+                // writing the previous data of the object with the same version
+                final long version = md.getLatestObjectVersion(objNo);
+                if (version == obsoleteVersion && md.getObjectChecksum(objNo, version) == obsoleteChecksum) {
+                    return;
+                }
+                deleteObjectFile(obsoleteFilename);
+            }
+        };
     }
 
     @Override
@@ -602,6 +831,9 @@ public class HashStorageLayout extends StorageLayout {
             return;
         }
 
+        // the old object file is deleted, renamed or shortened
+        objectFileCache.invalidate(oldFileName);
+
         if (cow || checksumsEnabled) {
             ReusableBuffer oldData = unwrapObjectData(fileId, md, objNo, oldVersion);
 
@@ -656,6 +888,7 @@ public class HashStorageLayout extends StorageLayout {
 
         } else {
             // just make the object shorter
+            copyIfPinned(oldFileName);
             RandomAccessFile raf = null;
             try {
                 raf = new RandomAccessFile(oldFile, mode);
@@ -685,7 +918,7 @@ public class HashStorageLayout extends StorageLayout {
         assert (size >= 0) : "size is " + size;
 
         String relPath = generateRelativeFilePath(fileId);
-        new File(this.storageDir + relPath).mkdirs();
+        createFileDir(relPath);
 
         // calculate the checksum for the padding object if necessary
         long checksum = 0;
@@ -697,6 +930,7 @@ public class HashStorageLayout extends StorageLayout {
 
         // write file
         String filename = generateAbsoluteObjectPathFromRelPath(relPath, objNo, version, checksum);
+        copyIfPinned(filename);
         RandomAccessFile raf = null;
         try {
             raf = new RandomAccessFile(filename, "rw");
@@ -717,6 +951,13 @@ public class HashStorageLayout extends StorageLayout {
     public void deleteFile(String fileId, final boolean deleteMetadata) throws IOException {
         File fileDir = new File(generateAbsoluteFilePath(fileId));
 
+        objectFileCache.invalidateDirectory(generateAbsoluteFilePath(fileId));
+        if (deleteMetadata) {
+            synchronized (existingDirs) {
+                existingDirs.remove(generateRelativeFilePath(fileId));
+            }
+        }
+
         // Filter metadata from the fileList, if deleteMetadata is not set.
         File[] fileList = fileDir.listFiles(new FileFilter() {
 
@@ -771,6 +1012,7 @@ public class HashStorageLayout extends StorageLayout {
             }
         });
         for (File obj : objs) {
+            objectFileCache.invalidate(obj.getPath());
             obj.delete();
         }
     }
@@ -999,6 +1241,35 @@ public class HashStorageLayout extends StorageLayout {
         return this.storageDir + generateRelativeFilePath(fileId);
     }
 
+    /**
+     * Creates the directory for the objects of a file, unless it is known to
+     * exist already.
+     */
+    private void createFileDir(String relPath) {
+        synchronized (existingDirs) {
+            if (existingDirs.get(relPath) != null)
+                return;
+        }
+        File dir = new File(this.storageDir + relPath);
+        if (dir.mkdirs() || dir.isDirectory()) {
+            synchronized (existingDirs) {
+                existingDirs.put(relPath, Boolean.TRUE);
+            }
+        }
+    }
+
+    @Override
+    public void closeFile(String fileId, FileMetadata metadata) {
+        objectFileCache.invalidateDirectory(generateAbsoluteFilePath(fileId));
+    }
+
+    /**
+     * @return the cache of object files opened for reading
+     */
+    public ObjectFileCache getObjectFileCache() {
+        return objectFileCache;
+    }
+
     private String generateAbsoluteObjectPathFromFileId(String fileId, long objNo, long version, long checksum) {
         StringBuilder path = new StringBuilder(generateAbsoluteFilePath(fileId));
         path.append(createFileName(objNo, version, checksum));
@@ -1015,7 +1286,10 @@ public class HashStorageLayout extends StorageLayout {
 
     private String generateRelativeFilePath(String fileId) {
         if (USE_PATH_CACHE) {
-            String cached = hashedPathCache.get(fileId);
+            String cached;
+            synchronized (hashedPathCache) {
+                cached = hashedPathCache.get(fileId);
+            }
             if (cached != null)
                 return cached;
         }
@@ -1025,7 +1299,9 @@ public class HashStorageLayout extends StorageLayout {
         path.append("/");
         final String pathStr = path.toString();
         if (USE_PATH_CACHE) {
-            hashedPathCache.put(fileId, pathStr);
+            synchronized (hashedPathCache) {
+                hashedPathCache.put(fileId, pathStr);
+            }
         }
         return pathStr;
     }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * A bounded LRU cache of object files opened for reading, keyed by the path of
+ * the object file. As the path of an object file contains the object version,
+ * each version is cached separately.
+ * <p>
+ * Open files are reference counted. A file which is evicted or invalidated
+ * while it is in use is closed when the last user releases it. Entries must be
+ * invalidated whenever the object file is deleted, renamed or replaced.
+ */
+public class ObjectFileCache {
+
+    public static final class Entry {
+
+        private final RandomAccessFile file;
+
+        // JCIP @GuardedBy("ObjectFileCache.this")
+        private int                    refCount;
+
+        // JCIP @GuardedBy("ObjectFileCache.this")
+        private boolean                removed;
+
+        private Entry(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        public FileChannel getChannel() {
+            return file.getChannel();
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final int                          maxEntries;
+
+    /**
+     * number of invalidations, used to detect invalidations which happened
+     * while a file was being opened
+     */
+    // JCIP @GuardedBy("this")
+    private long                               invalidations;
+
+    // JCIP @GuardedBy("this")
+    private long                               hits;
+
+    // JCIP @GuardedBy("this")
+    private long                               misses;
+
+    /**
+     * @param maxEntries
+     *            maximum number of open files; 0 disables caching
+     */
+    public ObjectFileCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the open object file with the given path. The entry has to be
+     * released with {@link #release(Entry)}.
+     *
+     * @return the entry, or <code>null</code> if the file does not exist
+     */
+    public Entry acquire(String path) throws IOException {
+
+        long invalidationsBeforeOpen;
+        synchronized (this) {
+            Entry e = entries.get(path);
+            if (e != null) {
+                e.refCount++;
+                hits++;
+                return e;
+            }
+            misses++;
+            invalidationsBeforeOpen = invalidations;
+        }
+
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(path, "r");
+        } catch (FileNotFoundException ex) {
+            if (!new File(path).exists())
+                return null;
+            throw ex;
+        }
+
+        Entry e = new Entry(file);
+        e.refCount = 1;
+
+        Entry evicted = null;
+        synchronized (this) {
+            Entry existing = entries.get(path);
+            if (existing != null) {
+                // opened concurrently; use the cached file
+                existing.refCount++;
+                evicted = e;
+                e = existing;
+            } else if (maxEntries > 0 && invalidations == invalidationsBeforeOpen) {
+                entries.put(path, e);
+                if (entries.size() > maxEntries) {
+                    Iterator<Entry> it = entries.values().iterator();
+                    Entry eldest = it.next();
+                    it.remove();
+                    evicted = remove(eldest);
+                }
+            } else {
+                // the file may have been deleted while it was opened, or
+                // caching is disabled
+                e.removed = true;
+            }
+        }
+        close(evicted);
+
+        return e;
+    }
+
+    /**
+     * Releases an entry obtained from {@link #acquire(String)}.
+     */
+    public void release(Entry e) {
+        boolean close;
+        synchronized (this) {
+            e.refCount--;
+            close = e.removed && e.refCount == 0;
+        }
+        if (close)
+            close(e);
+    }
+
+    /**
+     * Removes the object file with the given path from the cache.
+     */
+    public void invalidate(String path) {
+        Entry e;
+        synchronized (this) {
+            invalidations++;
+            e = entries.remove(path);
+            e = e == null ? null : remove(e);
+        }
+        close(e);
+    }
+
+    /**
+     * Removes all object files in the given directory from the cache.
+     */
+    public void invalidateDirectory(String dirPath) {
+        List<Entry> toClose = new ArrayList<Entry>();
+        synchronized (this) {
+            invalidations++;
+            Iterator<java.util.Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                java.util.Map.Entry<String, Entry> next = it.next();
+                if (next.getKey().startsWith(dirPath)) {
+                    it.remove();
+                    Entry e = remove(next.getValue());
+                    if (e != null)
+                        toClose.add(e);
+                }
+            }
+        }
+        for (Entry e : toClose)
+            close(e);
+    }
+
+    /**
+     * Removes all object files from the cache.
+     */
+    public void clear() {
+        invalidateDirectory("");
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Marks an entry which has been removed from the map as removed.
+     *
+     * @return the entry, if it can be closed immediately
+     */
+    // JCIP @GuardedBy("this")
+    private Entry remove(Entry e) {
+        e.removed = true;
+        return e.refCount == 0 ? e : null;
+    }
+
+    private void close(Entry e) {
+        if (e == null)
+            return;
+        try {
+            e.file.close();
+        } catch (IOException ex) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this, "cannot close object file: %s",
+                    ex.toString());
+        }
+    }
+}
@@ -8,6 +8,7 @@
 package org.xtreemfs.osd.storage;
 
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.osd.InternalObjectData;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
@@ -57,6 +58,12 @@ public class ObjectInformation {
 
     private ReusableBuffer data;
 
+    /**
+     * the object data, if it is sent directly from the object file instead of
+     * <code>data</code>
+     */
+    private FileRegion           fileRegion;
+
     private final ObjectStatus   status;
 
     private final int            stripeSize;
@@ -77,16 +84,16 @@ public class ObjectInformation {
         assert(length >= 0);
         if (isLastObject) {
             switch (status) {
-                case EXISTS: return new InternalObjectData(0, checksumInvalidOnOSD, 0, data);
+                case EXISTS: return createObjectData(0);
                 case DOES_NOT_EXIST: return new InternalObjectData(0,checksumInvalidOnOSD, 0, null);
                 case PADDING_OBJECT: throw new RuntimeException("padding object must not be last object!");
             }
         } else {
             switch (status) {
                 case EXISTS: {
-                    final int paddingZeros = length-data.remaining();
-                    assert(paddingZeros >= 0) : "offset: "+offset+" length: "+length+" remaining: "+data.remaining();
-                    return new InternalObjectData(0,checksumInvalidOnOSD, paddingZeros, data);
+                    final int paddingZeros = length-getDataLength();
+                    assert(paddingZeros >= 0) : "offset: "+offset+" length: "+length+" remaining: "+getDataLength();
+                    return createObjectData(paddingZeros);
                 }
                 case DOES_NOT_EXIST:
                 case PADDING_OBJECT: {
@@ -98,6 +105,12 @@ public class ObjectInformation {
         return null;
     }
 
+    private InternalObjectData createObjectData(int paddingZeros) {
+        InternalObjectData objData = new InternalObjectData(0, checksumInvalidOnOSD, paddingZeros, data);
+        objData.setFileRegion(fileRegion);
+        return objData;
+    }
+
     /*public ObjectData getObjectData(boolean isLastObject, int offset, int length) {
         if (offset+length > getStripeSize())
             throw new IllegalArgumentException("offset+length must be less than the stripe size");
@@ -167,6 +180,42 @@ public class ObjectInformation {
         this.data = data;
     }
 
+    /**
+     * @return the region of the object file to send, or <code>null</code> if
+     *         the data was read into a buffer
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
+    public void setFileRegion(FileRegion fileRegion) {
+        this.fileRegion = fileRegion;
+    }
+
+    /**
+     * @return the number of bytes of object data, no matter if they were read
+     *         into a buffer or are sent from the object file
+     */
+    public int getDataLength() {
+        if (fileRegion != null)
+            return fileRegion.getCount();
+        return data == null ? 0 : data.remaining();
+    }
+
+    /**
+     * Frees the object data.
+     */
+    public void freeData() {
+        if (data != null) {
+            BufferPool.free(data);
+            data = null;
+        }
+        if (fileRegion != null) {
+            fileRegion.release();
+            fileRegion = null;
+        }
+    }
+
     /**
      * @return the status
      */
@@ -172,6 +172,16 @@ public abstract class StorageLayout {
         //do nothing
     }
     
+    /**
+     * must be called when a file is closed; releases all resources held for
+     * the file
+     * @param fileId
+     * @param metadata
+     */
+    public void closeFile(String fileId, FileMetadata metadata) {
+        closeFile(metadata);
+    }
+    
     /**
      * Reads a complete object from the storage device.
      * 
@@ -194,6 +204,23 @@ public abstract class StorageLayout {
     
     public abstract ObjectInformation readObject(String fileId, FileMetadata md, long objNo, int offset,
         int length, long version) throws IOException;
+
+    /**
+     * Reads a complete or partial object. If <code>zeroCopy</code> is set, the
+     * storage layout may return the object data as a region of the object file
+     * (see {@link ObjectInformation#getFileRegion()}), which is sent to the
+     * client without copying it into a buffer. The region has to be released
+     * after it has been sent. Since the data is read from the file when it is
+     * sent, the storage layout has to make sure that the region still contains
+     * the data of the requested version until it is released, even if the
+     * object is written or truncated in the meantime; if it cannot, the data
+     * has to be read into a buffer. The default implementation always reads
+     * the data into a buffer.
+     */
+    public ObjectInformation readObject(String fileId, FileMetadata md, long objNo, int offset, int length,
+        long version, boolean zeroCopy) throws IOException {
+        return readObject(fileId, md, objNo, offset, length, version);
+    }
     
     /**
      * Writes a partial object to the storage device.
@@ -219,6 +246,24 @@ public abstract class StorageLayout {
      */
     public abstract void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo,
         int offset, long newVersion, boolean sync, boolean cow) throws IOException;
+
+    /**
+     * Writes a partial object that has to be made durable, but leaves the
+     * sync to the caller: the object file is returned open, and the caller is
+     * responsible for syncing or closing it. This allows the syncs of
+     * concurrent writes to be batched. Data replaced by the write, e.g. the
+     * previous version of the object, is kept until the write has been synced.
+     * If <code>null</code> is returned, the data has already been synced. The
+     * default implementation writes the object synchronously.
+     * 
+     * @see #writeObject(String, FileMetadata, ReusableBuffer, long, int, long,
+     *      boolean, boolean)
+     */
+    public UnsyncedWrite writeObjectDeferredSync(String fileId, FileMetadata md, ReusableBuffer data, long objNo,
+        int offset, long newVersion, boolean cow) throws IOException {
+        writeObject(fileId, md, data, objNo, offset, newVersion, true, cow);
+        return null;
+    }
     
     /**
      * Truncates an object on the storage device.
@@ -11,6 +11,7 @@ package org.xtreemfs.osd.storage;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,13 +32,18 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.MessageType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.osd.OSDRequestDispatcher;
 import org.xtreemfs.osd.quota.OSDVoucherManager;
 import org.xtreemfs.osd.quota.VoucherErrorException;
 import org.xtreemfs.osd.replication.ObjectSet;
+import org.xtreemfs.osd.rwre.ObjectVersionDigest;
+import org.xtreemfs.osd.stages.GroupCommitStage;
 import org.xtreemfs.osd.stages.Stage;
+import org.xtreemfs.osd.stages.StorageScheduler;
+import org.xtreemfs.osd.stages.StorageScheduler.FileQueue;
 import org.xtreemfs.osd.stages.StorageStage.CachesFlushedCallback;
 import org.xtreemfs.osd.stages.StorageStage.CreateFileVersionCallback;
 import org.xtreemfs.osd.stages.StorageStage.DeleteObjectsCallback;
@@ -56,6 +62,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDFinalizeVouchersRes
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.InternalGmax;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersion;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionRangeDigest;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.TruncateLog;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.TruncateRecord;
@@ -94,6 +101,8 @@ public class StorageThread extends Stage {
 
     public static final int            STAGEOP_FINALIZE_VOUCHERS     = 15;
 
+    public static final int            STAGEOP_WRITE_SYNCED          = 16;
+
     private final MetadataCache        cache;
 
     private final StorageLayout        layout;
@@ -102,17 +111,67 @@ public class StorageThread extends Stage {
     
     private final boolean        checksumsEnabled;
     
+    private final int                  id;
+    
+    private final StorageScheduler     scheduler;
+    
+    private final GroupCommitStage     groupCommit;
+    
+    public StorageThread(int id, OSDRequestDispatcher dispatcher, MetadataCache cache, StorageLayout layout,
+        StorageScheduler scheduler) {
+        this(id, dispatcher, cache, layout, scheduler, null);
+    }
+    
+    /**
+     * @param groupCommit
+     *            the stage that syncs synchronous writes in batches, or
+     *            <code>null</code> if each write is to be synced on its own
+     */
     public StorageThread(int id, OSDRequestDispatcher dispatcher, MetadataCache cache, StorageLayout layout,
-        int maxQueueLength) {
+        StorageScheduler scheduler, GroupCommitStage groupCommit) {
         
-        super("OSD StThr " + id, maxQueueLength);
+        super("OSD StThr " + id, scheduler.getMaxQueueLength());
         
+        this.id = id;
+        this.scheduler = scheduler;
+        this.groupCommit = groupCommit;
         this.cache = cache;
         this.layout = layout;
         this.master = dispatcher;
         this.checksumsEnabled = master.getConfig().isUseChecksums();
     }
     
+    @Override
+    public void run() {
+        
+        notifyStarted();
+        
+        while (!quit) {
+            try {
+                // process the requests of one file at a time, in order
+                final FileQueue fq = scheduler.take(id);
+                
+                int processed = 0;
+                StageRequest op;
+                while ((op = scheduler.next(fq, processed++)) != null)
+                    processMethod(op);
+                
+            } catch (InterruptedException ex) {
+                break;
+            } catch (Throwable ex) {
+                this.notifyCrashed(ex);
+                break;
+            }
+        }
+        
+        notifyStopped();
+    }
+    
+    @Override
+    public int getQueueLength() {
+        return scheduler.getQueueLength(id);
+    }
+    
     @Override
     protected void processMethod(StageRequest method) {
         
@@ -164,6 +223,9 @@ public class StorageThread extends Stage {
             case STAGEOP_FINALIZE_VOUCHERS:
                 processFinalizeVouchers(method);
                 break;
+            case STAGEOP_WRITE_SYNCED:
+                processWriteSynced(method);
+                break;
             }
             
         } catch (Exception ex) {
@@ -248,7 +310,7 @@ public class StorageThread extends Stage {
             final String fileId = (String) rq.getArgs()[0];
             FileMetadata md = cache.removeFileInfo(fileId);
             if (md != null)
-                layout.closeFile(null);
+                layout.closeFile(fileId, md);
             
             if (Logging.isDebug())
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this,
@@ -313,6 +375,8 @@ public class StorageThread extends Stage {
             final String fileId = (String) rq.getArgs()[0];
             final StripingPolicyImpl sp = (StripingPolicyImpl) rq.getArgs()[1];
             final long remoteMaxObjVer = (Long) rq.getArgs()[2];
+            final int digestRangeSize = (Integer) rq.getArgs()[3];
+            final List<ObjectVersionRangeDigest> rangeDigests = (List<ObjectVersionRangeDigest>) rq.getArgs()[4];
 
             // Do not assume that objects exist on the remote side based on the maxObjVer.
             // The reason for that is the remote side may not have seen all consecutive writes
@@ -337,11 +401,23 @@ public class StorageThread extends Stage {
             result.setFileSize(fi.getFilesize());
             result.setTruncateEpoch(fi.getTruncateEpoch());
             
+            // omit the object versions of all ranges that are equal on the
+            // requesting replica
+            Set<Long> matchingRanges = Collections.emptySet();
+            if (digestRangeSize > 0 && rangeDigests != null && !rangeDigests.isEmpty()) {
+                ObjectVersionDigest digest = new ObjectVersionDigest(digestRangeSize);
+                for (Entry<Long, Long> e : fi.getLatestObjectVersions())
+                    digest.add(e.getKey(), e.getValue());
+                matchingRanges = digest.getMatchingRanges(rangeDigests);
+                result.addAllMatchingRanges(matchingRanges);
+            }
+            
             long localMaxObjVer = 0;
             for (Entry<Long, Long> e : fi.getLatestObjectVersions()) {
                 if (e.getValue() > remoteMaxObjVer) {
-                    result.addObjectVersions(ObjectVersion.newBuilder().setObjectNumber(e.getKey())
-                            .setObjectVersion(e.getValue()));
+                    if (matchingRanges.isEmpty() || !matchingRanges.contains(e.getKey() / digestRangeSize))
+                        result.addObjectVersions(ObjectVersion.newBuilder().setObjectNumber(e.getKey())
+                                .setObjectVersion(e.getValue()));
                     if (e.getValue() > localMaxObjVer)
                         localMaxObjVer = e.getValue();
                 }
@@ -372,6 +448,7 @@ public class StorageThread extends Stage {
             final int offset = (Integer) rq.getArgs()[3];
             final int length = (Integer) rq.getArgs()[4];
             final long versionTimestamp = (Long) rq.getArgs()[5];
+            final boolean zeroCopy = (Boolean) rq.getArgs()[6];
             
             final FileMetadata fi = layout.getFileMetadata(sp, fileId);
             // final boolean rangeRequested = (offset > 0) || (length <
@@ -395,7 +472,7 @@ public class StorageThread extends Stage {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "checksum is %d", objChksm);
             }
             
-            ObjectInformation obj = layout.readObject(fileId, fi, objNo, offset, length, objVer);
+            ObjectInformation obj = layout.readObject(fileId, fi, objNo, offset, length, objVer, zeroCopy);
             
             if (versionTimestamp != 0) {
                 int lastObj = fi.getVersionTable().getLatestVersionBefore(versionTimestamp).getObjCount() - 1;
@@ -472,6 +549,8 @@ public class StorageThread extends Stage {
     
     private void processWrite(StageRequest rq) {
         final WriteObjectCallback cback = (WriteObjectCallback) rq.getCallback();
+        // the object file of a synchronous write that still has to be synced
+        UnsyncedWrite unsynced = null;
         try {
             final String fileId = (String) rq.getArgs()[0];
             final long objNo = (Long) rq.getArgs()[1];
@@ -538,7 +617,11 @@ public class StorageThread extends Stage {
                 fi.setLastObjectNumber(objNo);
             }
             
-            layout.writeObject(fileId, fi, data, objNo, offset, newVersion, syncWrite, isCow);
+            if (syncWrite && groupCommit != null) {
+                unsynced = layout.writeObjectDeferredSync(fileId, fi, data, objNo, offset, newVersion, isCow);
+            } else {
+                layout.writeObject(fileId, fi, data, objNo, offset, newVersion, syncWrite, isCow);
+            }
             
             // if a new version was created, update the "latest versions" file
             if (cow.cowEnabled() && (isCow || largestV == 0))
@@ -621,11 +704,25 @@ public class StorageThread extends Stage {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "new last object=%d gmax=%d", fi
                         .getLastObjectNumber(), fi.getGlobalLastObjectNumber());
             // BufferPool.free(data);
-            cback.writeComplete(response.build(), null);
+            if (unsynced != null) {
+                // the write is completed by the storage thread of the file as
+                // soon as the data is on disk
+                final UnsyncedWrite write = unsynced;
+                unsynced = null;
+                groupCommit.sync(write, response.build(), new WriteObjectCallback() {
+                    public void writeComplete(OSDWriteResponse result, ErrorResponse error) {
+                        master.getStorageStage().writeSynced(fileId, sp, write, result, error, cback);
+                    }
+                });
+            } else {
+                cback.writeComplete(response.build(), null);
+            }
             
         } catch (IOException ex) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this, "Failed to process write() request due to the following IOException:");
             Logging.logError(Logging.LEVEL_ERROR, this, ex);
+            if (unsynced != null)
+                unsynced.close();
             
             cback.writeComplete(null, ErrorUtils.getErrorResponse(ErrorType.ERRNO,
                 POSIXErrno.POSIX_ERROR_EIO, ex.toString()));
@@ -636,10 +733,38 @@ public class StorageThread extends Stage {
                 Logging.logError(Logging.LEVEL_DEBUG, this, ex);
             }
 
+            if (unsynced != null)
+                unsynced.close();
             cback.writeComplete(null,
                     ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EACCES, ex.toString(), ex));
         }
     }
+    
+    /**
+     * Completes a synchronous write whose data has been synced by the group
+     * commit stage, and deletes the data the write has replaced.
+     */
+    private void processWriteSynced(StageRequest rq) {
+        final WriteObjectCallback cback = (WriteObjectCallback) rq.getCallback();
+        final String fileId = (String) rq.getArgs()[0];
+        final StripingPolicyImpl sp = (StripingPolicyImpl) rq.getArgs()[1];
+        final UnsyncedWrite write = (UnsyncedWrite) rq.getArgs()[2];
+        final OSDWriteResponse response = (OSDWriteResponse) rq.getArgs()[3];
+        final ErrorResponse error = (ErrorResponse) rq.getArgs()[4];
+
+        if (error != null) {
+            cback.writeComplete(null, error);
+            return;
+        }
+
+        try {
+            write.synced(layout.getFileMetadata(sp, fileId));
+        } catch (IOException ex) {
+            // the data of the write is on disk nevertheless
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
+        cback.writeComplete(response, null);
+    }
 
     private void processDeleteObjects(StageRequest rq) throws IOException {
 
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.xtreemfs.foundation.logging.Logging;
+
+/**
+ * The open object file of a synchronous write whose data has not been synced
+ * yet (see
+ * {@link StorageLayout#writeObjectDeferredSync(String, FileMetadata, org.xtreemfs.foundation.buffer.ReusableBuffer, long, int, long, boolean)}
+ * ). The owner has to invoke {@link #sync()} or {@link #close()} exactly
+ * once. After a successful sync, the storage thread that processes the
+ * requests of the file has to invoke {@link #synced(FileMetadata)}.
+ */
+public class UnsyncedWrite {
+
+    private final FileChannel file;
+
+    public UnsyncedWrite(FileChannel file) {
+        this.file = file;
+    }
+
+    public FileChannel getFile() {
+        return file;
+    }
+
+    /**
+     * Forces the object file to disk and closes it. May be invoked by any
+     * thread.
+     */
+    public void sync() throws IOException {
+        try {
+            file.force(false);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the object file without syncing it.
+     */
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException ex) {
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
+    }
+
+    /**
+     * Invoked by the storage thread of the file when the data of the write is
+     * on disk. Storage layouts may override this method to delete data which
+     * the write has replaced, e.g. the previous version of the object, unless
+     * a later write of the file has made it current again.
+     *
+     * @param md
+     *            the current metadata of the file
+     */
+    public void synced(FileMetadata md) {
+    }
+
+}
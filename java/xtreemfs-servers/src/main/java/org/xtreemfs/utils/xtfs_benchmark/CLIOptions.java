@@ -327,7 +327,8 @@ class CLIOptions {
     	if(null != replicationPolicy) {
             assert "".equals(replicationPolicy)
             	|| "WqRq".equals(replicationPolicy)
-            	|| "WaR1".equals(replicationPolicy) : "Unknown replication policy: " + replicationPolicy;
+            	|| "WaR1".equals(replicationPolicy)
+            	|| "Chain".equals(replicationPolicy) : "Unknown replication policy: " + replicationPolicy;
             builder.setReplicationPolicy(replicationPolicy);
     	}
     }
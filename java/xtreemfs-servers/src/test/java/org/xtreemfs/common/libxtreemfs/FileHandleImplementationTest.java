@@ -12,6 +12,8 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Before;
@@ -31,6 +33,8 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.foundation.util.FSUtils;
 import org.xtreemfs.osd.storage.HashStorageLayout;
 import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.REPL_FLAG;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
@@ -449,4 +453,54 @@ public class FileHandleImplementationTest {
         volume.close();
         client.deleteVolume(auth, userCredentials, volumeName);
     }
+
+    @Test
+    public void testParallelStripedRead() throws Exception {
+        String volumeName = "testParallelStripedRead";
+
+        // Stripe the file across both OSDs with 1 kB objects.
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName, 0777, userCredentials.getUsername(),
+                userCredentials.getGroups(0), AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX,
+                StripingPolicyType.STRIPING_POLICY_RAID0, 1, 2, new ArrayList<KeyValuePair>());
+        Volume volume = client.openVolume(volumeName, null, options);
+
+        FileHandle fileHandle = volume.openFile(userCredentials, "/test.txt",
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+
+        // Write 20 objects and leave a hole of one object.
+        byte[] bytesIn = new byte[20 * 1024];
+        for (int i = 0; i < bytesIn.length; i++) {
+            bytesIn[i] = (byte) (i % 251);
+        }
+        fileHandle.write(userCredentials, bytesIn, 10 * 1024, 0);
+        fileHandle.write(userCredentials, bytesIn, 11 * 1024, 9 * 1024, 11 * 1024);
+        Arrays.fill(bytesIn, 10 * 1024, 11 * 1024, (byte) 0);
+
+        // Read the whole file at once and an unaligned range which ends behind the end of the file.
+        byte[] bytesOut = new byte[bytesIn.length];
+        assertEquals(bytesIn.length, fileHandle.read(userCredentials, bytesOut, bytesOut.length, 0));
+        assertTrue(Arrays.equals(bytesIn, bytesOut));
+
+        bytesOut = new byte[10 * 1024];
+        assertEquals(bytesIn.length - 12345, fileHandle.read(userCredentials, bytesOut, bytesOut.length, 12345));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytesIn, 12345, bytesIn.length),
+                Arrays.copyOf(bytesOut, bytesIn.length - 12345)));
+        fileHandle.close();
+
+        // The sequential read has to return the same data.
+        Options sequentialOptions = new Options();
+        sequentialOptions.setMaxParallelReads(1);
+        Volume sequentialVolume = client.openVolume(volumeName, null, sequentialOptions);
+        fileHandle = sequentialVolume.openFile(userCredentials, "/test.txt",
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDONLY.getNumber());
+        bytesOut = new byte[bytesIn.length];
+        assertEquals(bytesIn.length, fileHandle.read(userCredentials, bytesOut, bytesOut.length, 0));
+        assertTrue(Arrays.equals(bytesIn, bytesOut));
+        fileHandle.close();
+
+        sequentialVolume.close();
+        volume.close();
+        client.deleteVolume(auth, userCredentials, volumeName);
+    }
 }
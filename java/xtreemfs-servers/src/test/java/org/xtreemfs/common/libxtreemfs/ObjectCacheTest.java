@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.test.SetupUtils;
+import org.xtreemfs.test.TestHelper;
+
+/**
+ * Tests the ObjectCache used for read-ahead in libxtreemfs.
+ */
+public class ObjectCacheTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private ObjectCache   objectCache;
+
+    private static byte[] data(int length, int value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+        // Max 3 kB, 1 hour
+        objectCache = new ObjectCache(3 * 1024, 3600);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ObjectCache disabledCache = new ObjectCache(0, 3600);
+        assertFalse(disabledCache.isEnabled());
+
+        long generation = disabledCache.getGeneration(1);
+        disabledCache.put(1, 0, 0, generation, data(1024, 1));
+        assertNull(disabledCache.get(1, 0, 0));
+        assertFalse(disabledCache.startPrefetch(1, 1, 0));
+    }
+
+    @Test
+    public void testGetAndVersion() throws Exception {
+        long generation = objectCache.getGeneration(1);
+        objectCache.put(1, 0, 0, generation, data(1024, 1));
+
+        assertArrayEquals(data(1024, 1), objectCache.get(1, 0, 0));
+        // Different XLocSet version, object or file.
+        assertNull(objectCache.get(1, 0, 1));
+        assertNull(objectCache.get(1, 1, 0));
+        assertNull(objectCache.get(2, 0, 0));
+        assertEquals(1024, objectCache.size());
+    }
+
+    @Test
+    public void testLRUEviction() throws Exception {
+        long generation = objectCache.getGeneration(1);
+        objectCache.put(1, 0, 0, generation, data(1024, 0));
+        objectCache.put(1, 1, 0, generation, data(1024, 1));
+        objectCache.put(1, 2, 0, generation, data(1024, 2));
+
+        // Access object 0 so that object 1 is the least recently used one.
+        assertArrayEquals(data(1024, 0), objectCache.get(1, 0, 0));
+        objectCache.put(1, 3, 0, generation, data(1024, 3));
+
+        assertEquals(3 * 1024, objectCache.size());
+        assertNull(objectCache.get(1, 1, 0));
+        assertArrayEquals(data(1024, 0), objectCache.get(1, 0, 0));
+        assertArrayEquals(data(1024, 2), objectCache.get(1, 2, 0));
+        assertArrayEquals(data(1024, 3), objectCache.get(1, 3, 0));
+
+        // Objects larger than the cache are not cached.
+        objectCache.put(1, 4, 0, generation, data(4 * 1024, 4));
+        assertNull(objectCache.get(1, 4, 0));
+        assertEquals(3 * 1024, objectCache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        long generation = objectCache.getGeneration(1);
+        objectCache.put(1, 0, 0, generation, data(1024, 0));
+        objectCache.put(1, 1, 0, generation, data(1024, 1));
+        objectCache.put(2, 0, 0, objectCache.getGeneration(2), data(1024, 2));
+
+        objectCache.invalidate(1, 1, 1);
+        assertArrayEquals(data(1024, 0), objectCache.get(1, 0, 0));
+        assertNull(objectCache.get(1, 1, 0));
+
+        objectCache.invalidate(1);
+        assertNull(objectCache.get(1, 0, 0));
+        assertArrayEquals(data(1024, 2), objectCache.get(2, 0, 0));
+        assertEquals(1024, objectCache.size());
+    }
+
+    /**
+     * Results of reads which started before an invalidation must not be cached.
+     */
+    @Test
+    public void testReadOvertakenByInvalidation() throws Exception {
+        long generation = objectCache.getGeneration(1);
+        objectCache.invalidate(1, 0, 0);
+        objectCache.put(1, 0, 0, generation, data(1024, 0));
+        assertNull(objectCache.get(1, 0, 0));
+
+        // The same applies to prefetches.
+        generation = objectCache.getGeneration(1);
+        assertTrue(objectCache.startPrefetch(1, 1, 0));
+        assertFalse(objectCache.startPrefetch(1, 1, 0));
+        objectCache.invalidate(1);
+        objectCache.finishPrefetch(1, 1, 0, generation, data(1024, 1));
+        assertNull(objectCache.get(1, 1, 0));
+
+        generation = objectCache.getGeneration(1);
+        objectCache.put(1, 0, 0, generation, data(1024, 0));
+        assertArrayEquals(data(1024, 0), objectCache.get(1, 0, 0));
+    }
+
+    @Test
+    public void testGetWaitsForPrefetch() throws Exception {
+        final long generation = objectCache.getGeneration(1);
+        assertTrue(objectCache.startPrefetch(1, 0, 0));
+
+        Thread prefetch = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // Ignore.
+                }
+                objectCache.finishPrefetch(1, 0, 0, generation, data(1024, 7));
+            }
+        };
+        prefetch.start();
+
+        assertArrayEquals(data(1024, 7), objectCache.get(1, 0, 0));
+        prefetch.join();
+        assertEquals(1.0, objectCache.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testTTL() throws Exception {
+        ObjectCache shortLivedCache = new ObjectCache(3 * 1024, 0);
+        shortLivedCache.put(1, 0, 0, shortLivedCache.getGeneration(1), data(1024, 0));
+        Thread.sleep(1100);
+        long generation = shortLivedCache.getGeneration(1);
+        assertNull(shortLivedCache.get(1, 0, 0));
+        assertEquals(0, shortLivedCache.size());
+
+        // The expired object is cached again after it has been read.
+        shortLivedCache.put(1, 0, 0, generation, data(1024, 1));
+        shortLivedCache.releaseGeneration(1, generation);
+        assertEquals(1024, shortLivedCache.size());
+    }
+}
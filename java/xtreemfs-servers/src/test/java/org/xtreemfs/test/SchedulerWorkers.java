@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test;
+
+/**
+ * Threads that take requests from a scheduler and execute them like the
+ * threads of a stage, until they are interrupted.
+ */
+public abstract class SchedulerWorkers {
+
+    private Thread[] threads;
+
+    /**
+     * Takes the next batch of requests from the scheduler and executes it.
+     * Invoked repeatedly by each worker thread.
+     *
+     * @param id
+     *            the index of the worker thread
+     */
+    protected abstract void processNext(int id) throws InterruptedException;
+
+    public void start(int numThreads) {
+        threads = new Thread[numThreads];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread("worker " + id) {
+                @Override
+                public void run() {
+                    try {
+                        for (;;)
+                            processNext(id);
+                    } catch (InterruptedException ex) {
+                        // shut down
+                    }
+                }
+            };
+            threads[i].start();
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        for (Thread t : threads)
+            t.interrupt();
+        for (Thread t : threads)
+            t.join();
+    }
+
+}
@@ -12,6 +12,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.security.MessageDigest;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -19,8 +21,10 @@ import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.osd.storage.HashStorageLayout;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
 import org.xtreemfs.test.SetupUtils;
 import org.xtreemfs.test.TestEnvironment;
 import org.xtreemfs.test.TestHelper;
@@ -65,4 +69,33 @@ public class CapabilityTest {
         assertFalse(cap4.isValid());
 
     }
+
+    @Test
+    public void testSignature() throws Exception {
+
+        final long expires = System.currentTimeMillis() / 1000 + 100;
+        for (String fileId : new String[] { "1254:AB", "vol:\u00e4\u00f6\u00fc", "" }) {
+
+            Capability cap = new Capability(fileId, 0102, 60, expires, "client", -3, false,
+                    SnapConfig.SNAP_CONFIG_ACCESS_SNAP, 4711, 1024 * 1024, -1, SECRET);
+
+            // the signature has to be the MD5 hash of the concatenated fields
+            String plainText = fileId + "66" + expires + "-3" + SnapConfig.SNAP_CONFIG_ACCESS_SNAP.getNumber()
+                    + "4711" + (1024 * 1024) + "-1" + SECRET;
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            assertEquals(OutputUtils.byteArrayToHexString(md5.digest(plainText.getBytes())), cap.getSignature());
+            assertTrue(cap.hasValidSignature());
+
+            // a capability parsed at the OSD has a valid signature
+            Capability parsed = new Capability(XCap.parseFrom(cap.getXCap().toByteArray()), SECRET);
+            assertTrue(parsed.hasValidSignature());
+            assertTrue(parsed.hasSameSignedContent(cap));
+
+            // modified capabilities and wrong secrets are detected
+            Capability modified = new Capability(cap.getXCap().toBuilder().setAccessMode(2).build(), SECRET);
+            assertFalse(modified.hasValidSignature());
+            assertFalse(modified.hasSameSignedContent(cap));
+            assertFalse(new Capability(cap.getXCap(), "other").hasValidSignature());
+        }
+    }
 }
@@ -8,6 +8,7 @@
 package org.xtreemfs.test.dir;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -44,6 +45,8 @@ import org.xtreemfs.pbrpc.generatedinterfaces.DIR.addressMappingSetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.configurationSetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.globalTimeSGetResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.serviceRegisterResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.watchResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIRServiceClient;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.test.SetupUtils;
@@ -196,6 +199,69 @@ public class DIRTest {
         osd.shutdown();
     }
 
+    @Test
+    public void testWatch() throws Exception {
+
+        DIRServiceClient client = testEnv.getDirClient();
+
+        // an unknown version results in an immediate response
+        RPCResponse<watchResponse> r1 = client.xtreemfs_watch(null, RPCAuthentication.authNone,
+                RPCAuthentication.userService, watchRequest.newBuilder().setServiceType(ServiceType.SERVICE_TYPE_OSD)
+                        .addMappingUuids("uuid2").setTimeoutMs(30000).build());
+        watchResponse response = r1.get();
+        r1.freeBuffers();
+        assertFalse(response.getServices().getIsDelta());
+        assertEquals(1, response.getChangedMappingUuidsCount());
+        final long servicesVersion = response.getServices().getRegistryVersion();
+        final long mappingsVersion = response.getMappingsVersion();
+
+        // without changes, the response is sent when the timeout expires
+        long start = System.currentTimeMillis();
+        r1 = client.xtreemfs_watch(null, RPCAuthentication.authNone, RPCAuthentication.userService, watchRequest
+                .newBuilder().setServiceType(ServiceType.SERVICE_TYPE_OSD).setServicesSinceVersion(servicesVersion)
+                .setTimeoutMs(500).build());
+        response = r1.get();
+        r1.freeBuffers();
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertTrue(response.getServices().getIsDelta());
+        assertEquals(0, response.getServices().getServicesCount());
+
+        // registering an OSD answers a pending watch request
+        r1 = client.xtreemfs_watch(null, RPCAuthentication.authNone, RPCAuthentication.userService, watchRequest
+                .newBuilder().setServiceType(ServiceType.SERVICE_TYPE_OSD).setServicesSinceVersion(servicesVersion)
+                .setTimeoutMs(30000).build());
+        Service sr = Service.newBuilder().setData(ServiceDataMap.newBuilder()).setType(
+                ServiceType.SERVICE_TYPE_OSD).setUuid("watchOSD").setName("osd @ farnsworth").setLastUpdatedS(0)
+                .setVersion(0).build();
+        RPCResponse<serviceRegisterResponse> r2 = client.xtreemfs_service_register(null,
+                RPCAuthentication.authNone, RPCAuthentication.userService, sr);
+        r2.get();
+        r2.freeBuffers();
+        response = r1.get();
+        r1.freeBuffers();
+        assertTrue(response.getServices().getIsDelta());
+        assertEquals(1, response.getServices().getServicesCount());
+        assertEquals("watchOSD", response.getServices().getServices(0).getUuid());
+
+        // setting an address mapping answers a pending watch request
+        r1 = client.xtreemfs_watch(null, RPCAuthentication.authNone, RPCAuthentication.userService, watchRequest
+                .newBuilder().addMappingUuids("uuid2").setMappingsSinceVersion(mappingsVersion).setTimeoutMs(
+                        30000).build());
+        AddressMapping mapping = AddressMapping.newBuilder().setUuid("uuid2").setProtocol(Schemes.SCHEME_PBRPC)
+                .setAddress("localhost").setPort(12345).setMatchNetwork("*").setTtlS(3600).setVersion(0).setUri(
+                        Schemes.SCHEME_PBRPC + "://localhost:12345").build();
+        RPCResponse<addressMappingSetResponse> r3 = client.xtreemfs_address_mappings_set(null,
+                RPCAuthentication.authNone, RPCAuthentication.userService, AddressMappingSet.newBuilder()
+                        .addMappings(mapping).build());
+        r3.get();
+        r3.freeBuffers();
+        response = r1.get();
+        r1.freeBuffers();
+        assertEquals(1, response.getChangedMappingUuidsCount());
+        assertEquals("uuid2", response.getChangedMappingUuids(0));
+        assertTrue(response.getMappingsVersion() > mappingsVersion);
+    }
+
     @Test
     public void testConfiguration() throws Exception {
 
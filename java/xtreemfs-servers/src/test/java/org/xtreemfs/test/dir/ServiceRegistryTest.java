@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.dir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.dir.ServiceRegistry;
+import org.xtreemfs.dir.data.ServiceRecord;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.Service;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceDataMap;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+import org.xtreemfs.test.TestHelper;
+
+public class ServiceRegistryTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    @Test
+    public void testLookups() throws Exception {
+
+        ServiceRegistry registry = new ServiceRegistry();
+        registry.update(record("osd1", ServiceType.SERVICE_TYPE_OSD, "host1", 100));
+        registry.update(record("osd2", ServiceType.SERVICE_TYPE_OSD, "host2", 100));
+        registry.update(record("mrc1", ServiceType.SERVICE_TYPE_MRC, "host1", 100));
+        assertEquals(3, registry.getNumServices());
+
+        assertEquals("host2", registry.getService("osd2").getName());
+        assertNull(registry.getService("osd3"));
+        assertEquals(2, registry.getServicesByName("host1").getServicesCount());
+
+        ServiceSet osds = registry.getServices(ServiceType.SERVICE_TYPE_OSD, 0, 110);
+        assertFalse(osds.getIsDelta());
+        assertEquals(2, osds.getServicesCount());
+        assertEquals(registry.getVersion(), osds.getRegistryVersion());
+        assertEquals("10", getData(osds.getServices(0), ServiceRegistry.SECONDS_SINCE_LAST_UPDATE));
+
+        assertEquals(3, registry.getServices(ServiceType.SERVICE_TYPE_MIXED, 0, 110).getServicesCount());
+    }
+
+    @Test
+    public void testDeltas() throws Exception {
+
+        ServiceRegistry registry = new ServiceRegistry();
+        registry.update(record("osd1", ServiceType.SERVICE_TYPE_OSD, "host1", 100));
+        registry.update(record("osd2", ServiceType.SERVICE_TYPE_OSD, "host2", 100));
+        long version = registry.getServices(ServiceType.SERVICE_TYPE_OSD, 0, 100).getRegistryVersion();
+
+        // nothing has changed
+        ServiceSet delta = registry.getServices(ServiceType.SERVICE_TYPE_OSD, version, 100);
+        assertTrue(delta.getIsDelta());
+        assertEquals(0, delta.getServicesCount());
+        assertEquals(0, delta.getRemovedUuidsCount());
+        assertEquals(version, delta.getRegistryVersion());
+
+        // changes of other service types are not returned
+        registry.update(record("mrc1", ServiceType.SERVICE_TYPE_MRC, "host1", 100));
+        delta = registry.getServices(ServiceType.SERVICE_TYPE_OSD, version, 100);
+        assertEquals(0, delta.getServicesCount());
+        assertTrue(delta.getRegistryVersion() > version);
+        version = delta.getRegistryVersion();
+
+        registry.update(record("osd2", ServiceType.SERVICE_TYPE_OSD, "host2", 200));
+        registry.remove("osd1");
+        delta = registry.getServices(ServiceType.SERVICE_TYPE_OSD, version, 200);
+        assertTrue(delta.getIsDelta());
+        assertEquals(1, delta.getServicesCount());
+        assertEquals("osd2", delta.getServices(0).getUuid());
+        assertEquals(1, delta.getRemovedUuidsCount());
+        assertEquals("osd1", delta.getRemovedUuids(0));
+        assertEquals(1, registry.getServices(ServiceType.SERVICE_TYPE_OSD, 0, 200).getServicesCount());
+
+        // a service registered again after its removal is not reported as removed
+        registry.update(record("osd1", ServiceType.SERVICE_TYPE_OSD, "host1", 300));
+        delta = registry.getServices(ServiceType.SERVICE_TYPE_OSD, version, 300);
+        assertEquals(2, delta.getServicesCount());
+        assertEquals(0, delta.getRemovedUuidsCount());
+        assertEquals(3, registry.getNumServices());
+
+        // unknown versions, e.g. from before a restart of the DIR, result in
+        // the full set of services
+        ServiceSet full = registry.getServices(ServiceType.SERVICE_TYPE_OSD, registry.getVersion() + 1, 300);
+        assertFalse(full.getIsDelta());
+        assertEquals(2, full.getServicesCount());
+    }
+
+    @Test
+    public void testRemovedEntriesLimit() throws Exception {
+
+        ServiceRegistry registry = new ServiceRegistry();
+        long version = registry.getVersion();
+        for (int i = 0; i <= ServiceRegistry.MAX_REMOVED_ENTRIES; i++) {
+            registry.update(record("osd" + i, ServiceType.SERVICE_TYPE_OSD, "host", 100));
+            registry.remove("osd" + i);
+        }
+
+        // the first removal has been forgotten
+        ServiceSet set = registry.getServices(ServiceType.SERVICE_TYPE_OSD, version, 100);
+        assertFalse(set.getIsDelta());
+        assertEquals(0, set.getServicesCount());
+
+        set = registry.getServices(ServiceType.SERVICE_TYPE_OSD, registry.getVersion() - 2, 100);
+        assertTrue(set.getIsDelta());
+        assertEquals(1, set.getRemovedUuidsCount());
+    }
+
+    private static ServiceRecord record(String uuid, ServiceType type, String name, long lastUpdatedS) {
+        return new ServiceRecord(Service.newBuilder().setUuid(uuid).setType(type).setName(name).setVersion(1)
+                .setLastUpdatedS(lastUpdatedS).setData(
+                        ServiceDataMap.newBuilder().addData(
+                                KeyValuePair.newBuilder().setKey("free").setValue("1000"))).build());
+    }
+
+    private static String getData(Service service, String key) {
+        for (KeyValuePair kvp : service.getData().getDataList()) {
+            if (kvp.getKey().equals(key))
+                return kvp.getValue();
+        }
+        return null;
+    }
+
+}
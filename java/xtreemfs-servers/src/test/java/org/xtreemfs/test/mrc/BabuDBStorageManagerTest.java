@@ -10,6 +10,8 @@ package org.xtreemfs.test.mrc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -34,6 +36,7 @@ import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DBAccessResultListener;
 import org.xtreemfs.mrc.database.DatabaseResultSet;
 import org.xtreemfs.mrc.database.babudb.BabuDBStorageManager;
+import org.xtreemfs.mrc.database.babudb.MetadataCache;
 import org.xtreemfs.mrc.metadata.FileMetadata;
 import org.xtreemfs.mrc.utils.Path;
 import org.xtreemfs.test.SetupUtils;
@@ -337,6 +340,71 @@ public class BabuDBStorageManagerTest {
         assertTrue(tmp.contains("comp2"));
     }
 
+    @Test
+    public void testMetadataCache() throws Exception {
+        
+        final String userId = "me";
+        final String groupId = "myGroup";
+        final short perms = 511;
+        final MetadataCache cache = mngr.getMetadataCache();
+        assertNotNull(cache);
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createDir(2, 1, "dir", 0, 0, 0, userId, groupId, perms, 0, update);
+        mngr.createFile(3, 2, "file.txt", 0, 0, 0, userId, groupId, perms, 0, 0, false, 0, 0, update);
+        update.execute();
+        waitForResponse();
+        
+        // the first resolution fills the cache with the directories, the second
+        // one takes them from the cache
+        FileMetadata[] md = mngr.resolvePath(new Path("volume/dir/file.txt"));
+        assertEquals(3, md[2].getId());
+        assertEquals(2, cache.getSize());
+        long hits = cache.getHits();
+        
+        md = mngr.resolvePath(new Path("volume/dir/file.txt"));
+        assertEquals(2, md[1].getId());
+        assertEquals(3, md[2].getId());
+        assertEquals(hits + 2, cache.getHits());
+        assertTrue(cache.getMemoryUsage() > 0);
+        
+        // modifying a resolved object must not affect the cache
+        md[1].setPerms(0700);
+        md = mngr.resolvePath(new Path("volume/dir/file.txt"));
+        assertEquals(perms, md[1].getPerms());
+        
+        // stored modifications must be visible
+        md[1].setPerms(0700);
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.setMetadata(md[1], FileMetadata.RC_METADATA, update);
+        update.execute();
+        waitForResponse();
+        md = mngr.resolvePath(new Path("volume/dir/file.txt"));
+        assertEquals(0700, md[1].getPerms());
+        
+        // a moved directory must not be found under its old name
+        update = mngr.createAtomicDBUpdate(listener, null);
+        md[1].setLinkCount(mngr.unlink(1, "dir", update));
+        mngr.link(md[1], 1, "newdir", update);
+        update.execute();
+        waitForResponse();
+        md = mngr.resolvePath(new Path("volume/dir/file.txt"));
+        assertNull(md[1]);
+        md = mngr.resolvePath(new Path("volume/newdir/file.txt"));
+        assertEquals(2, md[1].getId());
+        assertEquals(3, md[2].getId());
+        
+        // a deleted directory must not be found anymore
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.delete(2, "file.txt", update);
+        mngr.delete(1, "newdir", update);
+        update.execute();
+        waitForResponse();
+        md = mngr.resolvePath(new Path("volume/newdir"));
+        assertNull(md[1]);
+        assertTrue(cache.getHitRate() > 0);
+    }
+    
     @Test
     public void testPartialReaddir() throws Exception {
         
@@ -410,6 +478,115 @@ public class BabuDBStorageManagerTest {
         
     }
     
+    @Test
+    public void testCursorReaddir() throws Exception {
+        
+        final short perms = 511;
+        
+        // create a directory with nested entries whose names are prefixes of
+        // each other, and an adjacent directory
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createDir(2, 1, "dir", 0, 0, 0, "me", "myGrp", perms, 0, update);
+        mngr.createDir(3, 1, "dir2", 0, 0, 0, "me", "myGrp", perms, 0, update);
+        String[] names = { "a", "ab", "abc", "b", "ba", "c" };
+        for (int i = 0; i < names.length; i++)
+            mngr.createFile(10 + i, 2, names[i], 0, 0, 0, "me", "myGrp", perms, 0, i, false, 0, 0, update);
+        mngr.createFile(20, 3, "x", 0, 0, 0, "me", "myGrp", perms, 0, 0, false, 0, 0, update);
+        update.execute();
+        waitForResponse();
+        
+        // list the directory in chunks of two entries
+        List<String> listed = new LinkedList<String>();
+        String cursor = null;
+        for (;;) {
+            DatabaseResultSet<FileMetadata> children = mngr.getChildren(2, cursor, 2);
+            int count = 0;
+            while (children.hasNext()) {
+                cursor = children.next().getFileName();
+                listed.add(cursor);
+                count++;
+            }
+            children.destroy();
+            
+            if (count < 2)
+                break;
+        }
+        
+        assertEquals(names.length, listed.size());
+        for (int i = 0; i < names.length; i++)
+            assertEquals(names[i], listed.get(i));
+        
+        // a cursor behind the last entry yields no further entries
+        DatabaseResultSet<FileMetadata> children = mngr.getChildren(2, "c", 10);
+        assertFalse(children.hasNext());
+        children.destroy();
+        
+        // the cursor need not refer to an existing entry
+        children = mngr.getChildren(2, "aa", 10);
+        assertEquals("ab", children.next().getFileName());
+        children.destroy();
+    }
+    
+    /**
+     * Lists a huge directory in chunks by means of cursors and checks that
+     * the chunks are contiguous and cover all entries. The number of entries
+     * can be set via the system property 'xtreemfs.test.readdirEntries'.
+     */
+    @Test
+    public void testHugeReaddir() throws Exception {
+        
+        final int numEntries = Integer.getInteger("xtreemfs.test.readdirEntries", 10000);
+        final int chunkSize = 1024;
+        final int batchSize = 10000;
+        final short perms = 511;
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createDir(2, 1, "huge", 0, 0, 0, "me", "myGrp", perms, 0, update);
+        update.execute();
+        waitForResponse();
+        
+        for (int i = 0; i < numEntries; i += batchSize) {
+            update = mngr.createAtomicDBUpdate(listener, null);
+            for (int j = i; j < Math.min(i + batchSize, numEntries); j++)
+                mngr.createFile(j + 10, 2, String.format("file%09d", j), 0, 0, 0, "me", "myGrp", perms, 0, 0,
+                    false, 0, 0, update);
+            update.execute();
+            waitForResponse();
+        }
+        
+        // list the entire directory by means of cursors; each chunk has to
+        // continue right after the last entry of the previous chunk
+        int listed = 0;
+        String cursor = null;
+        for (;;) {
+            DatabaseResultSet<FileMetadata> children = mngr.getChildren(2, cursor, chunkSize);
+            int count = 0;
+            while (children.hasNext()) {
+                assertEquals(String.format("file%09d", listed), children.next().getFileName());
+                listed++;
+                count++;
+            }
+            children.destroy();
+            
+            if (count < chunkSize)
+                break;
+            cursor = String.format("file%09d", listed - 1);
+        }
+        assertEquals(numEntries, listed);
+        
+        // the last chunk has to be the same with offsets and with cursors
+        int offset = numEntries - chunkSize;
+        DatabaseResultSet<FileMetadata> byOffset = mngr.getChildren(2, offset, chunkSize);
+        DatabaseResultSet<FileMetadata> byCursor = mngr.getChildren(2, String.format("file%09d", offset - 1),
+            chunkSize);
+        for (int i = 0; i < chunkSize; i++)
+            assertEquals(byOffset.next().getFileName(), byCursor.next().getFileName());
+        assertFalse(byOffset.hasNext());
+        assertFalse(byCursor.hasNext());
+        byOffset.destroy();
+        byCursor.destroy();
+    }
+    
     private void waitForResponse() throws Exception {
         
         synchronized (lock) {
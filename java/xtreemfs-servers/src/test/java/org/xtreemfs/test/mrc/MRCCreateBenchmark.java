@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.mrc;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.VivaldiCoordinates;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
+import org.xtreemfs.test.TestEnvironment;
+import org.xtreemfs.test.TestEnvironment.Services;
+
+/**
+ * Measures the aggregate rate of file creations in an in-process MRC with an
+ * increasing number of volumes. One client thread per volume creates files in
+ * its volume as fast as possible. Since modifying operations of different
+ * volumes are executed in parallel, the rate should grow with the number of
+ * volumes up to the number of volume threads of the MRC.
+ * <p>
+ * This is not a unit test; run it manually:
+ *
+ * <pre>
+ * MRCCreateBenchmark [maxVolumes [createsPerVolume]]
+ * </pre>
+ */
+public class MRCCreateBenchmark {
+
+    private static final UserCredentials    uc = UserCredentials.newBuilder().setUsername("bench")
+                                                       .addGroups("bench").build();
+
+    private static final VivaldiCoordinates coordinates = VivaldiCoordinates.newBuilder().setXCoordinate(0)
+                                                       .setYCoordinate(0).setLocalError(0).build();
+
+    public static void main(String[] args) throws Exception {
+
+        int maxVolumes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int createsPerVolume = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Logging.start(Logging.LEVEL_WARN);
+
+        double singleVolumeRate = 0;
+        for (int numVolumes = 1; numVolumes <= maxVolumes; numVolumes *= 2) {
+
+            // use a fresh MRC database for each run
+            TestEnvironment testEnv = new TestEnvironment(Services.TIME_SYNC, Services.UUID_RESOLVER,
+                    Services.RPC_CLIENT, Services.DIR_CLIENT, Services.DIR_SERVICE, Services.MRC,
+                    Services.MRC_CLIENT, Services.MOCKUP_OSD);
+            testEnv.start();
+
+            try {
+                double rate = run(testEnv.getMrcClient(), testEnv.getMRCAddress(), numVolumes, createsPerVolume);
+                if (numVolumes == 1)
+                    singleVolumeRate = rate;
+
+                System.out.println(String.format("%d volumes: %.0f creates/s (%.1fx)", numVolumes, rate, rate
+                        / singleVolumeRate));
+            } finally {
+                testEnv.shutdown();
+            }
+        }
+    }
+
+    private static double run(final MRCServiceClient client, final InetSocketAddress mrcAddress,
+            int numVolumes, final int createsPerVolume) throws Exception {
+
+        StripingPolicy sp = StripingPolicy.newBuilder().setType(StripingPolicyType.STRIPING_POLICY_RAID0)
+                .setStripeSize(1000).setWidth(1).build();
+        List<KeyValuePair> attrs = new LinkedList<KeyValuePair>();
+
+        for (int i = 0; i < numVolumes; i++)
+            invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+                    AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, sp, "", 0775, "vol" + i, "", "", attrs, 0));
+
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread[] clients = new Thread[numVolumes];
+        for (int i = 0; i < numVolumes; i++) {
+            final String volumeName = "vol" + i;
+            clients[i] = new Thread("client " + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < createsPerVolume; j++)
+                            invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "file"
+                                + j, FileAccessManager.O_CREAT | FileAccessManager.O_EXCL, 0775, 0, coordinates));
+                    } catch (Exception exc) {
+                        error.compareAndSet(null, exc);
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : clients)
+            t.start();
+        for (Thread t : clients)
+            t.join();
+        long duration = System.nanoTime() - start;
+
+        if (error.get() != null)
+            throw error.get();
+
+        return (long) numVolumes * createsPerVolume * 1e9 / duration;
+    }
+
+    private static void invokeSync(RPCResponse<?> response) throws Exception {
+        try {
+            response.get();
+        } finally {
+            response.freeBuffers();
+        }
+    }
+
+}
@@ -49,10 +49,14 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.ACCESS_FLAGS;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntries;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntry;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Setattrs;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Volumes;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.XAttr;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_dir_entry_ref;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattr_bulkResult;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_open_bulkResult;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_set_replica_update_policyRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_update_file_sizeRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
@@ -270,11 +274,11 @@ public class MRCTest {
         // test 'readDir' and 'stat'
         
         DirectoryEntries entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
-            volumeName, "", -1, 1000, false, 0));
+            volumeName, "", -1, 1000, false, 0, ByteString.EMPTY));
         assertEquals(4, entrySet.getEntriesCount());
         
         entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir",
-            -1, 1000, false, 0));
+            -1, 1000, false, 0, ByteString.EMPTY));
         assertEquals(12, entrySet.getEntriesCount());
         
         Stat stat = invokeSync(
@@ -295,7 +299,7 @@ public class MRCTest {
         invokeSync(client.unlink(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir/test3.txt"));
         
         entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir",
-            -1, 1000, false, 0));
+            -1, 1000, false, 0, ByteString.EMPTY));
         assertEquals(11, entrySet.getEntriesCount());
         
         invokeSync(client.rmdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "anotherDir"));
@@ -313,7 +317,56 @@ public class MRCTest {
             AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
             volumeName, "", "", getKVList(), 0));
         invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "/", -1, 1000,
-            false, 0));
+            false, 0, ByteString.EMPTY));
+    }
+    
+    @Test
+    public void testReaddirCursor() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
+            volumeName, "", "", getKVList(), 0));
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "dir", 0775));
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "other", 0775));
+        for (int i = 0; i < 10; i++)
+            invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "dir/file" + i,
+                FileAccessManager.O_CREAT, 0775, 0, getDefaultCoordinates()));
+        
+        // the first chunk contains '..' and '.', the following chunks are
+        // continued at the cursor
+        List<String> names = new LinkedList<String>();
+        ByteString cursor = ByteString.EMPTY;
+        for (;;) {
+            DirectoryEntries chunk = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
+                volumeName, "dir", -1, 3, false, 0, cursor));
+            for (DirectoryEntry entry : chunk.getEntriesList())
+                names.add(entry.getName());
+            if (chunk.getEntriesCount() < 3)
+                break;
+            
+            assertTrue(chunk.hasResumeCursor());
+            cursor = chunk.getResumeCursor();
+        }
+        
+        assertEquals(12, names.size());
+        assertEquals("..", names.get(0));
+        assertEquals(".", names.get(1));
+        for (int i = 0; i < 10; i++)
+            assertEquals("file" + i, names.get(i + 2));
+        
+        // a cursor of a different directory is rejected
+        try {
+            invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "other", -1, 3,
+                false, 0, cursor));
+            fail("cursor of different directory accepted");
+        } catch (PBRPCException exc) {
+            assertEquals(POSIXErrno.POSIX_ERROR_EINVAL, exc.getPOSIXErrno());
+        }
     }
     
     @Test
@@ -667,6 +720,79 @@ public class MRCTest {
         }
     }
     
+    @Test
+    public void testBulkStatAndOpen() throws Exception {
+        
+        final String uid = "userXY";
+        final List<String> gids = createGIDs("groupZ");
+        final String volumeName = "testVolume";
+        final UserCredentials uc = createUserCredentials(uid, gids);
+        
+        invokeSync(client.xtreemfs_mkvol(mrcAddress, RPCAuthentication.authNone, uc,
+            AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX, getDefaultStripingPolicy(), "", 0775,
+            volumeName, "", "", getKVList(), 0));
+        
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "dir", 0775));
+        invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "dir/sub", 0775));
+        invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "dir/a.txt",
+            FileAccessManager.O_CREAT, 0774, 0, getDefaultCoordinates()));
+        invokeSync(client.open(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "dir/sub/b.txt",
+            FileAccessManager.O_CREAT, 0774, 0, getDefaultCoordinates()));
+        
+        List<String> paths = new LinkedList<String>();
+        paths.add("dir/a.txt");
+        paths.add("dir/sub/b.txt");
+        paths.add("dir/missing.txt");
+        paths.add("dir/a.txt/c.txt");
+        paths.add("dir/sub");
+        
+        // stat all paths at once; missing files must not fail the request
+        Stat dirStat = invokeSync(client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName,
+            "dir", -1)).getStbuf();
+        List<xtreemfs_dir_entry_ref> entries = new LinkedList<xtreemfs_dir_entry_ref>();
+        entries.add(xtreemfs_dir_entry_ref.newBuilder().setParentId(dirStat.getIno()).setName("a.txt").build());
+        entries.add(xtreemfs_dir_entry_ref.newBuilder().setParentId(dirStat.getIno()).setName("x").build());
+        
+        List<xtreemfs_getattr_bulkResult> stats = invokeSync(
+            client.xtreemfs_getattr_bulk(mrcAddress, RPCAuthentication.authNone, uc, volumeName, paths,
+                entries)).getResultsList();
+        assertEquals(paths.size() + entries.size(), stats.size());
+        
+        assertTrue(stats.get(0).hasStbuf());
+        assertTrue(stats.get(1).hasStbuf());
+        assertEquals(POSIXErrno.POSIX_ERROR_ENOENT.getNumber(), stats.get(2).getPosixErrno());
+        assertEquals(POSIXErrno.POSIX_ERROR_ENOENT.getNumber(), stats.get(3).getPosixErrno());
+        Stat subStat = invokeSync(client.getattr(mrcAddress, RPCAuthentication.authNone, uc, volumeName,
+            "dir/sub", -1)).getStbuf();
+        assertEquals(subStat.getIno(), stats.get(4).getStbuf().getIno());
+        assertEquals(stats.get(0).getStbuf().getIno(), stats.get(5).getStbuf().getIno());
+        assertEquals(POSIXErrno.POSIX_ERROR_ENOENT.getNumber(), stats.get(6).getPosixErrno());
+        
+        // open the files at once
+        List<String> files = new LinkedList<String>();
+        files.add("dir/a.txt");
+        files.add("dir/sub/b.txt");
+        files.add("dir/sub");
+        
+        List<xtreemfs_open_bulkResult> creds = invokeSync(
+            client.xtreemfs_open_bulk(mrcAddress, RPCAuthentication.authNone, uc, volumeName, files,
+                FileAccessManager.O_RDWR, getDefaultCoordinates())).getResultsList();
+        assertEquals(files.size(), creds.size());
+        assertEquals(stats.get(0).getStbuf().getIno() + "", creds.get(0).getCreds().getXcap().getFileId()
+                .split(":")[1]);
+        assertTrue(creds.get(1).hasCreds());
+        assertEquals(POSIXErrno.POSIX_ERROR_EISDIR.getNumber(), creds.get(2).getPosixErrno());
+        
+        // files cannot be created by a bulk open
+        try {
+            invokeSync(client.xtreemfs_open_bulk(mrcAddress, RPCAuthentication.authNone, uc, volumeName, files,
+                FileAccessManager.O_CREAT, getDefaultCoordinates()));
+            fail("created files w/ bulk open");
+        } catch (PBRPCException exc) {
+            assertEquals(POSIXErrno.POSIX_ERROR_EINVAL, exc.getPOSIXErrno());
+        }
+    }
+    
     @Test
     public void testOpenCreateNoPerm() throws Exception {
         
@@ -856,7 +982,7 @@ public class MRCTest {
         
         final UserCredentials ucS = createUserCredentials("someone", createGIDs("somegroup"));
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, ucS, noACVolumeName,
-            "newDir/newFile", -1, 1000, false, 0)));
+            "newDir/newFile", -1, 1000, false, 0, ByteString.EMPTY)));
         
         // VOLUME policy
         
@@ -893,7 +1019,7 @@ public class MRCTest {
         
         // check permissions by opening the file
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName,
-            "newDir", -1, 1000, false, 0)));
+            "newDir", -1, 1000, false, 0, ByteString.EMPTY)));
         
         try {
             invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName, "newDir2",
@@ -953,14 +1079,14 @@ public class MRCTest {
         // readdir on "/newDir"; should fail for any user now
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ByteString.EMPTY));
             fail("access should have been denied");
         } catch (PBRPCException exc) {
         }
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ByteString.EMPTY));
             fail("access should have been denied");
         } catch (PBRPCException exc) {
         }
@@ -971,14 +1097,14 @@ public class MRCTest {
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ByteString.EMPTY));
             fail("access should have been denied due to insufficient permissions");
         } catch (PBRPCException exc) {
         }
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ByteString.EMPTY));
             fail("access should have been denied due to insufficient search permissions");
         } catch (PBRPCException exc) {
         }
@@ -989,11 +1115,11 @@ public class MRCTest {
         
         // access should be granted to others now
         invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName, "newDir", -1,
-            1000, false, 0));
+            1000, false, 0, ByteString.EMPTY));
         
         // check permissions
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName,
-            "newDir", -1, 1000, false, 0)));
+            "newDir", -1, 1000, false, 0, ByteString.EMPTY)));
         
         // check permissions
         assertNotNull(invokeSync(client.getattr(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName,
@@ -1006,7 +1132,7 @@ public class MRCTest {
         // owner of 'newDir' should still not have access rights
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ByteString.EMPTY));
             fail("access should have been denied due to insufficient permissions");
         } catch (PBRPCException exc) {
         }
@@ -1428,7 +1554,7 @@ public class MRCTest {
             // if the path points to a directory, check whether the number of
             // subdirectories is correct
             DirectoryEntries dir = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
-                volumeName, path, -1, 1000, false, 0));
+                volumeName, path, -1, 1000, false, 0, ByteString.EMPTY));
             int size = dir.getEntriesCount();
             
             int count = 0;
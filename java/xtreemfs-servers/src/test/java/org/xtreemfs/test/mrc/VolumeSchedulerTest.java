@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.mrc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.mrc.stages.VolumeScheduler;
+import org.xtreemfs.mrc.stages.VolumeScheduler.VolumeQueue;
+import org.xtreemfs.test.SchedulerWorkers;
+import org.xtreemfs.test.SetupUtils;
+import org.xtreemfs.test.TestHelper;
+
+public class VolumeSchedulerTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private SchedulerWorkers workers;
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    /**
+     * Starts workers that process requests like the volume threads of the
+     * processing stage.
+     */
+    private void startWorkers(final VolumeScheduler<Runnable> scheduler, int numThreads) {
+        workers = new SchedulerWorkers() {
+            @Override
+            protected void processNext(int id) throws InterruptedException {
+                VolumeQueue<Runnable> vq = scheduler.take();
+                int processed = 0;
+                Runnable rq;
+                while ((rq = scheduler.next(vq, processed++)) != null)
+                    rq.run();
+            }
+        };
+        workers.start(numThreads);
+    }
+
+    private void stopWorkers() throws InterruptedException {
+        workers.stop();
+    }
+
+    /**
+     * Requests of the same volume must be executed one after another and in the
+     * order in which they were enqueued.
+     */
+    @Test
+    public void testPerVolumeOrdering() throws Exception {
+        final int numVolumes = 6;
+        final int numRequests = 10000;
+
+        VolumeScheduler<Runnable> scheduler = new VolumeScheduler<Runnable>();
+        final int[] lastSeqNo = new int[numVolumes];
+        final AtomicBoolean[] running = new AtomicBoolean[numVolumes];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(numRequests);
+        for (int i = 0; i < numVolumes; i++)
+            running[i] = new AtomicBoolean();
+
+        startWorkers(scheduler, 4);
+        Random rnd = new Random(42);
+        int[] seqNos = new int[numVolumes];
+        for (int i = 0; i < numRequests; i++) {
+            final int volume = rnd.nextInt(numVolumes);
+            final int seqNo = ++seqNos[volume];
+            scheduler.enqueue("vol" + volume, new Runnable() {
+                public void run() {
+                    if (!running[volume].compareAndSet(false, true))
+                        errors.incrementAndGet();
+                    if (lastSeqNo[volume] != seqNo - 1)
+                        errors.incrementAndGet();
+                    lastSeqNo[volume] = seqNo;
+                    if (seqNo % 7 == 0)
+                        Thread.yield();
+                    running[volume].set(false);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        scheduler.waitForIdle();
+        stopWorkers();
+        assertEquals(0, errors.get());
+        assertEquals(0, scheduler.getQueueLength());
+        assertEquals(0, scheduler.getNumVolumes());
+    }
+
+    /**
+     * A volume with a long-running request must not block other volumes.
+     */
+    @Test
+    public void testIndependentVolumes() throws Exception {
+        VolumeScheduler<Runnable> scheduler = new VolumeScheduler<Runnable>();
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        final CountDownLatch sameDone = new CountDownLatch(1);
+
+        startWorkers(scheduler, 2);
+        scheduler.enqueue("vol0", new Runnable() {
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        scheduler.enqueue("vol0", new Runnable() {
+            public void run() {
+                sameDone.countDown();
+            }
+        });
+        scheduler.enqueue("vol1", new Runnable() {
+            public void run() {
+                otherDone.countDown();
+            }
+        });
+
+        // the second volume proceeds, the second request of the first volume
+        // has to wait although a thread is idle
+        assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+        assertFalse(sameDone.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduler.getQueueLength());
+
+        release.countDown();
+        assertTrue(sameDone.await(10, TimeUnit.SECONDS));
+        stopWorkers();
+    }
+
+    /**
+     * waitForIdle() must not return before all enqueued requests have been
+     * executed.
+     */
+    @Test
+    public void testWaitForIdle() throws Exception {
+        VolumeScheduler<Runnable> scheduler = new VolumeScheduler<Runnable>();
+        final AtomicInteger executed = new AtomicInteger();
+
+        // an idle scheduler does not block
+        scheduler.waitForIdle();
+
+        for (int i = 0; i < 100; i++)
+            scheduler.enqueue("vol" + (i % 3), new Runnable() {
+                public void run() {
+                    LockSupport.parkNanos(100000);
+                    executed.incrementAndGet();
+                }
+            });
+
+        startWorkers(scheduler, 2);
+        scheduler.waitForIdle();
+        assertEquals(100, executed.get());
+        stopWorkers();
+    }
+
+    /**
+     * A volume is released after a batch of requests if other volumes are
+     * waiting, and is continued later.
+     */
+    @Test
+    public void testFairness() throws Exception {
+        VolumeScheduler<Runnable> scheduler = new VolumeScheduler<Runnable>();
+        Runnable nop = new Runnable() {
+            public void run() {
+            }
+        };
+
+        for (int i = 0; i < VolumeScheduler.BATCH_SIZE + 1; i++)
+            scheduler.enqueue("vol0", nop);
+        scheduler.enqueue("vol1", nop);
+        assertEquals(2, scheduler.getNumVolumes());
+
+        // process the requests without workers
+        VolumeQueue<Runnable> vq0 = scheduler.take();
+        assertEquals("vol0", vq0.getVolumeId());
+        int processed = 0;
+        while (scheduler.next(vq0, processed) != null)
+            processed++;
+        assertEquals(VolumeScheduler.BATCH_SIZE, processed);
+
+        VolumeQueue<Runnable> vq1 = scheduler.take();
+        assertEquals("vol1", vq1.getVolumeId());
+        assertNotNull(scheduler.next(vq1, 0));
+        assertNull(scheduler.next(vq1, 1));
+
+        assertSame(vq0, scheduler.take());
+        assertNotNull(scheduler.next(vq0, 0));
+        assertNull(scheduler.next(vq0, 1));
+
+        assertEquals(0, scheduler.getQueueLength());
+        assertEquals(0, scheduler.getNumVolumes());
+        scheduler.waitForIdle();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.osd.CapabilityCache;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.test.SetupUtils;
+import org.xtreemfs.test.TestEnvironment;
+import org.xtreemfs.test.TestHelper;
+
+public class CapabilityCacheTest {
+    @Rule
+    public final TestRule       testLog = TestHelper.testLog;
+
+    private static final String SECRET  = "secret";
+
+    private TestEnvironment     te;
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+
+        te = new TestEnvironment(TestEnvironment.Services.TIME_SYNC);
+        te.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        te.shutdown();
+    }
+
+    private static Capability createCap(String fileId, int accessMode, long expires) {
+        // capabilities are parsed from requests at the OSD
+        Capability cap = new Capability(fileId, accessMode, 60, expires, "", 0, false,
+                SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0, SECRET);
+        return new Capability(cap.getXCap(), SECRET);
+    }
+
+    @Test
+    public void testVerification() throws Exception {
+
+        final long expires = System.currentTimeMillis() / 1000 + 100;
+        CapabilityCache cache = new CapabilityCache(2);
+
+        Capability cap = createCap("vol:1", 0, expires);
+        assertTrue(cache.isValid(cap));
+        assertEquals(0, cache.getHits());
+        assertTrue(cache.isValid(createCap("vol:1", 0, expires)));
+        assertEquals(1, cache.getHits());
+
+        // a capability with a modified access mode must not be accepted
+        // because of the cached signature
+        Capability forged = new Capability(cap.getXCap().toBuilder().setAccessMode(2).build(), SECRET);
+        assertFalse(cache.isValid(forged));
+
+        // expired capabilities are rejected, even if they have been cached
+        Capability expired = createCap("vol:2", 0, System.currentTimeMillis() / 1000 - 3600);
+        assertFalse(cache.isValid(expired));
+
+        // the oldest capability of a file is replaced
+        assertTrue(cache.isValid(createCap("vol:1", 1, expires)));
+        assertTrue(cache.isValid(createCap("vol:1", 2, expires)));
+        long misses = cache.getMisses();
+        assertTrue(cache.isValid(cap));
+        assertEquals(misses + 1, cache.getMisses());
+
+        // closing a file removes its capabilities
+        assertEquals(1, cache.getNumFiles());
+        cache.remove("vol:1");
+        assertEquals(0, cache.getNumFiles());
+    }
+
+    @Test
+    public void testConcurrentVerification() throws Exception {
+
+        final long expires = System.currentTimeMillis() / 1000 + 100;
+        final CapabilityCache cache = new CapabilityCache(20);
+        final Capability[] caps = new Capability[16];
+        for (int i = 0; i < caps.length; i++)
+            caps[i] = createCap("vol:" + (i % 4), i, expires);
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++)
+                        if (!cache.isValid(caps[i % caps.length]))
+                            failures.incrementAndGet();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(0, failures.get());
+        assertEquals(4, cache.getNumFiles());
+        assertTrue(cache.getHitRate() > 0.9);
+    }
+}
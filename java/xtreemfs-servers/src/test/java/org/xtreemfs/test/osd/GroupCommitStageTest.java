@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.osd.stages.GroupCommitStage;
+import org.xtreemfs.osd.stages.StorageStage.WriteObjectCallback;
+import org.xtreemfs.osd.storage.UnsyncedWrite;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.test.SetupUtils;
+import org.xtreemfs.test.TestHelper;
+
+public class GroupCommitStageTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private static class Callback implements WriteObjectCallback {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private OSDWriteResponse     result;
+
+        private ErrorResponse        error;
+
+        public void writeComplete(OSDWriteResponse result, ErrorResponse error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        void waitForCompletion() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+
+        dir = new File(SetupUtils.TEST_DIR, "groupcommit");
+        FSUtils.delTree(dir);
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FSUtils.delTree(dir);
+    }
+
+    private FileChannel writeFile(String name) throws Exception {
+        RandomAccessFile f = new RandomAccessFile(new File(dir, name), "rw");
+        f.getChannel().write(ByteBuffer.wrap(name.getBytes()));
+        return f.getChannel();
+    }
+
+    /**
+     * Concurrent synchronous writers must all be completed, and their syncs
+     * should be batched.
+     */
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        final int numWriters = 8;
+        final int numWrites = 50;
+
+        final GroupCommitStage stage = new GroupCommitStage(2, 4);
+        stage.start();
+        stage.waitForStartup();
+
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] writers = new Thread[numWriters];
+        for (int i = 0; i < numWriters; i++) {
+            final int writer = i;
+            writers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < numWrites; j++) {
+                            OSDWriteResponse response = OSDWriteResponse.newBuilder().setSizeInBytes(j).build();
+                            Callback cb = new Callback();
+                            stage.sync(new UnsyncedWrite(writeFile(writer + "-" + j)), response, cb);
+                            cb.waitForCompletion();
+                            if (cb.error != null || cb.result != response)
+                                errors.incrementAndGet();
+                        }
+                    } catch (Throwable ex) {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (Thread t : writers)
+            t.join();
+
+        stage.shutdown();
+        stage.waitForShutdown();
+
+        assertEquals(0, errors.get());
+        assertEquals(numWriters * numWrites, stage.getNumWrites());
+        assertTrue(stage.getNumBatches() <= stage.getNumWrites());
+        assertTrue(stage.getMaxBatchSize() <= numWriters);
+        assertTrue(stage.getAverageBatchSize() >= 1);
+        assertTrue(stage.getMaxFlushLatency() >= stage.getAverageFlushLatency());
+    }
+
+    /**
+     * Writes that are pending when the stage is shut down are completed, and so
+     * are writes handed over afterwards.
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        GroupCommitStage stage = new GroupCommitStage(2, 4);
+
+        Callback[] pending = new Callback[10];
+        FileChannel[] files = new FileChannel[pending.length];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = new Callback();
+            files[i] = writeFile("file" + i);
+            stage.sync(new UnsyncedWrite(files[i]), OSDWriteResponse.getDefaultInstance(), pending[i]);
+        }
+
+        stage.start();
+        stage.shutdown();
+        stage.waitForShutdown();
+
+        for (int i = 0; i < pending.length; i++) {
+            pending[i].waitForCompletion();
+            assertNull(pending[i].error);
+            assertFalse(files[i].isOpen());
+        }
+
+        Callback late = new Callback();
+        stage.sync(new UnsyncedWrite(writeFile("late")), OSDWriteResponse.getDefaultInstance(), late);
+        late.waitForCompletion();
+        assertNull(late.error);
+        assertSame(OSDWriteResponse.getDefaultInstance(), late.result);
+    }
+
+    /**
+     * A write whose file cannot be synced fails with EIO, without affecting
+     * the other writes of the batch.
+     */
+    @Test
+    public void testSyncError() throws Exception {
+        GroupCommitStage stage = new GroupCommitStage(2, 4);
+
+        FileChannel closed = writeFile("closed");
+        closed.close();
+        Callback failed = new Callback();
+        Callback succeeded = new Callback();
+        FileChannel open = writeFile("open");
+        stage.sync(new UnsyncedWrite(closed), OSDWriteResponse.getDefaultInstance(), failed);
+        stage.sync(new UnsyncedWrite(open), OSDWriteResponse.getDefaultInstance(), succeeded);
+
+        stage.start();
+        stage.shutdown();
+        stage.waitForShutdown();
+
+        failed.waitForCompletion();
+        assertNull(failed.result);
+        assertNotNull(failed.error);
+        assertEquals(POSIXErrno.POSIX_ERROR_EIO, failed.error.getPosixErrno());
+
+        succeeded.waitForCompletion();
+        assertNull(succeeded.error);
+        assertFalse(open.isOpen());
+        assertEquals(2, stage.getNumWrites());
+        assertEquals(1, stage.getNumBatches());
+    }
+}
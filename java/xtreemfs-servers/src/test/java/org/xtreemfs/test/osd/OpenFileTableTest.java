@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.osd.OpenFileTable;
+import org.xtreemfs.osd.OpenFileTable.OpenFileTableEntry;
+import org.xtreemfs.osd.storage.CowPolicy;
+import org.xtreemfs.test.SetupUtils;
+import org.xtreemfs.test.TestHelper;
+
+public class OpenFileTableTest {
+    @Rule
+    public final TestRule     testLog = TestHelper.testLog;
+
+    private static final long START   = 1000000;
+
+    private OpenFileTable     oft;
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+
+        // 10 slots of 100 ms
+        oft = new OpenFileTable(100, 10);
+    }
+
+    private static Set<String> fileIds(List<OpenFileTableEntry> entries) {
+        Set<String> ids = new HashSet<String>();
+        for (OpenFileTableEntry e : entries)
+            ids.add(e.getFileId());
+        return ids;
+    }
+
+    @Test
+    public void testClean() throws Exception {
+
+        oft.openFile("a", START + 100, CowPolicy.PolicyNoCow, false);
+        oft.openFile("b", START + 250, CowPolicy.PolicyNoCow, false);
+        oft.openFile("c", START + 5000, CowPolicy.PolicyNoCow, false);
+        assertEquals(3, oft.getNumOpenFiles());
+
+        // expiration times are exclusive
+        assertTrue(oft.clean(START + 100).isEmpty());
+
+        List<OpenFileTableEntry> closed = oft.clean(START + 101);
+        assertEquals(1, closed.size());
+        assertEquals("a", closed.get(0).getFileId());
+        assertTrue(closed.get(0).isClosed());
+        assertFalse(oft.contains("a"));
+
+        // refreshing moves the entry to a later slot
+        assertSame(CowPolicy.PolicyNoCow, oft.refresh("b", START + 600, false));
+        assertTrue(oft.clean(START + 500).isEmpty());
+
+        // 'c' lies several revolutions ahead and must not expire with 'b'
+        closed = oft.clean(START + 700);
+        assertEquals(set("b"), fileIds(closed));
+        assertEquals(1, oft.getNumOpenFiles());
+
+        // more than one revolution has passed since the last clean
+        assertTrue(oft.clean(START + 4000).isEmpty());
+        assertEquals(set("c"), fileIds(oft.clean(START + 6000)));
+        assertEquals(0, oft.getNumOpenFiles());
+
+        // refreshing a closed file fails
+        assertNull(oft.refresh("c", START + 7000, false));
+    }
+
+    @Test
+    public void testCleanEarlierThanLastClean() throws Exception {
+
+        oft.clean(START + 1000);
+
+        // entries that are already due are expired by the next clean
+        oft.openFile("a", START + 500, CowPolicy.PolicyNoCow, false);
+        assertEquals(set("a"), fileIds(oft.clean(START + 1000)));
+    }
+
+    @Test
+    public void testCleanWritten() throws Exception {
+
+        oft.openFile("a", START + 100, CowPolicy.PolicyNoCow, true);
+        oft.openFile("b", START + 100, CowPolicy.PolicyNoCow, false);
+        oft.refresh("a", START + 1000, false);
+        oft.refresh("b", START + 1000, false);
+
+        // the write expiration time is not extended by a read
+        List<OpenFileTableEntry> written = oft.cleanWritten(START + 200);
+        assertEquals(1, written.size());
+        OpenFileTableEntry a = written.get(0);
+        assertEquals("a", a.getFileId());
+        assertTrue(a.isWrite());
+        assertFalse(a.isClosed());
+        assertFalse(oft.contains("a"));
+
+        // the file is opened again before the old entry expires
+        oft.openFile("a", START + 2000, CowPolicy.PolicyNoCow, false);
+
+        List<OpenFileTableEntry> closed = oft.clean(START + 1500);
+        assertEquals(set("a", "b"), fileIds(closed));
+        assertTrue(a.isClosed());
+
+        // the new entry remains open
+        assertTrue(oft.contains("a"));
+        assertNotNull(oft.getEntry("a"));
+        assertFalse(oft.getEntry("a").isClosed());
+        assertEquals(1, oft.getNumOpenFiles());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+
+        oft.openFile("a", START + 100, CowPolicy.PolicyNoCow, true);
+        oft.setDeleteOnClose("a");
+        assertTrue(oft.isDeleteOnClose("a"));
+
+        OpenFileTableEntry e = oft.close("a");
+        assertNotNull(e);
+        assertTrue(e.isClosed());
+        assertTrue(e.isDeleteOnClose());
+        assertNull(oft.close("a"));
+        assertEquals(0, oft.getNumOpenFiles());
+
+        // a closed file is neither expired nor versioned
+        assertTrue(oft.clean(START + 1000).isEmpty());
+        assertTrue(oft.cleanWritten(START + 1000).isEmpty());
+    }
+
+    @Test
+    public void testManyFiles() throws Exception {
+
+        final int numFiles = 100000;
+        OpenFileTable table = new OpenFileTable();
+
+        for (int i = 0; i < numFiles; i++)
+            table.openFile("file" + i, START + 30000 + i % 60000, CowPolicy.PolicyNoCow, i % 2 == 0);
+        for (int i = 0; i < numFiles; i++)
+            table.refresh("file" + i, START + 60000 + i % 60000, i % 4 == 0);
+
+        // expire the files in steps of one minute
+        int numClosed = 0;
+        long numWritten = 0;
+        for (long t = START + 60000; t <= START + 180000; t += 60000) {
+            numClosed += table.clean(t).size();
+            numWritten += table.cleanWritten(t).size();
+        }
+
+        assertEquals(numFiles, numClosed);
+        assertEquals(0, table.getNumOpenFiles());
+        // files that have not been written within the first minute: i % 4 == 2
+        // and i % 60000 < 30000
+        assertEquals(15000, numWritten);
+    }
+
+    private static Set<String> set(String... ids) {
+        Set<String> s = new HashSet<String>();
+        for (String id : ids)
+            s.add(id);
+        return s;
+    }
+
+}
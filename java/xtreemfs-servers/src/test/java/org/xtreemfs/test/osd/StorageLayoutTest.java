@@ -25,6 +25,7 @@ import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.checksums.ChecksumFactory;
 import org.xtreemfs.foundation.checksums.provider.JavaChecksumProvider;
@@ -35,9 +36,11 @@ import org.xtreemfs.osd.replication.ObjectSet;
 import org.xtreemfs.osd.storage.FileMetadata;
 import org.xtreemfs.osd.storage.HashStorageLayout;
 import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.osd.storage.ObjectFileCache;
 import org.xtreemfs.osd.storage.ObjectInformation;
 import org.xtreemfs.osd.storage.SingleFileStorageLayout;
 import org.xtreemfs.osd.storage.StorageLayout;
+import org.xtreemfs.osd.storage.UnsyncedWrite;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
 import org.xtreemfs.test.SetupUtils;
 import org.xtreemfs.test.TestHelper;
@@ -132,6 +135,147 @@ public class StorageLayoutTest {
         getFileIDListTest(layout);
     }
 
+    @Test
+    public void testHashStorageLayoutObjectFileCache() throws Exception {
+
+        HashStorageLayout layout = new HashStorageLayout(config, new MetadataCache());
+        ObjectFileCache cache = layout.getObjectFileCache();
+        final String fileId = "ABCDEFG:0002";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+
+        layout.writeObject(fileId, md, createData(64, 1), 0l, 0, 1l, false, false);
+        checkData(layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l), 64, 1);
+        checkData(layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l), 64, 1);
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getHits());
+
+        // a new version replaces the cached object file
+        layout.writeObject(fileId, md, createData(64, 2), 0l, 0, 2l, false, false);
+        assertEquals(0, cache.getSize());
+        assertEquals(ObjectInformation.ObjectStatus.DOES_NOT_EXIST,
+                layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l).getStatus());
+        checkData(layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 2l), 64, 2);
+
+        // truncate in place
+        layout.truncateObject(fileId, md, 0l, 32, 2l, false);
+        checkData(layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 2l), 32, 2);
+
+        // delete the object
+        layout.deleteObject(fileId, md, 0l, 2l);
+        assertEquals(ObjectInformation.ObjectStatus.DOES_NOT_EXIST,
+                layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 2l).getStatus());
+
+        // delete the file; the directory has to be created again
+        layout.writeObject(fileId, md, createData(64, 3), 1l, 0, 1l, false, false);
+        checkData(layout.readObject(fileId, md, 1l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l), 64, 3);
+        layout.deleteFile(fileId, true);
+        assertEquals(0, cache.getSize());
+        assertFalse(layout.fileExists(fileId));
+
+        md = layout.getFileMetadata(sp, fileId);
+        layout.writeObject(fileId, md, createData(64, 4), 1l, 0, 1l, false, false);
+        checkData(layout.readObject(fileId, md, 1l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l), 64, 4);
+
+        // closing the file releases its object files
+        layout.closeFile(fileId, md);
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * The data of a zero-copy read remains unchanged until the file region is
+     * released, even if the object is written or truncated in place.
+     */
+    @Test
+    public void testHashStorageLayoutZeroCopyRead() throws Exception {
+
+        HashStorageLayout layout = new HashStorageLayout(config, new MetadataCache());
+        final String fileId = "ABCDEFG:0003";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+
+        layout.writeObject(fileId, md, createData(64, 1), 0l, 0, 1l, false, false);
+        ObjectInformation oinfo = layout.readObject(fileId, md, 0l, 0, 64, 1l, true);
+        assertEquals(ObjectInformation.ObjectStatus.EXISTS, oinfo.getStatus());
+        FileRegion region = oinfo.getFileRegion();
+        assertNotNull(region);
+        assertEquals(64, region.getCount());
+
+        // modify the current version in place
+        layout.writeObject(fileId, md, createData(32, 2), 0l, 0, 1l, false, false);
+        layout.truncateObject(fileId, md, 0l, 48, 1l, false);
+
+        ReusableBuffer data = region.toBuffer();
+        region.release();
+        checkData(new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS, data, 64), 64, 1);
+
+        oinfo = layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l);
+        assertEquals(48, oinfo.getData().capacity());
+        for (int i = 0; i < 48; i++) {
+            assertEquals(i < 32 ? (byte) 2 : (byte) 1, oinfo.getData().get());
+        }
+        BufferPool.free(oinfo.getData());
+    }
+
+    /**
+     * The previous object file of a write with deferred sync is not deleted
+     * after the sync if a later write has created the same file again.
+     */
+    @Test
+    public void testHashStorageLayoutDeferredSync() throws Exception {
+
+        JavaChecksumProvider j = new JavaChecksumProvider();
+        ChecksumFactory.getInstance().addProvider(j);
+        SetupUtils.CHECKSUMS_ON = true;
+        OSDConfig configCSUM = SetupUtils.createOSD1Config();
+        SetupUtils.CHECKSUMS_ON = false;
+        HashStorageLayout layout = new HashStorageLayout(configCSUM, new MetadataCache());
+        final String fileId = "ABCDEFG:0004";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+
+        layout.writeObject(fileId, md, createData(64, 1), 0l, 0, 1l, true, false);
+
+        // replace the data and write the original data again, with the same
+        // version; only the checksum in the file name changes
+        UnsyncedWrite first = layout.writeObjectDeferredSync(fileId, md, createData(64, 2), 0l, 0, 1l, false);
+        UnsyncedWrite second = layout.writeObjectDeferredSync(fileId, md, createData(64, 1), 0l, 0, 1l, false);
+
+        first.sync();
+        first.synced(md);
+        second.sync();
+        second.synced(md);
+
+        checkData(layout.readObject(fileId, md, 0l, 0, StorageLayout.FULL_OBJECT_LENGTH, 1l), 64, 1);
+    }
+
+    private static ReusableBuffer createData(int length, int value) {
+        ReusableBuffer data = BufferPool.allocate(length);
+        for (int i = 0; i < length; i++) {
+            data.put((byte) value);
+        }
+        data.flip();
+        return data;
+    }
+
+    private static void checkData(ObjectInformation oinfo, int length, int value) {
+        assertEquals(ObjectInformation.ObjectStatus.EXISTS, oinfo.getStatus());
+        assertEquals(length, oinfo.getData().capacity());
+        for (int i = 0; i < length; i++) {
+            assertEquals((byte) value, oinfo.getData().get());
+        }
+        BufferPool.free(oinfo.getData());
+    }
+
     /**
      * @param layout
      * @throws IOException
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.stages.Stage.StageRequest;
+import org.xtreemfs.osd.stages.StorageScheduler;
+import org.xtreemfs.osd.stages.StorageScheduler.FileQueue;
+import org.xtreemfs.test.SchedulerWorkers;
+import org.xtreemfs.test.SetupUtils;
+import org.xtreemfs.test.TestHelper;
+
+public class StorageSchedulerTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private SchedulerWorkers workers;
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    /**
+     * Starts one worker per thread of the scheduler. The argument of each
+     * request is a {@link Runnable} that is executed.
+     */
+    private void startWorkers(final StorageScheduler scheduler) {
+        workers = new SchedulerWorkers() {
+            @Override
+            protected void processNext(int id) throws InterruptedException {
+                FileQueue fq = scheduler.take(id);
+                int processed = 0;
+                StageRequest rq;
+                while ((rq = scheduler.next(fq, processed++)) != null)
+                    ((Runnable) rq.getArgs()[0]).run();
+            }
+        };
+        workers.start(scheduler.getNumThreads());
+    }
+
+    private void stopWorkers() throws InterruptedException {
+        workers.stop();
+    }
+
+    private static StageRequest request(Runnable r, OSDRequest rq) {
+        return new StageRequest(0, new Object[] { r }, rq, null);
+    }
+
+    /**
+     * Returns a file ID different from the given one that is assigned to the
+     * same thread.
+     */
+    private static String collidingFileId(StorageScheduler scheduler, String fileId) {
+        for (int i = 0;; i++) {
+            String other = "file" + i;
+            if (!other.equals(fileId) && scheduler.getHomeThread(other) == scheduler.getHomeThread(fileId))
+                return other;
+        }
+    }
+
+    /**
+     * Requests for the same file must be executed one after another and in
+     * the order in which they were enqueued, no matter which thread executes
+     * them.
+     */
+    @Test
+    public void testPerFileOrdering() throws Exception {
+        final int numFiles = 20;
+        final int numRequests = 10000;
+
+        StorageScheduler scheduler = new StorageScheduler(4, Integer.MAX_VALUE, true);
+        final int[] lastSeqNo = new int[numFiles];
+        final AtomicBoolean[] running = new AtomicBoolean[numFiles];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(numRequests);
+        for (int i = 0; i < numFiles; i++)
+            running[i] = new AtomicBoolean();
+
+        startWorkers(scheduler);
+        Random rnd = new Random(42);
+        int[] seqNos = new int[numFiles];
+        for (int i = 0; i < numRequests; i++) {
+            final int file = rnd.nextInt(numFiles);
+            final int seqNo = ++seqNos[file];
+            scheduler.enqueue("file" + file, request(new Runnable() {
+                public void run() {
+                    if (!running[file].compareAndSet(false, true))
+                        errors.incrementAndGet();
+                    if (lastSeqNo[file] != seqNo - 1)
+                        errors.incrementAndGet();
+                    lastSeqNo[file] = seqNo;
+                    if (seqNo % 7 == 0)
+                        Thread.yield();
+                    running[file].set(false);
+                    done.countDown();
+                }
+            }, null));
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        stopWorkers();
+        assertEquals(0, errors.get());
+        assertEquals(0, scheduler.getQueueLength());
+    }
+
+    /**
+     * A file that is assigned to a busy thread has to be processed by an idle
+     * thread.
+     */
+    @Test
+    public void testWorkStealing() throws Exception {
+        StorageScheduler scheduler = new StorageScheduler(2, Integer.MAX_VALUE, true);
+        final String hotFile = "file0";
+        final String otherFile = collidingFileId(scheduler, hotFile);
+        final int home = scheduler.getHomeThread(hotFile);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherDone = new CountDownLatch(1);
+
+        startWorkers(scheduler);
+        scheduler.enqueue(hotFile, request(new Runnable() {
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        // the home thread is busy with hotFile, so the other thread has to
+        // take over otherFile
+        scheduler.enqueue(otherFile, request(new Runnable() {
+            public void run() {
+                otherDone.countDown();
+            }
+        }, null));
+        assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getNumStolen());
+        assertEquals(0, scheduler.getQueueLength(home));
+
+        release.countDown();
+        stopWorkers();
+    }
+
+    @Test
+    public void testNoWorkStealing() throws Exception {
+        StorageScheduler scheduler = new StorageScheduler(2, Integer.MAX_VALUE, false);
+        final String hotFile = "file0";
+        final String otherFile = collidingFileId(scheduler, hotFile);
+        final int home = scheduler.getHomeThread(hotFile);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherDone = new CountDownLatch(1);
+
+        startWorkers(scheduler);
+        scheduler.enqueue(hotFile, request(new Runnable() {
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        scheduler.enqueue(otherFile, request(new Runnable() {
+            public void run() {
+                otherDone.countDown();
+            }
+        }, null));
+        assertFalse(otherDone.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduler.getQueueLength(home));
+        assertEquals(0, scheduler.getQueueLength(1 - home));
+
+        release.countDown();
+        assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getNumStolen());
+        stopWorkers();
+    }
+
+    /**
+     * External requests are rejected if the queue of the thread is full,
+     * internal requests are always accepted.
+     */
+    @Test
+    public void testMaxQueueLength() throws Exception {
+        StorageScheduler scheduler = new StorageScheduler(2, 2, true);
+        String file = "file0";
+        String otherFile = collidingFileId(scheduler, file);
+        int home = scheduler.getHomeThread(file);
+
+        Runnable nop = new Runnable() {
+            public void run() {
+            }
+        };
+        assertTrue(scheduler.enqueue(file, request(nop, new OSDRequest(null))));
+        assertTrue(scheduler.enqueue(otherFile, request(nop, new OSDRequest(null))));
+        assertFalse(scheduler.enqueue(file, request(nop, new OSDRequest(null))));
+        assertTrue(scheduler.enqueue(file, request(nop, null)));
+        assertEquals(3, scheduler.getQueueLength(home));
+
+        // process the requests without workers
+        FileQueue fq = scheduler.take(home);
+        assertEquals(file, fq.getFileId());
+        assertNotNull(scheduler.next(fq, 0));
+        assertNotNull(scheduler.next(fq, 1));
+        assertNull(scheduler.next(fq, 2));
+
+        fq = scheduler.take(home);
+        assertEquals(otherFile, fq.getFileId());
+        assertNotNull(scheduler.next(fq, 0));
+        assertNull(scheduler.next(fq, 1));
+        assertEquals(0, scheduler.getQueueLength());
+    }
+
+    /**
+     * Files that are all assigned to the same thread, e.g. the most popular
+     * files of a skewed workload, are processed by all threads in parallel.
+     * Each request only completes once all files are being processed at the
+     * same time.
+     */
+    @Test
+    public void testSkewedPopularity() throws Exception {
+        final int numThreads = 4;
+        StorageScheduler scheduler = new StorageScheduler(numThreads, Integer.MAX_VALUE, true);
+
+        // files that are all assigned to the home thread of "file0"
+        String[] files = new String[numThreads];
+        for (int i = 0, n = 0; n < numThreads; i++) {
+            String file = "file" + i;
+            if (scheduler.getHomeThread(file) == scheduler.getHomeThread("file0"))
+                files[n++] = file;
+        }
+
+        final CountDownLatch running = new CountDownLatch(numThreads);
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for (String file : files) {
+            scheduler.enqueue(file, request(new Runnable() {
+                public void run() {
+                    running.countDown();
+                    try {
+                        if (running.await(10, TimeUnit.SECONDS))
+                            done.countDown();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, null));
+        }
+
+        startWorkers(scheduler);
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertEquals(numThreads - 1, scheduler.getNumStolen());
+        assertEquals(0, scheduler.getQueueLength());
+        stopWorkers();
+    }
+}
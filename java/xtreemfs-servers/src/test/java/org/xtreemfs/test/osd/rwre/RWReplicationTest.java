@@ -12,6 +12,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -50,6 +51,8 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionRangeDigest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
 import org.xtreemfs.test.SetupUtils;
 import org.xtreemfs.test.TestEnvironment;
@@ -233,6 +236,59 @@ public class RWReplicationTest {
     }
 
 
+    @Test
+    public void testChainReplication() throws Exception {
+        Capability cap = new Capability(fileId, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber() | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 60, System.currentTimeMillis(), "", 0, false, SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0, configs[0].getCapabilitySecret());
+        List<Replica> rlist = new LinkedList();
+        for (OSDConfig osd : this.configs) {
+            Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 128)).setReplicationFlags(0).addOsdUuids(osd.getUUID().toString()).build();
+            rlist.add(r);
+        }
+
+        XLocSet locSet = XLocSet.newBuilder().setReadOnlyFileSize(0).setReplicaUpdatePolicy(ReplicaUpdatePolicies.REPL_UPDATE_PC_CHAIN).setVersion(1).addAllReplicas(rlist).build();
+        FileCredentials fc = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(locSet).build();
+
+        final OSDServiceClient client = testEnv.getOSDClient();
+
+        final InetSocketAddress osd1 = new InetSocketAddress("localhost",configs[0].getPort());
+
+        // the last OSD of the chain
+        final InetSocketAddress osd3 = new InetSocketAddress("localhost",configs[2].getPort());
+
+        ObjectData objdata = ObjectData.newBuilder().setChecksum(0).setZeroPadding(0).setInvalidChecksumOnOsd(false).build();
+        ReusableBuffer rb = BufferPool.allocate(1024);
+        rb.put("YaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYaggaYagga".getBytes());
+        rb.limit(rb.capacity());
+        rb.position(0);
+
+        RPCResponse<OSDWriteResponse> r = client.write(osd1, RPCAuthentication.authNone, RPCAuthentication.userService,
+                    fc, fileId, 0, 0, 0, 0, objdata, rb);
+        r.get();
+        r.freeBuffers();
+
+        // the write is acknowledged only after it has reached the end of the chain
+        RPCResponse<ReplicaStatus> r2 = client.xtreemfs_rwr_status(osd3, RPCAuthentication.authNone, RPCAuthentication.userService,
+                    fc, fileId, 0, 0, Collections.<ObjectVersionRangeDigest> emptyList());
+        ReplicaStatus status = r2.get();
+        r2.freeBuffers();
+        assertEquals(1, status.getMaxObjVersion());
+        assertEquals(1024, status.getFileSize());
+
+        XCap newCap = fc.getXcap().toBuilder().setTruncateEpoch(1).build();
+        fc = fc.toBuilder().setXcap(newCap).build();
+
+        RPCResponse r3 = client.truncate(osd1, RPCAuthentication.authNone, RPCAuthentication.userService,
+                    fc, fileId, 128*1024*2);
+        r3.get();
+        r3.freeBuffers();
+
+        r2 = client.xtreemfs_rwr_status(osd3, RPCAuthentication.authNone, RPCAuthentication.userService,
+                    fc, fileId, 0, 0, Collections.<ObjectVersionRangeDigest> emptyList());
+        status = r2.get();
+        r2.freeBuffers();
+        assertEquals(128*1024*2, status.getFileSize());
+    }
+
     @Test
     public void testReset() throws Exception {
         Capability cap = new Capability(fileId, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber() | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 60, System.currentTimeMillis(), "", 0, false, SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0, configs[0].getCapabilitySecret());
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2011 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.test.osd.rwre;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.osd.rwre.ObjectVersionDigest;
+import org.xtreemfs.osd.rwre.ResetFetchWindow;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersion;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionRangeDigest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.TruncateLog;
+import org.xtreemfs.test.TestHelper;
+
+public class ReplicaResetTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private static List<ObjectVersion> versions(long numObjects, long version) {
+        List<ObjectVersion> list = new ArrayList<ObjectVersion>();
+        for (long i = 0; i < numObjects; i++)
+            list.add(ObjectVersion.newBuilder().setObjectNumber(i).setObjectVersion(version).build());
+        return list;
+    }
+
+    private static ReplicaStatus status(List<ObjectVersion> versions) {
+        return ReplicaStatus.newBuilder().setTruncateEpoch(0).setFileSize(0).setMaxObjVersion(0)
+                .setPrimaryEpoch(0).setTruncateLog(TruncateLog.getDefaultInstance()).addAllObjectVersions(versions)
+                .build();
+    }
+
+    @Test
+    public void testRangeSize() throws Exception {
+        assertEquals(ObjectVersionDigest.MIN_RANGE_SIZE, ObjectVersionDigest.getRangeSize(0));
+        assertEquals(ObjectVersionDigest.MIN_RANGE_SIZE, ObjectVersionDigest.getRangeSize(1000));
+        assertEquals(977, ObjectVersionDigest.getRangeSize(1000000));
+    }
+
+    @Test
+    public void testMatchingRanges() throws Exception {
+
+        final int rangeSize = 100;
+        List<ObjectVersion> local = versions(1000, 1);
+
+        // the remote replica has a newer version of object 250 and an
+        // additional object 1050; it misses object 999
+        List<ObjectVersion> remote = versions(999, 1);
+        remote.set(250, ObjectVersion.newBuilder().setObjectNumber(250).setObjectVersion(2).build());
+        remote.add(ObjectVersion.newBuilder().setObjectNumber(1050).setObjectVersion(1).build());
+
+        List<ObjectVersionRangeDigest> digests = new ObjectVersionDigest(rangeSize, local).getRangeDigests();
+        assertEquals(10, digests.size());
+
+        Set<Long> matching = new ObjectVersionDigest(rangeSize, remote).getMatchingRanges(digests);
+        assertEquals(8, matching.size());
+        assertFalse(matching.contains(2L));
+        assertFalse(matching.contains(9L));
+
+        // the digests do not depend on the order of the objects
+        List<ObjectVersion> reversed = new ArrayList<ObjectVersion>();
+        for (int i = local.size() - 1; i >= 0; i--)
+            reversed.add(local.get(i));
+        assertEquals(10, new ObjectVersionDigest(rangeSize, reversed).getMatchingRanges(digests).size());
+
+        // the remote replica only sends the object versions of differing ranges
+        List<ObjectVersion> sent = new ArrayList<ObjectVersion>();
+        for (ObjectVersion ov : remote)
+            if (!matching.contains(ov.getObjectNumber() / rangeSize))
+                sent.add(ov);
+        assertEquals(100 + 99 + 1, sent.size());
+
+        ReplicaStatus expanded = ObjectVersionDigest.expand(status(sent).toBuilder().addAllMatchingRanges(matching)
+                .build(), status(local), rangeSize);
+        assertEquals(0, expanded.getMatchingRangesCount());
+
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (ObjectVersion ov : remote)
+            expected.put(ov.getObjectNumber(), ov.getObjectVersion());
+        Map<Long, Long> actual = new HashMap<Long, Long>();
+        for (ObjectVersion ov : expanded.getObjectVersionsList())
+            actual.put(ov.getObjectNumber(), ov.getObjectVersion());
+        assertEquals(expected, actual);
+        assertEquals(remote.size(), expanded.getObjectVersionsCount());
+
+        // a status without matching ranges is not modified
+        ReplicaStatus full = status(remote);
+        assertSame(full, ObjectVersionDigest.expand(full, status(local), rangeSize));
+    }
+
+    @Test
+    public void testFetchWindow() throws Exception {
+
+        final long objSize = 128 * 1024;
+        ResetFetchWindow window = new ResetFetchWindow(4 * objSize, 16 * objSize);
+
+        // one fetch is always allowed
+        assertTrue(window.canFetch(8 * objSize));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(window.canFetch(objSize));
+            window.fetchStarted(objSize);
+        }
+        assertFalse(window.canFetch(objSize));
+
+        // fast fetches open the window up to its maximum
+        for (int i = 0; i < 100; i++) {
+            window.fetchCompleted(objSize, 1000000, true);
+            window.fetchStarted(objSize);
+        }
+        assertEquals(16 * objSize, window.getWindow());
+        assertEquals(4 * objSize, window.getBytesInFlight());
+
+        // rising latencies shrink it again
+        for (int i = 0; i < 100; i++) {
+            window.fetchCompleted(objSize, 10000000, true);
+            window.fetchStarted(objSize);
+        }
+        assertEquals(4 * objSize, window.getWindow());
+
+        // failures halve the window, but not below its minimum
+        window.fetchCompleted(objSize, 1000000, false);
+        assertEquals(4 * objSize, window.getWindow());
+        assertEquals(3, window.getNumInFlight());
+    }
+
+}